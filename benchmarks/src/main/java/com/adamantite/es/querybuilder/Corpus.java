@@ -0,0 +1,54 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fixture corpus in test/fixtures/es-src, loaded through FixtureJar so the benchmarks run
+ * without an elasticsearch checkout.
+ */
+class Corpus {
+
+    final ClassLoader classLoader;
+    final Map<String, QueryDSLType> queries;
+    final Map<String, QueryDSLType> filters;
+
+    /**
+     * The declared fields of every builder in the corpus.
+     */
+    final List<Field> fields = new ArrayList<Field>();
+
+    Corpus() throws IOException, ClassNotFoundException {
+        String dir = FixtureJar.esQuerybuilderDir();
+        classLoader = FixtureJar.classLoader(FixtureJar.build());
+        QueryDSLTypeExtractor extractor = new QueryDSLTypeExtractor(QueryDSLTypeExtractor.DEFAULT_VERSION, dir, classLoader);
+        queries = extractor.parseQueries();
+        filters = extractor.parseFilters();
+        for (String f : new File(dir).list()) {
+            if (!f.endsWith("Builder.java")) continue;
+            Class<?> c = Class.forName(FixtureJar.QUERY_PACKAGE + f.replace(".java", ""), false, classLoader);
+            for (Field field : c.getDeclaredFields()) {
+                if (!field.isSynthetic()) fields.add(field);
+            }
+        }
+    }
+
+    /**
+     * The extractor reports unknown fields on System.out, which would otherwise flood the benchmark output.
+     */
+    static void silenceDiagnostics() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override public void write(int b) {
+            }
+
+            @Override public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+}
@@ -0,0 +1,67 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-builder cost of QueryDSLTypeExtractor.parse, and of the source scan on its own compared with the
+ * regex cascade it replaced.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtractorBenchmark {
+
+    @Param({"BoolQueryBuilder.java", "CommonTermsQueryBuilder.java", "MoreLikeThisQueryBuilder.java",
+        "PrefixQueryBuilder.java", "GeoDistanceFilterBuilder.java", "TermsFilterBuilder.java"})
+    public String builder;
+
+    private File dir;
+    private QueryDSLTypeExtractor extractor;
+    private QueryDSLType.TYPE type;
+    private String typePrefix;
+    private String source;
+
+    @Setup
+    public void setup() throws IOException {
+        Corpus.silenceDiagnostics();
+        dir = new File(FixtureJar.esQuerybuilderDir());
+        extractor = new QueryDSLTypeExtractor(QueryDSLTypeExtractor.DEFAULT_VERSION, dir.getPath(),
+            FixtureJar.classLoader(FixtureJar.build()));
+        type = builder.endsWith("FilterBuilder.java") ? QueryDSLType.TYPE.FILTER : QueryDSLType.TYPE.QUERY;
+        typePrefix = type == QueryDSLType.TYPE.QUERY ? "Query" : "Filter";
+        source = BuilderSourceScannerTest.read(new File(dir, builder));
+    }
+
+    @Benchmark
+    public QueryDSLType parse() throws ClassNotFoundException {
+        return extractor.parse(dir, builder, typePrefix, type);
+    }
+
+    @Benchmark
+    public List<BuilderSourceScanner.Match> scan() {
+        return BuilderSourceScanner.scan(source, 0);
+    }
+
+    @Benchmark
+    public List<BuilderSourceScanner.Match> regexCascade() {
+        return LegacyRegexCascade.scan(source);
+    }
+}
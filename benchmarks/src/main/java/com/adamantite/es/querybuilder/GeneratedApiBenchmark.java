@@ -0,0 +1,134 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the same nested query with the api generated by {@link JavaBuilderGenerator} into a reused
+ * {@link JsonByteBuffer}, with an XContentBuilder, and as maps written by an XContentBuilder. Run with -prof gc
+ * to compare the bytes allocated per query.
+ *
+ * The generated api is that of the fixture model, generated and compiled at setup, together with a class which
+ * builds the query with it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeneratedApiBenchmark {
+
+    static final String QUERY_SOURCE = "package " + GeneratedSources.PACKAGE + ";\n"
+            + "import com.adamantite.es.querybuilder.GeneratedDSLType;\n"
+            + "import com.adamantite.es.querybuilder.JsonByteBuffer;\n"
+            + "public class BenchmarkQuery implements GeneratedDSLType {\n"
+            + "    public void writeTo(JsonByteBuffer out) {\n"
+            + "        new BoolQuery()\n"
+            + "            .must(new TermQuery(\"user\").boost(2f))\n"
+            + "            .must(new MatchQuery(\"message\").query(\"this is a test\").operator(GeneratedDSLType.Operator.AND))\n"
+            + "            .should(new PrefixQuery(\"user\").prefix(\"ki\"))\n"
+            + "            .boost(1.5f).minimumShouldMatch(\"1\")\n"
+            + "            .writeTo(out);\n"
+            + "    }\n"
+            + "}\n";
+
+    /**
+     * Builds and writes the query each time it's written.
+     */
+    private GeneratedDSLType generated;
+
+    private final JsonByteBuffer buffer = new JsonByteBuffer();
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    @Setup
+    public void setup() throws Exception {
+        Corpus.silenceDiagnostics();
+        GeneratedSources sources = GeneratedSources.forFixtures();
+        sources.add("BenchmarkQuery", QUERY_SOURCE);
+        generated = (GeneratedDSLType) sources.compile().loadClass(GeneratedSources.PACKAGE + ".BenchmarkQuery").getDeclaredConstructor().newInstance();
+
+        generatedApi();
+        String expected = buffer.toString();
+        xcontentBuilder();
+        if (!expected.equals(out.toString("UTF-8"))) throw new IllegalStateException(expected + " != " + out.toString("UTF-8"));
+        xcontentMaps();
+        if (!expected.equals(out.toString("UTF-8"))) throw new IllegalStateException(expected + " != " + out.toString("UTF-8"));
+    }
+
+    @Benchmark
+    public int generatedApi() {
+        generated.writeTo(buffer.reset());
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int xcontentBuilder() throws IOException {
+        out.reset();
+        XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out);
+        builder.startObject().startObject("bool");
+        builder.field("boost", 1.5f);
+        builder.field("minimum_should_match", "1");
+        builder.startArray("must");
+        builder.startObject().startObject("term").startObject("user").field("boost", 2f).endObject().endObject().endObject();
+        builder.startObject().startObject("match").startObject("message")
+                .field("operator", "AND").field("query", "this is a test").endObject().endObject().endObject();
+        builder.endArray();
+        builder.startArray("should");
+        builder.startObject().startObject("prefix").startObject("user").field("prefix", "ki").endObject().endObject().endObject();
+        builder.endArray();
+        builder.endObject().endObject();
+        builder.close();
+        return out.size();
+    }
+
+    @Benchmark
+    public int xcontentMaps() throws IOException {
+        Map<String, Object> bool = new LinkedHashMap<String, Object>();
+        bool.put("boost", 1.5f);
+        bool.put("minimum_should_match", "1");
+        List<Object> must = new ArrayList<Object>();
+        must.add(named("term", "user", params("boost", 2f)));
+        Map<String, Object> match = params("operator", "AND");
+        match.put("query", "this is a test");
+        must.add(named("match", "message", match));
+        bool.put("must", must);
+        bool.put("should", Arrays.<Object>asList(named("prefix", "user", params("prefix", "ki"))));
+
+        out.reset();
+        XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out);
+        builder.map(params("bool", bool));
+        builder.close();
+        return out.size();
+    }
+
+    private static Map<String, Object> params(String name, Object value) {
+        Map<String, Object> params = new LinkedHashMap<String, Object>();
+        params.put(name, value);
+        return params;
+    }
+
+    private static Map<String, Object> named(String dslName, String field, Map<String, Object> params) {
+        return params(dslName, params(field, params));
+    }
+}
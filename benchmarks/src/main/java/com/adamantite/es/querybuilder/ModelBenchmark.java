@@ -0,0 +1,92 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of classifying builder fields with QueryDSLType.addField, and of emitting the model as JSON.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ModelBenchmark {
+
+    private Corpus corpus;
+
+    @Setup
+    public void setup() throws IOException, ClassNotFoundException {
+        Corpus.silenceDiagnostics();
+        corpus = new Corpus();
+    }
+
+    /**
+     * Classifies every declared field of every builder in the corpus.
+     */
+    @Benchmark
+    public QueryDSLType addField() {
+        QueryDSLType type = new QueryDSLType("benchmark", QueryDSLType.TYPE.QUERY);
+        for (Field field : corpus.fields) {
+            type.addField(field);
+        }
+        return type;
+    }
+
+    @Benchmark
+    public String toJSONPretty() throws IOException {
+        return QueryDSLTypeExtractor.toJSON(corpus.queries, corpus.filters, false, true);
+    }
+
+    @Benchmark
+    public String toJSONCompact() throws IOException {
+        return QueryDSLTypeExtractor.toJSON(corpus.queries, corpus.filters, false, false);
+    }
+
+    /**
+     * The pretty model streamed with ModelWriter to a stream that discards it, to compare with toJSONPretty,
+     * which keeps the whole document in memory.
+     */
+    @Benchmark
+    public ModelWriter streamPretty() throws IOException {
+        ModelWriter writer = new ModelWriter(new OutputStream() {
+            @Override public void write(int b) {
+            }
+
+            @Override public void write(byte[] b, int off, int len) {
+            }
+        }, false, true);
+        writer.write(QueryDSLType.TYPE.QUERY, corpus.queries);
+        writer.write(QueryDSLType.TYPE.FILTER, corpus.filters);
+        writer.close();
+        return writer;
+    }
+
+    /**
+     * Just the per-type loop of toJSON, for the query half of the model.
+     */
+    @Benchmark
+    public XContentBuilder output() throws IOException {
+        XContentBuilder builder = XContentBuilder.builder(JsonXContent.jsonXContent);
+        builder.startObject();
+        QueryDSLTypeExtractor.output(corpus.queries, false, builder);
+        builder.endObject();
+        return builder;
+    }
+}
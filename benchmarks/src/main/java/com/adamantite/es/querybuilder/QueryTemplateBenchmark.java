@@ -0,0 +1,74 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A hot query shape rendered from a {@link QueryTemplateCache} with new values, against canonicalizing the query
+ * every time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryTemplateBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private QueryCanonicalizer canonicalizer;
+
+    private final QueryTemplateCache cache = new QueryTemplateCache(100);
+
+    private QueryCanonicalizer.Fingerprint fingerprint;
+
+    private List<Object> values;
+
+    private final JsonByteBuffer buffer = new JsonByteBuffer();
+
+    @Setup
+    public void setup() throws IOException, ClassNotFoundException {
+        Corpus.silenceDiagnostics();
+        Corpus corpus = new Corpus();
+        canonicalizer = new QueryCanonicalizer(CompiledModel.compile(corpus.queries, corpus.filters));
+        QueryCanonicalizer.Canonical canonical = canonicalizer.canonicalize(QueryValidatorBenchmark.VALID, QueryDSLType.TYPE.QUERY);
+        fingerprint = cache.put(canonical).getFingerprint();
+        values = Arrays.<Object>asList(canonical.getValues().toArray());
+
+        cached();
+        if (!buffer.toString().equals(canonical.getJson())) throw new IllegalStateException(buffer + " != " + canonical.getJson());
+    }
+
+    @Benchmark
+    public int cached() {
+        cache.render(fingerprint, values, buffer.reset());
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int canonicalize() throws IOException {
+        QueryCanonicalizer.Canonical canonical = canonicalizer.canonicalize(QueryValidatorBenchmark.VALID, QueryDSLType.TYPE.QUERY);
+        canonical.getTemplate().writeTo(buffer.reset(), canonical.getValues());
+        return buffer.size();
+    }
+
+    @Benchmark
+    public String fingerprint() throws IOException {
+        return canonicalizer.canonicalize(new String(QueryValidatorBenchmark.VALID, UTF_8), QueryDSLType.TYPE.QUERY).getFingerprint().toString();
+    }
+}
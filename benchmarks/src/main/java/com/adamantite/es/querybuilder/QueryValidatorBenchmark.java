@@ -0,0 +1,75 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of QueryValidator on a typical nested query, valid and with violations, and of QueryCostAnalyzer
+ * with the default rules, which are loaded from the class path.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryValidatorBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final byte[] VALID = ("{\"bool\":{\"must\":[{\"term\":{\"user\":\"kimchy\"}},{\"match\":{\"message\":{\"query\":\"this is a test\",\"operator\":\"and\"}}}],"
+            + "\"should\":[{\"prefix\":{\"user\":\"ki\"}},{\"common\":{\"body\":{\"query\":\"nelly\",\"minimum_should_match\":{\"low_freq\":2}}}}],"
+            + "\"boost\":1.5,\"minimum_should_match\":1}}").getBytes(UTF_8);
+
+    static final byte[] INVALID = ("{\"bool\":{\"must\":[{\"term\":{\"user\":\"kimchy\",\"group\":\"admin\"}},{\"geo_distance\":{\"pin\":[1,2]}}],"
+            + "\"should\":[{\"prefix\":{\"user\":\"ki\"}},{\"match\":{\"message\":{\"slop\":1.5}}}],"
+            + "\"boost\":\"high\",\"minimum_should_match\":1}}").getBytes(UTF_8);
+
+    private Corpus corpus;
+
+    private QueryValidator validator;
+
+    private QueryCostAnalyzer costAnalyzer;
+
+    @Setup
+    public void setup() throws IOException, ClassNotFoundException {
+        Corpus.silenceDiagnostics();
+        corpus = new Corpus();
+        CompiledModel model = CompiledModel.compile(corpus.queries, corpus.filters);
+        validator = new QueryValidator(model);
+        costAnalyzer = new QueryCostAnalyzer(model);
+    }
+
+    @Benchmark
+    public List<QueryValidator.Violation> valid() throws IOException {
+        return validator.validate(VALID, QueryDSLType.TYPE.QUERY);
+    }
+
+    @Benchmark
+    public List<QueryValidator.Violation> invalid() throws IOException {
+        return validator.validate(INVALID, QueryDSLType.TYPE.QUERY);
+    }
+
+    @Benchmark
+    public QueryCostAnalyzer.Report cost() throws IOException {
+        return costAnalyzer.analyze(VALID, QueryDSLType.TYPE.QUERY);
+    }
+
+    @Benchmark
+    public CompiledModel compile() {
+        return CompiledModel.compile(corpus.queries, corpus.filters);
+    }
+}
@@ -0,0 +1,45 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of QueryDSLTypeExtractor.resolveParamName for a Fields constant, and for an expression that
+ * isn't one and is returned as is.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResolveParamNameBenchmark {
+
+    @Param({"MoreLikeThisQueryParser.Fields.LIKE_TEXT.getPreferredName()", "name"})
+    public String expression;
+
+    private ReflectionCache reflection;
+
+    @Setup
+    public void setup() throws IOException {
+        Corpus.silenceDiagnostics();
+        reflection = new ReflectionCache(FixtureJar.classLoader(FixtureJar.build()));
+    }
+
+    @Benchmark
+    public String resolveParamName() {
+        return QueryDSLTypeExtractor.resolveParamName(expression, reflection);
+    }
+}
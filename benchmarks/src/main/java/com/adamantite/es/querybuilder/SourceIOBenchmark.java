@@ -0,0 +1,91 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and scanning the builder sources line by line compared with {@link MappedSource}, and loading every
+ * builder and parser class with a URLClassLoader compared with an {@link IndexedJarClassLoader}, i.e. -io stream
+ * against -io mapped. Both loaders load the classes from the fixture jar, not from the elasticsearch jar on the
+ * class path, see FixtureJar.withoutFixtureClasses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SourceIOBenchmark {
+
+    private File jar;
+    private List<File> sources = new ArrayList<File>();
+    private List<String> classNames = new ArrayList<String>();
+    private ClassLoader parent;
+
+    @Setup
+    public void setup() throws IOException, ClassNotFoundException {
+        jar = FixtureJar.build();
+        for (File f : new File(FixtureJar.esQuerybuilderDir()).listFiles()) {
+            if (!f.getName().endsWith(".java")) continue;
+            if (f.getName().endsWith("Builder.java")) sources.add(f);
+            classNames.add(FixtureJar.QUERY_PACKAGE + f.getName().replace(".java", ""));
+        }
+        parent = FixtureJar.withoutFixtureClasses();
+        ClassLoader classLoader = new IndexedJarClassLoader(new File[]{jar}, parent);
+        if (Class.forName(classNames.get(0), false, classLoader).getClassLoader() != classLoader) {
+            throw new IllegalStateException(classNames.get(0) + " isn't loaded from " + jar);
+        }
+    }
+
+    @Benchmark
+    public int scanReadLines() throws IOException {
+        int n = 0;
+        for (File f : sources) {
+            n += BuilderSourceScanner.scan(MappedSource.readLines(f), 0).size();
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int scanMapped() throws IOException {
+        int n = 0;
+        for (File f : sources) {
+            n += BuilderSourceScanner.scan(MappedSource.read(f), 0).size();
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int loadUrlClassLoader() throws IOException, ClassNotFoundException {
+        return load(new URLClassLoader(new URL[]{jar.toURI().toURL()}, parent));
+    }
+
+    @Benchmark
+    public int loadIndexedJarClassLoader() throws IOException, ClassNotFoundException {
+        return load(new IndexedJarClassLoader(new File[]{jar}, parent));
+    }
+
+    private int load(ClassLoader classLoader) throws ClassNotFoundException {
+        int n = 0;
+        for (String name : classNames) {
+            n += Class.forName(name, false, classLoader).getDeclaredFields().length;
+        }
+        return n;
+    }
+}
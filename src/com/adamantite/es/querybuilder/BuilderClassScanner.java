@@ -0,0 +1,950 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads the builder and parser classes straight out of an elasticsearch jar, so that a model can be extracted
+ * without the elasticsearch source tree, and without loading or initializing any elasticsearch class.
+ *
+ * The doXContent method of a builder is interpreted symbolically: its bytecode is walked once, tracking which
+ * stack values are string constants, fields of the builder or ParseField constants, and every call on the
+ * XContentBuilder is reported as the {@link BuilderSourceScanner.Idiom} that the same call would match in the
+ * source, e.g. builder.field("boost", boost) as FIELD(boost, boost). The params are then resolved by
+ * QueryDSLTypeExtractor exactly as for a scanned source. Parser NAME constants are read from the constant pool,
+ * and ParseField preferred names from the static initializer that creates them.
+ *
+ * The jar is mapped rather than opened as a ZipFile, see {@link MappedJar}. Jar entries, parsed classes and
+ * preferred names are each read once. Safe to share between the threads of a parallel extraction.
+ */
+public class BuilderClassScanner implements Closeable {
+
+    public static final String QUERY_PACKAGE = "org/elasticsearch/index/query/";
+
+    private static final String XCONTENT_BUILDER = "/XContentBuilder";
+    private static final String PARSE_FIELD = "/ParseField;";
+
+    /**
+     * The result of scanning a builder.
+     */
+    public static class Result {
+        /**
+         * builder.startObject(name); was found, the matches before it aren't reported
+         */
+        final boolean namedObject;
+
+        /**
+         * builder.startArray(name); was found, and builder.startObject(name); wasn't
+         */
+        final boolean namedArray;
+
+        /**
+         * Ordered by idiom and then by position, as {@link BuilderSourceScanner#scan(CharSequence, int)} orders them
+         */
+        final List<BuilderSourceScanner.Match> matches;
+
+        Result(boolean namedObject, boolean namedArray, List<BuilderSourceScanner.Match> matches) {
+            this.namedObject = namedObject;
+            this.namedArray = namedArray;
+            this.matches = matches;
+        }
+    }
+
+    private final MappedJar jar;
+
+    private final ConcurrentMap<String, byte[]> bytes = new ConcurrentHashMap<String, byte[]>();
+
+    /**
+     * The preferred names of the ParseField constants of a class, keyed by internal class name and then field name
+     */
+    private final ConcurrentMap<String, Map<String, String>> preferredNames = new ConcurrentHashMap<String, Map<String, String>>();
+
+    private final List<String> queryClasses;
+
+    public BuilderClassScanner(File jar) throws IOException {
+        this(new MappedJar(jar));
+    }
+
+    public BuilderClassScanner(MappedJar jar) {
+        this.jar = jar;
+        List<String> names = new ArrayList<String>();
+        for (String name : jar.names()) {
+            if (!name.startsWith(QUERY_PACKAGE) || !name.endsWith(".class")) continue;
+            String simpleName = name.substring(QUERY_PACKAGE.length(), name.length() - ".class".length());
+            if (simpleName.indexOf('/') < 0 && simpleName.indexOf('$') < 0) names.add(simpleName);
+        }
+        Collections.sort(names);
+        this.queryClasses = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * The top level classes in org.elasticsearch.index.query whose name ends with suffix, e.g. QueryBuilder, sorted.
+     */
+    public List<String> list(String suffix) {
+        List<String> result = new ArrayList<String>();
+        for (String name : queryClasses) {
+            if (name.endsWith(suffix)) result.add(name);
+        }
+        return result;
+    }
+
+    public boolean contains(String simpleName) {
+        return Collections.binarySearch(queryClasses, simpleName) >= 0;
+    }
+
+    /**
+     * The class file of a class in org.elasticsearch.index.query, e.g. TermQueryBuilder. Null if the jar doesn't have it.
+     */
+    public byte[] getBytes(String simpleName) throws IOException {
+        return read(QUERY_PACKAGE + simpleName);
+    }
+
+    public ClassFile getClassFile(String simpleName) throws IOException {
+        byte[] b = getBytes(simpleName);
+        if (b == null) throw new IOException("No class " + QUERY_PACKAGE + simpleName + " in " + jar);
+        return ClassFile.read(b);
+    }
+
+    /**
+     * @param internalName e.g. org/elasticsearch/index/query/TermQueryBuilder
+     */
+    private byte[] read(String internalName) throws IOException {
+        byte[] b = bytes.get(internalName);
+        if (b != null) return b;
+        b = jar.readBytes(internalName + ".class");
+        if (b == null) return null;
+        byte[] previous = bytes.putIfAbsent(internalName, b);
+        return previous != null ? previous : b;
+    }
+
+    /**
+     * The preferred name of the ParseField owner.field, e.g. like_text for MoreLikeThisQueryParser.Fields.LIKE_TEXT,
+     * as ParseField.getPreferredName() would return it. Null if the field can't be found or isn't a ParseField
+     * created with a constant name.
+     *
+     * @param owner the internal name of the class declaring the field
+     */
+    public String getPreferredName(String owner, String field) throws IOException {
+        Map<String, String> names = preferredNames.get(owner);
+        if (names == null) {
+            names = new HashMap<String, String>();
+            byte[] b = read(owner);
+            if (b != null) {
+                ClassFile classFile = ClassFile.read(b);
+                ClassFile.Method clinit = classFile.getMethod("<clinit>");
+                if (clinit != null && clinit.code != null) {
+                    new Interpreter(this, classFile, clinit, names).run();
+                }
+            }
+            Map<String, String> previous = preferredNames.putIfAbsent(owner, names);
+            if (previous != null) names = previous;
+        }
+        return names.get(field);
+    }
+
+    /**
+     * Scans the doXContent method of a builder.
+     */
+    public Result scan(ClassFile builder) throws IOException {
+        ClassFile.Method doXContent = builder.getMethod("doXContent");
+        if (doXContent == null || doXContent.code == null) {
+            return new Result(false, false, Collections.<BuilderSourceScanner.Match>emptyList());
+        }
+        Interpreter interpreter = new Interpreter(this, builder, doXContent, null);
+        interpreter.run();
+        return interpreter.result();
+    }
+
+    /**
+     * Drops the class files read so far. The jar is mapped, and is unmapped once the scanner is unreachable.
+     */
+    @Override
+    public void close() throws IOException {
+        bytes.clear();
+    }
+
+    /**
+     * ParseField stores its name in underscore case, e.g. minTermFreq becomes min_term_freq.
+     */
+    static String toUnderscoreCase(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 4);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isUpperCase(c)) {
+                if (i > 0 && value.charAt(i - 1) != '_') sb.append('_');
+                sb.append(Character.toLowerCase(c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * What the interpreter knows about a stack or local value.
+     */
+    enum Kind {
+        OTHER,
+        /**
+         * the second slot of a long or double
+         */
+        TOP,
+        THIS,
+        /**
+         * a string constant, in s
+         */
+        CONST,
+        /**
+         * a field of the builder, or a value computed from one (types.get(0), box[LEFT]), the field name in s
+         */
+        FIELD,
+        /**
+         * a static ParseField field, owner.s
+         */
+        PARSE_FIELD,
+        /**
+         * the result of getPreferredName() on a ParseField, the name in s, or null if it couldn't be resolved
+         */
+        PREFERRED_NAME,
+        /**
+         * builder.startArray(name) and the fields passed to value() since, in values
+         */
+        NAMED_ARRAY,
+        /**
+         * an array created in this method, see stores and element
+         */
+        ARRAY,
+        /**
+         * an object created in this method, s is the first constant passed to its constructor
+         */
+        NEW
+    }
+
+    static final class Value {
+        static final Value OTHER = new Value(Kind.OTHER, null);
+        static final Value TOP = new Value(Kind.TOP, null);
+
+        final Kind kind;
+        String s;
+        String owner;
+
+        /**
+         * FIELD: read with getfield this.s, rather than computed from the field
+         */
+        boolean direct;
+
+        /**
+         * NAMED_ARRAY: the position of the startArray call
+         */
+        int pc;
+
+        StringBuilder values;
+
+        /**
+         * ARRAY: the number of values stored into it, and the last one
+         */
+        int stores;
+        Value element;
+
+        Value(Kind kind, String s) {
+            this.kind = kind;
+            this.s = s;
+        }
+
+        static Value field(String name, boolean direct) {
+            Value v = new Value(Kind.FIELD, name);
+            v.direct = direct;
+            return v;
+        }
+
+        boolean isField(String name) {
+            return kind == Kind.FIELD && direct && s.equals(name);
+        }
+
+        /**
+         * The field name if this is a field, or an array created for a varargs call with a field as its only element.
+         */
+        String fieldName() {
+            if (kind == Kind.FIELD) return s;
+            if (kind == Kind.ARRAY && stores == 1 && element.kind == Kind.FIELD) return element.s;
+            return null;
+        }
+
+        boolean sameAs(Value o) {
+            if (this == o) return true;
+            if (kind != o.kind || kind == Kind.NAMED_ARRAY || kind == Kind.ARRAY || kind == Kind.NEW) return false;
+            return s == null ? o.s == null : s.equals(o.s);
+        }
+    }
+
+    /**
+     * Walks the code of a method once, in address order, simulating the operand stack. Where branches join, values
+     * that differ on the two paths become OTHER, so e.g. !include isn't taken for the field include.
+     *
+     * Run on doXContent it collects the matches; run on a static initializer with parseFields set, it collects
+     * the names of the ParseField constants it creates.
+     */
+    private static final class Interpreter {
+        private final BuilderClassScanner scanner;
+        private final ClassFile classFile;
+        private final byte[] code;
+        private final Map<String, String> parseFields;
+
+        private List<Value> stack = new ArrayList<Value>();
+        private final Value[] locals;
+        private final Map<Integer, List<Value>> branches = new HashMap<Integer, List<Value>>();
+        private boolean reachable = true;
+
+        private final List<List<Match>> matches = new ArrayList<List<Match>>();
+        private int namedObjectAt = -1;
+        private int namedArrayAt = -1;
+
+        /**
+         * builder.field("param"); waiting for field.toXContent(builder, params)
+         */
+        private String pendingToXContent;
+        private int pendingToXContentAt;
+
+        /**
+         * builder.startArray("param"); waiting for for (x : field)
+         */
+        private BuilderSourceScanner.Idiom pendingArrayIdiom;
+        private String pendingArray;
+        private int pendingArrayAt;
+
+        Interpreter(BuilderClassScanner scanner, ClassFile classFile, ClassFile.Method method, Map<String, String> parseFields) {
+            this.scanner = scanner;
+            this.classFile = classFile;
+            this.code = method.code;
+            this.parseFields = parseFields;
+            this.locals = new Value[Math.max(method.maxLocals, 1)];
+            Arrays.fill(locals, Value.OTHER);
+            if (!method.isStatic()) locals[0] = new Value(Kind.THIS, null);
+            for (int handler : method.handlers) {
+                branches.put(handler, new ArrayList<Value>(Collections.singletonList(Value.OTHER)));
+            }
+            for (int i = 0; i < BuilderSourceScanner.Idiom.values().length; i++) {
+                matches.add(new ArrayList<Match>());
+            }
+        }
+
+        Result result() {
+            int start = namedObjectAt >= 0 ? namedObjectAt : namedArrayAt >= 0 ? namedArrayAt + 1 : 0;
+            List<BuilderSourceScanner.Match> result = new ArrayList<BuilderSourceScanner.Match>();
+            for (List<Match> list : matches) {
+                for (Match m : list) {
+                    if (m.pc >= start) result.add(m.match);
+                }
+            }
+            return new Result(namedObjectAt >= 0, namedObjectAt < 0 && namedArrayAt >= 0, result);
+        }
+
+        private void match(BuilderSourceScanner.Idiom idiom, int pc, String param, String field) {
+            matches.get(idiom.ordinal()).add(new Match(pc, new BuilderSourceScanner.Match(idiom, param, field)));
+        }
+
+        private Value pop() {
+            return stack.isEmpty() ? Value.OTHER : stack.remove(stack.size() - 1);
+        }
+
+        private void pop(int n) {
+            for (int i = 0; i < n; i++) pop();
+        }
+
+        private void push(Value v) {
+            stack.add(v);
+        }
+
+        /**
+         * Pushes a value of the given type, with its second slot if it's a long or double.
+         */
+        private void push(Value v, String descriptor) {
+            int slots = ClassFile.slots(descriptor);
+            if (slots == 0) return;
+            push(v);
+            if (slots == 2) push(Value.TOP);
+        }
+
+        private void pushOther(int slots) {
+            push(Value.OTHER);
+            if (slots == 2) push(Value.TOP);
+        }
+
+        private int u1(int i) {
+            return code[i] & 0xff;
+        }
+
+        private int u2(int i) {
+            return (u1(i) << 8) | u1(i + 1);
+        }
+
+        private int s2(int i) {
+            return (short) u2(i);
+        }
+
+        private int s4(int i) {
+            return (u2(i) << 16) | u2(i + 2);
+        }
+
+        private void branch(int target) {
+            List<Value> state = branches.get(target);
+            if (state == null) {
+                branches.put(target, new ArrayList<Value>(stack));
+            } else {
+                merge(state, stack);
+            }
+        }
+
+        private static void merge(List<Value> into, List<Value> other) {
+            if (into.size() != other.size()) return;
+            for (int i = 0; i < into.size(); i++) {
+                Value a = into.get(i);
+                if (a != Value.TOP && !a.sameAs(other.get(i))) into.set(i, Value.OTHER);
+            }
+        }
+
+        /**
+         * Sets up the stack for the instruction at pc, joining the branches to it.
+         */
+        private void enter(int pc) {
+            List<Value> state = branches.remove(pc);
+            if (state != null) {
+                if (reachable) {
+                    merge(stack, state);
+                } else {
+                    stack = state;
+                }
+            } else if (!reachable) {
+                // only reached by a backward jump, e.g. the body of a loop compiled with its test at the end
+                stack = new ArrayList<Value>();
+            }
+            reachable = true;
+        }
+
+        void run() throws IOException {
+            int pc = 0;
+            while (pc < code.length) {
+                enter(pc);
+                pc = step(pc);
+            }
+        }
+
+        /**
+         * Interprets the instruction at pc.
+         *
+         * @return the address of the next instruction
+         */
+        private int step(int pc) throws IOException {
+            int op = u1(pc);
+            switch (op) {
+                case 0x00: // nop
+                    return pc + 1;
+                case 0x01: // aconst_null
+                case 0x02: case 0x03: case 0x04: case 0x05: case 0x06: case 0x07: case 0x08: // iconst
+                case 0x0b: case 0x0c: case 0x0d: // fconst
+                    push(Value.OTHER);
+                    return pc + 1;
+                case 0x09: case 0x0a: // lconst
+                case 0x0e: case 0x0f: // dconst
+                    pushOther(2);
+                    return pc + 1;
+                case 0x10: // bipush
+                    push(Value.OTHER);
+                    return pc + 2;
+                case 0x11: // sipush
+                    push(Value.OTHER);
+                    return pc + 3;
+                case 0x12: // ldc
+                    ldc(u1(pc + 1));
+                    return pc + 2;
+                case 0x13: // ldc_w
+                    ldc(u2(pc + 1));
+                    return pc + 3;
+                case 0x14: // ldc2_w
+                    pushOther(2);
+                    return pc + 3;
+                case 0x15: case 0x17: case 0x19: // iload, fload, aload
+                    push(locals[u1(pc + 1)]);
+                    return pc + 2;
+                case 0x16: case 0x18: // lload, dload
+                    pushOther(2);
+                    return pc + 2;
+                case 0x1a: case 0x1b: case 0x1c: case 0x1d: // iload_n
+                    push(locals[op - 0x1a]);
+                    return pc + 1;
+                case 0x1e: case 0x1f: case 0x20: case 0x21: // lload_n
+                case 0x26: case 0x27: case 0x28: case 0x29: // dload_n
+                    pushOther(2);
+                    return pc + 1;
+                case 0x22: case 0x23: case 0x24: case 0x25: // fload_n
+                    push(locals[op - 0x22]);
+                    return pc + 1;
+                case 0x2a: case 0x2b: case 0x2c: case 0x2d: // aload_n
+                    push(locals[op - 0x2a]);
+                    return pc + 1;
+                case 0x2e: case 0x30: case 0x32: case 0x33: case 0x34: case 0x35: // iaload, faload, aaload, baload, caload, saload
+                    arrayLoad(1);
+                    return pc + 1;
+                case 0x2f: case 0x31: // laload, daload
+                    arrayLoad(2);
+                    return pc + 1;
+                case 0x36: case 0x38: case 0x3a: // istore, fstore, astore
+                    store(u1(pc + 1), 1);
+                    return pc + 2;
+                case 0x37: case 0x39: // lstore, dstore
+                    store(u1(pc + 1), 2);
+                    return pc + 2;
+                case 0x3b: case 0x3c: case 0x3d: case 0x3e: // istore_n
+                    store(op - 0x3b, 1);
+                    return pc + 1;
+                case 0x3f: case 0x40: case 0x41: case 0x42: // lstore_n
+                    store(op - 0x3f, 2);
+                    return pc + 1;
+                case 0x43: case 0x44: case 0x45: case 0x46: // fstore_n
+                    store(op - 0x43, 1);
+                    return pc + 1;
+                case 0x47: case 0x48: case 0x49: case 0x4a: // dstore_n
+                    store(op - 0x47, 2);
+                    return pc + 1;
+                case 0x4b: case 0x4c: case 0x4d: case 0x4e: // astore_n
+                    store(op - 0x4b, 1);
+                    return pc + 1;
+                case 0x4f: case 0x51: case 0x53: case 0x54: case 0x55: case 0x56: // iastore, fastore, aastore, bastore, castore, sastore
+                    arrayStore(1);
+                    return pc + 1;
+                case 0x50: case 0x52: // lastore, dastore
+                    arrayStore(2);
+                    return pc + 1;
+                case 0x57: // pop
+                    pop();
+                    return pc + 1;
+                case 0x58: // pop2
+                    pop(2);
+                    return pc + 1;
+                case 0x59: // dup
+                    dup(1, 0);
+                    return pc + 1;
+                case 0x5a: // dup_x1
+                    dup(1, 1);
+                    return pc + 1;
+                case 0x5b: // dup_x2
+                    dup(1, 2);
+                    return pc + 1;
+                case 0x5c: // dup2
+                    dup(2, 0);
+                    return pc + 1;
+                case 0x5d: // dup2_x1
+                    dup(2, 1);
+                    return pc + 1;
+                case 0x5e: // dup2_x2
+                    dup(2, 2);
+                    return pc + 1;
+                case 0x5f: { // swap
+                    Value a = pop();
+                    Value b = pop();
+                    push(a);
+                    push(b);
+                    return pc + 1;
+                }
+                case 0x60: case 0x62: case 0x64: case 0x66: case 0x68: case 0x6a: case 0x6c: case 0x6e: case 0x70: case 0x72: // int and float arithmetic
+                case 0x78: case 0x7a: case 0x7c: case 0x7e: case 0x80: case 0x82: // int shifts and logic
+                    pop(2);
+                    push(Value.OTHER);
+                    return pc + 1;
+                case 0x61: case 0x63: case 0x65: case 0x67: case 0x69: case 0x6b: case 0x6d: case 0x6f: case 0x71: case 0x73: // long and double arithmetic
+                case 0x7f: case 0x81: case 0x83: // land, lor, lxor
+                    pop(4);
+                    pushOther(2);
+                    return pc + 1;
+                case 0x74: case 0x76: // ineg, fneg
+                    pop();
+                    push(Value.OTHER);
+                    return pc + 1;
+                case 0x75: case 0x77: // lneg, dneg
+                    return pc + 1;
+                case 0x79: case 0x7b: case 0x7d: // lshl, lshr, lushr
+                    pop(3);
+                    pushOther(2);
+                    return pc + 1;
+                case 0x84: // iinc
+                    return pc + 3;
+                case 0x85: case 0x87: case 0x8c: case 0x8d: // i2l, i2d, f2l, f2d
+                    convert(1, 2);
+                    return pc + 1;
+                case 0x86: case 0x8b: case 0x91: case 0x92: case 0x93: // i2f, f2i, i2b, i2c, i2s
+                    convert(1, 1);
+                    return pc + 1;
+                case 0x88: case 0x89: case 0x8e: case 0x90: // l2i, l2f, d2i, d2f
+                    convert(2, 1);
+                    return pc + 1;
+                case 0x8a: case 0x8f: // l2d, d2l
+                    convert(2, 2);
+                    return pc + 1;
+                case 0x94: case 0x97: case 0x98: // lcmp, dcmpl, dcmpg
+                    pop(4);
+                    push(Value.OTHER);
+                    return pc + 1;
+                case 0x95: case 0x96: // fcmpl, fcmpg
+                    pop(2);
+                    push(Value.OTHER);
+                    return pc + 1;
+                case 0x99: case 0x9a: case 0x9b: case 0x9c: case 0x9d: case 0x9e: // if<cond>
+                case 0xc6: case 0xc7: // ifnull, ifnonnull
+                    pop();
+                    branch(pc + s2(pc + 1));
+                    return pc + 3;
+                case 0x9f: case 0xa0: case 0xa1: case 0xa2: case 0xa3: case 0xa4: case 0xa5: case 0xa6: // if_icmp<cond>, if_acmp<cond>
+                    pop(2);
+                    branch(pc + s2(pc + 1));
+                    return pc + 3;
+                case 0xa7: // goto
+                    branch(pc + s2(pc + 1));
+                    reachable = false;
+                    return pc + 3;
+                case 0xc8: // goto_w
+                    branch(pc + s4(pc + 1));
+                    reachable = false;
+                    return pc + 5;
+                case 0xa8: // jsr
+                    push(Value.OTHER);
+                    branch(pc + s2(pc + 1));
+                    pop();
+                    return pc + 3;
+                case 0xc9: // jsr_w
+                    push(Value.OTHER);
+                    branch(pc + s4(pc + 1));
+                    pop();
+                    return pc + 5;
+                case 0xa9: // ret
+                    reachable = false;
+                    return pc + 2;
+                case 0xaa: { // tableswitch
+                    pop();
+                    int i = (pc + 4) & ~3;
+                    branch(pc + s4(i));
+                    int low = s4(i + 4);
+                    int high = s4(i + 8);
+                    for (int j = 0; j <= high - low; j++) branch(pc + s4(i + 12 + 4 * j));
+                    reachable = false;
+                    return i + 12 + 4 * (high - low + 1);
+                }
+                case 0xab: { // lookupswitch
+                    pop();
+                    int i = (pc + 4) & ~3;
+                    branch(pc + s4(i));
+                    int pairs = s4(i + 4);
+                    for (int j = 0; j < pairs; j++) branch(pc + s4(i + 12 + 8 * j));
+                    reachable = false;
+                    return i + 8 + 8 * pairs;
+                }
+                case 0xac: case 0xad: case 0xae: case 0xaf: case 0xb0: case 0xb1: // return
+                case 0xbf: // athrow
+                    stack.clear();
+                    reachable = false;
+                    return pc + 1;
+                case 0xb2: // getstatic
+                    getstatic(u2(pc + 1));
+                    return pc + 3;
+                case 0xb3: // putstatic
+                    putstatic(u2(pc + 1));
+                    return pc + 3;
+                case 0xb4: // getfield
+                    getfield(u2(pc + 1));
+                    return pc + 3;
+                case 0xb5: // putfield
+                    pop(ClassFile.slots(classFile.getMemberDescriptor(u2(pc + 1))) + 1);
+                    return pc + 3;
+                case 0xb6: case 0xb7: case 0xb8: // invokevirtual, invokespecial, invokestatic
+                    invoke(pc, u2(pc + 1), op == 0xb8, 3);
+                    return pc + 3;
+                case 0xb9: // invokeinterface
+                    invoke(pc, u2(pc + 1), false, 5);
+                    return pc + 5;
+                case 0xba: { // invokedynamic
+                    String descriptor = classFile.getMemberDescriptor(u2(pc + 1));
+                    for (String type : ClassFile.parameterTypes(descriptor)) pop(ClassFile.slots(type));
+                    push(Value.OTHER, ClassFile.returnType(descriptor));
+                    return pc + 5;
+                }
+                case 0xbb: // new
+                    push(new Value(Kind.NEW, null));
+                    return pc + 3;
+                case 0xbc: // newarray
+                    pop();
+                    push(new Value(Kind.ARRAY, null));
+                    return pc + 2;
+                case 0xbd: // anewarray
+                    pop();
+                    push(new Value(Kind.ARRAY, null));
+                    return pc + 3;
+                case 0xbe: { // arraylength
+                    Value array = pop();
+                    if (array.kind == Kind.FIELD) loop(array);
+                    push(Value.OTHER);
+                    return pc + 1;
+                }
+                case 0xc0: // checkcast
+                    return pc + 3;
+                case 0xc1: // instanceof
+                    pop();
+                    push(Value.OTHER);
+                    return pc + 3;
+                case 0xc2: case 0xc3: // monitorenter, monitorexit
+                    pop();
+                    return pc + 1;
+                case 0xc4: // wide
+                    return wide(pc);
+                case 0xc5: // multianewarray
+                    pop(u1(pc + 3));
+                    push(Value.OTHER);
+                    return pc + 4;
+                default:
+                    throw new IOException("Unknown opcode " + op + " at " + pc + " in " + classFile.getName());
+            }
+        }
+
+        private int wide(int pc) {
+            int op = u1(pc + 1);
+            int index = u2(pc + 2);
+            switch (op) {
+                case 0x84: // iinc
+                    return pc + 6;
+                case 0x15: case 0x17: case 0x19:
+                    push(locals[index]);
+                    break;
+                case 0x16: case 0x18:
+                    pushOther(2);
+                    break;
+                case 0x36: case 0x38: case 0x3a:
+                    store(index, 1);
+                    break;
+                case 0x37: case 0x39:
+                    store(index, 2);
+                    break;
+                case 0xa9: // ret
+                    reachable = false;
+                    break;
+            }
+            return pc + 4;
+        }
+
+        private void ldc(int index) {
+            Object constant = classFile.getConstant(index);
+            push(constant instanceof String ? new Value(Kind.CONST, (String) constant) : Value.OTHER);
+        }
+
+        private void store(int index, int slots) {
+            Value v = pop();
+            if (slots == 2) v = pop();
+            if (index < locals.length) locals[index] = slots == 2 ? Value.OTHER : v;
+        }
+
+        private void convert(int from, int to) {
+            Value v = pop();
+            if (from == 2) v = pop();
+            push(v);
+            if (to == 2) push(Value.TOP);
+        }
+
+        private void arrayLoad(int slots) {
+            pop();
+            Value array = pop();
+            push(array.kind == Kind.FIELD ? Value.field(array.s, false) : Value.OTHER);
+            if (slots == 2) push(Value.TOP);
+        }
+
+        private void arrayStore(int slots) {
+            Value v = pop();
+            if (slots == 2) v = pop();
+            pop();
+            Value array = pop();
+            if (array.kind == Kind.ARRAY) {
+                array.stores++;
+                array.element = v;
+            }
+        }
+
+        /**
+         * dup, dup_x1, dup_x2, dup2, dup2_x1 and dup2_x2: copies the top n slots below the depth slots under them
+         */
+        private void dup(int n, int depth) {
+            int size = stack.size();
+            if (size < n + depth) {
+                for (int i = 0; i < n; i++) push(Value.OTHER);
+                return;
+            }
+            List<Value> top = new ArrayList<Value>(stack.subList(size - n, size));
+            stack.addAll(size - n - depth, top);
+        }
+
+        private void getstatic(int index) {
+            String descriptor = classFile.getMemberDescriptor(index);
+            if (descriptor.endsWith(PARSE_FIELD)) {
+                Value v = new Value(Kind.PARSE_FIELD, classFile.getMemberName(index));
+                v.owner = classFile.getMemberOwner(index);
+                push(v);
+            } else {
+                push(Value.OTHER, descriptor);
+            }
+        }
+
+        private void putstatic(int index) {
+            String descriptor = classFile.getMemberDescriptor(index);
+            Value v = pop();
+            if (ClassFile.slots(descriptor) == 2) v = pop();
+            if (parseFields != null && descriptor.endsWith(PARSE_FIELD) && v.kind == Kind.NEW && v.s != null
+                    && classFile.getMemberOwner(index).equals(classFile.getName())) {
+                parseFields.put(classFile.getMemberName(index), toUnderscoreCase(v.s));
+            }
+        }
+
+        private void getfield(int index) {
+            Value receiver = pop();
+            String descriptor = classFile.getMemberDescriptor(index);
+            if (receiver.kind == Kind.THIS) {
+                push(Value.field(classFile.getMemberName(index), true), descriptor);
+            } else if (receiver.kind == Kind.FIELD) {
+                push(Value.field(receiver.s, false), descriptor);
+            } else {
+                push(Value.OTHER, descriptor);
+            }
+        }
+
+        /**
+         * A loop over field: the for (x : field) of builder.startArray("param"); for (x : field)
+         */
+        private void loop(Value field) {
+            if (pendingArray != null) {
+                match(pendingArrayIdiom, pendingArrayAt, pendingArray, field.s);
+                pendingArray = null;
+            }
+        }
+
+        private void invoke(int pc, int index, boolean isStatic, int length) throws IOException {
+            String owner = classFile.getMemberOwner(index);
+            String name = classFile.getMemberName(index);
+            String descriptor = classFile.getMemberDescriptor(index);
+            List<String> types = ClassFile.parameterTypes(descriptor);
+            Value[] args = new Value[types.size()];
+            for (int i = args.length - 1; i >= 0; i--) {
+                if (ClassFile.slots(types.get(i)) == 2) pop();
+                args[i] = pop();
+            }
+            Value receiver = isStatic ? null : pop();
+            String returnType = ClassFile.returnType(descriptor);
+            boolean statement = pc + length < code.length && u1(pc + length) == 0x57; // followed by pop
+
+            // idioms that complete one started by the previous call
+            if (name.equals("iterator") && args.length == 0 && receiver != null && receiver.kind == Kind.FIELD) {
+                loop(receiver);
+            } else if (name.equals("toXContent") && pendingToXContent != null && receiver != null && receiver.kind == Kind.FIELD) {
+                match(BuilderSourceScanner.Idiom.FIELD_TO_XCONTENT, pendingToXContentAt, pendingToXContent, receiver.s);
+            }
+            pendingToXContent = null;
+            pendingArray = null;
+
+            if (owner.endsWith(XCONTENT_BUILDER) || owner.equals(XCONTENT_BUILDER.substring(1))) {
+                push(builderCall(pc, name, receiver, args, statement), returnType);
+                return;
+            }
+
+            Value result = Value.OTHER;
+            if (name.equals("<init>")) {
+                if (receiver != null && receiver.kind == Kind.NEW && args.length > 0 && args[0].kind == Kind.CONST) {
+                    receiver.s = args[0].s;
+                }
+            } else if (name.equals("getPreferredName") && receiver != null && receiver.kind == Kind.PARSE_FIELD) {
+                result = new Value(Kind.PREFERRED_NAME, scanner.getPreferredName(receiver.owner, receiver.s));
+            } else if (name.equals("doXArrayContent") && args.length > 1 && args[0].kind == Kind.CONST && args[1].kind == Kind.FIELD) {
+                match(BuilderSourceScanner.Idiom.X_ARRAY_CONTENT, pc, args[0].s, args[1].s);
+            } else if (receiver != null && receiver.kind == Kind.FIELD) {
+                // types.get(0), type.toString()
+                result = Value.field(receiver.s, false);
+            } else if (isStatic && name.equals("valueOf") && owner.startsWith("java/lang/") && args.length == 1 && args[0].kind == Kind.FIELD) {
+                // boxing
+                result = Value.field(args[0].s, false);
+            }
+            push(result, returnType);
+        }
+
+        /**
+         * A call on the XContentBuilder.
+         *
+         * @param statement if the result is discarded, as in builder.startObject(name);
+         * @return the value of the call
+         */
+        private Value builderCall(int pc, String name, Value receiver, Value[] args, boolean statement) {
+            if (name.equals("value") && receiver != null && receiver.kind == Kind.NAMED_ARRAY) {
+                if (args.length == 1 && args[0].kind == Kind.FIELD) {
+                    if (receiver.values.length() > 0) receiver.values.append(',');
+                    receiver.values.append(args[0].s);
+                    return receiver;
+                }
+                return Value.OTHER;
+            }
+            if (name.equals("endArray") && receiver != null && receiver.kind == Kind.NAMED_ARRAY) {
+                if (statement && receiver.values.length() > 0) {
+                    match(BuilderSourceScanner.Idiom.NAMED_ARRAY_VALUES, receiver.pc, null, receiver.values.toString());
+                }
+                return Value.OTHER;
+            }
+            if (args.length == 1 && name.equals("startObject")) {
+                if (statement && args[0].isField("name") && namedObjectAt < 0) namedObjectAt = pc;
+            } else if (args.length == 1 && name.equals("startArray")) {
+                if (args[0].isField("name")) {
+                    if (statement) {
+                        if (namedArrayAt < 0) namedArrayAt = pc;
+                    } else {
+                        Value chain = new Value(Kind.NAMED_ARRAY, null);
+                        chain.pc = pc;
+                        chain.values = new StringBuilder();
+                        return chain;
+                    }
+                } else if (statement && (args[0].kind == Kind.CONST || args[0].kind == Kind.PREFERRED_NAME) && args[0].s != null) {
+                    pendingArrayIdiom = args[0].kind == Kind.CONST ? BuilderSourceScanner.Idiom.ARRAY_LOOP : BuilderSourceScanner.Idiom.ARRAY_LOOP_CONSTANT;
+                    pendingArray = args[0].s;
+                    pendingArrayAt = pc;
+                }
+            } else if (args.length == 1 && name.equals("field")) {
+                if (statement && args[0].kind == Kind.CONST) {
+                    pendingToXContent = args[0].s;
+                    pendingToXContentAt = pc;
+                }
+            } else if (args.length >= 2 && (name.equals("field") || name.equals("array"))) {
+                String field = args[1].fieldName();
+                if (field != null) {
+                    if (args[0].kind == Kind.CONST) {
+                        match(BuilderSourceScanner.Idiom.FIELD, pc, args[0].s, field);
+                    } else if (args[0].kind == Kind.PREFERRED_NAME && args[0].s != null) {
+                        match(BuilderSourceScanner.Idiom.FIELD_CONSTANT, pc, args[0].s, field);
+                    } else if (name.equals("field") && args[0].isField("name")) {
+                        match(BuilderSourceScanner.Idiom.NAMED_SHORTCUT, pc, "name", field);
+                    }
+                }
+            }
+            return Value.OTHER;
+        }
+    }
+
+    /**
+     * A match and the position of the call it was found at.
+     */
+    private static final class Match {
+        final int pc;
+        final BuilderSourceScanner.Match match;
+
+        Match(int pc, BuilderSourceScanner.Match match) {
+            this.pc = pc;
+            this.match = match;
+        }
+    }
+}
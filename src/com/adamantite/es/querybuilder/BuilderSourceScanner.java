@@ -0,0 +1,238 @@
+package com.adamantite.es.querybuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Scans the source of a xxxBuilder.java in a single pass and reports every idiom that
+ * QueryDSLTypeExtractor uses to map java fields to dsl param names.
+ *
+ * Each idiom is still described by a regex, but the patterns are compiled once, and instead of
+ * running each of them over the whole source, the scanner walks the source once and only tries an
+ * idiom at the positions where its literal prefix (".field(", "builder.startArray(" etc) occurs.
+ * Since every pattern starts with such a literal, this finds exactly the matches Matcher.find()
+ * would have found.
+ */
+public class BuilderSourceScanner {
+
+    /**
+     * The idioms recognized by the scanner. Matches are reported in the order of this enum, which is
+     * the order QueryDSLTypeExtractor applies them in: later idioms can override or remove the
+     * params set by earlier ones.
+     */
+    public static enum Idiom {
+        /**
+         * builder.field("param", field)
+         * builder.array("param", field)
+         */
+        FIELD("\\.(?:field|array)\\(\"(.*?)\",\\s*(.*?)\\)", 0),
+
+        /**
+         * builder.startArray("param");
+         * for (String s: field)
+         */
+        ARRAY_LOOP("builder\\.startArray\\(\"(.*?)\"\\);\\s*?for \\(.*?: (.*?)\\)", Pattern.DOTALL),
+
+        /**
+         * builder.field("param");
+         * field.toXContent(builder, params);
+         */
+        FIELD_TO_XCONTENT("builder\\.field\\(\"([^\"]*?)\"\\);\\s*?([a-zA-Z]+?)\\.toXContent\\(builder, params\\)", Pattern.DOTALL),
+
+        /**
+         * doXArrayContent("param", field, xxx, xxx);
+         */
+        X_ARRAY_CONTENT("doXArrayContent\\(\"(.*?)\", (.*?),", 0),
+
+        /**
+         * builder.startArray(name).value(lon).value(lat).endArray();
+         */
+        NAMED_ARRAY_VALUES("builder\\.startArray\\(name\\)((?:\\.value\\(([^)]+)\\))+)\\.endArray\\(\\);", 0),
+
+        /**
+         * builder.field(MoreLikeThisQueryParser.Fields.LIKE_THIS.getPreferredName(), field)
+         */
+        FIELD_CONSTANT("\\.(?:field|array)\\(([^\"]*?),\\s+(.*?)\\)", Pattern.DOTALL),
+
+        /**
+         * builder.startArray(MoreLikeThisQueryParser.Fields.STOP_WORDS.getPreferredName());
+         * for (String s: field)
+         */
+        ARRAY_LOOP_CONSTANT("\\.startArray\\(([^\"]*?)\\);.*?for \\(.*?: (.*?)\\)", Pattern.DOTALL),
+
+        /**
+         * The shortcut version of namedObject, e.g. in PrefixFilterBuilder
+         * builder.field(name, value);
+         */
+        NAMED_SHORTCUT("builder\\.field\\((name),\\s*(.*?)\\);", 0);
+
+        final Pattern pattern;
+
+        Idiom(String regex, int flags) {
+            this.pattern = Pattern.compile(regex, flags);
+        }
+    }
+
+    /**
+     * A single occurrence of an idiom.
+     */
+    public static class Match {
+        final Idiom idiom;
+
+        /**
+         * The param expression, e.g. "boost" or MoreLikeThisQueryParser.Fields.LIKE_TEXT.getPreferredName().
+         * For NAMED_ARRAY_VALUES this is null.
+         */
+        final String param;
+
+        /**
+         * The field expression, e.g. this.boost. For NAMED_ARRAY_VALUES this is the comma-separated
+         * list of values, e.g. lon,lat
+         */
+        final String field;
+
+        public Match(Idiom idiom, String param, String field) {
+            this.idiom = idiom;
+            this.param = param;
+            this.field = field;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Match that = (Match) o;
+
+            if (idiom != that.idiom) return false;
+            if (param != null ? !param.equals(that.param) : that.param != null) return false;
+            if (field != null ? !field.equals(that.field) : that.field != null) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = idiom.hashCode();
+            result = 31 * result + (param != null ? param.hashCode() : 0);
+            result = 31 * result + (field != null ? field.hashCode() : 0);
+            return result;
+        }
+
+        @Override public String toString() {
+            return idiom + "(" + param + ", " + field + ")";
+        }
+    }
+
+    private static final Pattern VALUE = Pattern.compile("value\\((.*?)\\)");
+
+    private static final Idiom[] IDIOMS = Idiom.values();
+
+    /**
+     * Scans input from the given offset to the end.
+     * @return all matches, ordered by idiom and then by position
+     */
+    public static List<Match> scan(CharSequence input, int from) {
+        return new BuilderSourceScanner(input, from).scan();
+    }
+
+    private final CharSequence input;
+    private final int from;
+    private final int end;
+
+    private final Matcher[] matchers = new Matcher[IDIOMS.length];
+
+    /**
+     * Per idiom, the offset at which the next match may start, since matches of the same idiom don't overlap.
+     */
+    private final int[] next = new int[IDIOMS.length];
+
+    private final List<List<Match>> matches = new ArrayList<List<Match>>(IDIOMS.length);
+
+    private BuilderSourceScanner(CharSequence input, int from) {
+        this.input = input;
+        this.from = from;
+        this.end = input.length();
+        for (int i = 0; i < IDIOMS.length; i++) {
+            next[i] = from;
+            matches.add(Collections.<Match>emptyList());
+        }
+    }
+
+    private List<Match> scan() {
+        for (int i = from; i < end; i++) {
+            char c = input.charAt(i);
+            if (c == '.') {
+                boolean field = startsWith(i, ".field(");
+                boolean startArray = !field && startsWith(i, ".startArray(");
+                if (field || startsWith(i, ".array(")) {
+                    tryMatch(Idiom.FIELD, i);
+                    tryMatch(Idiom.FIELD_CONSTANT, i);
+                } else if (startArray) {
+                    tryMatch(Idiom.ARRAY_LOOP_CONSTANT, i);
+                }
+
+                // idioms which start at "builder."
+                int b = i - "builder".length();
+                if ((field || startArray) && b >= from && startsWith(b, "builder")) {
+                    if (field) {
+                        tryMatch(Idiom.FIELD_TO_XCONTENT, b);
+                        tryMatch(Idiom.NAMED_SHORTCUT, b);
+                    } else {
+                        tryMatch(Idiom.ARRAY_LOOP, b);
+                        tryMatch(Idiom.NAMED_ARRAY_VALUES, b);
+                    }
+                }
+            } else if (c == 'd' && startsWith(i, "doXArrayContent(")) {
+                tryMatch(Idiom.X_ARRAY_CONTENT, i);
+            }
+        }
+
+        List<Match> result = new ArrayList<Match>();
+        for (List<Match> list : matches) {
+            result.addAll(list);
+        }
+        return result;
+    }
+
+    private void tryMatch(Idiom idiom, int at) {
+        int i = idiom.ordinal();
+        if (at < next[i]) return;
+        Matcher m = matchers[i];
+        if (m == null) {
+            m = matchers[i] = idiom.pattern.matcher(input);
+        }
+        m.region(at, end);
+        if (!m.lookingAt()) return;
+
+        next[i] = m.end();
+        if (matches.get(i).isEmpty()) {
+            matches.set(i, new ArrayList<Match>());
+        }
+        if (idiom == Idiom.NAMED_ARRAY_VALUES) {
+            // most regex engines don't allow repeating matched groups.
+            // so we have to run another regex to get them all
+            StringBuilder values = new StringBuilder();
+            Matcher m2 = VALUE.matcher(m.group(1));
+            while (m2.find()) {
+                if (values.length() > 0) values.append(',');
+                values.append(m2.group(1));
+            }
+            matches.get(i).add(new Match(idiom, null, values.toString()));
+        } else {
+            matches.get(i).add(new Match(idiom, m.group(1), m.group(2)));
+        }
+    }
+
+    private boolean startsWith(int offset, String prefix) {
+        int n = prefix.length();
+        if (offset + n > end) return false;
+        for (int i = 0; i < n; i++) {
+            if (input.charAt(offset + i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,390 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parts of a class file the extractor needs to read a builder without loading it: the constant pool,
+ * the declared fields with their generic signatures and constant values, and the code of the methods.
+ * Annotations, debug info and the other attributes are skipped.
+ */
+public class ClassFile {
+
+    static final int MAGIC = 0xCAFEBABE;
+
+    static final int CONSTANT_UTF8 = 1;
+    static final int CONSTANT_INTEGER = 3;
+    static final int CONSTANT_FLOAT = 4;
+    static final int CONSTANT_LONG = 5;
+    static final int CONSTANT_DOUBLE = 6;
+    static final int CONSTANT_CLASS = 7;
+    static final int CONSTANT_STRING = 8;
+    static final int CONSTANT_FIELDREF = 9;
+    static final int CONSTANT_METHODREF = 10;
+    static final int CONSTANT_INTERFACE_METHODREF = 11;
+    static final int CONSTANT_NAME_AND_TYPE = 12;
+    static final int CONSTANT_METHOD_HANDLE = 15;
+    static final int CONSTANT_METHOD_TYPE = 16;
+    static final int CONSTANT_DYNAMIC = 17;
+    static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    static final int CONSTANT_MODULE = 19;
+    static final int CONSTANT_PACKAGE = 20;
+
+    static final int ACC_STATIC = 0x0008;
+
+    /**
+     * A declared field.
+     */
+    public static class Field {
+        final int access;
+        final String name;
+
+        /**
+         * e.g. Ljava/util/List;
+         */
+        final String descriptor;
+
+        /**
+         * The generic signature, e.g. Ljava/util/List&lt;Lorg/elasticsearch/index/query/QueryBuilder;&gt;;
+         * Null if the field's type isn't generic.
+         */
+        final String signature;
+
+        /**
+         * The value of a constant field, e.g. the String of public static final String NAME = "term". Null otherwise.
+         */
+        final Object constantValue;
+
+        Field(int access, String name, String descriptor, String signature, Object constantValue) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.signature = signature;
+            this.constantValue = constantValue;
+        }
+
+        public boolean isStatic() {
+            return (access & ACC_STATIC) != 0;
+        }
+
+        /**
+         * The name of the field's type as Class.getName() returns it, e.g. java.lang.String, float or [Ljava.lang.String;
+         */
+        public String getTypeName() {
+            return typeName(descriptor);
+        }
+
+        /**
+         * The class name of the first type argument of the field's type, e.g. org.elasticsearch.index.query.QueryBuilder
+         * for List&lt;QueryBuilder&gt;. Null if the type has no type arguments, or the first one isn't a class,
+         * e.g. a wildcard or a type variable.
+         */
+        public String getTypeArgument() {
+            if (signature == null) return null;
+            int i = signature.indexOf('<');
+            if (i < 0 || signature.charAt(i + 1) != 'L') return null;
+            int end = i + 2;
+            while (signature.charAt(end) != ';' && signature.charAt(end) != '<') end++;
+            return signature.substring(i + 2, end).replace('/', '.');
+        }
+
+        @Override public String toString() {
+            return name + " " + descriptor;
+        }
+    }
+
+    /**
+     * A declared method. code is null for abstract and native methods.
+     */
+    public static class Method {
+        final int access;
+        final String name;
+        final String descriptor;
+        final byte[] code;
+        final int maxLocals;
+
+        /**
+         * The start of every exception handler in code.
+         */
+        final int[] handlers;
+
+        Method(int access, String name, String descriptor, byte[] code, int maxLocals, int[] handlers) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.code = code;
+            this.maxLocals = maxLocals;
+            this.handlers = handlers;
+        }
+
+        public boolean isStatic() {
+            return (access & ACC_STATIC) != 0;
+        }
+
+        @Override public String toString() {
+            return name + descriptor;
+        }
+    }
+
+    private final int[] tags;
+
+    /**
+     * Utf8 entries are Strings, numeric ones their boxed values, and the entries that refer to other
+     * entries an int[] of the indexes they refer to.
+     */
+    private final Object[] entries;
+
+    final String name;
+    final String superName;
+    final List<Field> fields;
+    final List<Method> methods;
+
+    private ClassFile(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not a class file");
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+
+        int count = in.readUnsignedShort();
+        tags = new int[count];
+        entries = new Object[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            tags[i] = tag;
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    entries[i] = in.readUTF();
+                    break;
+                case CONSTANT_INTEGER:
+                    entries[i] = in.readInt();
+                    break;
+                case CONSTANT_FLOAT:
+                    entries[i] = in.readFloat();
+                    break;
+                case CONSTANT_LONG:
+                    // 8 byte constants take up two entries
+                    entries[i++] = in.readLong();
+                    break;
+                case CONSTANT_DOUBLE:
+                    entries[i++] = in.readDouble();
+                    break;
+                case CONSTANT_CLASS:
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    entries[i] = new int[]{in.readUnsignedShort()};
+                    break;
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    entries[i] = new int[]{in.readUnsignedShort(), in.readUnsignedShort()};
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    entries[i] = new int[]{in.readUnsignedByte(), in.readUnsignedShort()};
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag + " at " + i);
+            }
+        }
+
+        in.readUnsignedShort();
+        name = getClassName(in.readUnsignedShort());
+        int superIndex = in.readUnsignedShort();
+        superName = superIndex == 0 ? null : getClassName(superIndex);
+        in.skipBytes(2 * in.readUnsignedShort());
+
+        int fieldCount = in.readUnsignedShort();
+        List<Field> fields = new ArrayList<Field>(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            int access = in.readUnsignedShort();
+            String fieldName = getUtf8(in.readUnsignedShort());
+            String descriptor = getUtf8(in.readUnsignedShort());
+            String signature = null;
+            Object constantValue = null;
+            for (int a = 0, n = in.readUnsignedShort(); a < n; a++) {
+                String attribute = getUtf8(in.readUnsignedShort());
+                int length = in.readInt();
+                if (attribute.equals("Signature")) {
+                    signature = getUtf8(in.readUnsignedShort());
+                } else if (attribute.equals("ConstantValue")) {
+                    constantValue = getConstant(in.readUnsignedShort());
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+            fields.add(new Field(access, fieldName, descriptor, signature, constantValue));
+        }
+        this.fields = Collections.unmodifiableList(fields);
+
+        int methodCount = in.readUnsignedShort();
+        List<Method> methods = new ArrayList<Method>(methodCount);
+        for (int i = 0; i < methodCount; i++) {
+            int access = in.readUnsignedShort();
+            String methodName = getUtf8(in.readUnsignedShort());
+            String descriptor = getUtf8(in.readUnsignedShort());
+            byte[] code = null;
+            int maxLocals = 0;
+            int[] handlers = new int[0];
+            for (int a = 0, n = in.readUnsignedShort(); a < n; a++) {
+                String attribute = getUtf8(in.readUnsignedShort());
+                int length = in.readInt();
+                if (!attribute.equals("Code")) {
+                    in.skipBytes(length);
+                    continue;
+                }
+                in.readUnsignedShort();
+                maxLocals = in.readUnsignedShort();
+                code = new byte[in.readInt()];
+                in.readFully(code);
+                handlers = new int[in.readUnsignedShort()];
+                for (int h = 0; h < handlers.length; h++) {
+                    in.readUnsignedShort();
+                    in.readUnsignedShort();
+                    handlers[h] = in.readUnsignedShort();
+                    in.readUnsignedShort();
+                }
+                for (int c = 0, m = in.readUnsignedShort(); c < m; c++) {
+                    in.readUnsignedShort();
+                    in.skipBytes(in.readInt());
+                }
+            }
+            methods.add(new Method(access, methodName, descriptor, code, maxLocals, handlers));
+        }
+        this.methods = Collections.unmodifiableList(methods);
+    }
+
+    public static ClassFile read(byte[] bytes) throws IOException {
+        return new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * The internal name of the class, e.g. org/elasticsearch/index/query/TermQueryBuilder
+     */
+    public String getName() {
+        return name;
+    }
+
+    public List<Field> getFields() {
+        return fields;
+    }
+
+    public List<Method> getMethods() {
+        return methods;
+    }
+
+    /**
+     * @return the first declared field with the given name, or null
+     */
+    public Field getField(String name) {
+        for (Field field : fields) {
+            if (field.name.equals(name)) return field;
+        }
+        return null;
+    }
+
+    /**
+     * @return the first declared method with the given name, or null
+     */
+    public Method getMethod(String name) {
+        for (Method method : methods) {
+            if (method.name.equals(name)) return method;
+        }
+        return null;
+    }
+
+    int getTag(int index) {
+        return tags[index];
+    }
+
+    String getUtf8(int index) {
+        return (String) entries[index];
+    }
+
+    /**
+     * The internal name of a Class entry.
+     */
+    String getClassName(int index) {
+        return getUtf8(((int[]) entries[index])[0]);
+    }
+
+    /**
+     * The owner class of a Fieldref, Methodref or InterfaceMethodref entry.
+     */
+    String getMemberOwner(int index) {
+        return getClassName(((int[]) entries[index])[0]);
+    }
+
+    String getMemberName(int index) {
+        int nameAndType = ((int[]) entries[index])[1];
+        return getUtf8(((int[]) entries[nameAndType])[0]);
+    }
+
+    String getMemberDescriptor(int index) {
+        int nameAndType = ((int[]) entries[index])[1];
+        return getUtf8(((int[]) entries[nameAndType])[1]);
+    }
+
+    /**
+     * The value a ldc of the entry pushes: a String, Integer, Float, Long or Double. Null for the other entries,
+     * e.g. class literals.
+     */
+    Object getConstant(int index) {
+        if (tags[index] == CONSTANT_STRING) return getUtf8(((int[]) entries[index])[0]);
+        Object o = entries[index];
+        return o instanceof int[] ? null : o;
+    }
+
+    /**
+     * The number of stack slots a value of the type takes, 0 for void.
+     */
+    static int slots(String descriptor) {
+        char c = descriptor.charAt(0);
+        return c == 'V' ? 0 : c == 'J' || c == 'D' ? 2 : 1;
+    }
+
+    /**
+     * The parameter types of a method descriptor, e.g. [Ljava/lang/String;, F] for (Ljava/lang/String;F)V
+     */
+    static List<String> parameterTypes(String methodDescriptor) {
+        List<String> result = new ArrayList<String>();
+        int i = 1;
+        while (methodDescriptor.charAt(i) != ')') {
+            int start = i;
+            while (methodDescriptor.charAt(i) == '[') i++;
+            if (methodDescriptor.charAt(i) == 'L') i = methodDescriptor.indexOf(';', i);
+            i++;
+            result.add(methodDescriptor.substring(start, i));
+        }
+        return result;
+    }
+
+    static String returnType(String methodDescriptor) {
+        return methodDescriptor.substring(methodDescriptor.indexOf(')') + 1);
+    }
+
+    /**
+     * A type descriptor as Class.getName() would name the class, e.g. java.lang.String for Ljava/lang/String;
+     */
+    static String typeName(String descriptor) {
+        switch (descriptor.charAt(0)) {
+            case 'Z': return "boolean";
+            case 'B': return "byte";
+            case 'C': return "char";
+            case 'S': return "short";
+            case 'I': return "int";
+            case 'J': return "long";
+            case 'F': return "float";
+            case 'D': return "double";
+            case 'V': return "void";
+            case 'L': return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+            default: return descriptor.replace('/', '.');
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Writes the model in the compact indexed format, which lets the web builder populate its dropdowns
+ * from a small index and only fetch the fields of a dsl type once it's selected.
+ *
+ * qb-model-[version].idx.json is the index:
+ * <pre>
+ * {"format":2,"generation":"3f1c09e2a4b7d650","types":["BOOLEAN","STRING",...],"names":["adjust_pure_negative","boost",...],
+ *  "query":["bool","boosting",...],"filter":["and","bool",...]}
+ * </pre>
+ * types is the PARAM_TYPE table and names the table of every param name and label in the model.
+ * generation is a hash of the tables and the shards, which changes whenever the model is written with other content.
+ *
+ * qb-model-[version]/query/[dsl name].json and qb-model-[version]/filter/[dsl name].json are the shards,
+ * one per dsl type:
+ * <pre>
+ * {"generation":"3f1c09e2a4b7d650","namedArray":true,"namedArrayValues":"lon,lat","fields":[[12,1],[40,4,41]]}
+ * </pre>
+ * The namedXXX flags are the same as in the json model, and each field is [name, type] or
+ * [name, type, label], with the name and label indexes into names and the type an index into types.
+ * Fields are in the same order as in the json model. The indexes are only good for the tables of the same
+ * generation, so a shard whose generation isn't that of the index, e.g. one cached from an earlier model, has to
+ * be loaded again.
+ *
+ * The name table is built up while the shards are written, so use a new writer for every model.
+ */
+public class CompactModelWriter {
+
+    static final int FORMAT = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<String> names = new ArrayList<String>();
+
+    private final Map<String, Integer> nameIndex = new HashMap<String, Integer>();
+
+    /**
+     * Writes the index and the shards into outputDir.
+     */
+    public void write(File outputDir, String version, Map<String, QueryDSLType> queries, Map<String, QueryDSLType> filters) throws IOException {
+        String generation = generation(queries, filters);
+        File shardDir = new File(outputDir, "qb-model-" + version);
+        writeShards(new File(shardDir, "query"), queries, generation);
+        writeShards(new File(shardDir, "filter"), filters, generation);
+
+        XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, open(new File(outputDir, "qb-model-" + version + ".idx.json")));
+        try {
+            builder.startObject();
+            builder.field("format", FORMAT);
+            builder.field("generation", generation);
+            builder.startArray("types");
+            for (QueryDSLType.PARAM_TYPE type : QueryDSLType.PARAM_TYPE.values()) {
+                builder.value(type.name());
+            }
+            builder.endArray();
+            builder.startArray("names");
+            for (String name : names) {
+                builder.value(name);
+            }
+            builder.endArray();
+            writeTypeNames(builder, "query", queries);
+            writeTypeNames(builder, "filter", filters);
+            builder.endObject();
+        } finally {
+            builder.close();
+        }
+    }
+
+    /**
+     * Renders the shards without a generation, which builds up the name table, and hashes them with the tables.
+     * The first 16 hex digits of the SHA-1.
+     */
+    private String generation(Map<String, QueryDSLType> queries, Map<String, QueryDSLType> filters) throws IOException {
+        MessageDigest digest = ExtractionCache.sha1();
+        for (Map<String, QueryDSLType> section : Arrays.asList(queries, filters)) {
+            for (QueryDSLType type : section.values()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out);
+                try {
+                    writeShard(builder, type, null);
+                } finally {
+                    builder.close();
+                }
+                digest.update(type.dslName.getBytes(UTF_8));
+                digest.update(out.toByteArray());
+            }
+        }
+        for (QueryDSLType.PARAM_TYPE type : QueryDSLType.PARAM_TYPE.values()) {
+            digest.update(type.name().getBytes(UTF_8));
+            digest.update((byte) 0);
+        }
+        for (String name : names) {
+            digest.update(name.getBytes(UTF_8));
+            digest.update((byte) 0);
+        }
+        return ExtractionCache.hex(digest.digest()).substring(0, 16);
+    }
+
+    private void writeShards(File dir, Map<String, QueryDSLType> types, String generation) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Couldn't create " + dir);
+        for (QueryDSLType type : types.values()) {
+            XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, open(new File(dir, type.dslName + ".json")));
+            try {
+                writeShard(builder, type, generation);
+            } finally {
+                builder.close();
+            }
+        }
+    }
+
+    /**
+     * @param generation the generation of the model, or null to leave it out
+     */
+    void writeShard(XContentBuilder builder, QueryDSLType type, String generation) throws IOException {
+        builder.startObject();
+        if (generation != null) builder.field("generation", generation);
+        if (type.isNamedObject()) {
+            builder.field("namedObject", true);
+            if (type.isNamedObjectValue()) {
+                builder.field("namedObjectValue", true);
+            }
+        } else if (type.isNamedArray()) {
+            builder.field("namedArray", true);
+            if (type.getNamedArrayValues() != null) {
+                builder.field("namedArrayValues", type.namedArrayValues);
+            }
+        }
+        builder.startArray("fields");
+        for (String field : QueryDSLTypeExtractor.outputFields(type)) {
+            QueryDSLType.Param p = type.fields.get(field);
+            builder.startArray();
+            builder.value(intern(p.paramName));
+            builder.value(p.type.ordinal());
+            // labels are only output for non builder fields, same as in the json model
+            if (p.label != null && !QueryDSLTypeExtractor.isBuilderParam(p)) builder.value(intern(p.label));
+            builder.endArray();
+        }
+        builder.endArray();
+        builder.endObject();
+    }
+
+    private static void writeTypeNames(XContentBuilder builder, String section, Map<String, QueryDSLType> types) throws IOException {
+        builder.startArray(section);
+        for (String dslName : types.keySet()) {
+            builder.value(dslName);
+        }
+        builder.endArray();
+    }
+
+    private int intern(String name) {
+        Integer i = nameIndex.get(name);
+        if (i == null) {
+            i = names.size();
+            names.add(name);
+            nameIndex.put(name, i);
+        }
+        return i;
+    }
+
+    private static OutputStream open(File f) throws IOException {
+        return new BufferedOutputStream(new FileOutputStream(f));
+    }
+}
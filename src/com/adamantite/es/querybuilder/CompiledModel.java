@@ -0,0 +1,116 @@
+package com.adamantite.es.querybuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The model compiled into hash lookups for the {@link QueryValidator}: for every dsl type, its flags and a map
+ * from dsl param name to {@link QueryDSLType.PARAM_TYPE}. Immutable, so one instance can be shared by every
+ * request thread.
+ *
+ * Param names are taken as they're output to the json model. A dotted name such as minimum_should_match.high_freq
+ * is a param of the object minimum_should_match, and an indexed name such as top_left[0] is compiled to a single
+ * param top_left, which accepts any value since elasticsearch takes points in several forms.
+ */
+public final class CompiledModel {
+
+    static final class CompiledType {
+        final String dslName;
+        final boolean namedObject;
+        final boolean namedObjectValue;
+        final boolean namedArray;
+
+        /**
+         * Keyed by the full dotted param name.
+         */
+        final Map<String, QueryDSLType.PARAM_TYPE> params;
+
+        /**
+         * Dotted prefixes of params, i.e. the names of objects holding params.
+         */
+        final Set<String> groups;
+
+        /**
+         * The param names in the order they're output to the json model.
+         */
+        final List<String> order;
+
+        CompiledType(QueryDSLType type) {
+            this.dslName = type.dslName;
+            this.namedObject = type.namedObject;
+            this.namedObjectValue = type.namedObjectValue;
+            this.namedArray = type.namedArray;
+            Map<String, QueryDSLType.PARAM_TYPE> params = new HashMap<String, QueryDSLType.PARAM_TYPE>();
+            Set<String> groups = new HashSet<String>();
+            List<String> order = new ArrayList<String>();
+            for (String field : QueryDSLTypeExtractor.outputFields(type)) {
+                QueryDSLType.Param p = type.fields.get(field);
+                String name = p.paramName;
+                QueryDSLType.PARAM_TYPE paramType = p.type;
+                int bracket = name.indexOf('[');
+                if (bracket > 0) {
+                    name = name.substring(0, bracket);
+                    paramType = QueryDSLType.PARAM_TYPE.OTHER;
+                }
+                if (params.put(name, paramType) == null) order.add(name);
+                for (int dot = name.indexOf('.'); dot > 0; dot = name.indexOf('.', dot + 1)) {
+                    groups.add(name.substring(0, dot));
+                }
+            }
+            this.params = params;
+            this.groups = groups;
+            this.order = Collections.unmodifiableList(order);
+        }
+
+        QueryDSLType.PARAM_TYPE param(String name) {
+            return params.get(name);
+        }
+
+        boolean isGroup(String name) {
+            return groups.contains(name);
+        }
+    }
+
+    private final Map<String, CompiledType> queries;
+
+    private final Map<String, CompiledType> filters;
+
+    private CompiledModel(Map<String, CompiledType> queries, Map<String, CompiledType> filters) {
+        this.queries = queries;
+        this.filters = filters;
+    }
+
+    /**
+     * Compiles the model, as returned by {@link QueryDSLTypeExtractor#parseQueries()} and {@link QueryDSLTypeExtractor#parseFilters()}.
+     */
+    public static CompiledModel compile(Map<String, QueryDSLType> queries, Map<String, QueryDSLType> filters) {
+        return new CompiledModel(compile(queries), compile(filters));
+    }
+
+    private static Map<String, CompiledType> compile(Map<String, QueryDSLType> types) {
+        Map<String, CompiledType> result = new HashMap<String, CompiledType>(types.size() * 2);
+        for (QueryDSLType type : types.values()) {
+            result.put(type.dslName, new CompiledType(type));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @return the compiled dsl type, or null if the section has no such type
+     */
+    CompiledType get(QueryDSLType.TYPE section, String dslName) {
+        return (section == QueryDSLType.TYPE.QUERY ? queries : filters).get(dslName);
+    }
+
+    /**
+     * @return true if either section has a dsl type of that name
+     */
+    boolean isDslName(String name) {
+        return queries.containsKey(name) || filters.containsKey(name);
+    }
+}
@@ -0,0 +1,271 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Writes the documentation and builder source snippets the web builder shows next to the fields of a dsl type,
+ * so that it doesn't have to fetch and clean up the elasticsearch reference page or the builder source every time
+ * a type is selected.
+ *
+ * qb-model-[version]/docs/query/[dsl name].json and qb-model-[version]/docs/filter/[dsl name].json:
+ * <pre>
+ * {"doc":"&lt;div class=\"titlepage\"&gt;...","src":"public void doXContent(XContentBuilder builder, ...) {\n..."}
+ * </pre>
+ * doc is the inner html of the first div.section of the reference page, as the page used to extract it:
+ * without the .toc and .edit_me elements, with relative links and images made absolute and links opening
+ * in a new window. The reference pages are read from a directory of saved pages, named as on the reference site,
+ * e.g. query-dsl-term-query.html. src is the doXContent method of the builder, which writes the params.
+ * Either is left out if it can't be found.
+ */
+public class DocSnippetWriter {
+
+    public static final String REFERENCE_URL = "https://www.elastic.co/guide/en/elasticsearch/reference/current/";
+
+    private static final Pattern START_TAG = Pattern.compile("<([a-zA-Z][a-zA-Z0-9]*)\\b[^>]*>");
+    private static final Pattern CLASS_ATTRIBUTE = Pattern.compile("\\bclass\\s*=\\s*[\"']([^\"']*)[\"']");
+    private static final Pattern LINK_OR_IMAGE = Pattern.compile("<(a|img)\\b[^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern URL_ATTRIBUTE = Pattern.compile("\\b(href|src)\\s*=\\s*\"([^\"]*)\"");
+    private static final Pattern TARGET_ATTRIBUTE = Pattern.compile("\\btarget\\s*=\\s*\"[^\"]*\"");
+    private static final Pattern ABSOLUTE_URL = Pattern.compile("^([a-zA-Z][a-zA-Z0-9+.-]*:|/)");
+    private static final Pattern DO_X_CONTENT = Pattern.compile("\\bdoXContent\\s*\\(");
+
+    private final File docsDir;
+
+    /**
+     * @param docsDir the saved reference pages, or null to only write the source snippets
+     */
+    public DocSnippetWriter(File docsDir) {
+        this.docsDir = docsDir;
+    }
+
+    /**
+     * Writes the snippets of the dsl types of a section into outputDir.
+     *
+     * @param builderFiles the builder source of each dsl type, by dsl name
+     */
+    public void write(File outputDir, String version, QueryDSLType.TYPE section, Map<String, QueryDSLType> types, Map<String, File> builderFiles) throws IOException {
+        String sectionName = sectionName(section);
+        File dir = new File(outputDir, "qb-model-" + version + "/docs/" + sectionName);
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Couldn't create " + dir);
+        for (String dslName : types.keySet()) {
+            String doc = null;
+            File page = docsDir == null ? null : new File(docsDir, docFileName(dslName, section));
+            if (page != null && page.isFile()) {
+                doc = extractSection(read(page), REFERENCE_URL + page.getName());
+            }
+            File builderFile = builderFiles.get(dslName);
+            String src = builderFile == null ? null : extractDoXContent(read(builderFile));
+
+            XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent,
+                    new BufferedOutputStream(new FileOutputStream(new File(dir, dslName + ".json"))));
+            try {
+                builder.startObject();
+                if (doc != null) builder.field("doc", doc);
+                if (src != null) builder.field("src", src);
+                builder.endObject();
+            } finally {
+                builder.close();
+            }
+        }
+    }
+
+    static String sectionName(QueryDSLType.TYPE section) {
+        return section == QueryDSLType.TYPE.QUERY ? "query" : "filter";
+    }
+
+    /**
+     * The file name of the reference page of a dsl type, the same as getESDocURL in query-dsl-builder.html.
+     */
+    static String docFileName(String dslName, QueryDSLType.TYPE section) {
+        String name = dslName.replace('_', '-');
+        if (name.equals("common")) name = "common-terms";
+        else if (name.equals("geo-bbox")) name = "geo-bounding-box";
+        return "query-dsl-" + name + "-" + sectionName(section) + ".html";
+    }
+
+    /**
+     * The inner html of the first div.section of a reference page, cleaned up for the web builder.
+     * Returns null if there's no div.section.
+     *
+     * @param pageUrl where the page was saved from, which links to anchors within the page are made relative to
+     */
+    static String extractSection(String html, String pageUrl) {
+        Matcher m = START_TAG.matcher(html);
+        while (m.find()) {
+            if (!m.group(1).equalsIgnoreCase("div") || !hasClass(m.group(), "section")) continue;
+            int end = elementEnd(html, m.end(), "div");
+            if (end < 0) return null;
+            String inner = html.substring(m.end(), end - "</div>".length());
+            return rewriteUrls(removeElements(inner, "toc", "edit_me"), pageUrl);
+        }
+        return null;
+    }
+
+    private static boolean hasClass(String startTag, String className) {
+        Matcher m = CLASS_ATTRIBUTE.matcher(startTag);
+        if (!m.find()) return false;
+        for (String c : m.group(1).trim().split("\\s+")) {
+            if (c.equals(className)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The index after the end tag of the element of the given tag whose content starts at from,
+     * counting nested elements of the same tag. -1 if it isn't closed.
+     */
+    private static int elementEnd(String html, int from, String tag) {
+        Pattern p = Pattern.compile("<(/?)" + tag + "\\b[^>]*>", Pattern.CASE_INSENSITIVE);
+        Matcher m = p.matcher(html);
+        int depth = 1;
+        int i = from;
+        while (m.find(i)) {
+            i = m.end();
+            if (m.group(1).length() > 0) {
+                if (--depth == 0) return i;
+            } else if (!m.group().endsWith("/>")) {
+                depth++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the elements with any of the classes, along with their content.
+     */
+    static String removeElements(String html, String... classNames) {
+        StringBuilder sb = new StringBuilder(html.length());
+        Matcher m = START_TAG.matcher(html);
+        int i = 0;
+        while (i < html.length() && m.find(i)) {
+            boolean remove = false;
+            for (String c : classNames) {
+                if (hasClass(m.group(), c)) remove = true;
+            }
+            if (!remove) {
+                sb.append(html, i, m.end());
+                i = m.end();
+                continue;
+            }
+            sb.append(html, i, m.start());
+            int end = m.group().endsWith("/>") ? m.end() : elementEnd(html, m.end(), m.group(1));
+            i = end < 0 ? m.end() : end;
+        }
+        if (i < html.length()) sb.append(html, i, html.length());
+        return sb.toString();
+    }
+
+    /**
+     * Makes relative image and link urls absolute, and has links open in a new window.
+     */
+    static String rewriteUrls(String html, String pageUrl) {
+        StringBuffer sb = new StringBuffer(html.length());
+        Matcher m = LINK_OR_IMAGE.matcher(html);
+        while (m.find()) {
+            String tag = m.group();
+            Matcher url = URL_ATTRIBUTE.matcher(tag);
+            if (url.find()) {
+                String u = url.group(2);
+                if (u.startsWith("#")) {
+                    u = pageUrl + u;
+                } else if (!ABSOLUTE_URL.matcher(u).find()) {
+                    u = REFERENCE_URL + u;
+                }
+                tag = tag.substring(0, url.start()) + url.group(1) + "=\"" + u + "\"" + tag.substring(url.end());
+            }
+            if (m.group(1).equalsIgnoreCase("a")) {
+                Matcher target = TARGET_ATTRIBUTE.matcher(tag);
+                tag = target.find() ? target.replaceFirst("target=\"_blank\"") : "<a target=\"_blank\"" + tag.substring(2);
+            }
+            m.appendReplacement(sb, Matcher.quoteReplacement(tag));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    /**
+     * The doXContent method of a builder source, from its declaration to its closing brace, with its
+     * indentation removed. Returns null if there's no doXContent method.
+     */
+    static String extractDoXContent(String source) {
+        Matcher m = DO_X_CONTENT.matcher(source);
+        if (!m.find()) return null;
+        int start = source.lastIndexOf('\n', m.start()) + 1;
+        int open = source.indexOf('{', m.end());
+        if (open < 0) return null;
+        int end = closingBrace(source, open);
+        if (end < 0) return null;
+        return dedent(source.substring(start, end + 1));
+    }
+
+    /**
+     * The index of the brace closing the one at open, skipping string and char literals and comments.
+     */
+    private static int closingBrace(String s, int open) {
+        int depth = 0;
+        for (int i = open; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\'') {
+                for (i++; i < s.length() && s.charAt(i) != c; i++) {
+                    if (s.charAt(i) == '\\') i++;
+                }
+            } else if (c == '/' && i + 1 < s.length() && s.charAt(i + 1) == '/') {
+                i = s.indexOf('\n', i);
+                if (i < 0) return -1;
+            } else if (c == '/' && i + 1 < s.length() && s.charAt(i + 1) == '*') {
+                i = s.indexOf("*/", i + 2);
+                if (i < 0) return -1;
+                i++;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the indentation of the first line from every line.
+     */
+    private static String dedent(String s) {
+        int indent = 0;
+        while (indent < s.length() && (s.charAt(indent) == ' ' || s.charAt(indent) == '\t')) indent++;
+        if (indent == 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (String line : s.split("\n", -1)) {
+            if (sb.length() > 0) sb.append('\n');
+            int i = 0;
+            while (i < indent && i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t')) i++;
+            sb.append(line, i, line.length());
+        }
+        return sb.toString();
+    }
+
+    private static String read(File f) throws IOException {
+        StringBuilder sb = new StringBuilder((int) f.length());
+        Reader in = new InputStreamReader(new FileInputStream(f), "UTF-8");
+        try {
+            char[] buf = new char[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                sb.append(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,233 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of parsed builders, so that regenerating a model only re-parses the builders
+ * that changed.
+ *
+ * An entry holds the QueryDSLType of one builder as it was before the extraction rules were applied.
+ * It's keyed by a SHA-1 over the xxxBuilder.java and xxxParser.java sources and over the jars
+ * the classes were loaded from, so a changed builder, parser or elasticsearch jar is a miss.
+ * Entries are written to a temp file and renamed into place, so the cache can be shared by
+ * concurrent extractions.
+ */
+public class ExtractionCache {
+
+    /**
+     * Part of every key. Bump this when the extraction logic or the entry format changes, to
+     * invalidate existing entries.
+     */
+    static final int FORMAT = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File dir;
+
+    private final String jarHash;
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param dir the cache directory, created if it doesn't exist
+     * @param jarHash hash of the jars the builder classes are loaded from, see {@link #hashJars(File)}
+     */
+    public ExtractionCache(File dir, String jarHash) {
+        this.dir = dir;
+        this.jarHash = jarHash;
+        dir.mkdirs();
+    }
+
+    /**
+     * Hashes the content of every jar in dir, which is what QueryDSLTypeExtractor.init() loads classes from.
+     * If dir is the elasticsearch jar itself, as when the builders are read from their class files, hashes that.
+     */
+    public static String hashJars(File dir) throws IOException {
+        MessageDigest digest = sha1();
+        File[] files = dir.isFile() ? new File[]{dir} : dir.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File f : files) {
+                if (!f.getName().endsWith(".jar")) continue;
+                digest.update(f.getName().getBytes(UTF_8));
+                update(digest, f);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Hash of a builder and its parser source, independent of the jars. Identical builders in
+     * different elasticsearch versions have the same source hash.
+     */
+    public static String hashSources(File builder, File parser) throws IOException {
+        MessageDigest digest = sha1();
+        digest.update(builder.getName().getBytes(UTF_8));
+        update(digest, builder);
+        digest.update(parser.getName().getBytes(UTF_8));
+        update(digest, parser);
+        return hex(digest.digest());
+    }
+
+    /**
+     * Hash of a builder and its parser class file, the equivalent of {@link #hashSources(File, File)} for builders
+     * read from the jar.
+     */
+    public static String hashClasses(String builderName, byte[] builder, String parserName, byte[] parser) {
+        MessageDigest digest = sha1();
+        digest.update(builderName.getBytes(UTF_8));
+        digest.update(builder);
+        digest.update(parserName.getBytes(UTF_8));
+        digest.update(parser);
+        return hex(digest.digest());
+    }
+
+    /**
+     * The cache key for a builder, given its {@link #hashSources(File, File) source hash}.
+     */
+    public String key(String sourceHash) {
+        MessageDigest digest = sha1();
+        digest.update((FORMAT + ":" + jarHash + ":" + sourceHash).getBytes(UTF_8));
+        return hex(digest.digest());
+    }
+
+    /**
+     * @return the cached type, or null if there's no entry for the key
+     */
+    public QueryDSLType get(String key) {
+        File f = new File(dir, key);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            QueryDSLType type = read(in);
+            hits.incrementAndGet();
+            return type;
+        } catch (FileNotFoundException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            // a corrupt entry is just a miss, and gets overwritten by put()
+            System.out.println("Ignoring cache entry " + f + ": " + e);
+            misses.incrementAndGet();
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    public void put(String key, QueryDSLType type) throws IOException {
+        File tmp = File.createTempFile(key, ".tmp", dir);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            write(out, type);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(new File(dir, key))) {
+            tmp.delete();
+        }
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    private static void write(DataOutputStream out, QueryDSLType type) throws IOException {
+        out.writeUTF(type.dslName);
+        out.writeUTF(type.type.name());
+        out.writeBoolean(type.namedObject);
+        out.writeBoolean(type.namedObjectValue);
+        out.writeBoolean(type.namedArray);
+        writeNullable(out, type.namedArrayValues);
+        out.writeInt(type.fields.size());
+        for (Map.Entry<String, QueryDSLType.Param> e : type.fields.entrySet()) {
+            QueryDSLType.Param p = e.getValue();
+            out.writeUTF(e.getKey());
+            out.writeUTF(p.type.name());
+            writeNullable(out, p.paramName);
+            writeNullable(out, p.label);
+        }
+    }
+
+    private static QueryDSLType read(DataInputStream in) throws IOException {
+        QueryDSLType type = new QueryDSLType(in.readUTF(), QueryDSLType.TYPE.valueOf(in.readUTF()));
+        type.namedObject = in.readBoolean();
+        type.namedObjectValue = in.readBoolean();
+        type.namedArray = in.readBoolean();
+        type.namedArrayValues = readNullable(in);
+        for (int i = 0, n = in.readInt(); i < n; i++) {
+            String field = in.readUTF();
+            QueryDSLType.PARAM_TYPE paramType = QueryDSLType.PARAM_TYPE.valueOf(in.readUTF());
+            type.fields.put(field, new QueryDSLType.Param(paramType, readNullable(in), readNullable(in)));
+        }
+        return type;
+    }
+
+    private static void writeNullable(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, File f) throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                digest.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void close(InputStream in) {
+        if (in == null) return;
+        try {
+            in.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
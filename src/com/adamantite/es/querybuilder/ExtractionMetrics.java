@@ -0,0 +1,279 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * What an extraction did, for spotting regressions in extraction time and coverage: the time spent on each builder
+ * and where its type came from, the idioms matched, the reflection and extraction cache lookups, and the fields
+ * whose type or param name couldn't be found. {@link QueryDSLTypeExtractor#extract(String)} writes it next to the
+ * model as qb-metrics-[version].json, e.g.
+ *
+ * {"format":1,"version":"1.7.2","millis":212,
+ *  "builders":{"query":[{"builder":"BoolQueryBuilder.java","dslName":"bool","source":"PARSED","nanos":1534000,
+ *      "parseNanos":1320000,"matches":7,"unknownTypes":[],"unknownFields":["clauses"]},...],"filter":[...]},
+ *  "idioms":{"FIELD":130,...},"unknownTypes":2,"unknownFields":5,"errors":0,
+ *  "reflectionCache":{"hits":80,"misses":95,"nanos":41000000},"extractionCache":{"hits":0,"misses":0,"nanos":0}}
+ *
+ * Idioms and unknown fields are only known for the builders parsed by this extraction, not for those taken
+ * from the cache or from another version. Safe to share between the threads of a parallel extraction.
+ */
+public class ExtractionMetrics {
+
+    static final int FORMAT = 1;
+
+    /**
+     * Where the type of a builder came from.
+     */
+    public static enum Source {
+        PARSED, CACHED, SHARED
+    }
+
+    /**
+     * The metrics of a single builder. Only updated by the thread extracting it.
+     */
+    public static class Builder {
+        final QueryDSLType.TYPE section;
+
+        /**
+         * e.g. TermQueryBuilder.java, or TermQueryBuilder.class when read from the jar
+         */
+        final String file;
+
+        String dslName;
+        Source source;
+
+        /**
+         * Time spent on the builder overall, including the cache lookup or the wait for another version
+         */
+        long nanos;
+
+        /**
+         * Time spent parsing the builder, 0 if it wasn't parsed
+         */
+        long parseNanos;
+
+        int matches;
+
+        /**
+         * The fields that were given PARAM_TYPE.OTHER
+         */
+        final List<String> unknownTypes = new ArrayList<String>();
+
+        /**
+         * The fields that an idiom named, but the builder doesn't declare
+         */
+        final List<String> unknownFields = new ArrayList<String>();
+
+        /**
+         * Why the builder couldn't be parsed, null if it could
+         */
+        String error;
+
+        Builder(QueryDSLType.TYPE section, String file) {
+            this.section = section;
+            this.file = file;
+        }
+
+        public String getDslName() {
+            return dslName;
+        }
+
+        public Source getSource() {
+            return source;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getParseNanos() {
+            return parseNanos;
+        }
+
+        public int getMatches() {
+            return matches;
+        }
+
+        public List<String> getUnknownTypes() {
+            return unknownTypes;
+        }
+
+        public List<String> getUnknownFields() {
+            return unknownFields;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    private final ConcurrentMap<String, Builder> builders = new ConcurrentHashMap<String, Builder>();
+
+    private final AtomicLongArray idioms = new AtomicLongArray(BuilderSourceScanner.Idiom.values().length);
+
+    private final AtomicLong cacheNanos = new AtomicLong();
+
+    /**
+     * Starts the metrics of a builder, replacing those of an earlier extraction of it.
+     */
+    Builder start(QueryDSLType.TYPE section, String file) {
+        Builder b = new Builder(section, file);
+        builders.put(section + "/" + file, b);
+        return b;
+    }
+
+    /**
+     * The metrics of a builder being extracted, see {@link #start(QueryDSLType.TYPE, String)}.
+     */
+    Builder get(QueryDSLType.TYPE section, String file) {
+        Builder b = builders.get(section + "/" + file);
+        return b != null ? b : start(section, file);
+    }
+
+    /**
+     * Records the outcome of a builder once it's been extracted and the rules applied. A builder without a parser,
+     * i.e. not a dsl type, is dropped.
+     */
+    void finish(Builder b, QueryDSLType dslType, long nanos) {
+        b.nanos = nanos;
+        if (dslType == null && b.source == null) {
+            builders.remove(b.section + "/" + b.file);
+            return;
+        }
+        if (b.source == null) b.source = Source.SHARED;
+        if (dslType == null) return;
+        b.dslName = dslType.dslName;
+        b.unknownTypes.clear();
+        for (Map.Entry<String, QueryDSLType.Param> e : dslType.fields.entrySet()) {
+            if (e.getValue().type == QueryDSLType.PARAM_TYPE.OTHER) b.unknownTypes.add(e.getKey());
+        }
+    }
+
+    void countMatch(Builder b, BuilderSourceScanner.Idiom idiom) {
+        b.matches++;
+        idioms.incrementAndGet(idiom.ordinal());
+    }
+
+    void addCacheNanos(long nanos) {
+        cacheNanos.addAndGet(nanos);
+    }
+
+    /**
+     * The builders extracted so far, sorted by file.
+     */
+    public List<Builder> getBuilders(QueryDSLType.TYPE section) {
+        Map<String, Builder> sorted = new TreeMap<String, Builder>();
+        for (Builder b : builders.values()) {
+            if (b.section == section) sorted.put(b.file, b);
+        }
+        return new ArrayList<Builder>(sorted.values());
+    }
+
+    public long getMatches(BuilderSourceScanner.Idiom idiom) {
+        return idioms.get(idiom.ordinal());
+    }
+
+    /**
+     * Time spent reading and writing extraction cache entries
+     */
+    public long getCacheNanos() {
+        return cacheNanos.get();
+    }
+
+    /**
+     * Writes the report to qb-metrics-[version].json in outputDir.
+     *
+     * @param millis the wall time of the extraction
+     * @param reflection null when the builders were read from the jar
+     * @param cache null if there's no extraction cache
+     */
+    public void write(File outputDir, String version, long millis, ReflectionCache reflection, ExtractionCache cache) throws IOException {
+        XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent,
+                new BufferedOutputStream(new FileOutputStream(new File(outputDir, "qb-metrics-" + version + ".json"))));
+        try {
+            builder.prettyPrint();
+            write(builder, version, millis, reflection, cache);
+        } finally {
+            builder.close();
+        }
+    }
+
+    void write(XContentBuilder builder, String version, long millis, ReflectionCache reflection, ExtractionCache cache) throws IOException {
+        int unknownTypes = 0;
+        int unknownFields = 0;
+        int errors = 0;
+        builder.startObject();
+        builder.field("format", FORMAT);
+        builder.field("version", version);
+        builder.field("millis", millis);
+        builder.startObject("builders");
+        for (QueryDSLType.TYPE section : new QueryDSLType.TYPE[]{QueryDSLType.TYPE.QUERY, QueryDSLType.TYPE.FILTER}) {
+            builder.startArray(section == QueryDSLType.TYPE.QUERY ? "query" : "filter");
+            for (Builder b : getBuilders(section)) {
+                builder.startObject();
+                builder.field("builder", b.file);
+                if (b.dslName != null) builder.field("dslName", b.dslName);
+                builder.field("source", b.source.name());
+                builder.field("nanos", b.nanos);
+                builder.field("parseNanos", b.parseNanos);
+                builder.field("matches", b.matches);
+                writeStrings(builder, "unknownTypes", b.unknownTypes);
+                writeStrings(builder, "unknownFields", b.unknownFields);
+                if (b.error != null) builder.field("error", b.error);
+                builder.endObject();
+                unknownTypes += b.unknownTypes.size();
+                unknownFields += b.unknownFields.size();
+                if (b.error != null) errors++;
+            }
+            builder.endArray();
+        }
+        builder.endObject();
+
+        builder.startObject("idioms");
+        for (BuilderSourceScanner.Idiom idiom : BuilderSourceScanner.Idiom.values()) {
+            builder.field(idiom.name(), getMatches(idiom));
+        }
+        builder.endObject();
+        builder.field("unknownTypes", unknownTypes);
+        builder.field("unknownFields", unknownFields);
+        builder.field("errors", errors);
+
+        if (reflection != null) {
+            builder.startObject("reflectionCache");
+            builder.field("hits", reflection.getHits());
+            builder.field("misses", reflection.getMisses());
+            builder.field("nanos", reflection.getNanos());
+            builder.endObject();
+        }
+        if (cache != null) {
+            builder.startObject("extractionCache");
+            builder.field("hits", cache.getHits());
+            builder.field("misses", cache.getMisses());
+            builder.field("nanos", getCacheNanos());
+            builder.endObject();
+        }
+        builder.endObject();
+    }
+
+    private static void writeStrings(XContentBuilder builder, String name, List<String> values) throws IOException {
+        builder.startArray(name);
+        for (String value : values) {
+            builder.value(value);
+        }
+        builder.endArray();
+    }
+}
@@ -0,0 +1,307 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Fixes to the extracted model that can't be derived from the builder sources, such as params a builder
+ * only writes in a shortcut form, or types that render better than the java field's type. They're declared
+ * in a json rules file instead of in code, so a new elasticsearch version only needs its rules:
+ * <pre>
+ * {"format":1,"sets":[
+ *   {"versions":{"from":"1.0.0","to":"1.7.2"},
+ *    "query":{"common":[{"field":"lowFreqMinimumShouldMatch","paramNamePrefix":"minimum_should_match."}],
+ *             "template":[{"clearFields":true},{"addField":"file","type":"STRING","paramName":"file"}]},
+ *    "filter":{"geo_distance":[{"namedObject":false,"namedObjectValue":false}]}}]}
+ * </pre>
+ * A set applies to the versions in its range, both ends inclusive and optional, or to every version without
+ * a range. A version which isn't numeric, e.g. of a test fixture, only gets the sets without a range.
+ *
+ * The rules of a dsl type are applied in order, and each one does any of:
+ * <ul>
+ * <li>field: change the param of a java field, with paramName, paramNamePrefix (prepended to its param name), type and label
+ * <li>addField: add or replace a java field, with type, paramName and label
+ * <li>clearFields: remove every field
+ * <li>namedObject, namedObjectValue: set the flags
+ * </ul>
+ * A rule with a field that the type doesn't have (or whose param name isn't known, for paramNamePrefix) doesn't match,
+ * and neither do the rules of a type that isn't extracted. {@link #getUnmatched()} reports them.
+ *
+ * The rules of an extractor are compiled for its version, by section and dsl name, and applied to each builder as it's
+ * parsed. Applying them is thread safe.
+ */
+public class ExtractionRules {
+
+    static final int FORMAT = 1;
+
+    /**
+     * The rules for the elasticsearch versions the extractor has been run on, on the class path next to this class.
+     */
+    public static final String DEFAULT_RULES = "extraction-rules.json";
+
+    private static final Set<String> KEYS = new HashSet<String>(Arrays.asList(
+            "field", "addField", "clearFields", "paramName", "paramNamePrefix", "type", "label", "namedObject", "namedObjectValue"));
+
+    /**
+     * A single rule of a dsl type.
+     */
+    public static final class Rule {
+        final QueryDSLType.TYPE section;
+        final String dslName;
+        final String field;
+        final String addField;
+        final boolean clearFields;
+        final String paramName;
+        final String paramNamePrefix;
+        final QueryDSLType.PARAM_TYPE type;
+        final String label;
+        final Boolean namedObject;
+        final Boolean namedObjectValue;
+
+        private final String description;
+        private final AtomicInteger matches = new AtomicInteger();
+
+        Rule(QueryDSLType.TYPE section, String dslName, Map<String, Object> rule) {
+            this.section = section;
+            this.dslName = dslName;
+            this.description = section.name().toLowerCase() + " " + dslName + " " + rule;
+            for (String key : rule.keySet()) {
+                if (!KEYS.contains(key)) throw new IllegalArgumentException("Unknown key " + key + " in rule " + description);
+            }
+            field = string(rule, "field");
+            addField = string(rule, "addField");
+            clearFields = Boolean.TRUE.equals(rule.get("clearFields"));
+            paramName = string(rule, "paramName");
+            paramNamePrefix = string(rule, "paramNamePrefix");
+            String t = string(rule, "type");
+            try {
+                type = t == null ? null : QueryDSLType.PARAM_TYPE.valueOf(t);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown type " + t + " in rule " + description);
+            }
+            label = string(rule, "label");
+            namedObject = (Boolean) rule.get("namedObject");
+            namedObjectValue = (Boolean) rule.get("namedObjectValue");
+
+            if (field != null && addField != null) throw new IllegalArgumentException("A rule has either field or addField: " + description);
+            if (addField != null && type == null) throw new IllegalArgumentException("addField needs a type: " + description);
+            if (field == null && addField == null && (paramName != null || paramNamePrefix != null || type != null || label != null)) {
+                throw new IllegalArgumentException("Param changes need a field: " + description);
+            }
+            if (field == null && addField == null && !clearFields && namedObject == null && namedObjectValue == null) {
+                throw new IllegalArgumentException("The rule doesn't do anything: " + description);
+            }
+        }
+
+        private static String string(Map<String, Object> rule, String key) {
+            Object o = rule.get(key);
+            return o == null ? null : o.toString();
+        }
+
+        /**
+         * @return false if the rule didn't match, in which case type is unchanged
+         */
+        boolean apply(QueryDSLType dslType) {
+            QueryDSLType.Param p = null;
+            if (field != null) {
+                p = dslType.fields.get(field);
+                if (p == null || (paramNamePrefix != null && p.paramName == null)) return false;
+            }
+            if (clearFields) dslType.fields.clear();
+            if (addField != null) {
+                dslType.fields.put(addField, new QueryDSLType.Param(type, paramName, label));
+            } else if (p != null) {
+                if (paramName != null) p.paramName = paramName;
+                if (paramNamePrefix != null) p.paramName = paramNamePrefix + p.paramName;
+                if (type != null) p.type = type;
+                if (label != null) p.label = label;
+            }
+            if (namedObject != null) dslType.setNamedObject(namedObject);
+            if (namedObjectValue != null) dslType.setNamedObjectValue(namedObjectValue);
+            matches.incrementAndGet();
+            return true;
+        }
+
+        /**
+         * @return the number of builders the rule was applied to
+         */
+        public int getMatches() {
+            return matches.get();
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    private final Map<String, Rule[]> queryRules;
+    private final Map<String, Rule[]> filterRules;
+    private final List<Rule> rules;
+
+    private ExtractionRules(Map<String, Rule[]> queryRules, Map<String, Rule[]> filterRules, List<Rule> rules) {
+        this.queryRules = queryRules;
+        this.filterRules = filterRules;
+        this.rules = rules;
+    }
+
+    /**
+     * The default rules, compiled for esVersion.
+     */
+    public static ExtractionRules loadDefault(String esVersion) {
+        InputStream in = ExtractionRules.class.getResourceAsStream(DEFAULT_RULES);
+        if (in == null) throw new IllegalStateException(DEFAULT_RULES + " isn't on the class path");
+        try {
+            return load(in, esVersion);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't read " + DEFAULT_RULES, e);
+        }
+    }
+
+    public static ExtractionRules load(File file, String esVersion) throws IOException {
+        return load(new FileInputStream(file), esVersion);
+    }
+
+    /**
+     * Reads a rules file, and compiles the rules of the sets whose range includes esVersion. Closes in.
+     *
+     * @throws IllegalArgumentException if a rule is invalid
+     */
+    @SuppressWarnings("unchecked")
+    public static ExtractionRules load(InputStream in, String esVersion) throws IOException {
+        Map<String, Object> file;
+        try {
+            XContentParser parser = JsonXContent.jsonXContent.createParser(in);
+            try {
+                file = parser.mapOrdered();
+            } finally {
+                parser.close();
+            }
+        } finally {
+            in.close();
+        }
+        Object format = file.get("format");
+        if (!(format instanceof Number) || ((Number) format).intValue() != FORMAT) {
+            throw new IllegalArgumentException("Unsupported rules format " + format);
+        }
+
+        int[] version = parseVersion(esVersion);
+        Map<String, List<Rule>> queries = new HashMap<String, List<Rule>>();
+        Map<String, List<Rule>> filters = new HashMap<String, List<Rule>>();
+        List<Rule> all = new ArrayList<Rule>();
+        for (Object o : (List<Object>) file.get("sets")) {
+            Map<String, Object> set = (Map<String, Object>) o;
+            if (!inRange(version, (Map<String, Object>) set.get("versions"))) continue;
+            addRules(QueryDSLType.TYPE.QUERY, (Map<String, Object>) set.get("query"), queries, all);
+            addRules(QueryDSLType.TYPE.FILTER, (Map<String, Object>) set.get("filter"), filters, all);
+        }
+        return new ExtractionRules(index(queries), index(filters), Collections.unmodifiableList(all));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addRules(QueryDSLType.TYPE section, Map<String, Object> types, Map<String, List<Rule>> index, List<Rule> all) {
+        if (types == null) return;
+        for (Map.Entry<String, Object> e : types.entrySet()) {
+            List<Rule> rules = index.get(e.getKey());
+            if (rules == null) {
+                rules = new ArrayList<Rule>();
+                index.put(e.getKey(), rules);
+            }
+            for (Object rule : (List<Object>) e.getValue()) {
+                Rule r = new Rule(section, e.getKey(), (Map<String, Object>) rule);
+                rules.add(r);
+                all.add(r);
+            }
+        }
+    }
+
+    private static Map<String, Rule[]> index(Map<String, List<Rule>> rules) {
+        Map<String, Rule[]> result = new HashMap<String, Rule[]>();
+        for (Map.Entry<String, List<Rule>> e : rules.entrySet()) {
+            result.put(e.getKey(), e.getValue().toArray(new Rule[e.getValue().size()]));
+        }
+        return result;
+    }
+
+    private static boolean inRange(int[] version, Map<String, Object> range) {
+        if (range == null) return true;
+        if (version == null) return false;
+        Object from = range.get("from");
+        Object to = range.get("to");
+        if (from != null && compare(version, parseVersion(from.toString())) < 0) return false;
+        if (to != null && compare(version, parseVersion(to.toString())) > 0) return false;
+        return true;
+    }
+
+    /**
+     * The numeric parts of a version, e.g. [1, 7, 2] for 1.7.2 or 1.7.2-SNAPSHOT. Null if it doesn't start with a number.
+     */
+    static int[] parseVersion(String version) {
+        String[] parts = version.split("[.-]");
+        int[] result = new int[parts.length];
+        int n = 0;
+        for (String part : parts) {
+            int i = 0;
+            while (i < part.length() && Character.isDigit(part.charAt(i))) i++;
+            if (i == 0) break;
+            result[n++] = Integer.parseInt(part.substring(0, i));
+        }
+        return n == 0 ? null : Arrays.copyOf(result, n);
+    }
+
+    static int compare(int[] a, int[] b) {
+        for (int i = 0; i < Math.max(a.length, b.length); i++) {
+            int x = i < a.length ? a[i] : 0;
+            int y = i < b.length ? b[i] : 0;
+            if (x != y) return x < y ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Applies the rules of a dsl type to it.
+     *
+     * @return the number of rules that matched
+     */
+    public int apply(QueryDSLType dslType) {
+        Rule[] rules = (dslType.type == QueryDSLType.TYPE.QUERY ? queryRules : filterRules).get(dslType.dslName);
+        if (rules == null) return 0;
+        int matched = 0;
+        for (Rule rule : rules) {
+            if (rule.apply(dslType)) matched++;
+        }
+        return matched;
+    }
+
+    /**
+     * Every rule for the version, in the order of the rules file.
+     */
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    /**
+     * The rules that haven't been applied to any builder so far.
+     */
+    public List<Rule> getUnmatched() {
+        List<Rule> result = new ArrayList<Rule>();
+        for (Rule rule : rules) {
+            if (rule.getMatches() == 0) result.add(rule);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,349 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Generates query json from the name/value pairs of the query-dsl-builder form, the same json as
+ * serializeFormToJson in query-dsl-builder.html, but streamed to an {@link XContentBuilder} instead of built
+ * up as an object first.
+ *
+ * Input names are '-' separated paths, as rendered by the page:
+ * <pre>
+ * bool-boost                                     {"bool":{"boost":...}}
+ * bool-must[0]-term-_namedObject                 the field of the term query, "user"
+ * bool-must[0]-term-@bool-must[0]-term@-boost    {"bool":{"must":[{"term":{"user":{"boost":...}}}]}}
+ * ids-values[]                                   {"ids":{"values":[...]}}
+ * </pre>
+ * As in the page, empty values are skipped, params starting with '_' other than _name aren't output,
+ * and only FLOAT and INTEGER params are coerced, with JavaScript's parseFloat and parseInt. The param types are
+ * looked up in the model rather than in the ttype attribute of the inputs.
+ *
+ * The pairs must be in the order of the form's inputs, where the inputs of an object are next to each other.
+ * An input which would add to an object which has already been closed is rejected with an IllegalArgumentException.
+ * Unlike the page, namedObject fields of queries in lists are resolved.
+ */
+public class FormJsonSerializer {
+
+    private static final Pattern NAMED_OBJECT = Pattern.compile("@[^@]+@");
+    private static final Pattern LIST_ITEM = Pattern.compile("([a-zA-Z_]+)\\[([0-9]+)\\]");
+
+    static final String NAMED_OBJECT_SUFFIX = "-_namedObject";
+    static final String PLACEHOLDER = "_placeholder";
+
+    /**
+     * Frame index of an object.
+     */
+    private static final int OBJECT = -1;
+
+    /**
+     * Frame index of an array of values, e.g. ids-values[].
+     */
+    private static final int VALUES = -2;
+
+    /**
+     * An open object or array, and the keys written to it so far.
+     */
+    private static final class Frame {
+        final String key;
+
+        /**
+         * The list index for an object in a list of queries, else OBJECT or VALUES.
+         */
+        int index;
+
+        final Set<String> children = new HashSet<String>();
+
+        Frame(String key, int index) {
+            this.key = key;
+            this.index = index;
+        }
+    }
+
+    /**
+     * The open path of a single serialization.
+     */
+    private static final class Output {
+        final XContentBuilder builder;
+        final Frame root = new Frame("", OBJECT);
+        final List<Frame> open = new ArrayList<Frame>();
+
+        Output(XContentBuilder builder) {
+            this.builder = builder;
+        }
+
+        Frame current(int depth) {
+            return depth == 0 ? root : open.get(depth - 1);
+        }
+
+        /**
+         * Makes key the frame at depth, closing whatever else is open at depth.
+         */
+        void enter(int depth, String key, int index, String name) throws IOException {
+            if (depth < open.size()) {
+                Frame f = open.get(depth);
+                if (f.key.equals(key) && f.index == index) return;
+                if (f.key.equals(key) && f.index >= 0 && index > f.index) {
+                    // the next query of the same list
+                    truncate(depth + 1);
+                    builder.endObject();
+                    builder.startObject();
+                    f.index = index;
+                    f.children.clear();
+                    return;
+                }
+                truncate(depth);
+            }
+            addChild(current(depth), key, name);
+            if (index == OBJECT) {
+                builder.startObject(key);
+            } else {
+                builder.startArray(key);
+                if (index != VALUES) builder.startObject();
+            }
+            open.add(new Frame(key, index));
+        }
+
+        /**
+         * Closes the frames at depth and below.
+         */
+        void truncate(int depth) throws IOException {
+            for (int i = open.size() - 1; i >= depth; i--) {
+                Frame f = open.remove(i);
+                if (f.index == OBJECT) {
+                    builder.endObject();
+                } else {
+                    if (f.index != VALUES) builder.endObject();
+                    builder.endArray();
+                }
+            }
+        }
+
+        void addChild(Frame parent, String key, String name) {
+            if (!parent.children.add(key)) {
+                throw new IllegalArgumentException("Input " + name + " isn't next to the other inputs of " + key);
+            }
+        }
+    }
+
+    private final CompiledModel model;
+
+    public FormJsonSerializer(CompiledModel model) {
+        this.model = model;
+    }
+
+    public String toJSON(String[] names, String[] values, QueryDSLType.TYPE section) throws IOException {
+        XContentBuilder builder = XContentBuilder.builder(JsonXContent.jsonXContent);
+        serialize(names, values, section, builder);
+        return builder.string();
+    }
+
+    /**
+     * Writes the json object for the form inputs to builder.
+     *
+     * @param names the names of the form inputs, in form order
+     * @param values values[i] is the value of names[i]
+     * @param section whether the root of the form is a query or a filter
+     */
+    public void serialize(String[] names, String[] values, QueryDSLType.TYPE section, XContentBuilder builder) throws IOException {
+        if (names.length != values.length) throw new IllegalArgumentException("Every name needs a value");
+        Map<String, String> namedObjects = new HashMap<String, String>();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null && names[i].endsWith(NAMED_OBJECT_SUFFIX)) {
+                namedObjects.put(names[i].substring(0, names[i].length() - NAMED_OBJECT_SUFFIX.length()), values[i]);
+            }
+        }
+
+        Output out = new Output(builder);
+        builder.startObject();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null || names[i].length() == 0 || values[i] == null || values[i].length() == 0) continue;
+            write(out, names[i], values[i], section, namedObjects);
+        }
+        out.truncate(0);
+        builder.endObject();
+    }
+
+    private void write(Output out, String name, String value, QueryDSLType.TYPE section, Map<String, String> namedObjects) throws IOException {
+        String[] segments = split(name);
+
+        // the dsl type whose params the current segment is one of, if known
+        QueryDSLType.TYPE nextSection = section;
+        CompiledModel.CompiledType type = null;
+        boolean inParams = false;
+
+        int depth = 0;
+        for (int j = 0; j < segments.length - 1; j++) {
+            String prop = segments[j];
+            int index = OBJECT;
+            boolean named = false;
+            // named object references are resolved first, as they contain the list indexes of their prefix
+            if (prop.startsWith("@")) {
+                named = true;
+                String fieldName = namedObjects.get(prop.replace("@", "").replace('~', '-'));
+                prop = fieldName == null || fieldName.length() == 0 ? PLACEHOLDER : fieldName;
+            } else {
+                Matcher m = LIST_ITEM.matcher(prop);
+                if (m.find()) {
+                    prop = m.group(1);
+                    index = Integer.parseInt(m.group(2));
+                }
+            }
+
+            if (nextSection != null) {
+                type = model.get(nextSection, prop);
+                inParams = type != null;
+                nextSection = null;
+            } else if (inParams && !named) {
+                nextSection = builderSection(type.param(prop));
+                inParams = false;
+            }
+
+            out.enter(depth++, prop, index, name);
+        }
+
+        String finalProp = segments[segments.length - 1];
+        if (finalProp.startsWith("_") && !finalProp.equals("_name")) return;
+
+        if (finalProp.contains("[]")) {
+            out.enter(depth, finalProp.replace("[]", ""), VALUES, name);
+            out.truncate(depth + 1);
+            out.builder.value(value);
+            return;
+        }
+
+        out.truncate(depth);
+        out.addChild(out.current(depth), finalProp, name);
+        out.builder.field(finalProp);
+        QueryDSLType.PARAM_TYPE paramType = inParams ? type.param(finalProp) : null;
+        if (paramType == QueryDSLType.PARAM_TYPE.FLOAT) {
+            writeNumber(out.builder, parseFloat(value));
+        } else if (paramType == QueryDSLType.PARAM_TYPE.INTEGER) {
+            writeNumber(out.builder, parseInt(value));
+        } else {
+            out.builder.value(value);
+        }
+    }
+
+    /**
+     * Splits a name on '-', except within @...@ named object references.
+     */
+    static String[] split(String name) {
+        if (name.indexOf('@') >= 0) {
+            Matcher m = NAMED_OBJECT.matcher(name);
+            StringBuffer sb = new StringBuffer(name.length());
+            while (m.find()) {
+                m.appendReplacement(sb, Matcher.quoteReplacement(m.group().replace('-', '~')));
+            }
+            m.appendTail(sb);
+            name = sb.toString();
+        }
+        return name.split("-", -1);
+    }
+
+    private static QueryDSLType.TYPE builderSection(QueryDSLType.PARAM_TYPE type) {
+        if (type == QueryDSLType.PARAM_TYPE.QUERY_BUILDER || type == QueryDSLType.PARAM_TYPE.LIST_QUERY_BUILDER) return QueryDSLType.TYPE.QUERY;
+        if (type == QueryDSLType.PARAM_TYPE.FILTER_BUILDER || type == QueryDSLType.PARAM_TYPE.LIST_FILTER_BUILDER) return QueryDSLType.TYPE.FILTER;
+        return null;
+    }
+
+    /**
+     * Writes a number the way JSON.stringify does: NaN and infinities as null, and integers without a fraction.
+     */
+    static void writeNumber(XContentBuilder builder, double d) throws IOException {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            builder.nullValue();
+        } else if (d == Math.rint(d) && Math.abs(d) < 1e18) {
+            builder.value((long) d);
+        } else {
+            builder.value(d);
+        }
+    }
+
+    /**
+     * JavaScript's parseFloat: the longest prefix which is a number, after leading whitespace.
+     */
+    static double parseFloat(String s) {
+        int i = skipWhitespace(s);
+        int start = i;
+        if (i < s.length() && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+        if (s.startsWith("Infinity", i)) {
+            return s.charAt(start) == '-' ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        int digits = 0;
+        while (i < s.length() && isDigit(s.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < s.length() && s.charAt(i) == '.') {
+            int dot = i++;
+            while (i < s.length() && isDigit(s.charAt(i))) {
+                i++;
+                digits++;
+            }
+            if (digits == 0) i = dot;
+        }
+        if (digits == 0) return Double.NaN;
+        if (i < s.length() && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            int e = i++;
+            if (i < s.length() && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+            int expDigits = 0;
+            while (i < s.length() && isDigit(s.charAt(i))) {
+                i++;
+                expDigits++;
+            }
+            if (expDigits == 0) i = e;
+        }
+        return Double.parseDouble(s.substring(start, i));
+    }
+
+    /**
+     * JavaScript's parseInt without a radix: decimal, or hex with a 0x prefix.
+     */
+    static double parseInt(String s) {
+        int i = skipWhitespace(s);
+        boolean negative = false;
+        if (i < s.length() && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        int radix = 10;
+        if (s.startsWith("0x", i) || s.startsWith("0X", i)) {
+            radix = 16;
+            i += 2;
+        }
+        int start = i;
+        while (i < s.length() && Character.digit(s.charAt(i), radix) >= 0 && s.charAt(i) < 128) i++;
+        if (i == start) return Double.NaN;
+        double d;
+        if (radix == 10) {
+            d = Double.parseDouble(s.substring(start, i));
+        } else {
+            d = 0;
+            for (int j = start; j < i; j++) {
+                d = d * 16 + Character.digit(s.charAt(j), 16);
+            }
+        }
+        return negative ? -d : d;
+    }
+
+    private static int skipWhitespace(String s) {
+        int i = 0;
+        while (i < s.length() && (Character.isWhitespace(s.charAt(i)) || Character.isSpaceChar(s.charAt(i)) || s.charAt(i) == '\ufeff')) i++;
+        return i;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
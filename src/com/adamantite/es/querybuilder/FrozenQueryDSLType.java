@@ -0,0 +1,210 @@
+package com.adamantite.es.querybuilder;
+
+import java.util.Arrays;
+
+/**
+ * An immutable {@link QueryDSLType}, for holding the models of many versions in memory, e.g. in a long running service.
+ * Create these with a {@link ModelInterner} once the extraction rules have been applied.
+ *
+ * The fields are kept in two parallel arrays sorted by field name, rather than in a TreeMap, and the params
+ * are interned, so the boost, _name, _cache etc. params repeated across types and versions are shared.
+ * Instances can be shared between threads without synchronization.
+ */
+public final class FrozenQueryDSLType {
+
+    /**
+     * An immutable {@link QueryDSLType.Param}. Equal params are interchangeable, so they're interned.
+     */
+    public static final class Param {
+        final QueryDSLType.PARAM_TYPE type;
+        final String paramName;
+        final String label;
+
+        Param(QueryDSLType.PARAM_TYPE type, String paramName, String label) {
+            this.type = type;
+            this.paramName = paramName;
+            this.label = label;
+        }
+
+        public QueryDSLType.PARAM_TYPE getType() {
+            return type;
+        }
+
+        public String getParamName() {
+            return paramName;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Param that = (Param) o;
+
+            if (type != that.type) return false;
+            if (paramName != null ? !paramName.equals(that.paramName) : that.paramName != null) return false;
+            if (label != null ? !label.equals(that.label) : that.label != null) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = type.hashCode();
+            result = 31 * result + (paramName != null ? paramName.hashCode() : 0);
+            result = 31 * result + (label != null ? label.hashCode() : 0);
+            return result;
+        }
+
+        @Override public String toString() {
+            return type + "(" + paramName + (label != null ? ", " + label : "") + ")";
+        }
+    }
+
+    final String dslName;
+
+    final QueryDSLType.TYPE type;
+
+    final boolean namedObject;
+
+    final boolean namedObjectValue;
+
+    final boolean namedArray;
+
+    final String namedArrayValues;
+
+    /**
+     * Sorted field names, same order as the keys of {@link QueryDSLType#fields}.
+     */
+    private final String[] fieldNames;
+
+    /**
+     * params[i] is the param of fieldNames[i].
+     */
+    private final Param[] params;
+
+    FrozenQueryDSLType(QueryDSLType source, String dslName, String namedArrayValues, String[] fieldNames, Param[] params) {
+        this.dslName = dslName;
+        this.type = source.type;
+        this.namedObject = source.namedObject;
+        this.namedObjectValue = source.namedObjectValue;
+        this.namedArray = source.namedArray;
+        this.namedArrayValues = namedArrayValues;
+        this.fieldNames = fieldNames;
+        this.params = params;
+    }
+
+    public String getDslName() {
+        return dslName;
+    }
+
+    public QueryDSLType.TYPE getType() {
+        return type;
+    }
+
+    public boolean isNamedObject() {
+        return namedObject;
+    }
+
+    public boolean isNamedObjectValue() {
+        return namedObjectValue;
+    }
+
+    public boolean isNamedArray() {
+        return namedArray;
+    }
+
+    public String getNamedArrayValues() {
+        return namedArrayValues;
+    }
+
+    /**
+     * @return the number of fields
+     */
+    public int size() {
+        return fieldNames.length;
+    }
+
+    /**
+     * @return the name of the i-th field, in field name order
+     */
+    public String getFieldName(int i) {
+        return fieldNames[i];
+    }
+
+    /**
+     * @return the param of the i-th field, in field name order
+     */
+    public Param getParam(int i) {
+        return params[i];
+    }
+
+    /**
+     * @return the param of the field, or null if there's no such field
+     */
+    public Param getParam(String fieldName) {
+        int i = Arrays.binarySearch(fieldNames, fieldName);
+        return i < 0 ? null : params[i];
+    }
+
+    /**
+     * A mutable copy, e.g. for the {@link ModelWriter}.
+     */
+    public QueryDSLType thaw() {
+        QueryDSLType type = new QueryDSLType(dslName, this.type);
+        type.namedObject = namedObject;
+        type.namedObjectValue = namedObjectValue;
+        type.namedArray = namedArray;
+        type.namedArrayValues = namedArrayValues;
+        for (int i = 0; i < fieldNames.length; i++) {
+            Param p = params[i];
+            type.fields.put(fieldNames[i], new QueryDSLType.Param(p.type, p.paramName, p.label));
+        }
+        return type;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        FrozenQueryDSLType that = (FrozenQueryDSLType) o;
+
+        if (!dslName.equals(that.dslName)) return false;
+        if (type != that.type) return false;
+        if (namedObject != that.namedObject) return false;
+        if (namedObjectValue != that.namedObjectValue) return false;
+        if (namedArray != that.namedArray) return false;
+        if (namedArrayValues != null ? !namedArrayValues.equals(that.namedArrayValues) : that.namedArrayValues != null) return false;
+        if (!Arrays.equals(fieldNames, that.fieldNames)) return false;
+        if (!Arrays.equals(params, that.params)) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = dslName.hashCode();
+        result = 31 * result + type.hashCode();
+        result = 31 * result + Arrays.hashCode(fieldNames);
+        result = 31 * result + Arrays.hashCode(params);
+        return result;
+    }
+
+    @Override public String toString() {
+        final StringBuilder sb = new StringBuilder("FrozenQueryDSLType{");
+        sb.append("dslName='").append(dslName).append('\'');
+        sb.append(", type=").append(type);
+        sb.append(", fields={");
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(fieldNames[i]).append('=').append(params[i]);
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+}
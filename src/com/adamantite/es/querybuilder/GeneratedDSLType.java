@@ -0,0 +1,26 @@
+package com.adamantite.es.querybuilder;
+
+/**
+ * A query or filter built with the classes generated by {@link JavaBuilderGenerator}. The queries and filters of a
+ * version implement {@link Query} and {@link Filter}, so that a param which takes a query can't be given a filter.
+ */
+public interface GeneratedDSLType {
+
+    /**
+     * Writes the json object of the query or filter, e.g. {"term":{"user":{"boost":2.0}}}.
+     */
+    void writeTo(JsonByteBuffer out);
+
+    interface Query extends GeneratedDSLType {
+    }
+
+    interface Filter extends GeneratedDSLType {
+    }
+
+    /**
+     * The values of PARAM_TYPE.OPERATOR params, written as their names.
+     */
+    enum Operator {
+        AND, OR
+    }
+}
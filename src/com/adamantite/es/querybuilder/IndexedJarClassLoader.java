@@ -0,0 +1,83 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Loads classes from a set of jars through a single index of their entries, built from the mapped central
+ * directories, see {@link MappedJar}. Unlike a URLClassLoader it doesn't open every jar as a stream, or search
+ * the jars one after the other for each class: a class is found with one lookup, and only the classes the
+ * extractor actually reaches from the builders and parsers in org.elasticsearch.index.query are ever read.
+ *
+ * When several jars have the same entry, the first jar wins, as with a URLClassLoader.
+ */
+public class IndexedJarClassLoader extends ClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final Map<String, MappedJar> index = new HashMap<String, MappedJar>();
+
+    public IndexedJarClassLoader(File[] jars, ClassLoader parent) throws IOException {
+        super(parent);
+        for (File f : jars) {
+            MappedJar jar = new MappedJar(f);
+            for (String name : jar.names()) {
+                if (!index.containsKey(name)) index.put(name, jar);
+            }
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String entry = name.replace('.', '/') + ".class";
+        MappedJar jar = index.get(entry);
+        if (jar == null) throw new ClassNotFoundException(name);
+        try {
+            ByteBuffer bytes = jar.read(entry);
+            definePackage(name);
+            return defineClass(name, bytes, null);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+
+    // getPackage looks in the parents too, getDefinedPackage which doesn't is java 9, and this builds for java 7
+    @SuppressWarnings("deprecation")
+    private void definePackage(String className) {
+        int i = className.lastIndexOf('.');
+        if (i < 0) return;
+        String pkg = className.substring(0, i);
+        if (getPackage(pkg) != null) return;
+        try {
+            definePackage(pkg, null, null, null, null, null, null, null);
+        } catch (IllegalArgumentException e) {
+            // defined by another thread meanwhile
+        }
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        MappedJar jar = index.get(name);
+        if (jar == null) return null;
+        try {
+            return new URL("jar:" + jar.file.toURI() + "!/" + name);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) {
+        URL url = findResource(name);
+        return url == null ? Collections.<URL>emptyEnumeration() : Collections.enumeration(Collections.singletonList(url));
+    }
+}
@@ -0,0 +1,495 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a typed java api for the queries and filters of a version from its model: one final class per dsl type,
+ * with a setter per param taking the java type of its PARAM_TYPE, which writes the query json straight to a
+ * {@link JsonByteBuffer}. Nothing is built up as maps first, the param names are encoded once per class, and the
+ * numbers and booleans are kept as primitives, so a query costs the objects it's made of and nothing else.
+ *
+ * The queries and filters of a version are generated into their own package, see {@link #packageFor(String)}, e.g.
+ * <pre>
+ * new BoolQuery().must(new TermQuery("user").boost(2f)).minimumShouldMatch("1").writeTo(buffer.reset());
+ * </pre>
+ * A dsl type with a named object takes the field name in its constructor, and writes its params inside it:
+ * {"term":{"user":{"boost":2.0}}}. With a named object value, the value is written next to the params instead:
+ * {"prefix":{"user":"ki","_cache":true}}. With a named array, the values are: {"geo_distance":{"pin":[1.0,2.0],...}}.
+ *
+ * Setter names are the param names in camel case, e.g. minimumShouldMatch for minimum_should_match and name for _name.
+ * Params which take a list of queries or filters are added to one at a time. A dotted param is written in the object
+ * of its prefix, as CompiledModel reads it: minimumShouldMatchLowFreq("2") writes {"minimum_should_match":{"low_freq":"2"}}.
+ * The params of an indexed name are set together and written as one array: topLeft(1, 2) writes "top_left":[1.0,2.0].
+ */
+public class JavaBuilderGenerator {
+
+    public static final String PACKAGE_PREFIX = "com.adamantite.es.querybuilder.dsl.v";
+
+    private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "true", "false", "null",
+            // members and locals of the generated classes
+            "writeTo", "toString", "hashCode", "equals", "getClass", "out", "i"));
+
+    private final String packageName;
+
+    public JavaBuilderGenerator(String packageName) {
+        this.packageName = packageName;
+    }
+
+    /**
+     * The package the classes of a version are generated into, e.g. com.adamantite.es.querybuilder.dsl.v1_7_2
+     */
+    public static String packageFor(String esVersion) {
+        return PACKAGE_PREFIX + esVersion.replaceAll("[^A-Za-z0-9]", "_");
+    }
+
+    /**
+     * Writes the source of every query and filter to sourceDir, in the directory of the package.
+     *
+     * @return the files written
+     */
+    public List<File> write(File sourceDir, String esVersion, Map<String, QueryDSLType> queries, Map<String, QueryDSLType> filters) throws IOException {
+        File dir = new File(sourceDir, packageName.replace('.', File.separatorChar));
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Couldn't create " + dir);
+        List<File> files = new ArrayList<File>();
+        Set<String> classNames = new HashSet<String>();
+        for (Map<String, QueryDSLType> section : Arrays.asList(queries, filters)) {
+            for (QueryDSLType type : section.values()) {
+                String className = unique(className(type), classNames);
+                File file = new File(dir, className + ".java");
+                Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+                try {
+                    out.write(generate(type, className, esVersion));
+                } finally {
+                    out.close();
+                }
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * e.g. QueryStringQuery for query_string, GeoBboxFilter for geo_bbox
+     */
+    static String className(QueryDSLType type) {
+        String name = camelCase(type.dslName);
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1) + (type.type == QueryDSLType.TYPE.QUERY ? "Query" : "Filter");
+    }
+
+    /**
+     * e.g. minimumShouldMatchLowFreq for minimum_should_match.low_freq, name for _name, bottomRight0 for bottom_right[0]
+     */
+    static String camelCase(String paramName) {
+        StringBuilder sb = new StringBuilder(paramName.length());
+        boolean upper = false;
+        for (int i = 0; i < paramName.length(); i++) {
+            char c = paramName.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                upper = sb.length() > 0;
+            } else if (upper) {
+                sb.append(Character.toUpperCase(c));
+                upper = false;
+            } else {
+                sb.append(sb.length() == 0 ? Character.toLowerCase(c) : c);
+            }
+        }
+        if (sb.length() == 0 || Character.isDigit(sb.charAt(0))) sb.insert(0, "param");
+        return sb.toString();
+    }
+
+    /**
+     * e.g. MINIMUM_SHOULD_MATCH_LOW_FREQ for minimumShouldMatchLowFreq
+     */
+    static String constantName(String camelCase) {
+        StringBuilder sb = new StringBuilder(camelCase.length() + 4);
+        for (int i = 0; i < camelCase.length(); i++) {
+            char c = camelCase.charAt(i);
+            if (Character.isUpperCase(c) && i > 0) sb.append('_');
+            sb.append(Character.toUpperCase(c));
+        }
+        return sb.toString();
+    }
+
+    private static String unique(String name, Set<String> taken) {
+        String result = name;
+        for (int i = 2; !taken.add(result); i++) {
+            result = name + i;
+        }
+        return result;
+    }
+
+    /**
+     * The java type a setter of the param takes, or the element type for lists of builders.
+     */
+    static String javaType(QueryDSLType.PARAM_TYPE type) {
+        switch (type) {
+            case BOOLEAN: return "boolean";
+            case INTEGER: return "int";
+            case FLOAT: return "float";
+            case DOUBLE: return "double";
+            case LIST: return "String...";
+            case MAP: return "Map<String, ?>";
+            case OPERATOR: return "GeneratedDSLType.Operator";
+            case QUERY_BUILDER: case LIST_QUERY_BUILDER: return "GeneratedDSLType.Query";
+            case FILTER_BUILDER: case LIST_FILTER_BUILDER: return "GeneratedDSLType.Filter";
+            case OBJECT: case OTHER: case SHAPE_BUILDER: return "Object";
+            default: return "String";
+        }
+    }
+
+    private static boolean isPrimitive(QueryDSLType.PARAM_TYPE type) {
+        return type == QueryDSLType.PARAM_TYPE.BOOLEAN || type == QueryDSLType.PARAM_TYPE.INTEGER
+                || type == QueryDSLType.PARAM_TYPE.FLOAT || type == QueryDSLType.PARAM_TYPE.DOUBLE;
+    }
+
+    private static boolean isList(QueryDSLType.PARAM_TYPE type) {
+        return type == QueryDSLType.PARAM_TYPE.LIST_QUERY_BUILDER || type == QueryDSLType.PARAM_TYPE.LIST_FILTER_BUILDER;
+    }
+
+    /**
+     * Something written to the json of the generated class, under the name of its constant.
+     */
+    private abstract static class Node {
+        /**
+         * The name written, the last part of a dotted param name.
+         */
+        final String key;
+        String constant;
+
+        Node(String key) {
+            this.key = key;
+        }
+
+        /**
+         * The condition for it to be written.
+         */
+        abstract String isSet();
+    }
+
+    /**
+     * A param of the generated class. The params of an indexed name, e.g. top_left[0] and top_left[1], are one
+     * member, an array of its elements.
+     */
+    private static class Member extends Node {
+        final QueryDSLType.PARAM_TYPE type;
+        final String name;
+        final List<String> labels = new ArrayList<String>();
+
+        Member(String key, QueryDSLType.PARAM_TYPE type, String name) {
+            super(key);
+            this.type = type;
+            this.name = name;
+        }
+
+        boolean isIndexed() {
+            return !labels.isEmpty();
+        }
+
+        void addElement(int index, String label) {
+            while (labels.size() <= index) labels.add(null);
+            labels.set(index, label);
+        }
+
+        String elementType() {
+            return isPrimitive(type) || type == QueryDSLType.PARAM_TYPE.STRING ? javaType(type) : "Object";
+        }
+
+        String fieldType() {
+            if (isIndexed()) return elementType() + "[]";
+            if (isList(type)) return "List<" + javaType(type) + ">";
+            if (type == QueryDSLType.PARAM_TYPE.LIST) return "String[]";
+            return javaType(type);
+        }
+
+        String flag() {
+            return "has" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        }
+
+        @Override String isSet() {
+            return isPrimitive(type) && !isIndexed() ? flag() : name + " != null";
+        }
+    }
+
+    /**
+     * The object of a dotted param name, e.g. minimum_should_match of minimum_should_match.low_freq, written when
+     * anything in it is set.
+     */
+    private static class Group extends Node {
+        final List<Node> children = new ArrayList<Node>();
+
+        Group(String key) {
+            super(key);
+        }
+
+        @Override String isSet() {
+            StringBuilder sb = new StringBuilder();
+            for (Node child : children) {
+                sb.append(sb.length() == 0 ? "" : " || ").append(child.isSet());
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * The group a param is written in, created with the groups of its prefixes the first time, or root for an
+     * undotted name.
+     */
+    private static Group groupOf(String paramName, Group root, Map<String, Group> groups, List<Node> nodes) {
+        Group group = root;
+        for (int dot = paramName.indexOf('.'); dot > 0; dot = paramName.indexOf('.', dot + 1)) {
+            String path = paramName.substring(0, dot);
+            Group g = groups.get(path);
+            if (g == null) {
+                g = new Group(path.substring(path.lastIndexOf('.') + 1));
+                g.constant = constantName(camelCase(path));
+                groups.put(path, g);
+                group.children.add(g);
+                nodes.add(g);
+            }
+            group = g;
+        }
+        return group;
+    }
+
+    /**
+     * The source of the class for type.
+     */
+    String generate(QueryDSLType type, String className, String esVersion) {
+        boolean query = type.type == QueryDSLType.TYPE.QUERY;
+        List<Member> members = new ArrayList<Member>();
+        List<Node> nodes = new ArrayList<Node>();
+        Group root = new Group(null);
+        Map<String, Group> groups = new HashMap<String, Group>();
+        Map<String, Member> indexed = new HashMap<String, Member>();
+        Set<String> names = new HashSet<String>(Arrays.asList("dslName", "dslField", "dslValue", "dslValues"));
+        for (String javaField : QueryDSLTypeExtractor.outputFields(type)) {
+            QueryDSLType.Param p = type.fields.get(javaField);
+            String paramName = p.paramName;
+            int bracket = paramName.indexOf('[');
+            if (bracket > 0) paramName = paramName.substring(0, bracket);
+            Member m = indexed.get(paramName);
+            if (m == null) {
+                String name = camelCase(paramName);
+                if (KEYWORDS.contains(name)) name += "Param";
+                m = new Member(paramName.substring(paramName.lastIndexOf('.') + 1), p.type, unique(name, names));
+                m.constant = constantName(m.name);
+                groupOf(paramName, root, groups, nodes).children.add(m);
+                members.add(m);
+                nodes.add(m);
+                if (bracket > 0) indexed.put(paramName, m);
+            }
+            if (bracket > 0) {
+                m.addElement(Integer.parseInt(p.paramName.substring(bracket + 1, p.paramName.indexOf(']', bracket))), p.label);
+            }
+        }
+        Set<String> constants = new HashSet<String>(Arrays.asList("DSL_NAME"));
+        for (Node node : nodes) {
+            node.constant = unique(node.constant, constants);
+        }
+        String[] arrayValues = type.namedArray && type.namedArrayValues != null ? type.namedArrayValues.split(",") : null;
+
+        Source src = new Source();
+        src.line("// Generated by JavaBuilderGenerator from the elasticsearch " + esVersion + " model, don't edit.");
+        src.line("package " + packageName + ";");
+        src.line();
+        src.line("import java.util.ArrayList;");
+        src.line("import java.util.List;");
+        src.line("import java.util.Map;");
+        src.line();
+        src.line("import com.adamantite.es.querybuilder.GeneratedDSLType;");
+        src.line("import com.adamantite.es.querybuilder.JsonByteBuffer;");
+        src.line();
+        src.line("/**");
+        src.line(" * The " + type.dslName + " " + (query ? "query" : "filter") + " of elasticsearch " + esVersion + ".");
+        src.line(" */");
+        src.line("public final class " + className + " implements GeneratedDSLType." + (query ? "Query" : "Filter") + " {");
+        src.line();
+        src.line("    private static final byte[] DSL_NAME = JsonByteBuffer.encodeName(\"" + escape(type.dslName) + "\");");
+        for (Node node : nodes) {
+            src.line("    private static final byte[] " + node.constant + " = JsonByteBuffer.encodeName(\"" + escape(node.key) + "\");");
+        }
+        src.line();
+        if (type.namedObject || type.namedArray) {
+            src.line("    private final String dslField;");
+            if (type.namedObject && type.namedObjectValue) src.line("    private final Object dslValue;");
+            if (type.namedArray) src.line(arrayValues != null ? "    private final double[] dslValues;" : "    private final Object[] dslValues;");
+        }
+        for (Member m : members) {
+            src.line("    private " + m.fieldType() + " " + m.name + ";");
+            if (isPrimitive(m.type) && !m.isIndexed()) src.line("    private boolean " + m.flag() + ";");
+        }
+        src.line();
+
+        // constructor
+        if (type.namedObject && type.namedObjectValue) {
+            src.line("    public " + className + "(String field, Object value) {");
+            src.line("        this.dslField = field;");
+            src.line("        this.dslValue = value;");
+            src.line("    }");
+        } else if (type.namedObject) {
+            src.line("    public " + className + "(String field) {");
+            src.line("        this.dslField = field;");
+            src.line("    }");
+        } else if (type.namedArray && arrayValues != null) {
+            StringBuilder params = new StringBuilder("String field");
+            StringBuilder values = new StringBuilder();
+            for (String v : arrayValues) {
+                String name = camelCase(v.trim());
+                params.append(", double ").append(name);
+                values.append(values.length() == 0 ? "" : ", ").append(name);
+            }
+            src.line("    public " + className + "(" + params + ") {");
+            src.line("        this.dslField = field;");
+            src.line("        this.dslValues = new double[]{" + values + "};");
+            src.line("    }");
+        } else if (type.namedArray) {
+            src.line("    public " + className + "(String field, Object... values) {");
+            src.line("        this.dslField = field;");
+            src.line("        this.dslValues = values;");
+            src.line("    }");
+        } else {
+            src.line("    public " + className + "() {");
+            src.line("    }");
+        }
+
+        // setters
+        for (Member m : members) {
+            src.line();
+            String argType = javaType(m.type);
+            if (m.isIndexed()) {
+                StringBuilder params = new StringBuilder();
+                StringBuilder values = new StringBuilder();
+                Set<String> args = new HashSet<String>();
+                for (int i = 0; i < m.labels.size(); i++) {
+                    String label = m.labels.get(i);
+                    String arg = label == null ? m.name + i : camelCase(label);
+                    if (KEYWORDS.contains(arg)) arg += "Param";
+                    arg = unique(arg, args);
+                    params.append(i == 0 ? "" : ", ").append(m.elementType()).append(' ').append(arg);
+                    values.append(i == 0 ? "" : ", ").append(arg);
+                }
+                src.line("    public " + className + " " + m.name + "(" + params + ") {");
+                src.line("        this." + m.name + " = new " + m.elementType() + "[]{" + values + "};");
+            } else if (isList(m.type)) {
+                src.line("    public " + className + " " + m.name + "(" + argType + " " + m.name + ") {");
+                src.line("        if (this." + m.name + " == null) this." + m.name + " = new ArrayList<" + argType + ">(4);");
+                src.line("        this." + m.name + ".add(" + m.name + ");");
+            } else {
+                src.line("    public " + className + " " + m.name + "(" + argType + " " + m.name + ") {");
+                src.line("        this." + m.name + " = " + m.name + ";");
+                if (isPrimitive(m.type)) src.line("        this." + m.flag() + " = true;");
+            }
+            src.line("        return this;");
+            src.line("    }");
+        }
+
+        // writeTo
+        src.line();
+        src.line("    @Override public void writeTo(JsonByteBuffer out) {");
+        src.line("        out.startObject().name(DSL_NAME).startObject();");
+        if (type.namedObject && type.namedObjectValue) {
+            src.line("        out.name(dslField).value(dslValue);");
+        } else if (type.namedObject) {
+            src.line("        out.name(dslField).startObject();");
+        } else if (type.namedArray) {
+            src.line("        out.name(dslField).startArray();");
+            src.line("        for (int i = 0; i < dslValues.length; i++) {");
+            src.line("            out.value(dslValues[i]);");
+            src.line("        }");
+            src.line("        out.endArray();");
+        }
+        for (Node node : root.children) {
+            writeNode(src, node, "        ");
+        }
+        if (type.namedObject && !type.namedObjectValue) src.line("        out.endObject();");
+        src.line("        out.endObject().endObject();");
+        src.line("    }");
+
+        src.line();
+        src.line("    @Override public String toString() {");
+        src.line("        JsonByteBuffer out = new JsonByteBuffer();");
+        src.line("        writeTo(out);");
+        src.line("        return out.toString();");
+        src.line("    }");
+        src.line("}");
+        return src.toString();
+    }
+
+    private static void writeNode(Source src, Node node, String indent) {
+        if (node instanceof Group) {
+            Group group = (Group) node;
+            src.line(indent + "if (" + group.isSet() + ") {");
+            src.line(indent + "    out.name(" + group.constant + ").startObject();");
+            for (Node child : group.children) {
+                writeNode(src, child, indent + "    ");
+            }
+            src.line(indent + "    out.endObject();");
+            src.line(indent + "}");
+            return;
+        }
+        Member m = (Member) node;
+        if (m.isIndexed() || m.type == QueryDSLType.PARAM_TYPE.LIST) {
+            src.line(indent + "if (" + m.name + " != null) {");
+            src.line(indent + "    out.name(" + m.constant + ").startArray();");
+            src.line(indent + "    for (int i = 0; i < " + m.name + ".length; i++) {");
+            src.line(indent + "        out.value(" + m.name + "[i]);");
+            src.line(indent + "    }");
+            src.line(indent + "    out.endArray();");
+            src.line(indent + "}");
+        } else if (isPrimitive(m.type)) {
+            src.line(indent + "if (" + m.flag() + ") out.name(" + m.constant + ").value(" + m.name + ");");
+        } else if (isList(m.type)) {
+            src.line(indent + "if (" + m.name + " != null) {");
+            src.line(indent + "    out.name(" + m.constant + ").startArray();");
+            src.line(indent + "    for (int i = 0; i < " + m.name + ".size(); i++) {");
+            src.line(indent + "        " + m.name + ".get(i).writeTo(out);");
+            src.line(indent + "    }");
+            src.line(indent + "    out.endArray();");
+            src.line(indent + "}");
+        } else if (m.type == QueryDSLType.PARAM_TYPE.QUERY_BUILDER || m.type == QueryDSLType.PARAM_TYPE.FILTER_BUILDER) {
+            src.line(indent + "if (" + m.name + " != null) " + m.name + ".writeTo(out.name(" + m.constant + "));");
+        } else if (m.type == QueryDSLType.PARAM_TYPE.OPERATOR) {
+            src.line(indent + "if (" + m.name + " != null) out.name(" + m.constant + ").value(" + m.name + ".name());");
+        } else if (m.type == QueryDSLType.PARAM_TYPE.MAP) {
+            src.line(indent + "if (" + m.name + " != null) out.name(" + m.constant + ").value((Object) " + m.name + ");");
+        } else {
+            src.line(indent + "if (" + m.name + " != null) out.name(" + m.constant + ").value(" + m.name + ");");
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static class Source {
+        private final StringBuilder sb = new StringBuilder(4096);
+
+        void line() {
+            sb.append('\n');
+        }
+
+        void line(String s) {
+            sb.append(s).append('\n');
+        }
+
+        @Override public String toString() {
+            return sb.toString();
+        }
+    }
+}
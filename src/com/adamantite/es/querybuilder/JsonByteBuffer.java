@@ -0,0 +1,340 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A reusable buffer that json is written to as UTF-8, for the classes generated by {@link JavaBuilderGenerator}.
+ * Unlike an XContentBuilder nothing is allocated per value: strings are escaped and encoded straight into the
+ * buffer, and field names can be encoded once, see {@link #encodeName(String)}. Call {@link #reset()} to reuse it
+ * for the next query.
+ *
+ * The separators are tracked with a single flag rather than a stack, so the caller is responsible for balancing
+ * the objects and arrays and for naming the values of objects. Not thread safe.
+ */
+public final class JsonByteBuffer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(UTF_8);
+    private static final byte[] TRUE = "true".getBytes(UTF_8);
+    private static final byte[] FALSE = "false".getBytes(UTF_8);
+    private static final byte[] NULL = "null".getBytes(UTF_8);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(UTF_8);
+
+    private byte[] bytes;
+    private int size;
+
+    /**
+     * Whether the next name or value needs a comma in front of it
+     */
+    private boolean comma;
+
+    public JsonByteBuffer() {
+        this(256);
+    }
+
+    public JsonByteBuffer(int capacity) {
+        bytes = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Empties the buffer, keeping its capacity.
+     */
+    public JsonByteBuffer reset() {
+        size = 0;
+        comma = false;
+        return this;
+    }
+
+    /**
+     * Encodes "name": once, for {@link #name(byte[])}.
+     */
+    public static byte[] encodeName(String name) {
+        JsonByteBuffer buffer = new JsonByteBuffer(name.length() + 8);
+        buffer.name(name);
+        return buffer.toByteArray();
+    }
+
+    public JsonByteBuffer startObject() {
+        separate();
+        append((byte) '{');
+        comma = false;
+        return this;
+    }
+
+    public JsonByteBuffer endObject() {
+        append((byte) '}');
+        comma = true;
+        return this;
+    }
+
+    public JsonByteBuffer startArray() {
+        separate();
+        append((byte) '[');
+        comma = false;
+        return this;
+    }
+
+    public JsonByteBuffer endArray() {
+        append((byte) ']');
+        comma = true;
+        return this;
+    }
+
+    public JsonByteBuffer name(String name) {
+        separate();
+        string(name);
+        append((byte) ':');
+        comma = false;
+        return this;
+    }
+
+    /**
+     * @param encoded a name encoded by {@link #encodeName(String)}
+     */
+    public JsonByteBuffer name(byte[] encoded) {
+        separate();
+        append(encoded, 0, encoded.length);
+        comma = false;
+        return this;
+    }
+
+    public JsonByteBuffer value(String value) {
+        if (value == null) return nullValue();
+        separate();
+        string(value);
+        comma = true;
+        return this;
+    }
+
+    public JsonByteBuffer value(boolean value) {
+        separate();
+        byte[] b = value ? TRUE : FALSE;
+        append(b, 0, b.length);
+        comma = true;
+        return this;
+    }
+
+    public JsonByteBuffer value(long value) {
+        separate();
+        if (value == Long.MIN_VALUE) {
+            append(MIN_LONG, 0, MIN_LONG.length);
+        } else {
+            if (value < 0) {
+                append((byte) '-');
+                value = -value;
+            }
+            int digits = 1;
+            for (long v = value; v >= 10; v /= 10) digits++;
+            ensure(digits);
+            for (int i = size + digits - 1; i >= size; i--) {
+                bytes[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            size += digits;
+        }
+        comma = true;
+        return this;
+    }
+
+    /**
+     * Written as Float.toString does, e.g. 1.5 or 2.0.
+     *
+     * @throws IllegalArgumentException for NaN and the infinities, which json can't represent
+     */
+    public JsonByteBuffer value(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) throw new IllegalArgumentException("Not a json number: " + value);
+        return raw(Float.toString(value));
+    }
+
+    /**
+     * @throws IllegalArgumentException for NaN and the infinities, which json can't represent
+     */
+    public JsonByteBuffer value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) throw new IllegalArgumentException("Not a json number: " + value);
+        return raw(Double.toString(value));
+    }
+
+    public JsonByteBuffer nullValue() {
+        separate();
+        append(NULL, 0, NULL.length);
+        comma = true;
+        return this;
+    }
+
+    /**
+     * Writes strings, numbers, booleans, maps, iterables, arrays and generated dsl types as their json
+     * equivalents, and anything else as its toString().
+     */
+    public JsonByteBuffer value(Object value) {
+        if (value == null) return nullValue();
+        if (value instanceof String) return value((String) value);
+        if (value instanceof Boolean) return value(((Boolean) value).booleanValue());
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        }
+        if (value instanceof Float) return value(((Float) value).floatValue());
+        if (value instanceof Double) return value(((Double) value).doubleValue());
+        if (value instanceof Number) return raw(value.toString());
+        if (value instanceof GeneratedDSLType) {
+            ((GeneratedDSLType) value).writeTo(this);
+            return this;
+        }
+        if (value instanceof Map) {
+            startObject();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                name(String.valueOf(e.getKey()));
+                value(e.getValue());
+            }
+            return endObject();
+        }
+        if (value instanceof Iterable) {
+            startArray();
+            for (Object o : (Iterable<?>) value) {
+                value(o);
+            }
+            return endArray();
+        }
+        if (value.getClass().isArray()) {
+            startArray();
+            for (int i = 0, n = Array.getLength(value); i < n; i++) {
+                value(Array.get(value, i));
+            }
+            return endArray();
+        }
+        return value(value.toString());
+    }
+
+    /**
+     * Appends already encoded json as it is, for {@link QueryCanonicalizer.Template}: a fragment which starts a
+     * value gets a comma in front of it if one is needed, and one which ends a value lets the next one get it.
+     */
+    JsonByteBuffer fragment(byte[] json, int off, int len, boolean startsValue, boolean endsValue) {
+        if (startsValue) separate();
+        append(json, off, len);
+        comma = endsValue;
+        return this;
+    }
+
+    private JsonByteBuffer raw(String ascii) {
+        separate();
+        int n = ascii.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            bytes[size++] = (byte) ascii.charAt(i);
+        }
+        comma = true;
+        return this;
+    }
+
+    /**
+     * Writes s quoted and escaped, encoded as UTF-8.
+     */
+    private void string(String s) {
+        int n = s.length();
+        // the common case: every char is a single byte, plus the quotes
+        ensure(n + 2);
+        bytes[size++] = '"';
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                if (size == bytes.length) ensure(1);
+                bytes[size++] = (byte) c;
+            } else {
+                writeChar(s, i, c);
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) i++;
+            }
+        }
+        append((byte) '"');
+    }
+
+    /**
+     * Writes a char that needs escaping or more than one byte.
+     */
+    private void writeChar(String s, int i, char c) {
+        switch (c) {
+            case '"': append((byte) '\\'); append((byte) '"'); return;
+            case '\\': append((byte) '\\'); append((byte) '\\'); return;
+            case '\n': append((byte) '\\'); append((byte) 'n'); return;
+            case '\r': append((byte) '\\'); append((byte) 'r'); return;
+            case '\t': append((byte) '\\'); append((byte) 't'); return;
+            case '\b': append((byte) '\\'); append((byte) 'b'); return;
+            case '\f': append((byte) '\\'); append((byte) 'f'); return;
+            default:
+        }
+        ensure(6);
+        if (c < 0x20) {
+            bytes[size++] = '\\';
+            bytes[size++] = 'u';
+            bytes[size++] = '0';
+            bytes[size++] = '0';
+            bytes[size++] = HEX[c >> 4];
+            bytes[size++] = HEX[c & 0xf];
+        } else if (c < 0x800) {
+            bytes[size++] = (byte) (0xc0 | c >> 6);
+            bytes[size++] = (byte) (0x80 | c & 0x3f);
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(i + 1));
+            bytes[size++] = (byte) (0xf0 | cp >> 18);
+            bytes[size++] = (byte) (0x80 | cp >> 12 & 0x3f);
+            bytes[size++] = (byte) (0x80 | cp >> 6 & 0x3f);
+            bytes[size++] = (byte) (0x80 | cp & 0x3f);
+        } else if (Character.isSurrogate(c)) {
+            // unpaired, as the UTF-8 encoder of String.getBytes does
+            bytes[size++] = '?';
+        } else {
+            bytes[size++] = (byte) (0xe0 | c >> 12);
+            bytes[size++] = (byte) (0x80 | c >> 6 & 0x3f);
+            bytes[size++] = (byte) (0x80 | c & 0x3f);
+        }
+    }
+
+    private void separate() {
+        if (comma) append((byte) ',');
+    }
+
+    private void append(byte b) {
+        if (size == bytes.length) ensure(1);
+        bytes[size++] = b;
+    }
+
+    private void append(byte[] b, int off, int len) {
+        ensure(len);
+        System.arraycopy(b, off, bytes, size, len);
+        size += len;
+    }
+
+    private void ensure(int n) {
+        if (size + n > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + n));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The backing array, valid up to {@link #size()}. It's replaced when the buffer grows.
+     */
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    @Override public String toString() {
+        return new String(bytes, 0, size, UTF_8);
+    }
+}
@@ -0,0 +1,183 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A jar mapped into memory. Opening it only reads the central directory at the end of the file into an index of the
+ * entries; an entry's data is only touched when it's read. Stored entries are returned as a view of the mapping,
+ * without copying, and deflated ones are inflated straight from it.
+ *
+ * The mapping is released when the MappedJar is garbage collected, so there's nothing to close. Reads are
+ * safe from any number of threads.
+ */
+public class MappedJar {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+    private static final int END_SIZE = 22;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * An entry of the central directory.
+     */
+    static class Entry {
+        final int method;
+        final int compressedSize;
+        final int size;
+
+        /**
+         * Offset of the entry's local header
+         */
+        final int offset;
+
+        Entry(int method, int compressedSize, int size, int offset) {
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+    }
+
+    final File file;
+    private final MappedByteBuffer buffer;
+    private final Map<String, Entry> entries;
+
+    public MappedJar(File file) throws IOException {
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Jar too large to map: " + file);
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        entries = readCentralDirectory();
+    }
+
+    private Map<String, Entry> readCentralDirectory() throws IOException {
+        // the end record is followed by a comment of at most 64k
+        int end = buffer.limit() - END_SIZE;
+        int stop = Math.max(0, end - 0xFFFF);
+        while (end >= stop && buffer.getInt(end) != END_SIGNATURE) end--;
+        if (end < stop) throw new IOException("Not a jar, no end of central directory: " + file);
+
+        int count = buffer.getShort(end + 10) & 0xFFFF;
+        long offset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL) throw new IOException("Zip64 jars aren't supported: " + file);
+
+        Map<String, Entry> entries = new HashMap<String, Entry>(count * 4 / 3 + 1);
+        int pos = (int) offset;
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(pos) != CENTRAL_SIGNATURE) throw new IOException("Corrupt central directory in " + file);
+            int method = buffer.getShort(pos + 10) & 0xFFFF;
+            int compressedSize = buffer.getInt(pos + 20);
+            int size = buffer.getInt(pos + 24);
+            int nameLength = buffer.getShort(pos + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(pos + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(pos + 32) & 0xFFFF;
+            int localOffset = buffer.getInt(pos + 42);
+
+            byte[] name = new byte[nameLength];
+            ByteBuffer b = buffer.duplicate();
+            b.position(pos + CENTRAL_HEADER_SIZE);
+            b.get(name);
+            entries.put(new String(name, UTF_8), new Entry(method, compressedSize, size, localOffset));
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * The names of all entries, sorted.
+     */
+    public List<String> names() {
+        List<String> names = new ArrayList<String>(entries.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * The data of an entry, e.g. org/elasticsearch/index/query/TermQueryBuilder.class, positioned at 0.
+     * A view of the mapping if the entry is stored, a heap buffer otherwise. Null if there's no such entry.
+     */
+    public ByteBuffer read(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) return null;
+
+        int pos = entry.offset;
+        if (buffer.getInt(pos) != LOCAL_SIGNATURE) throw new IOException("Corrupt local header of " + name + " in " + file);
+        // the local header's name and extra field lengths can differ from the central directory's
+        pos += LOCAL_HEADER_SIZE + (buffer.getShort(pos + 26) & 0xFFFF) + (buffer.getShort(pos + 28) & 0xFFFF);
+        ByteBuffer data = buffer.duplicate();
+        data.position(pos);
+        data.limit(pos + entry.compressedSize);
+
+        if (entry.method == STORED) return data.slice();
+        if (entry.method != DEFLATED) throw new IOException("Unsupported compression method " + entry.method + " of " + name + " in " + file);
+
+        byte[] compressed = new byte[entry.compressedSize];
+        data.get(compressed);
+        byte[] inflated = new byte[entry.size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            int n = 0;
+            while (n < inflated.length) {
+                int r = inflater.inflate(inflated, n, inflated.length - n);
+                if (r == 0 && (inflater.finished() || inflater.needsInput())) break;
+                n += r;
+            }
+            if (n != inflated.length) throw new IOException("Truncated " + name + " in " + file);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt " + name + " in " + file + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(inflated);
+    }
+
+    /**
+     * Reads an entry into a byte array, copying it if it's stored.
+     */
+    public byte[] readBytes(String name) throws IOException {
+        ByteBuffer data = read(name);
+        if (data == null) return null;
+        if (data.hasArray() && data.arrayOffset() == 0 && data.array().length == data.remaining()) return data.array();
+        byte[] b = new byte[data.remaining()];
+        data.get(b);
+        return b;
+    }
+
+    @Override public String toString() {
+        return file.getPath();
+    }
+}
@@ -0,0 +1,127 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads a source file as a CharSequence the {@link BuilderSourceScanner} can run over without copying it into
+ * a String. Large files are memory-mapped, small ones are read with a single read into a byte array, since
+ * mapping a file costs more than reading a few kilobytes. An ASCII file, which every builder source is, is
+ * used as is, one byte per char; any other file is decoded as UTF-8.
+ */
+public class MappedSource {
+
+    /**
+     * Files from this size on are mapped rather than read.
+     */
+    static final int MAP_THRESHOLD = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static CharSequence read(File f) throws IOException {
+        ByteBuffer bytes;
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Source too large: " + f);
+            if (size >= MAP_THRESHOLD) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0);
+                bytes.flip();
+            }
+        } finally {
+            raf.close();
+        }
+        for (int i = bytes.position(), n = bytes.limit(); i < n; i++) {
+            if (bytes.get(i) < 0) return UTF_8.decode(bytes);
+        }
+        return new AsciiSequence(bytes);
+    }
+
+    /**
+     * Reads a source line by line into a String, the way the extractor always did. Kept to compare the
+     * two with -io stream.
+     */
+    public static CharSequence readLines(File f) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        BufferedReader br = new BufferedReader(new FileReader(f));
+        try {
+            String s;
+            while ((s = br.readLine()) != null) {
+                sb.append(s).append("\n");
+            }
+        } finally {
+            br.close();
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The offset of the first occurrence of s in input, or -1.
+     */
+    static int indexOf(CharSequence input, String s) {
+        if (input instanceof String) return ((String) input).indexOf(s);
+        int n = s.length();
+        if (n == 0) return 0;
+        char first = s.charAt(0);
+        outer:
+        for (int i = 0, last = input.length() - n; i <= last; i++) {
+            if (input.charAt(i) != first) continue;
+            for (int j = 1; j < n; j++) {
+                if (input.charAt(i + j) != s.charAt(j)) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * ASCII bytes viewed as chars. Sub-sequences share the bytes; only toString() copies them.
+     */
+    static class AsciiSequence implements CharSequence {
+        private final ByteBuffer bytes;
+        private final int offset;
+        private final int length;
+
+        AsciiSequence(ByteBuffer bytes) {
+            this(bytes, bytes.position(), bytes.remaining());
+        }
+
+        private AsciiSequence(ByteBuffer bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override public int length() {
+            return length;
+        }
+
+        @Override public char charAt(int index) {
+            if (index < 0 || index >= length) throw new IndexOutOfBoundsException(String.valueOf(index));
+            return (char) bytes.get(offset + index);
+        }
+
+        @Override public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) throw new IndexOutOfBoundsException(start + ", " + end);
+            return new AsciiSequence(bytes, offset + start, end - start);
+        }
+
+        @Override public String toString() {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) bytes.get(offset + i);
+            }
+            return new String(chars);
+        }
+    }
+}
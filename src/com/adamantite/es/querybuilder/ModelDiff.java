@@ -0,0 +1,262 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * The differences between the models of two elasticsearch versions: the dsl types added and removed, and for the
+ * types in both, the fields added, removed or changed (param type, param name or label) and whether the named
+ * object/array settings changed. Fields are compared by java field name, as the extractor keys them.
+ *
+ * The models of consecutive versions are mostly the same, so a version can be stored as a base model plus a patch,
+ * see {@link #writePatch(File)}. The patch holds the added and changed types whole, in the format of the json model,
+ * so that the web builder can replace them in the base model without having to know how fields are ordered.
+ * {@link #apply(QueryDSLType.TYPE, Map)} does the same in memory, sharing the unchanged types with the base.
+ */
+public class ModelDiff {
+
+    static final int FORMAT = 1;
+
+    public static enum Change {
+        ADDED, REMOVED, CHANGED
+    }
+
+    /**
+     * The difference in a single dsl type.
+     */
+    public static class TypeDiff {
+        final QueryDSLType.TYPE section;
+        final String dslName;
+        final Change change;
+
+        /**
+         * The type in the new version, null if it was removed
+         */
+        final QueryDSLType type;
+
+        /**
+         * Java field names, sorted. Empty unless the type changed.
+         */
+        final List<String> addedFields = new ArrayList<String>();
+        final List<String> removedFields = new ArrayList<String>();
+        final List<String> changedFields = new ArrayList<String>();
+
+        /**
+         * namedObject, namedObjectValue, namedArray or namedArrayValues changed
+         */
+        boolean namedChanged;
+
+        TypeDiff(QueryDSLType.TYPE section, String dslName, Change change, QueryDSLType type) {
+            this.section = section;
+            this.dslName = dslName;
+            this.change = change;
+            this.type = type;
+        }
+
+        public String getDslName() {
+            return dslName;
+        }
+
+        public Change getChange() {
+            return change;
+        }
+
+        public List<String> getAddedFields() {
+            return addedFields;
+        }
+
+        public List<String> getRemovedFields() {
+            return removedFields;
+        }
+
+        public List<String> getChangedFields() {
+            return changedFields;
+        }
+
+        public boolean isNamedChanged() {
+            return namedChanged;
+        }
+
+        @Override public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(section == QueryDSLType.TYPE.QUERY ? "query " : "filter ").append(dslName).append(' ').append(change);
+            if (!addedFields.isEmpty()) sb.append(" +").append(addedFields);
+            if (!removedFields.isEmpty()) sb.append(" -").append(removedFields);
+            if (!changedFields.isEmpty()) sb.append(" ~").append(changedFields);
+            if (namedChanged) sb.append(" named");
+            return sb.toString();
+        }
+    }
+
+    final String baseVersion;
+    final String version;
+    private final List<TypeDiff> queries;
+    private final List<TypeDiff> filters;
+
+    private ModelDiff(String baseVersion, String version, List<TypeDiff> queries, List<TypeDiff> filters) {
+        this.baseVersion = baseVersion;
+        this.version = version;
+        this.queries = queries;
+        this.filters = filters;
+    }
+
+    /**
+     * The differences that turn the base model into the model of version.
+     */
+    public static ModelDiff compute(String baseVersion, Map<String, QueryDSLType> baseQueries, Map<String, QueryDSLType> baseFilters,
+                                    String version, Map<String, QueryDSLType> queries, Map<String, QueryDSLType> filters) {
+        return new ModelDiff(baseVersion, version,
+                compute(QueryDSLType.TYPE.QUERY, baseQueries, queries),
+                compute(QueryDSLType.TYPE.FILTER, baseFilters, filters));
+    }
+
+    static List<TypeDiff> compute(QueryDSLType.TYPE section, Map<String, QueryDSLType> base, Map<String, QueryDSLType> target) {
+        TreeSet<String> names = new TreeSet<String>(base.keySet());
+        names.addAll(target.keySet());
+        List<TypeDiff> result = new ArrayList<TypeDiff>();
+        for (String name : names) {
+            QueryDSLType from = base.get(name);
+            QueryDSLType to = target.get(name);
+            if (from == null) {
+                result.add(new TypeDiff(section, name, Change.ADDED, to));
+            } else if (to == null) {
+                result.add(new TypeDiff(section, name, Change.REMOVED, null));
+            } else {
+                TypeDiff diff = compare(section, name, from, to);
+                if (diff != null) result.add(diff);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @return null if the types are the same
+     */
+    private static TypeDiff compare(QueryDSLType.TYPE section, String name, QueryDSLType from, QueryDSLType to) {
+        TypeDiff diff = new TypeDiff(section, name, Change.CHANGED, to);
+        diff.namedChanged = from.namedObject != to.namedObject || from.namedObjectValue != to.namedObjectValue
+                || from.namedArray != to.namedArray || !equal(from.namedArrayValues, to.namedArrayValues);
+        for (Map.Entry<String, QueryDSLType.Param> e : to.fields.entrySet()) {
+            QueryDSLType.Param p = from.fields.get(e.getKey());
+            if (p == null) {
+                diff.addedFields.add(e.getKey());
+            } else if (!equal(p, e.getValue())) {
+                diff.changedFields.add(e.getKey());
+            }
+        }
+        for (String field : from.fields.keySet()) {
+            if (!to.fields.containsKey(field)) diff.removedFields.add(field);
+        }
+        if (!diff.namedChanged && diff.addedFields.isEmpty() && diff.removedFields.isEmpty() && diff.changedFields.isEmpty()) {
+            return null;
+        }
+        return diff;
+    }
+
+    private static boolean equal(QueryDSLType.Param a, QueryDSLType.Param b) {
+        return a.type == b.type && equal(a.paramName, b.paramName) && equal(a.label, b.label);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public String getBaseVersion() {
+        return baseVersion;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * The changed types of a section, sorted by dsl name.
+     */
+    public List<TypeDiff> getTypeDiffs(QueryDSLType.TYPE section) {
+        return section == QueryDSLType.TYPE.QUERY ? queries : filters;
+    }
+
+    public boolean isEmpty() {
+        return queries.isEmpty() && filters.isEmpty();
+    }
+
+    /**
+     * Turns a section of the base model into that of the new version. The result shares the types that didn't
+     * change with base, and the others with the model the diff was computed from, so copy a type before
+     * modifying it.
+     */
+    public Map<String, QueryDSLType> apply(QueryDSLType.TYPE section, Map<String, QueryDSLType> base) {
+        Map<String, QueryDSLType> result = new TreeMap<String, QueryDSLType>(base);
+        for (TypeDiff diff : getTypeDiffs(section)) {
+            if (diff.change == Change.REMOVED) {
+                result.remove(diff.dslName);
+            } else {
+                result.put(diff.dslName, diff.type);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the patch to qb-model-[version].patch.json in outputDir, e.g.
+     *
+     * {"format":1,"base":"1.7.2","version":"1.4.3",
+     *  "query":{"removed":[],"types":{"common":{"namedObject":true,"fields":[...]},...}},"filter":{...}}
+     */
+    public void writePatch(File outputDir) throws IOException {
+        XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent,
+                new BufferedOutputStream(new FileOutputStream(new File(outputDir, "qb-model-" + version + ".patch.json"))));
+        try {
+            writePatch(builder);
+        } finally {
+            builder.close();
+        }
+    }
+
+    void writePatch(XContentBuilder builder) throws IOException {
+        builder.startObject();
+        builder.field("format", FORMAT);
+        builder.field("base", baseVersion);
+        builder.field("version", version);
+        writeSection(builder, "query", queries);
+        writeSection(builder, "filter", filters);
+        builder.endObject();
+    }
+
+    private static void writeSection(XContentBuilder builder, String name, List<TypeDiff> diffs) throws IOException {
+        builder.startObject(name);
+        builder.startArray("removed");
+        for (TypeDiff diff : diffs) {
+            if (diff.change == Change.REMOVED) builder.value(diff.dslName);
+        }
+        builder.endArray();
+        builder.startObject("types");
+        for (TypeDiff diff : diffs) {
+            if (diff.change != Change.REMOVED) QueryDSLTypeExtractor.output(diff.type, false, builder);
+        }
+        builder.endObject();
+        builder.endObject();
+    }
+
+    @Override public String toString() {
+        StringBuilder sb = new StringBuilder(baseVersion + " -> " + version);
+        for (TypeDiff diff : queries) {
+            sb.append('\n').append(diff);
+        }
+        for (TypeDiff diff : filters) {
+            sb.append('\n').append(diff);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package com.adamantite.es.querybuilder;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Freezes parsed models into {@link FrozenQueryDSLType}s, sharing equal params and names between all the
+ * types frozen by the same interner. Use one interner for all the versions held in memory.
+ *
+ * Freeze the result of {@link QueryDSLTypeExtractor#parseQueries()} and {@link QueryDSLTypeExtractor#parseFilters()},
+ * which have the extraction rules applied already. Thread safe.
+ */
+public class ModelInterner {
+
+    private final ConcurrentMap<FrozenQueryDSLType.Param, FrozenQueryDSLType.Param> params = new ConcurrentHashMap<FrozenQueryDSLType.Param, FrozenQueryDSLType.Param>();
+
+    private final ConcurrentMap<String, String> names = new ConcurrentHashMap<String, String>();
+
+    /**
+     * @return an unmodifiable map of the frozen types, keyed and ordered like types
+     */
+    public Map<String, FrozenQueryDSLType> freeze(Map<String, QueryDSLType> types) {
+        Map<String, FrozenQueryDSLType> result = new LinkedHashMap<String, FrozenQueryDSLType>();
+        for (Map.Entry<String, QueryDSLType> e : types.entrySet()) {
+            result.put(intern(e.getKey()), freeze(e.getValue()));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    public FrozenQueryDSLType freeze(QueryDSLType type) {
+        int size = type.fields.size();
+        String[] fieldNames = new String[size];
+        FrozenQueryDSLType.Param[] frozenParams = new FrozenQueryDSLType.Param[size];
+        int i = 0;
+        // fields is a TreeMap, so the field names come out sorted
+        for (Map.Entry<String, QueryDSLType.Param> e : type.fields.entrySet()) {
+            QueryDSLType.Param p = e.getValue();
+            fieldNames[i] = intern(e.getKey());
+            frozenParams[i] = intern(new FrozenQueryDSLType.Param(p.type, intern(p.paramName), intern(p.label)));
+            i++;
+        }
+        return new FrozenQueryDSLType(type, intern(type.dslName), intern(type.namedArrayValues), fieldNames, frozenParams);
+    }
+
+    private FrozenQueryDSLType.Param intern(FrozenQueryDSLType.Param param) {
+        FrozenQueryDSLType.Param existing = params.putIfAbsent(param, param);
+        return existing == null ? param : existing;
+    }
+
+    private String intern(String name) {
+        if (name == null) return null;
+        String existing = names.putIfAbsent(name, name);
+        return existing == null ? name : existing;
+    }
+
+    /**
+     * @return the number of distinct params
+     */
+    public int getParamCount() {
+        return params.size();
+    }
+
+    /**
+     * @return the number of distinct field names, param names and labels
+     */
+    public int getNameCount() {
+        return names.size();
+    }
+}
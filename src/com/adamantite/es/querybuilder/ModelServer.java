@@ -0,0 +1,330 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Usage: ModelServer -version [es version] -src [elasticsearch src dir] [-version ... -src ...] [-cache dir] [-port N]
+ *
+ * Serves the models of one or more elasticsearch versions over http:
+ * <pre>
+ * GET /model/[version]                          the json model, same as qb-model-[version].json
+ * GET /model/[version]/[query|filter]/[dsl name] a single dsl type, {"[dsl name]":{...}}
+ * </pre>
+ * Every response body is serialized and gzipped once, when the model is added, and requests are served
+ * from memory. The types themselves are kept as {@link FrozenQueryDSLType}s, with their params interned
+ * across versions, for code in the same service which needs the types rather than the json. Responses have a strong ETag, and a GET with a matching If-None-Match gets a 304.
+ * Clients which accept gzip get the gzipped body, which has its own ETag.
+ *
+ * Requests are handled on a virtual thread each if the JVM supports them, else on a cached thread pool.
+ */
+public class ModelServer {
+
+    public static final int DEFAULT_PORT = 8080;
+
+    static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    /**
+     * A precomputed response body.
+     */
+    static final class Resource {
+        final byte[] body;
+        final byte[] gzipped;
+        final String etag;
+        final String gzipEtag;
+
+        Resource(byte[] body) throws IOException {
+            this.body = body;
+            this.gzipped = gzip(body);
+            String hash = sha1(body);
+            this.etag = "\"" + hash + "\"";
+            this.gzipEtag = "\"" + hash + "-gzip\"";
+        }
+    }
+
+    /**
+     * Resources keyed by request path.
+     */
+    private final ConcurrentMap<String, Resource> resources = new ConcurrentHashMap<String, Resource>();
+
+    /**
+     * The frozen types of a version.
+     */
+    static final class Model {
+        final Map<String, FrozenQueryDSLType> queries;
+        final Map<String, FrozenQueryDSLType> filters;
+
+        Model(Map<String, FrozenQueryDSLType> queries, Map<String, FrozenQueryDSLType> filters) {
+            this.queries = queries;
+            this.filters = filters;
+        }
+    }
+
+    /**
+     * Models keyed by version, with their params interned across versions.
+     */
+    private final ConcurrentMap<String, Model> models = new ConcurrentHashMap<String, Model>();
+
+    private final ModelInterner interner = new ModelInterner();
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    /**
+     * Adds or replaces the model of a version. The types are kept frozen, see {@link #getQueries(String)}, so
+     * the caller's maps can be dropped. Replacing a version stops serving the types its new model doesn't have.
+     */
+    public void addModel(String version, Map<String, QueryDSLType> queries, Map<String, QueryDSLType> filters) throws IOException {
+        String prefix = "/model/" + version;
+        Map<String, Resource> added = new HashMap<String, Resource>();
+        addTypes(added, prefix + "/query/", queries);
+        addTypes(added, prefix + "/filter/", filters);
+        added.put(prefix, new Resource(QueryDSLTypeExtractor.toJSON(queries, filters, false, false).getBytes("UTF-8")));
+        resources.putAll(added);
+        // the new resources are in place before the old ones go, so requests for types in both never get a 404
+        for (String path : resources.keySet()) {
+            if (path.startsWith(prefix + "/") && !added.containsKey(path)) resources.remove(path);
+        }
+        models.put(version, new Model(interner.freeze(queries), interner.freeze(filters)));
+    }
+
+    /**
+     * @return the query types of the version, or null if it hasn't been added
+     */
+    public Map<String, FrozenQueryDSLType> getQueries(String version) {
+        Model model = models.get(version);
+        return model == null ? null : model.queries;
+    }
+
+    /**
+     * @return the filter types of the version, or null if it hasn't been added
+     */
+    public Map<String, FrozenQueryDSLType> getFilters(String version) {
+        Model model = models.get(version);
+        return model == null ? null : model.filters;
+    }
+
+    private static void addTypes(Map<String, Resource> resources, String prefix, Map<String, QueryDSLType> types) throws IOException {
+        for (QueryDSLType type : types.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out);
+            builder.startObject();
+            QueryDSLTypeExtractor.output(type, false, builder);
+            builder.endObject();
+            builder.close();
+            resources.put(prefix + type.dslName, new Resource(out.toByteArray()));
+        }
+    }
+
+    /**
+     * Starts serving on the given address. Port 0 picks a free port, see {@link #getPort()}.
+     */
+    public void start(InetSocketAddress address) throws IOException {
+        if (server != null) throw new IllegalStateException("Already started");
+        server = HttpServer.create(address, 0);
+        executor = newExecutor();
+        server.setExecutor(executor);
+        server.createContext("/model/", new HttpHandler() {
+            @Override public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    ModelServer.this.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public void stop() {
+        if (server == null) return;
+        server.stop(0);
+        executor.shutdown();
+        server = null;
+        executor = null;
+    }
+
+    public int getPort() {
+        if (server == null) throw new IllegalStateException("Not started");
+        return server.getAddress().getPort();
+    }
+
+    void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        boolean head = method.equals("HEAD");
+        Headers responseHeaders = exchange.getResponseHeaders();
+        if (!head && !method.equals("GET")) {
+            responseHeaders.set("Allow", "GET, HEAD");
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+
+        Resource resource = resources.get(exchange.getRequestURI().getPath());
+        if (resource == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        Headers requestHeaders = exchange.getRequestHeaders();
+        boolean gzip = acceptsGzip(requestHeaders.get("Accept-Encoding"));
+        responseHeaders.set("ETag", gzip ? resource.gzipEtag : resource.etag);
+        responseHeaders.set("Vary", "Accept-Encoding");
+        responseHeaders.set("Cache-Control", "no-cache");
+        if (matches(requestHeaders.get("If-None-Match"), resource)) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        byte[] body = gzip ? resource.gzipped : resource.body;
+        responseHeaders.set("Content-Type", CONTENT_TYPE);
+        if (gzip) responseHeaders.set("Content-Encoding", "gzip");
+        if (head) {
+            responseHeaders.set("Content-Length", String.valueOf(body.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    /**
+     * Does an If-None-Match header match either representation of the resource?
+     * Weak validators match too, as If-None-Match uses the weak comparison.
+     */
+    static boolean matches(List<String> ifNoneMatch, Resource resource) {
+        if (ifNoneMatch == null) return false;
+        for (String header : ifNoneMatch) {
+            for (String tag : header.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals("*") || tag.equals(resource.etag) || tag.equals(resource.gzipEtag)) return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean acceptsGzip(List<String> acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String header : acceptEncoding) {
+            for (String coding : header.split(",")) {
+                String[] parts = coding.split(";");
+                if (!parts[0].trim().equalsIgnoreCase("gzip")) continue;
+                boolean refused = false;
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=")) refused = isZero(param.substring(2));
+                }
+                if (!refused) return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isZero(String qvalue) {
+        try {
+            return Float.parseFloat(qvalue) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A virtual thread per request where available, looked up reflectively so this still runs on older JVMs.
+     */
+    static ExecutorService newExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(body);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static String sha1(byte[] body) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = digest.digest(body);
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        int port = DEFAULT_PORT;
+        String cacheDir = null;
+        List<String> versions = new ArrayList<String>();
+        List<String> srcHomes = new ArrayList<String>();
+        for (int i = 0, n = args.length; i < n; i++) {
+            if(args[i].equals("-src")) {
+                srcHomes.add(args[++i]);
+            }
+            if(args[i].equals("-version")) {
+                versions.add(args[++i]);
+            }
+            if(args[i].equals("-port")) {
+                port = Integer.parseInt(args[++i]);
+            }
+            if(args[i].equals("-cache")) {
+                cacheDir = args[++i];
+            }
+        }
+        if (versions.isEmpty()) versions.add(QueryDSLTypeExtractor.DEFAULT_VERSION);
+        if (srcHomes.isEmpty()) srcHomes.add(QueryDSLTypeExtractor.DEFAULT_SRC_HOME);
+        if (versions.size() != srcHomes.size()) {
+            throw new IllegalArgumentException("Every -version needs its own -src");
+        }
+
+        ModelServer modelServer = new ModelServer();
+        SharedBuilders sharedBuilders = versions.size() > 1 ? new SharedBuilders() : null;
+        for (int i = 0; i < versions.size(); i++) {
+            QueryDSLTypeExtractor extractor = QueryDSLTypeExtractor.forSourceHome(versions.get(i), srcHomes.get(i));
+            extractor.setSharedBuilders(sharedBuilders);
+            if (cacheDir != null) {
+                extractor.setCache(new ExtractionCache(new File(cacheDir), ExtractionCache.hashJars(new File(srcHomes.get(i)))));
+            }
+            modelServer.addModel(versions.get(i), extractor.parseQueries(), extractor.parseFilters());
+        }
+        modelServer.start(new InetSocketAddress(port));
+        System.out.println("Serving " + versions + " on port " + modelServer.getPort());
+    }
+}
@@ -0,0 +1,76 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Writes the qb-model json straight to a stream, one dsl type at a time, instead of building the
+ * whole document in memory first. The output is byte for byte what
+ * {@link QueryDSLTypeExtractor#toJSON(Map, Map, boolean, boolean)} returns.
+ *
+ * Sections have to be written in the order of the model: queries first, then filters. Use
+ * {@link java.nio.channels.Channels#newOutputStream(java.nio.channels.WritableByteChannel)} to write to a FileChannel.
+ */
+public class ModelWriter implements Closeable {
+
+    private final XContentBuilder builder;
+
+    private final boolean outputJavaFields;
+
+    private boolean inSection;
+
+    public ModelWriter(OutputStream out, boolean outputJavaFields, boolean prettyprint) throws IOException {
+        this.builder = new XContentBuilder(JsonXContent.jsonXContent, out);
+        this.outputJavaFields = outputJavaFields;
+        if (prettyprint) builder.prettyPrint();
+        builder.startObject();
+    }
+
+    /**
+     * Writes a whole section, i.e. all the queries or all the filters, sorted by dsl name.
+     */
+    public void write(QueryDSLType.TYPE section, Map<String, QueryDSLType> types) throws IOException {
+        startSection(section);
+        for (QueryDSLType type : types.values()) {
+            write(type);
+        }
+        endSection();
+    }
+
+    public void startSection(QueryDSLType.TYPE section) throws IOException {
+        if (inSection) throw new IllegalStateException("Section not ended");
+        builder.startObject(section == QueryDSLType.TYPE.QUERY ? "query" : "filter");
+        inSection = true;
+    }
+
+    /**
+     * Writes a single dsl type into the current section. Types should be written sorted by dsl name,
+     * to match the model.
+     */
+    public void write(QueryDSLType type) throws IOException {
+        if (!inSection) throw new IllegalStateException("No section started");
+        QueryDSLTypeExtractor.output(type, outputJavaFields, builder);
+    }
+
+    public void endSection() throws IOException {
+        if (!inSection) throw new IllegalStateException("No section started");
+        builder.endObject();
+        inSection = false;
+        builder.flush();
+    }
+
+    /**
+     * Ends the document, and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (inSection) endSection();
+        builder.endObject();
+        builder.close();
+    }
+}
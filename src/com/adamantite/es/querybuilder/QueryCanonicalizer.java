@@ -0,0 +1,491 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Puts queries into a canonical form, so that queries with the same structure give the same {@link Template} and
+ * {@link Fingerprint} whatever their literal values, e.g. {"term":{"user":"kimchy"}} and {"term":{"user":"bob"}}.
+ *
+ * In the canonical form:
+ * <ul>
+ * <li>the params of a dsl type are in the order of the model, after its named field, followed by the params the
+ * model doesn't know, sorted by name</li>
+ * <li>_name is left out, and so is a boost of 1, which is the default</li>
+ * <li>a single query or filter given for a list of them is a list of one</li>
+ * <li>boolean and numeric values given as strings are json booleans and numbers, and operators are lower case</li>
+ * </ul>
+ * The names of params and named fields are part of the structure; the values of params which aren't queries or
+ * filters are the literals. Types the model doesn't know are kept as they are, with their keys sorted.
+ *
+ * The {@link Template} is serialized once, and renders the canonical form of any query of its structure from
+ * its values, see {@link QueryTemplateCache}. Thread safe.
+ */
+public class QueryCanonicalizer {
+
+    /**
+     * The 128 bit MurmurHash3 of a query's template. {@link #asLong()} is the 64 bit fingerprint.
+     */
+    public static final class Fingerprint {
+        final long high;
+        final long low;
+
+        Fingerprint(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        public long asLong() {
+            return high;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof Fingerprint)) return false;
+            Fingerprint f = (Fingerprint) o;
+            return high == f.high && low == f.low;
+        }
+
+        @Override public int hashCode() {
+            return (int) (high ^ high >>> 32);
+        }
+
+        /**
+         * 32 hex digits.
+         */
+        @Override public String toString() {
+            return hex(high) + hex(low);
+        }
+
+        private static String hex(long l) {
+            String s = Long.toHexString(l);
+            return "0000000000000000".substring(s.length()) + s;
+        }
+    }
+
+    /**
+     * The canonical json of a query structure, with a placeholder for every literal value. Immutable.
+     */
+    public static final class Template {
+        final byte[] json;
+
+        /**
+         * The start and end offsets of each placeholder in json
+         */
+        final int[] placeholders;
+
+        final Fingerprint fingerprint;
+
+        Template(byte[] json, int[] placeholders) {
+            this.json = json;
+            this.placeholders = placeholders;
+            long[] hash = murmur3(json, json.length, 0);
+            this.fingerprint = new Fingerprint(hash[0], hash[1]);
+        }
+
+        public Fingerprint getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * How many values {@link #writeTo(JsonByteBuffer, List)} takes.
+         */
+        public int getParameterCount() {
+            return placeholders.length / 2;
+        }
+
+        /**
+         * Writes the query with the values in place of the placeholders, in the order of {@link Canonical#getValues()}.
+         *
+         * @throws IllegalArgumentException if there aren't as many values as placeholders
+         */
+        public void writeTo(JsonByteBuffer out, List<?> values) {
+            int n = getParameterCount();
+            if (values.size() != n) throw new IllegalArgumentException("The template takes " + n + " values, not " + values.size());
+            int pos = 0;
+            for (int i = 0; i < n; i++) {
+                out.fragment(json, pos, placeholders[2 * i] - pos, i == 0, false);
+                out.value(values.get(i));
+                pos = placeholders[2 * i + 1];
+            }
+            out.fragment(json, pos, json.length - pos, n == 0, true);
+        }
+
+        public String render(List<?> values) {
+            JsonByteBuffer out = new JsonByteBuffer(json.length * 2);
+            writeTo(out, values);
+            return out.toString();
+        }
+
+        /**
+         * The json with a ? for each placeholder, e.g. {"term":{"user":?}}
+         */
+        @Override public String toString() {
+            JsonByteBuffer out = new JsonByteBuffer(json.length);
+            int pos = 0;
+            for (int i = 0; i < getParameterCount(); i++) {
+                out.fragment(json, pos, placeholders[2 * i] - pos, false, false);
+                out.fragment(new byte[]{'?'}, 0, 1, false, true);
+                pos = placeholders[2 * i + 1];
+            }
+            out.fragment(json, pos, json.length - pos, false, true);
+            return out.toString();
+        }
+    }
+
+    /**
+     * A query in canonical form: its template and the literal values which fill it in.
+     */
+    public static final class Canonical {
+        final Template template;
+        final List<Object> values;
+
+        Canonical(Template template, List<Object> values) {
+            this.template = template;
+            this.values = values;
+        }
+
+        public Template getTemplate() {
+            return template;
+        }
+
+        public Fingerprint getFingerprint() {
+            return template.fingerprint;
+        }
+
+        /**
+         * The literal values, in the order they appear in the canonical json.
+         */
+        public List<Object> getValues() {
+            return Collections.unmodifiableList(values);
+        }
+
+        /**
+         * The canonical json of the query.
+         */
+        public String getJson() {
+            return template.render(values);
+        }
+
+        @Override public String toString() {
+            return getJson();
+        }
+    }
+
+    /**
+     * State of a single canonicalization: the template being written, and the values taken out of it.
+     */
+    private static final class Context {
+        final JsonByteBuffer out = new JsonByteBuffer();
+        final List<Integer> placeholders = new ArrayList<Integer>();
+        final List<Object> values = new ArrayList<Object>();
+    }
+
+    private final CompiledModel model;
+
+    public QueryCanonicalizer(CompiledModel model) {
+        this.model = model;
+    }
+
+    /**
+     * @throws IOException if it isn't json
+     */
+    public Canonical canonicalize(String json, QueryDSLType.TYPE section) throws IOException {
+        XContentParser parser = JsonXContent.jsonXContent.createParser(json);
+        try {
+            return canonicalize(parser.mapOrdered(), section);
+        } finally {
+            parser.close();
+        }
+    }
+
+    public Canonical canonicalize(byte[] json, QueryDSLType.TYPE section) throws IOException {
+        XContentParser parser = JsonXContent.jsonXContent.createParser(json);
+        try {
+            return canonicalize(parser.mapOrdered(), section);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * @param query a query or filter object, as parsed by XContentParser.mapOrdered()
+     */
+    public Canonical canonicalize(Map<String, Object> query, QueryDSLType.TYPE section) {
+        Context c = new Context();
+        dsl(c, query, section);
+        int[] placeholders = new int[c.placeholders.size()];
+        for (int i = 0; i < placeholders.length; i++) {
+            placeholders[i] = c.placeholders.get(i);
+        }
+        return new Canonical(new Template(c.out.toByteArray(), placeholders), c.values);
+    }
+
+    /**
+     * A query or filter object, {"[dsl name]":{...}}.
+     */
+    @SuppressWarnings("unchecked")
+    private void dsl(Context c, Object dsl, QueryDSLType.TYPE section) {
+        if (!(dsl instanceof Map) || ((Map<String, Object>) dsl).size() != 1) {
+            generic(c, dsl);
+            return;
+        }
+        Map.Entry<String, Object> e = ((Map<String, Object>) dsl).entrySet().iterator().next();
+        CompiledModel.CompiledType type = model.get(section, e.getKey());
+        c.out.startObject().name(e.getKey());
+        if (type == null || !(e.getValue() instanceof Map)) {
+            generic(c, e.getValue());
+        } else {
+            params(c, section, type, "", (Map<String, Object>) e.getValue(), type.namedObject || type.namedArray);
+        }
+        c.out.endObject();
+    }
+
+    /**
+     * The params of a type, or of a group of them such as minimum_should_match.
+     *
+     * @param prefix the name of the group and a dot, or "" for the params of the type
+     * @param named whether the first key which isn't a param is the named field
+     */
+    @SuppressWarnings("unchecked")
+    private void params(Context c, QueryDSLType.TYPE section, CompiledModel.CompiledType type, String prefix,
+                        Map<String, Object> body, boolean named) {
+        List<String> keys = new ArrayList<String>(body.size());
+        String namedField = null;
+        if (named) {
+            for (String key : body.keySet()) {
+                if (type.param(key) == null && !type.isGroup(key)) {
+                    namedField = key;
+                    keys.add(key);
+                    break;
+                }
+            }
+        }
+        for (String param : type.order) {
+            if (!param.startsWith(prefix)) continue;
+            int dot = param.indexOf('.', prefix.length());
+            String key = dot > 0 ? param.substring(prefix.length(), dot) : param.substring(prefix.length());
+            if (body.containsKey(key) && !keys.contains(key)) keys.add(key);
+        }
+        for (String key : new TreeSet<String>(body.keySet())) {
+            if (!keys.contains(key)) keys.add(key);
+        }
+
+        c.out.startObject();
+        for (String key : keys) {
+            Object value = body.get(key);
+            String name = prefix + key;
+            if (key.equals(namedField)) {
+                c.out.name(key);
+                if (type.namedObject && value instanceof Map) {
+                    params(c, section, type, "", (Map<String, Object>) value, false);
+                } else {
+                    literal(c, value);
+                }
+                continue;
+            }
+            if (key.equals("_name") || (key.equals("boost") && isOne(value))) continue;
+
+            c.out.name(key);
+            QueryDSLType.PARAM_TYPE paramType = type.param(name);
+            if (paramType == null) {
+                if (type.isGroup(name) && value instanceof Map) {
+                    params(c, section, type, name + ".", (Map<String, Object>) value, false);
+                } else {
+                    literal(c, value);
+                }
+                continue;
+            }
+            switch (paramType) {
+                case QUERY_BUILDER:
+                    dsl(c, value, QueryDSLType.TYPE.QUERY);
+                    break;
+                case FILTER_BUILDER:
+                    dsl(c, value, QueryDSLType.TYPE.FILTER);
+                    break;
+                case LIST_QUERY_BUILDER:
+                case LIST_FILTER_BUILDER:
+                    c.out.startArray();
+                    for (Object clause : value instanceof List ? (List<Object>) value : Collections.singletonList(value)) {
+                        dsl(c, clause, paramType == QueryDSLType.PARAM_TYPE.LIST_QUERY_BUILDER ? QueryDSLType.TYPE.QUERY : QueryDSLType.TYPE.FILTER);
+                    }
+                    c.out.endArray();
+                    break;
+                default:
+                    literal(c, normalize(paramType, value));
+            }
+        }
+        c.out.endObject();
+    }
+
+    /**
+     * Json the model doesn't describe: objects are structure, with their keys sorted, anything else is a literal.
+     */
+    @SuppressWarnings("unchecked")
+    private void generic(Context c, Object value) {
+        if (!(value instanceof Map)) {
+            literal(c, value);
+            return;
+        }
+        Map<String, Object> map = (Map<String, Object>) value;
+        c.out.startObject();
+        for (String key : new TreeSet<String>(map.keySet())) {
+            c.out.name(key);
+            generic(c, map.get(key));
+        }
+        c.out.endObject();
+    }
+
+    /**
+     * Writes a placeholder for the value. Literals are always the value of a name, so there's no comma before one.
+     */
+    private static void literal(Context c, Object value) {
+        c.placeholders.add(c.out.size());
+        c.out.nullValue();
+        c.placeholders.add(c.out.size());
+        c.values.add(value);
+    }
+
+    /**
+     * The value in the json type of its param type, where it was given as a string.
+     */
+    static Object normalize(QueryDSLType.PARAM_TYPE type, Object value) {
+        switch (type) {
+            case BOOLEAN:
+                if ("true".equals(value)) return Boolean.TRUE;
+                if ("false".equals(value)) return Boolean.FALSE;
+                return value;
+            case INTEGER:
+                if (value instanceof String) {
+                    try {
+                        return Long.valueOf(((String) value).trim());
+                    } catch (NumberFormatException e) {
+                        return value;
+                    }
+                }
+                return value instanceof Integer ? Long.valueOf(((Integer) value).longValue()) : value;
+            case FLOAT:
+            case DOUBLE:
+                if (value instanceof String) {
+                    try {
+                        return Double.valueOf(((String) value).trim());
+                    } catch (NumberFormatException e) {
+                        return value;
+                    }
+                }
+                return value instanceof Number ? Double.valueOf(((Number) value).doubleValue()) : value;
+            case OPERATOR:
+                return value instanceof String ? ((String) value).toLowerCase(Locale.ROOT) : value;
+            default:
+                return value;
+        }
+    }
+
+    private static boolean isOne(Object value) {
+        if (value instanceof Number) return ((Number) value).doubleValue() == 1;
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value) == 1;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * MurmurHash3 x64 128 bit, as in Austin Appleby's reference implementation, which reads the input as little
+     * endian longs.
+     */
+    static long[] murmur3(byte[] data, int len, int seed) {
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        long h1 = seed & 0xffffffffL;
+        long h2 = seed & 0xffffffffL;
+
+        int blocks = len / 16;
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLong(data, i * 16);
+            long k2 = getLong(data, i * 16 + 8);
+
+            k1 *= c1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= c2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= c2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= c1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        int tail = blocks * 16;
+        switch (len & 15) {
+            case 15: k2 ^= (data[tail + 14] & 0xffL) << 48;
+            case 14: k2 ^= (data[tail + 13] & 0xffL) << 40;
+            case 13: k2 ^= (data[tail + 12] & 0xffL) << 32;
+            case 12: k2 ^= (data[tail + 11] & 0xffL) << 24;
+            case 11: k2 ^= (data[tail + 10] & 0xffL) << 16;
+            case 10: k2 ^= (data[tail + 9] & 0xffL) << 8;
+            case 9:
+                k2 ^= data[tail + 8] & 0xffL;
+                k2 *= c2;
+                k2 = Long.rotateLeft(k2, 33);
+                k2 *= c1;
+                h2 ^= k2;
+            case 8: k1 ^= (data[tail + 7] & 0xffL) << 56;
+            case 7: k1 ^= (data[tail + 6] & 0xffL) << 48;
+            case 6: k1 ^= (data[tail + 5] & 0xffL) << 40;
+            case 5: k1 ^= (data[tail + 4] & 0xffL) << 32;
+            case 4: k1 ^= (data[tail + 3] & 0xffL) << 24;
+            case 3: k1 ^= (data[tail + 2] & 0xffL) << 16;
+            case 2: k1 ^= (data[tail + 1] & 0xffL) << 8;
+            case 1:
+                k1 ^= data[tail] & 0xffL;
+                k1 *= c1;
+                k1 = Long.rotateLeft(k1, 31);
+                k1 *= c2;
+                h1 ^= k1;
+            default:
+        }
+
+        h1 ^= len;
+        h2 ^= len;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[]{h1, h2};
+    }
+
+    private static long getLong(byte[] b, int i) {
+        return (b[i] & 0xffL) | (b[i + 1] & 0xffL) << 8 | (b[i + 2] & 0xffL) << 16 | (b[i + 3] & 0xffL) << 24
+                | (b[i + 4] & 0xffL) << 32 | (b[i + 5] & 0xffL) << 40 | (b[i + 6] & 0xffL) << 48 | (b[i + 7] & 0xffL) << 56;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,623 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Estimates what a query will cost elasticsearch before it's run, and flags the patterns known to be slow.
+ * Like the {@link QueryValidator}, it makes a single pass over the parser's tokens, looking the params up in a
+ * {@link CompiledModel}.
+ *
+ * Every query and filter in the json is a node, whose cost is that of its dsl type, plus that of the params it sets,
+ * as declared in the {@link Rules}, plus that of the patterns found on it:
+ * <ul>
+ * <li>DEEP_NESTING: a query or filter nested in more lists of queries or filters (bool must etc.) than maxListDepth</li>
+ * <li>LEADING_WILDCARD: a wildcard or prefix value starting with * or ?, or allow_leading_wildcard in a query_string</li>
+ * <li>HIGH_FUZZINESS: a FUZZINESS param above maxFuzziness, e.g. an edit distance of 2</li>
+ * <li>UNCACHED_SCRIPT: a script filter in a bool, and or or filter, none of which sets "_cache":true</li>
+ * </ul>
+ * The cost of the query is the sum of that of its nodes. The scores are relative, for comparing queries and
+ * catching expensive ones before they ship, not a prediction of latency. Unknown types cost the default, and their
+ * content isn't looked at, see the {@link QueryValidator} for those.
+ *
+ * The same analysis runs in the web builder, with the same rules, see qb-cost.js. Thread safe.
+ */
+public class QueryCostAnalyzer {
+
+    public static enum Pattern {
+        DEEP_NESTING, LEADING_WILDCARD, HIGH_FUZZINESS, UNCACHED_SCRIPT
+    }
+
+    /**
+     * A query or filter in the analyzed json.
+     */
+    public static final class Node {
+        final QueryDSLType.TYPE section;
+        final String dslName;
+        final String path;
+
+        /**
+         * The cost of the node itself, without the queries and filters nested in it
+         */
+        int cost;
+
+        Node(QueryDSLType.TYPE section, String dslName, String path, int cost) {
+            this.section = section;
+            this.dslName = dslName;
+            this.path = path;
+            this.cost = cost;
+        }
+
+        public QueryDSLType.TYPE getSection() {
+            return section;
+        }
+
+        public String getDslName() {
+            return dslName;
+        }
+
+        /**
+         * Where in the json, e.g. bool.must[1].term
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public int getCost() {
+            return cost;
+        }
+
+        @Override public String toString() {
+            return path + " " + cost;
+        }
+    }
+
+    public static final class Finding {
+        final Pattern pattern;
+        final String path;
+        final String message;
+
+        Finding(Pattern pattern, String path, String message) {
+            this.pattern = pattern;
+            this.path = path;
+            this.message = message;
+        }
+
+        public Pattern getPattern() {
+            return pattern;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override public String toString() {
+            return pattern + " at " + path + ": " + message;
+        }
+    }
+
+    public static final class Report {
+        final List<Node> nodes = new ArrayList<Node>();
+        final List<Finding> findings = new ArrayList<Finding>();
+
+        /**
+         * The cost of the whole query.
+         */
+        public int getCost() {
+            int cost = 0;
+            for (Node node : nodes) {
+                cost += node.cost;
+            }
+            return cost;
+        }
+
+        /**
+         * The queries and filters, in the order they appear in the json.
+         */
+        public List<Node> getNodes() {
+            return Collections.unmodifiableList(nodes);
+        }
+
+        public List<Finding> getFindings() {
+            return Collections.unmodifiableList(findings);
+        }
+
+        @Override public String toString() {
+            return "cost " + getCost() + " " + findings;
+        }
+    }
+
+    /**
+     * The costs of a dsl type, e.g. "query_string":{"cost":5,"leadingWildcardParam":"allow_leading_wildcard","params":{"analyze_wildcard":5}}
+     */
+    static final class TypeRule {
+        final int cost;
+
+        /**
+         * Added to the cost when the param is given, and isn't false or null
+         */
+        final Map<String, Integer> params;
+
+        /**
+         * Check the value of the named field for a leading wildcard
+         */
+        final boolean leadingWildcard;
+
+        /**
+         * A boolean param which turns leading wildcards on, or null
+         */
+        final String leadingWildcardParam;
+
+        /**
+         * A script, which is flagged in uncached compound filters
+         */
+        final boolean script;
+
+        TypeRule(int cost, Map<String, Integer> params, boolean leadingWildcard, String leadingWildcardParam, boolean script) {
+            this.cost = cost;
+            this.params = params;
+            this.leadingWildcard = leadingWildcard;
+            this.leadingWildcardParam = leadingWildcardParam;
+            this.script = script;
+        }
+    }
+
+    /**
+     * The scores of the dsl types, params and patterns, from a json file such as {@link #DEFAULT_RULES}:
+     * <pre>
+     * {"format":1,"defaultCost":1,"maxListDepth":4,"maxFuzziness":1,
+     *  "patterns":{"DEEP_NESTING":20,"LEADING_WILDCARD":100,"HIGH_FUZZINESS":30,"UNCACHED_SCRIPT":50},
+     *  "query":{"wildcard":{"cost":10,"leadingWildcard":true},...},
+     *  "filter":{"script":{"cost":20,"script":true},...}}
+     * </pre>
+     * The web builder loads the same file as qb-cost-rules.json.
+     */
+    public static final class Rules {
+        static final int FORMAT = 1;
+
+        static final String DEFAULT_RULES = "cost-rules.json";
+
+        final int defaultCost;
+        final int maxListDepth;
+        final double maxFuzziness;
+        final Map<Pattern, Integer> patterns;
+        final Map<String, TypeRule> queries;
+        final Map<String, TypeRule> filters;
+
+        private Rules(int defaultCost, int maxListDepth, double maxFuzziness, Map<Pattern, Integer> patterns,
+                      Map<String, TypeRule> queries, Map<String, TypeRule> filters) {
+            this.defaultCost = defaultCost;
+            this.maxListDepth = maxListDepth;
+            this.maxFuzziness = maxFuzziness;
+            this.patterns = patterns;
+            this.queries = queries;
+            this.filters = filters;
+        }
+
+        public static Rules loadDefault() {
+            InputStream in = QueryCostAnalyzer.class.getResourceAsStream(DEFAULT_RULES);
+            if (in == null) throw new IllegalStateException(DEFAULT_RULES + " isn't on the class path");
+            try {
+                return load(in);
+            } catch (IOException e) {
+                throw new IllegalStateException("Couldn't read " + DEFAULT_RULES, e);
+            }
+        }
+
+        public static Rules load(File file) throws IOException {
+            return load(new FileInputStream(file));
+        }
+
+        /**
+         * Reads a rules file. Closes in.
+         *
+         * @throws IllegalArgumentException if a rule is invalid
+         */
+        @SuppressWarnings("unchecked")
+        public static Rules load(InputStream in) throws IOException {
+            Map<String, Object> file;
+            try {
+                XContentParser parser = JsonXContent.jsonXContent.createParser(in);
+                try {
+                    file = parser.mapOrdered();
+                } finally {
+                    parser.close();
+                }
+            } finally {
+                in.close();
+            }
+            Object format = file.get("format");
+            if (!(format instanceof Number) || ((Number) format).intValue() != FORMAT) {
+                throw new IllegalArgumentException("Unsupported cost rules format " + format);
+            }
+            Map<Pattern, Integer> patterns = new EnumMap<Pattern, Integer>(Pattern.class);
+            Map<String, Object> patternCosts = (Map<String, Object>) file.get("patterns");
+            for (Pattern pattern : Pattern.values()) {
+                Object cost = patternCosts == null ? null : patternCosts.get(pattern.name());
+                patterns.put(pattern, cost == null ? 0 : number(cost, pattern.name()).intValue());
+            }
+            if (patternCosts != null) {
+                for (String name : patternCosts.keySet()) {
+                    Pattern.valueOf(name);
+                }
+            }
+            return new Rules(number(file.get("defaultCost"), "defaultCost").intValue(),
+                    number(file.get("maxListDepth"), "maxListDepth").intValue(),
+                    number(file.get("maxFuzziness"), "maxFuzziness").doubleValue(), patterns,
+                    typeRules((Map<String, Object>) file.get("query")), typeRules((Map<String, Object>) file.get("filter")));
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Map<String, TypeRule> typeRules(Map<String, Object> section) {
+            Map<String, TypeRule> result = new HashMap<String, TypeRule>();
+            if (section == null) return result;
+            for (Map.Entry<String, Object> e : section.entrySet()) {
+                Map<String, Object> rule = (Map<String, Object>) e.getValue();
+                for (String key : rule.keySet()) {
+                    if (!key.equals("cost") && !key.equals("params") && !key.equals("leadingWildcard")
+                            && !key.equals("leadingWildcardParam") && !key.equals("script")) {
+                        throw new IllegalArgumentException("Unknown key " + key + " in the cost rule of " + e.getKey());
+                    }
+                }
+                Map<String, Integer> params = new HashMap<String, Integer>();
+                Map<String, Object> paramCosts = (Map<String, Object>) rule.get("params");
+                if (paramCosts != null) {
+                    for (Map.Entry<String, Object> p : paramCosts.entrySet()) {
+                        params.put(p.getKey(), number(p.getValue(), e.getKey() + "." + p.getKey()).intValue());
+                    }
+                }
+                result.put(e.getKey(), new TypeRule(number(rule.get("cost"), e.getKey()).intValue(), params,
+                        Boolean.TRUE.equals(rule.get("leadingWildcard")), (String) rule.get("leadingWildcardParam"),
+                        Boolean.TRUE.equals(rule.get("script"))));
+            }
+            return result;
+        }
+
+        private static Number number(Object value, String name) {
+            if (!(value instanceof Number)) throw new IllegalArgumentException(name + " should be a number, not " + value);
+            return (Number) value;
+        }
+
+        TypeRule get(QueryDSLType.TYPE section, String dslName) {
+            return (section == QueryDSLType.TYPE.QUERY ? queries : filters).get(dslName);
+        }
+
+        int cost(Pattern pattern) {
+            return patterns.get(pattern);
+        }
+    }
+
+    /**
+     * An open bool, and or or filter, and the script filters in it whose finding depends on whether it's cached.
+     */
+    private static final class Compound {
+        final String dslName;
+        boolean cached;
+        final List<Node> scripts = new ArrayList<Node>();
+
+        Compound(String dslName) {
+            this.dslName = dslName;
+        }
+    }
+
+    /**
+     * State of a single analysis.
+     */
+    private static final class Context {
+        final XContentParser parser;
+        final List<String> path = new ArrayList<String>();
+        final Report report = new Report();
+
+        /**
+         * How many lists of queries or filters the current node is in
+         */
+        int listDepth;
+
+        final List<Compound> compounds = new ArrayList<Compound>();
+
+        Context(XContentParser parser) {
+            this.parser = parser;
+        }
+
+        void push(String segment) {
+            path.add(segment);
+        }
+
+        void pop() {
+            path.remove(path.size() - 1);
+        }
+
+        String path() {
+            StringBuilder sb = new StringBuilder();
+            for (String segment : path) {
+                if (sb.length() > 0 && segment.charAt(0) != '[') sb.append('.');
+                sb.append(segment);
+            }
+            return sb.toString();
+        }
+    }
+
+    private final CompiledModel model;
+    private final Rules rules;
+
+    public QueryCostAnalyzer(CompiledModel model) {
+        this(model, Rules.loadDefault());
+    }
+
+    public QueryCostAnalyzer(CompiledModel model, Rules rules) {
+        this.model = model;
+        this.rules = rules;
+    }
+
+    public Report analyze(String json, QueryDSLType.TYPE section) throws IOException {
+        XContentParser parser = JsonXContent.jsonXContent.createParser(json);
+        try {
+            return analyze(parser, section);
+        } finally {
+            parser.close();
+        }
+    }
+
+    public Report analyze(byte[] json, QueryDSLType.TYPE section) throws IOException {
+        XContentParser parser = JsonXContent.jsonXContent.createParser(json);
+        try {
+            return analyze(parser, section);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Analyzes the query or filter object the parser is on, or the next token if the parser hasn't started yet.
+     * The parser is left on the object's END_OBJECT. Json which isn't a query or filter object gives an empty report.
+     *
+     * @throws IOException if it isn't json
+     */
+    public Report analyze(XContentParser parser, QueryDSLType.TYPE section) throws IOException {
+        Context c = new Context(parser);
+        XContentParser.Token t = parser.currentToken();
+        if (t == null) t = parser.nextToken();
+        if (t == XContentParser.Token.START_OBJECT) {
+            dsl(c, section);
+        } else {
+            parser.skipChildren();
+        }
+        return c.report;
+    }
+
+    /**
+     * A query or filter object, {"[dsl name]":{...}}. The parser is on its START_OBJECT.
+     */
+    private void dsl(Context c, QueryDSLType.TYPE section) throws IOException {
+        XContentParser parser = c.parser;
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            c.push(name);
+            TypeRule rule = rules.get(section, name);
+            Node node = new Node(section, name, c.path(), rule != null ? rule.cost : rules.defaultCost);
+            c.report.nodes.add(node);
+            if (c.listDepth == rules.maxListDepth + 1) {
+                finding(c, node, Pattern.DEEP_NESTING, "nested in " + c.listDepth + " lists of queries or filters, more than " + rules.maxListDepth);
+            }
+            CompiledModel.CompiledType type = model.get(section, name);
+            if (type == null || parser.currentToken() != XContentParser.Token.START_OBJECT) {
+                parser.skipChildren();
+            } else {
+                params(c, section, type, rule, node);
+            }
+            c.pop();
+        }
+    }
+
+    /**
+     * The params of a dsl type. The parser is on their START_OBJECT.
+     */
+    private void params(Context c, QueryDSLType.TYPE section, CompiledModel.CompiledType type, TypeRule rule, Node node) throws IOException {
+        XContentParser parser = c.parser;
+        if (rule != null && rule.script && !c.compounds.isEmpty()) {
+            c.compounds.get(c.compounds.size() - 1).scripts.add(node);
+        }
+        Compound compound = section == QueryDSLType.TYPE.FILTER && isCompound(type) ? new Compound(type.dslName) : null;
+        if (compound != null) c.compounds.add(compound);
+
+        boolean named = false;
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            c.push(name);
+            if (!param(c, type, rule, node, compound, name)) {
+                if ((type.namedObject || type.namedArray) && !named) {
+                    named = true;
+                    namedField(c, type, rule, node, compound);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            c.pop();
+        }
+
+        if (compound != null) {
+            c.compounds.remove(c.compounds.size() - 1);
+            if (!compound.cached) {
+                if (!c.compounds.isEmpty()) {
+                    c.compounds.get(c.compounds.size() - 1).scripts.addAll(compound.scripts);
+                } else {
+                    for (Node script : compound.scripts) {
+                        finding(c, script, script.path, Pattern.UNCACHED_SCRIPT, "script filter in a " + compound.dslName + " filter without \"_cache\":true");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Costs the value of a param, if name is one.
+     *
+     * @return false if there's no such param, in which case the value hasn't been read
+     */
+    private boolean param(Context c, CompiledModel.CompiledType type, TypeRule rule, Node node, Compound compound, String name) throws IOException {
+        XContentParser parser = c.parser;
+        QueryDSLType.PARAM_TYPE paramType = type.param(name);
+        if (paramType != null) {
+            XContentParser.Token t = parser.currentToken();
+            boolean set = t != XContentParser.Token.VALUE_NULL && !(t.isValue() && "false".equals(parser.text()));
+            if (rule != null && set) {
+                Integer cost = rule.params.get(name);
+                if (cost != null) node.cost += cost;
+                if (name.equals(rule.leadingWildcardParam) && isTrue(parser)) {
+                    finding(c, node, Pattern.LEADING_WILDCARD, name + " allows leading wildcards");
+                }
+            }
+            if (compound != null && name.equals("_cache")) compound.cached = isTrue(parser);
+            if (paramType == QueryDSLType.PARAM_TYPE.FUZZINESS) fuzziness(c, node);
+            value(c, paramType);
+            return true;
+        }
+        if (!type.isGroup(name)) return false;
+
+        if (parser.currentToken() == XContentParser.Token.START_OBJECT) {
+            while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                String child = parser.currentName();
+                parser.nextToken();
+                c.push(child);
+                if (!param(c, type, rule, node, compound, name + "." + child)) parser.skipChildren();
+                c.pop();
+            }
+        } else {
+            parser.skipChildren();
+        }
+        return true;
+    }
+
+    /**
+     * The field of a namedObject or namedArray type, e.g. "user" in {"wildcard":{"user":"ki*"}}.
+     */
+    private void namedField(Context c, CompiledModel.CompiledType type, TypeRule rule, Node node, Compound compound) throws IOException {
+        XContentParser parser = c.parser;
+        boolean wildcards = rule != null && rule.leadingWildcard;
+        XContentParser.Token t = parser.currentToken();
+        if (type.namedObject && t == XContentParser.Token.START_OBJECT) {
+            while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                c.push(name);
+                if (wildcards && (name.equals("value") || name.equals(type.dslName))) leadingWildcard(c, node);
+                if (!param(c, type, rule, node, compound, name)) parser.skipChildren();
+                c.pop();
+            }
+        } else {
+            if (wildcards) leadingWildcard(c, node);
+            parser.skipChildren();
+        }
+    }
+
+    private void value(Context c, QueryDSLType.PARAM_TYPE type) throws IOException {
+        switch (type) {
+            case QUERY_BUILDER:
+                builder(c, QueryDSLType.TYPE.QUERY);
+                return;
+            case FILTER_BUILDER:
+                builder(c, QueryDSLType.TYPE.FILTER);
+                return;
+            case LIST_QUERY_BUILDER:
+                builders(c, QueryDSLType.TYPE.QUERY);
+                return;
+            case LIST_FILTER_BUILDER:
+                builders(c, QueryDSLType.TYPE.FILTER);
+                return;
+            default:
+                c.parser.skipChildren();
+        }
+    }
+
+    private void builder(Context c, QueryDSLType.TYPE section) throws IOException {
+        if (c.parser.currentToken() == XContentParser.Token.START_OBJECT) {
+            dsl(c, section);
+        } else {
+            c.parser.skipChildren();
+        }
+    }
+
+    /**
+     * A list of queries or filters, or a single one.
+     */
+    private void builders(Context c, QueryDSLType.TYPE section) throws IOException {
+        XContentParser parser = c.parser;
+        c.listDepth++;
+        if (parser.currentToken() != XContentParser.Token.START_ARRAY) {
+            builder(c, section);
+        } else {
+            int i = 0;
+            while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                c.push("[" + i++ + "]");
+                builder(c, section);
+                c.pop();
+            }
+        }
+        c.listDepth--;
+    }
+
+    private void leadingWildcard(Context c, Node node) throws IOException {
+        if (c.parser.currentToken() != XContentParser.Token.VALUE_STRING) return;
+        String text = c.parser.text();
+        if (text.startsWith("*") || text.startsWith("?")) {
+            finding(c, node, Pattern.LEADING_WILDCARD, "\"" + text + "\" starts with a wildcard");
+        }
+    }
+
+    private void fuzziness(Context c, Node node) throws IOException {
+        XContentParser.Token t = c.parser.currentToken();
+        if (t != XContentParser.Token.VALUE_NUMBER && t != XContentParser.Token.VALUE_STRING) return;
+        double fuzziness;
+        try {
+            fuzziness = Double.parseDouble(c.parser.text());
+        } catch (NumberFormatException e) {
+            // AUTO, or a time or distance
+            return;
+        }
+        if (fuzziness > rules.maxFuzziness) {
+            finding(c, node, Pattern.HIGH_FUZZINESS, "fuzziness " + c.parser.text() + " is above " + formatNumber(rules.maxFuzziness));
+        }
+    }
+
+    private void finding(Context c, Node node, Pattern pattern, String message) {
+        finding(c, node, c.path(), pattern, message);
+    }
+
+    private void finding(Context c, Node node, String path, Pattern pattern, String message) {
+        node.cost += rules.cost(pattern);
+        c.report.findings.add(new Finding(pattern, path, message));
+    }
+
+    private static String formatNumber(double number) {
+        return number == (long) number ? Long.toString((long) number) : Double.toString(number);
+    }
+
+    private static boolean isTrue(XContentParser parser) throws IOException {
+        XContentParser.Token t = parser.currentToken();
+        return (t == XContentParser.Token.VALUE_BOOLEAN || t == XContentParser.Token.VALUE_STRING) && "true".equals(parser.text());
+    }
+
+    /**
+     * Does the filter take lists of filters, like bool, and and or?
+     */
+    private static boolean isCompound(CompiledModel.CompiledType type) {
+        return type.params.containsValue(QueryDSLType.PARAM_TYPE.LIST_FILTER_BUILDER);
+    }
+}
@@ -3,8 +3,6 @@ package com.adamantite.es.querybuilder;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -88,6 +86,22 @@ public class QueryDSLType {
         this.type = type;
     }
 
+    /**
+     * A deep copy, which can be modified without affecting this type.
+     */
+    public QueryDSLType copy() {
+        QueryDSLType copy = new QueryDSLType(dslName, type);
+        copy.namedObject = namedObject;
+        copy.namedObjectValue = namedObjectValue;
+        copy.namedArray = namedArray;
+        copy.namedArrayValues = namedArrayValues;
+        for (Map.Entry<String, Param> e : fields.entrySet()) {
+            Param p = e.getValue();
+            copy.fields.put(e.getKey(), new Param(p.type, p.paramName, p.label));
+        }
+        return copy;
+    }
+
     public void addField(Field field) {
         Class type = field.getType();
         String fieldName = field.getName();
@@ -95,66 +109,85 @@ public class QueryDSLType {
         addField(type, fieldName, genericType);
     }
 
+    /**
+     * Classes outside java.* are compared by name, since the builder may come from a different class loader
+     * than the elasticsearch classes on the class path, e.g. when several versions are extracted at once.
+     */
     protected void addField(Class type, String fieldName, Type genericType) {
-        if (type.equals(String.class)) {
+        String typeArgument = null;
+        if (genericType instanceof ParameterizedType) {
+            Type argument = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+            if (argument instanceof Class) typeArgument = ((Class) argument).getName();
+        }
+        addField(fieldName, type.getName(), typeArgument);
+    }
+
+    /**
+     * Adds a field by the names of its type, e.g. for a field read from a class file rather than loaded.
+     *
+     * @param typeName the name of the field's type as Class.getName() returns it, e.g. float or [Ljava.lang.String;
+     * @param typeArgument the class name of the first type argument of a generic type, or null
+     */
+    public void addField(String fieldName, String typeName, String typeArgument) {
+        if (typeName.equals("java.lang.String")) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.STRING));
-        } else if (type.equals(Boolean.class) || type.equals(Boolean.TYPE)) {
+        } else if (typeName.equals("java.lang.Boolean") || typeName.equals("boolean")) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.BOOLEAN));
-        } else if (type.equals(Float.class) || type.equals(Float.TYPE)) {
+        } else if (typeName.equals("java.lang.Float") || typeName.equals("float")) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.FLOAT));
-        } else if (type.equals(Double.class) || type.equals(Double.TYPE)) {
+        } else if (typeName.equals("java.lang.Double") || typeName.equals("double")) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.DOUBLE));
-        } else if (type.equals(Integer.class) || type.equals(Integer.TYPE)) {
+        } else if (typeName.equals("java.lang.Integer") || typeName.equals("int")) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.INTEGER));
-        } else if (type.equals(QueryBuilder.class) || type.getName().endsWith("QueryBuilder")) {
+        } else if (typeName.endsWith("QueryBuilder")) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.QUERY_BUILDER));
             this.setParamName(fieldName, "query");
-        } else if (type.equals(FilterBuilder.class) || type.getName().endsWith("FilterBuilder")) {
+        } else if (typeName.endsWith("FilterBuilder")) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.FILTER_BUILDER));
             this.setParamName(fieldName, "filter");
-        } else if (type.equals(Fuzziness.class)) {
+        } else if (typeName.equals(Fuzziness.class.getName())) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.FUZZINESS));
             this.setParamName(fieldName, "fuzziness");
-        } else if (type.equals(Object.class)) {
+        } else if (typeName.equals("java.lang.Object")) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.OBJECT));
-        } else if (type.getName().contains("Operator")) {
+        } else if (typeName.contains("Operator")) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.OPERATOR));
-        } else if (type.getName().endsWith("GeoDistance")) {
+        } else if (typeName.endsWith("GeoDistance")) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.GEO_DISTANCE));
-        } else if (type.getName().endsWith("SpatialStrategy")) {
+        } else if (typeName.endsWith("SpatialStrategy")) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.SPATIAL_STRATEGY));
-        } else if (type.getName().endsWith("ShapeBuilder")) {
+        } else if (typeName.endsWith("ShapeBuilder")) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.SHAPE_BUILDER));
-        } else if (type.getName().endsWith("ShapeRelation")) {
+        } else if (typeName.endsWith("ShapeRelation")) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.SHAPE_RELATION));
-        } else if (type.getName().startsWith("[L") || type.equals(List.class) || type.equals(ArrayList.class)) {
+        } else if (typeName.startsWith("[L") || typeName.equals("java.util.List") || typeName.equals("java.util.ArrayList")) {
             PARAM_TYPE _type = PARAM_TYPE.LIST;
-            if(genericType != null && genericType instanceof ParameterizedType) {
-                ParameterizedType pt = (ParameterizedType) genericType;
-                genericType = pt.getActualTypeArguments()[0];
-                if(genericType.equals(QueryBuilder.class)) {
-                    _type = PARAM_TYPE.LIST_QUERY_BUILDER;
-                } else if(genericType.equals(FilterBuilder.class)) {
-                    _type = PARAM_TYPE.LIST_FILTER_BUILDER;
-                }
+            if (QueryBuilder.class.getName().equals(typeArgument)) {
+                _type = PARAM_TYPE.LIST_QUERY_BUILDER;
+            } else if (FilterBuilder.class.getName().equals(typeArgument)) {
+                _type = PARAM_TYPE.LIST_FILTER_BUILDER;
             }
             this.fields.put(fieldName, new Param(_type));
             this.setParamName(fieldName, fieldName);
-        } else if (type.equals(Map.class)) {
+        } else if (typeName.equals("java.util.Map")) {
             this.fields.put(fieldName, new Param(PARAM_TYPE.MAP));
-        } else if (!type.equals(ObjectFloatOpenHashMap.class)) {
-            System.out.println("Unknown field type: " + fieldName + " " + type.getName() + " on " + dslName);
+        } else if (!typeName.equals(ObjectFloatOpenHashMap.class.getName())) {
+            System.out.println("Unknown field type: " + fieldName + " " + typeName + " on " + dslName);
             this.fields.put(fieldName, new Param(PARAM_TYPE.OTHER));
         }
     }
 
-    public void setParamName(String name, String param) {
+    /**
+     * @return false if there's no such field
+     */
+    public boolean setParamName(String name, String param) {
         final Param p = this.fields.get(name);
         if (p == null) {
             System.out.println("Unknown field: " + name + " on " + this.dslName);
-        } else {
-            p.paramName = param;
+            return false;
         }
+        p.paramName = param;
+        return true;
     }
 
     public boolean isNamedObject() {
@@ -1,397 +1,916 @@
 package com.adamantite.es.querybuilder;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.elasticsearch.common.lang3.StringUtils;
 import org.elasticsearch.common.xcontent.XContentBuilder;
-import org.elasticsearch.common.xcontent.json.JsonXContent;
 
 /**
- * Usage: QueryDSLTypeExtractor -src [elasticsearch src dir] -out [output dir] -version [es version]
+ * Usage: QueryDSLTypeExtractor -src [elasticsearch src dir or jar] -out [output dir] -version [es version] [-threads N] [-cache dir] [-compact] [-docs dir] [-rules file] [-io mapped|stream] [-patch base version] [-java dir]
+ *
+ * If -src is the elasticsearch jar rather than a source checkout, the builders are read from their class files,
+ * see {@link BuilderClassScanner}. No elasticsearch class is loaded, and the source tree isn't needed.
+ *
+ * With -threads N (N &gt; 1) the builder files are parsed concurrently on a fork-join pool,
+ * and queries and filters are extracted at the same time. The output is identical to a
+ * sequential run.
+ *
+ * With -cache dir the parsed builders are kept in an {@link ExtractionCache}, and only the
+ * builders whose sources or jars changed since the last run are parsed again.
+ *
+ * Batch mode: several versions can be extracted in one run by repeating -version and -src, e.g.
+ * -version 1.4.3 -src [1.4.3 src dir] -version 1.7.2 -src [1.7.2 src dir]. The versions are
+ * extracted concurrently, each with its own class loader, and a builder whose sources are the same
+ * in several versions is only parsed once, see {@link SharedBuilders}.
+ *
+ * With -compact the model is also written in the compact indexed format, see {@link CompactModelWriter}.
+ *
+ * With -docs dir the documentation section and builder source excerpt of every dsl type are written for the web builder,
+ * with the documentation taken from the elasticsearch reference pages saved in dir, see {@link DocSnippetWriter}.
+ *
+ * The fixes to the model that can't be derived from the sources are declared in {@link ExtractionRules#DEFAULT_RULES},
+ * or in the rules file given with -rules. The rules that never matched a builder are reported at the end of the run.
+ *
+ * The builder sources and jars are memory-mapped by default, see {@link MappedSource} and {@link IndexedJarClassLoader}.
+ * -io stream reads them with a BufferedReader and a URLClassLoader instead, to compare the two.
+ *
+ * Next to every model, the timings, idiom counts and unresolved fields of the extraction are written to
+ * qb-metrics-[version].json, see {@link ExtractionMetrics}.
+ *
+ * With -patch [base version] in batch mode, every other version is also written as a patch against the model of the
+ * base version, qb-model-[version].patch.json, see {@link ModelDiff}.
+ *
+ * With -java dir a typed java api for building the queries of every version is generated into dir, see
+ * {@link JavaBuilderGenerator}.
  */
 public class QueryDSLTypeExtractor {
-    public static String esVersion = "1.7.2";
-    public static String esSrcHome = "/home/kelvin/java/search/elasticsearch-"+ esVersion +"-src";
-    public static String esQuerybuilderDir = esSrcHome + "/src/main/java/org/elasticsearch/index/query";
-    public static ClassLoader classLoader;
+    public static final String DEFAULT_VERSION = "1.7.2";
+    public static final String DEFAULT_SRC_HOME = "/home/kelvin/java/search/elasticsearch-"+ DEFAULT_VERSION +"-src";
+
+    private static final Pattern FIELD_SUFFIX = Pattern.compile("\\..+");
+    private static final Pattern PREFERRED_NAME = Pattern.compile("^(.*?)\\.Fields\\.(.*?)\\.getPreferredName\\(\\)");
+
+    final String esVersion;
+    final String esQuerybuilderDir;
+    final ClassLoader classLoader;
+    final ReflectionCache reflection;
+
+    /**
+     * Reads the builders from the elasticsearch jar, null when they're parsed from the sources.
+     */
+    final BuilderClassScanner classes;
+
+    private ForkJoinPool pool;
+
+    private ExtractionCache cache;
+
+    private SharedBuilders sharedBuilders;
+
+    private boolean writeCompactModel;
+
+    private File docsDir;
+
+    private File javaDir;
+
+    private ExtractionRules rules;
+
+    private boolean mappedSources = true;
+
+    private final ExtractionMetrics metrics = new ExtractionMetrics();
+
+    /**
+     * The model written by the last {@link #extract(String)}, null before.
+     */
+    private Map<String, QueryDSLType> extractedQueries;
+    private Map<String, QueryDSLType> extractedFilters;
+
+    /**
+     * The builder source of each dsl type parsed so far, by dsl name.
+     */
+    private final Map<String, File> queryBuilderFiles = new ConcurrentHashMap<String, File>();
+    private final Map<String, File> filterBuilderFiles = new ConcurrentHashMap<String, File>();
+
+    /**
+     * @param esQuerybuilderDir the directory with the xxxBuilder.java and xxxParser.java sources
+     * @param classLoader loads the builder and parser classes in org.elasticsearch.index.query
+     */
+    public QueryDSLTypeExtractor(String esVersion, String esQuerybuilderDir, ClassLoader classLoader) {
+        this(esVersion, esQuerybuilderDir, classLoader, null);
+    }
+
+    /**
+     * Extracts the builders from their class files, without loading them.
+     */
+    public QueryDSLTypeExtractor(String esVersion, BuilderClassScanner classes) {
+        this(esVersion, null, null, classes);
+    }
+
+    private QueryDSLTypeExtractor(String esVersion, String esQuerybuilderDir, ClassLoader classLoader, BuilderClassScanner classes) {
+        this.esVersion = esVersion;
+        this.esQuerybuilderDir = esQuerybuilderDir;
+        this.classLoader = classLoader;
+        this.reflection = new ReflectionCache(classLoader);
+        this.classes = classes;
+        this.rules = ExtractionRules.loadDefault(esVersion);
+    }
+
+    /**
+     * Creates an extractor that reads the builders out of the elasticsearch jar.
+     */
+    public static QueryDSLTypeExtractor forJar(String esVersion, File jar) throws IOException {
+        return new QueryDSLTypeExtractor(esVersion, new BuilderClassScanner(jar));
+    }
+
+    /**
+     * Creates an extractor for an elasticsearch source checkout, with the classes loaded from the jars in esSrcHome.
+     * The class loader doesn't delegate to the application class path, so that the classes of one version
+     * can't shadow those of another when several versions are extracted side by side.
+     */
+    public static QueryDSLTypeExtractor forSourceHome(String esVersion, String esSrcHome) throws IOException {
+        return forSourceHome(esVersion, esSrcHome, true);
+    }
+
+    /**
+     * @param mapped whether the jars are indexed by an {@link IndexedJarClassLoader} and the sources mapped,
+     * or the classes loaded by a URLClassLoader and the sources read line by line
+     */
+    public static QueryDSLTypeExtractor forSourceHome(String esVersion, String esSrcHome, boolean mapped) throws IOException {
+        File[] jars = new File(esSrcHome).listFiles(new FilenameFilter() {
+            @Override public boolean accept(File dir, String name) {
+                return name.endsWith(".jar");
+            }
+        });
+        if (jars == null) throw new IllegalArgumentException("Not a directory: " + esSrcHome);
+        Arrays.sort(jars);
+
+        ClassLoader parent = ClassLoader.getSystemClassLoader().getParent();
+        if (mapped) {
+            return new QueryDSLTypeExtractor(esVersion, querybuilderDir(esSrcHome), new IndexedJarClassLoader(jars, parent));
+        }
+        URL[] urls = new URL[jars.length];
+        for (int i = 0; i < jars.length; i++) {
+            urls[i] = jars[i].toURI().toURL();
+        }
+        QueryDSLTypeExtractor extractor = new QueryDSLTypeExtractor(esVersion, querybuilderDir(esSrcHome), new URLClassLoader(urls, parent));
+        extractor.setMappedSources(false);
+        return extractor;
+    }
+
+    /**
+     * The directory with the builder and parser sources in an elasticsearch source checkout.
+     */
+    public static String querybuilderDir(String esSrcHome) {
+        return esSrcHome + "/src/main/java/org/elasticsearch/index/query";
+    }
 
     public static void main(String[] args) throws IOException, ClassNotFoundException {
         String outputDir = "/tmp";
+        int threads = 0;
+        String cacheDir = null;
+        boolean compact = false;
+        String docsDir = null;
+        String javaDir = null;
+        String rulesFile = null;
+        boolean mapped = true;
+        String patchBase = null;
+        List<String> versions = new ArrayList<String>();
+        List<String> srcHomes = new ArrayList<String>();
         for (int i = 0, n = args.length; i < n; i++) {
             if(args[i].equals("-src")) {
-                esSrcHome = args[++i];
+                srcHomes.add(args[++i]);
             }
             if(args[i].equals("-version")) {
-                esVersion = args[++i];
+                versions.add(args[++i]);
             }
             if(args[i].equals("-out")) {
                 outputDir = args[++i];
             }
+            if(args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            }
+            if(args[i].equals("-cache")) {
+                cacheDir = args[++i];
+            }
+            if(args[i].equals("-compact")) {
+                compact = true;
+            }
+            if(args[i].equals("-docs")) {
+                docsDir = args[++i];
+            }
+            if(args[i].equals("-rules")) {
+                rulesFile = args[++i];
+            }
+            if(args[i].equals("-io")) {
+                String io = args[++i];
+                if (!io.equals("mapped") && !io.equals("stream")) throw new IllegalArgumentException("-io is mapped or stream, not " + io);
+                mapped = io.equals("mapped");
+            }
+            if(args[i].equals("-patch")) {
+                patchBase = args[++i];
+            }
+            if(args[i].equals("-java")) {
+                javaDir = args[++i];
+            }
+        }
+        if (versions.isEmpty()) versions.add(DEFAULT_VERSION);
+        if (srcHomes.isEmpty()) srcHomes.add(DEFAULT_SRC_HOME);
+        if (versions.size() != srcHomes.size()) {
+            throw new IllegalArgumentException("Every -version needs its own -src");
+        }
+        if (patchBase != null && !versions.contains(patchBase)) {
+            throw new IllegalArgumentException("The -patch base " + patchBase + " isn't one of the versions extracted");
+        }
+        // batch runs are concurrent unless told otherwise
+        boolean batch = versions.size() > 1;
+        if (threads <= 0) threads = batch ? Runtime.getRuntime().availableProcessors() : 1;
+
+        SharedBuilders sharedBuilders = batch ? new SharedBuilders() : null;
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        List<QueryDSLTypeExtractor> extractors = new ArrayList<QueryDSLTypeExtractor>();
+        for (int i = 0; i < versions.size(); i++) {
+            boolean jar = srcHomes.get(i).endsWith(".jar");
+            QueryDSLTypeExtractor extractor = jar ? forJar(versions.get(i), new File(srcHomes.get(i))) : forSourceHome(versions.get(i), srcHomes.get(i), mapped);
+            extractor.setPool(pool);
+            extractor.setSharedBuilders(sharedBuilders);
+            extractor.setWriteCompactModel(compact);
+            if (docsDir != null) extractor.setDocsDir(new File(docsDir));
+            if (javaDir != null) extractor.setJavaDir(new File(javaDir));
+            if (rulesFile != null) extractor.setRules(ExtractionRules.load(new File(rulesFile), versions.get(i)));
+            if (cacheDir != null) {
+                extractor.setCache(new ExtractionCache(new File(cacheDir), ExtractionCache.hashJars(new File(srcHomes.get(i)))));
+            }
+            extractors.add(extractor);
+        }
+
+        final String out = outputDir;
+        try {
+            if (pool == null) {
+                for (QueryDSLTypeExtractor extractor : extractors) {
+                    extractor.extract(out);
+                }
+            } else {
+                List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(extractors.size());
+                for (final QueryDSLTypeExtractor extractor : extractors) {
+                    tasks.add(new Callable<Void>() {
+                        @Override public Void call() throws Exception {
+                            extractor.extract(out);
+                            return null;
+                        }
+                    });
+                }
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    getResult(future);
+                }
+            }
+        } finally {
+            if (pool != null) pool.shutdown();
+            for (QueryDSLTypeExtractor extractor : extractors) {
+                if (extractor.classes != null) extractor.classes.close();
+            }
+        }
+
+        for (QueryDSLTypeExtractor extractor : extractors) {
+            ExtractionCache cache = extractor.getCache();
+            if (cache != null) {
+                System.out.println(extractor.esVersion + " extraction cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses");
+            }
+            ReflectionCache reflection = extractor.getReflectionCache();
+            if (extractor.classes == null) {
+                System.out.println(extractor.esVersion + " reflection cache: " + reflection.getHits() + " hits, " + reflection.getMisses() + " misses");
+            }
+            for (ExtractionRules.Rule rule : extractor.getRules().getUnmatched()) {
+                System.out.println(extractor.esVersion + " rule never matched: " + rule);
+            }
+        }
+        if (sharedBuilders != null) {
+            System.out.println("Shared builders: " + sharedBuilders.getMisses() + " parsed, " + sharedBuilders.getHits() + " shared between versions");
+        }
+        if (patchBase != null) {
+            QueryDSLTypeExtractor base = extractors.get(versions.indexOf(patchBase));
+            for (QueryDSLTypeExtractor extractor : extractors) {
+                if (extractor == base) continue;
+                ModelDiff diff = ModelDiff.compute(base.esVersion, base.getExtracted(QueryDSLType.TYPE.QUERY), base.getExtracted(QueryDSLType.TYPE.FILTER),
+                        extractor.esVersion, extractor.getExtracted(QueryDSLType.TYPE.QUERY), extractor.getExtracted(QueryDSLType.TYPE.FILTER));
+                diff.writePatch(new File(outputDir));
+                System.out.println(diff);
+            }
         }
-        init();
-        Map<String, QueryDSLType> queries = QueryDSLTypeExtractor.parseQueries(esQuerybuilderDir, classLoader);
-        Map<String, QueryDSLType> filters = QueryDSLTypeExtractor.parseFilters(esQuerybuilderDir, classLoader);
-        String json = QueryDSLTypeExtractor.toJSON(queries, filters, false, true);
-        BufferedWriter writer = new BufferedWriter(new FileWriter(outputDir + "/qb-model-"+ esVersion +".json"));
-        writer.write(json);
-        writer.close();
     }
 
-    public static void init() throws MalformedURLException {
-        ArrayList<URL> files = new ArrayList<URL>();
-        for(File f: new File(esSrcHome).listFiles()) {
-            if(f.getName().endsWith(".jar")) {
-                files.add(f.toURL());
+    /**
+     * Extracts the queries and filters, and writes them to qb-model-[version].json in outputDir.
+     * The model is streamed to the file with a {@link ModelWriter}. With a pool, the filters are
+     * extracted while the queries are, and then while the queries are being written.
+     *
+     * The model is written to a temp file first, so a failed extraction doesn't leave a partial model behind.
+     * If enabled, the compact model, the doc snippets and the java api are written afterwards, and then the metrics.
+     */
+    public void extract(String outputDir) throws IOException, ClassNotFoundException {
+        long start = System.currentTimeMillis();
+        Future<Map<String, QueryDSLType>> filterTask = null;
+        if (pool != null) {
+            filterTask = pool.submit(new Callable<Map<String, QueryDSLType>>() {
+                @Override public Map<String, QueryDSLType> call() throws Exception {
+                    return parseFilters();
+                }
+            });
+        }
+
+        File file = new File(outputDir, "qb-model-"+ esVersion +".json");
+        File tmp = new File(outputDir, file.getName() + ".tmp");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+        Map<String, QueryDSLType> queries;
+        Map<String, QueryDSLType> filters;
+        boolean written = false;
+        try {
+            ModelWriter writer = new ModelWriter(out, false, true);
+            queries = parseQueries();
+            writer.write(QueryDSLType.TYPE.QUERY, queries);
+            filters = filterTask != null ? getResult(filterTask) : parseFilters();
+            writer.write(QueryDSLType.TYPE.FILTER, filters);
+            writer.close();
+            written = true;
+        } finally {
+            if (!written) {
+                // don't end the document, the writer may be half way through a type
+                out.close();
+                tmp.delete();
             }
         }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) throw new IOException("Couldn't rename " + tmp + " to " + file);
+        }
+        extractedQueries = queries;
+        extractedFilters = filters;
 
-        classLoader = new URLClassLoader(files.toArray(new URL[files.size()]), Thread.currentThread().getContextClassLoader());
+        if (writeCompactModel) {
+            new CompactModelWriter().write(new File(outputDir), esVersion, queries, filters);
+        }
+        if (docsDir != null) {
+            DocSnippetWriter snippets = new DocSnippetWriter(docsDir);
+            snippets.write(new File(outputDir), esVersion, QueryDSLType.TYPE.QUERY, queries, queryBuilderFiles);
+            snippets.write(new File(outputDir), esVersion, QueryDSLType.TYPE.FILTER, filters, filterBuilderFiles);
+        }
+        if (javaDir != null) {
+            new JavaBuilderGenerator(JavaBuilderGenerator.packageFor(esVersion)).write(javaDir, esVersion, queries, filters);
+        }
+        metrics.write(new File(outputDir), esVersion, System.currentTimeMillis() - start, classes == null ? reflection : null, cache);
     }
 
-    public static Map<String, QueryDSLType> parseQueries(String baseDir, ClassLoader classLoader) throws ClassNotFoundException {
-        Map<String, QueryDSLType> result = new TreeMap<String, QueryDSLType>();
-        File dir = new File(baseDir);
-        parse(result, dir, QueryDSLType.TYPE.QUERY, classLoader);
-        applyQueryBuilderWorkarounds(result);
-        return result;
+    public String getEsVersion() {
+        return esVersion;
     }
 
-    protected static void applyQueryBuilderWorkarounds(Map<String, QueryDSLType> result) {
-        QueryDSLType common = result.get("common");
-        common.fields.get("lowFreqMinimumShouldMatch").paramName = "minimum_should_match." + common.fields.get("lowFreqMinimumShouldMatch").paramName;
-        common.fields.get("highFreqMinimumShouldMatch").paramName = "minimum_should_match." + common.fields.get("highFreqMinimumShouldMatch").paramName;
+    public String getEsQuerybuilderDir() {
+        return esQuerybuilderDir;
+    }
 
-        QueryDSLType multi = result.get("multi_match");
-        multi.fields.put("type", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.STRING, "type"));
-        multi.fields.put("zeroTermsQuery", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.STRING, "zero_terms_query"));
+    /**
+     * Null when the builders are read from the jar.
+     */
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
 
-        QueryDSLType match = result.get("match");
-        match.fields.put("zeroTermsQuery", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.STRING, "zero_terms_query"));
+    /**
+     * Null when the builders are parsed from the sources.
+     */
+    public BuilderClassScanner getClasses() {
+        return classes;
+    }
 
-        QueryDSLType queryString = result.get("query_string");
-        queryString.fields.put("locale", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.STRING, "locale"));
+    public ReflectionCache getReflectionCache() {
+        return reflection;
+    }
 
-        QueryDSLType template = result.get("template");
-        if(template != null) {
-            template.fields.clear();
-            template.fields.put("file", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.STRING, "file"));
-            template.fields.put("id", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.STRING, "id"));
-            template.fields.put("query", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.QUERY_BUILDER, "query"));
-            template.fields.put("params", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.MAP, "params"));
-        }
+    public ForkJoinPool getPool() {
+        return pool;
     }
 
-    public static Map<String, QueryDSLType> parseFilters(String baseDir, ClassLoader classLoader) throws ClassNotFoundException {
-        Map<String, QueryDSLType> result = new TreeMap<String, QueryDSLType>();
-        File dir = new File(baseDir);
-        parse(result, dir, QueryDSLType.TYPE.FILTER, classLoader);
-        applyFilterBuilderWorkarounds(result);
+    /**
+     * Parses the builder files on the given pool. A null pool parses sequentially.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
 
-        return result;
+    public ExtractionCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Takes unchanged builders from the cache. A null cache parses every builder.
+     */
+    public void setCache(ExtractionCache cache) {
+        this.cache = cache;
+    }
+
+    public SharedBuilders getSharedBuilders() {
+        return sharedBuilders;
+    }
+
+    /**
+     * Shares the parsed builders with the other extractors of a batch run.
+     */
+    public void setSharedBuilders(SharedBuilders sharedBuilders) {
+        this.sharedBuilders = sharedBuilders;
+    }
+
+    public boolean isWriteCompactModel() {
+        return writeCompactModel;
+    }
+
+    /**
+     * Also write the compact indexed model in {@link #extract(String)}.
+     */
+    public void setWriteCompactModel(boolean writeCompactModel) {
+        this.writeCompactModel = writeCompactModel;
+    }
+
+    public ExtractionRules getRules() {
+        return rules;
+    }
+
+    /**
+     * Replaces the default rules, which must have been compiled for the extractor's version.
+     */
+    public void setRules(ExtractionRules rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * The metrics of the builders extracted so far.
+     */
+    public ExtractionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * The queries or filters written by the last {@link #extract(String)}, null if nothing was extracted yet.
+     */
+    public Map<String, QueryDSLType> getExtracted(QueryDSLType.TYPE section) {
+        return section == QueryDSLType.TYPE.QUERY ? extractedQueries : extractedFilters;
     }
 
-    protected static void applyFilterBuilderWorkarounds(Map<String, QueryDSLType> result) {
-        QueryDSLType geo_distance_range = result.get("geo_distance_range");
-        geo_distance_range.setNamedObject(false);
-        geo_distance_range.setNamedObjectValue(false);
-        geo_distance_range.fields.get("optimizeBbox").type = QueryDSLType.PARAM_TYPE.OPTIMIZE_BBOX;
+    public boolean isMappedSources() {
+        return mappedSources;
+    }
+
+    /**
+     * Read the builder sources with {@link MappedSource#read(File)}, or line by line into a String.
+     */
+    public void setMappedSources(boolean mappedSources) {
+        this.mappedSources = mappedSources;
+    }
+
+    public File getDocsDir() {
+        return docsDir;
+    }
+
+    /**
+     * Also write the doc snippets in {@link #extract(String)}, with the reference pages in docsDir. Null doesn't write them.
+     */
+    public void setDocsDir(File docsDir) {
+        this.docsDir = docsDir;
+    }
+
+    public File getJavaDir() {
+        return javaDir;
+    }
+
+    /**
+     * Also generate the java api of the version in {@link #extract(String)}, into the source directory javaDir.
+     * Null doesn't generate it.
+     */
+    public void setJavaDir(File javaDir) {
+        this.javaDir = javaDir;
+    }
 
-        QueryDSLType geo_distance = result.get("geo_distance");
-        geo_distance.fields.get("optimizeBbox").type = QueryDSLType.PARAM_TYPE.OPTIMIZE_BBOX;
-        geo_distance.setNamedObject(false);
-        geo_distance.setNamedObjectValue(false);
+    /**
+     * The builder source files of the dsl types parsed so far, by dsl name.
+     */
+    public Map<String, File> getBuilderFiles(QueryDSLType.TYPE type) {
+        return type == QueryDSLType.TYPE.QUERY ? queryBuilderFiles : filterBuilderFiles;
+    }
 
+    public Map<String, QueryDSLType> parseQueries() throws ClassNotFoundException {
+        Map<String, QueryDSLType> result = new TreeMap<String, QueryDSLType>();
+        parse(result, classes == null ? new File(esQuerybuilderDir) : null, QueryDSLType.TYPE.QUERY);
+        return result;
+    }
 
-        QueryDSLType geo_bbox = result.get("geo_bbox");
-        geo_bbox.fields.put("top_left[0]",
-            new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.DOUBLE, "top_left[0]", "left"));
-        geo_bbox.fields.put("top_left[1]",
-            new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.DOUBLE, "top_left[1]", "top"));
-        geo_bbox.fields.put("bottom_right[0]",
-            new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.DOUBLE, "bottom_right[0]", "right"));
-        geo_bbox.fields.put("bottom_right[1]",
-            new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.DOUBLE, "bottom_right[1]", "bottom"));
+    public Map<String, QueryDSLType> parseFilters() throws ClassNotFoundException {
+        Map<String, QueryDSLType> result = new TreeMap<String, QueryDSLType>();
+        parse(result, classes == null ? new File(esQuerybuilderDir) : null, QueryDSLType.TYPE.FILTER);
+        return result;
     }
 
-    private static void parse(Map<String, QueryDSLType> results, File dir, QueryDSLType.TYPE _type, ClassLoader classLoader) throws ClassNotFoundException {
+    /**
+     * Parses every builder in dir, or in the jar, and puts the results into the map, keyed by dsl name.
+     * Builder files are visited in sorted order, and when parsed on a pool the results are
+     * merged back in that same order, so the resulting map doesn't depend on scheduling.
+     */
+    private void parse(Map<String, QueryDSLType> results, final File dir, final QueryDSLType.TYPE _type) throws ClassNotFoundException {
         final String typePrefix = _type == QueryDSLType.TYPE.QUERY ? "Query" : "Filter";
-        for (String f : dir.list(new FilenameFilter() {
-            @Override public boolean accept(File dir, String name) {
-                return name.endsWith(typePrefix + "Builder.java");
+        String[] files;
+        if (classes != null) {
+            List<String> names = classes.list(typePrefix + "Builder");
+            files = new String[names.size()];
+            for (int i = 0; i < files.length; i++) {
+                files[i] = names.get(i) + ".class";
             }
-        })) {
-            String name = f.replace(typePrefix + "Builder.java", "");
-            if (name.length() == 0 || !new File(dir, name + typePrefix + "Parser.java").exists()) continue;
-            Class builderClass = Class.forName("org.elasticsearch.index.query." + name + typePrefix + "Builder", true, classLoader);
-            Class parserClass = Class.forName("org.elasticsearch.index.query." + name + typePrefix + "Parser", true, classLoader);
-            try {
-                // get query
-                QueryDSLType dslType = new QueryDSLType((String) parserClass.getField("NAME").get(null), _type);
-
-                // find param names in the builder file
-                StringBuilder sb = new StringBuilder();
-                BufferedReader br = new BufferedReader(new FileReader(new File(dir, f)));
-                String s = null;
-                while ((s = br.readLine()) != null) {
-                    sb.append(s).append("\n");
+        } else {
+            files = dir.list(new FilenameFilter() {
+                @Override public boolean accept(File dir, String name) {
+                    return name.endsWith(typePrefix + "Builder.java");
                 }
-                br.close();
-                String input = sb.toString();
-
-                //=========================================================
-                // Handle namedObject fields. Note: see below
-                // (at the end of this code block for handling of shortcut version)
-                // it has to be at the end because it removes fields
-                //=========================================================
-                int idx = input.indexOf("builder.startObject(name);");
-                if (idx > -1) {
-                    dslType.setNamedObject(true);
-                    // querybuilders often have a shortcut version, skip these
-                    // e.g. PrefixQueryBuilder
-                    // if (boost == -1 && rewrite == null && type != null) {
-                    // builder.field(name, prefix);
-                    input = input.substring(idx, input.length());
-                } else {
-                    final String pattern = "builder.startArray(name);";
-                    idx = input.indexOf(pattern);
-                    if (idx > -1) {
-                        dslType.setNamedArray(true);
-                        // querybuilders often have a shortcut version, skip these
-                        input = input.substring(idx + pattern.length(), input.length());
-                    }
+            });
+            Arrays.sort(files);
+        }
+        // there's no source to show for a builder read from the jar
+        Map<String, File> builderFiles = classes == null ? getBuilderFiles(_type) : new HashMap<String, File>();
+
+        if (pool == null) {
+            for (String f : files) {
+                QueryDSLType dslType = parse(dir, f, typePrefix, _type);
+                if (dslType != null) {
+                    results.put(dslType.dslName, dslType);
+                    builderFiles.put(dslType.dslName, new File(dir, f));
                 }
+            }
+            return;
+        }
 
-                // get fields
-//                System.out.println(builderClass);
-                for (Field field : builderClass.getDeclaredFields()) {
-                    if ((dslType.isNamedArray() || dslType.isNamedObject())
-                        && field.getName().equals("name")) continue;
-                    field.setAccessible(true);
-                    dslType.addField(field);
-//                    System.out.println(field.getName());
+        List<Callable<QueryDSLType>> tasks = new ArrayList<Callable<QueryDSLType>>(files.length);
+        for (final String f : files) {
+            tasks.add(new Callable<QueryDSLType>() {
+                @Override public QueryDSLType call() throws Exception {
+                    return parse(dir, f, typePrefix, _type);
                 }
+            });
+        }
+        List<Future<QueryDSLType>> futures = pool.invokeAll(tasks);
+        for (int i = 0; i < files.length; i++) {
+            QueryDSLType dslType = getResult(futures.get(i));
+            if (dslType != null) {
+                results.put(dslType.dslName, dslType);
+                builderFiles.put(dslType.dslName, new File(dir, files[i]));
+            }
+        }
+    }
 
-                //=========================================================
-                // Resolves the following patterns:
-                // builder.field("param", field)
-                // builder.array("param", field)
-                //=========================================================
-                Pattern p = Pattern.compile("\\.(?:field|array)\\(\"(.*?)\",\\s*(.*?)\\)");
-                Matcher m = p.matcher(input);
-                while (m.find()) {
-                    String fieldName = m.group(2);
-                    fieldName = fieldName.replace("this.", "").replaceAll("\\..+", "");
-                    String paramName = m.group(1);
-
-                    // workaround for 1.7.2 silliness
-                    if(fieldName.equals("!include")) {
-//                        fieldName = "exclude";
-                        paramName = "include";
-                        fieldName = "include";
-                    }
-                    dslType.setParamName(fieldName, paramName);
-                }
+    /**
+     * Parses a single builder file, unless it's found in the shared builders or the cache, and applies the rules to it.
+     * f is a xxxBuilder.java in dir, or a xxxBuilder.class in the jar.
+     * Returns null if the builder has no matching parser, or couldn't be parsed.
+     */
+    QueryDSLType parse(File dir, String f, String typePrefix, QueryDSLType.TYPE _type) throws ClassNotFoundException {
+        long start = System.nanoTime();
+        ExtractionMetrics.Builder m = metrics.start(_type, f);
+        QueryDSLType dslType = parseShared(dir, f, typePrefix, _type);
+        // the shared builders and the cache hand out copies, so the rules can't affect them
+        if (dslType != null) rules.apply(dslType);
+        metrics.finish(m, dslType, System.nanoTime() - start);
+        return dslType;
+    }
 
-                //=========================================================
-                // Resolves the following patterns:
-                // builder.startArray("param");
-                // for (String s: field)
-                //=========================================================
-                p = Pattern.compile("builder\\.startArray\\(\"(.*?)\"\\);\\s*?for \\(.*?: (.*?)\\)", Pattern.DOTALL);
-                m = p.matcher(input);
-                while (m.find()) {
-                    String fieldName = m.group(2);
-                    fieldName = fieldName.replace("this.", "").replaceAll("\\..+", "");
-                    String paramName = m.group(1);
-                    dslType.setParamName(fieldName, paramName);
-                }
+    private QueryDSLType parseShared(final File dir, final String f, final String typePrefix, final QueryDSLType.TYPE _type) throws ClassNotFoundException {
+        final String name = f.substring(0, f.lastIndexOf('.')).replace(typePrefix + "Builder", "");
+        if (name.length() == 0) return null;
+        File parserFile = classes == null ? new File(dir, name + typePrefix + "Parser.java") : null;
+        if (classes != null ? !classes.contains(name + typePrefix + "Parser") : !parserFile.exists()) return null;
+        if (cache == null && sharedBuilders == null) return parse(dir, f, name, typePrefix, _type);
+
+        final String sourceHash;
+        try {
+            if (classes != null) {
+                sourceHash = ExtractionCache.hashClasses(f, classes.getBytes(name + typePrefix + "Builder"),
+                        name + typePrefix + "Parser.class", classes.getBytes(name + typePrefix + "Parser"));
+            } else {
+                sourceHash = ExtractionCache.hashSources(new File(dir, f), parserFile);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return parse(dir, f, name, typePrefix, _type);
+        }
+        if (sharedBuilders == null) return parseCached(sourceHash, dir, f, name, typePrefix, _type);
 
-                //=========================================================
-                // Resolves the following patterns:
-                // builder.field("param");
-                // field.toXContent(builder, params);
-                //=========================================================
-                p = Pattern.compile("builder\\.field\\(\"([^\"]*?)\"\\);\\s*?([a-zA-Z]+?)\\.toXContent\\(builder, params\\)", Pattern.DOTALL);
-                m = p.matcher(input);
-                while (m.find()) {
-                    String fieldName = m.group(2);
-                    fieldName = fieldName.replace("this.", "").replaceAll("\\..+", "");
-                    String paramName = m.group(1);
-                    dslType.setParamName(fieldName, paramName);
-                }
+        return sharedBuilders.get(sourceHash, new Callable<QueryDSLType>() {
+            @Override public QueryDSLType call() throws Exception {
+                return parseCached(sourceHash, dir, f, name, typePrefix, _type);
+            }
+        });
+    }
 
-                //=========================================================
-                // Resolves the following patterns:
-                // doXArrayContent("param", field, xxx, xxx);
-                //=========================================================
-                p = Pattern.compile("doXArrayContent\\(\"(.*?)\", (.*?),");
-                m = p.matcher(input);
-                while (m.find()) {
-                    String fieldName = m.group(2);
-                    fieldName = fieldName.replace("this.", "").replaceAll("\\..+", "");
-                    String paramName = m.group(1);
-                    dslType.setParamName(fieldName, paramName);
-                }
+    /**
+     * Looks the builder up in the cache first, and caches the result of parsing it. Builders which couldn't
+     * be parsed aren't cached.
+     */
+    private QueryDSLType parseCached(String sourceHash, File dir, String f, String name, String typePrefix, QueryDSLType.TYPE _type) throws ClassNotFoundException {
+        if (cache == null) return parse(dir, f, name, typePrefix, _type);
+
+        String key = cache.key(sourceHash);
+        long start = System.nanoTime();
+        QueryDSLType dslType = cache.get(key);
+        metrics.addCacheNanos(System.nanoTime() - start);
+        if (dslType != null) {
+            metrics.get(_type, f).source = ExtractionMetrics.Source.CACHED;
+            return dslType;
+        }
 
-                //=========================================================
-                // Resolves the following patterns:
-                // builder.startArray(name).value(lon).value(lat).endArray();
-                //=========================================================
-                p = Pattern.compile("builder\\.startArray\\(name\\)((?:\\.value\\(([^)]+)\\))+)\\.endArray\\(\\);");
-                m = p.matcher(input);
-                while (m.find()) {
-                    // most regex engines don't allow repeating matched groups.
-                    // so we have to run another regex to get them all
-                    String tmp = m.group(1);
-                    List<String> list = new ArrayList<String>();
-                    Pattern p2 = Pattern.compile("value\\((.*?)\\)");
-                    Matcher m2 = p2.matcher(tmp);
-                    while (m2.find()) {
-                        final String field = m2.group(1);
-                        list.add(field);
-//                        dslType.setParamName(field, field);
-                    }
-                    String namedArrayValues = StringUtils.join(list, ",");
-                    dslType.setNamedArray(true);
-                    dslType.setNamedArrayValues(namedArrayValues);
+        dslType = parse(dir, f, name, typePrefix, _type);
+        if (dslType != null) {
+            start = System.nanoTime();
+            try {
+                cache.put(key, dslType);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                metrics.addCacheNanos(System.nanoTime() - start);
+            }
+        }
+        return dslType;
+    }
 
-                }
+    private QueryDSLType parse(File dir, String f, String name, String typePrefix, QueryDSLType.TYPE _type) throws ClassNotFoundException {
+        ExtractionMetrics.Builder m = metrics.get(_type, f);
+        m.source = ExtractionMetrics.Source.PARSED;
+        long start = System.nanoTime();
+        try {
+            return classes != null ? parseClass(name, typePrefix, _type, m) : parseSource(dir, f, name, typePrefix, _type, m);
+        } finally {
+            m.parseNanos = System.nanoTime() - start;
+        }
+    }
 
-                //=========================================================
-                // The following patterns resolve code in the form:
-                // builder.field(MoreLikeThisQueryParser.FIELDS.LIKE_THIS.getPreferredName()
-                // using resolveParamName()
-                //=========================================================
-                p = Pattern.compile("\\.(?:field|array)\\(([^\"]*?),\\s+(.*?)\\)", Pattern.DOTALL);
-                m = p.matcher(input);
-                while (m.find()) {
-                    String fieldName = m.group(2);
-                    fieldName = fieldName.replace("this.", "").replaceAll("\\..+", "");
-                    String paramName = m.group(1);
-                    paramName = resolveParamName(paramName, classLoader);
-                    dslType.setParamName(fieldName, paramName);
+    private QueryDSLType parseSource(File dir, String f, String name, String typePrefix, QueryDSLType.TYPE _type, ExtractionMetrics.Builder m) throws ClassNotFoundException {
+        Class builderClass = reflection.forName("org.elasticsearch.index.query." + name + typePrefix + "Builder");
+        Class parserClass = reflection.forName("org.elasticsearch.index.query." + name + typePrefix + "Parser");
+        try {
+            // get query
+            QueryDSLType dslType = new QueryDSLType((String) parserClass.getField("NAME").get(null), _type);
+
+            // find param names in the builder file
+            File file = new File(dir, f);
+            CharSequence input = mappedSources ? MappedSource.read(file) : MappedSource.readLines(file);
+
+            //=========================================================
+            // Handle namedObject fields. Note: see below
+            // (at the end of this code block for handling of shortcut version)
+            // it has to be at the end because it removes fields
+            //=========================================================
+            int start = 0;
+            int idx = MappedSource.indexOf(input, "builder.startObject(name);");
+            if (idx > -1) {
+                dslType.setNamedObject(true);
+                // querybuilders often have a shortcut version, skip these
+                // e.g. PrefixQueryBuilder
+                // if (boost == -1 && rewrite == null && type != null) {
+                // builder.field(name, prefix);
+                start = idx;
+            } else {
+                final String pattern = "builder.startArray(name);";
+                idx = MappedSource.indexOf(input, pattern);
+                if (idx > -1) {
+                    dslType.setNamedArray(true);
+                    // querybuilders often have a shortcut version, skip these
+                    start = idx + pattern.length();
                 }
+            }
 
-                p = Pattern.compile("\\.startArray\\(([^\"]*?)\\);.*?for \\(.*?: (.*?)\\)", Pattern.DOTALL);
-                m = p.matcher(input);
-                while (m.find()) {
-                    String fieldName = m.group(2);
-                    fieldName = fieldName.replace("this.", "").replaceAll("\\..+", "");
-                    String paramName = m.group(1);
-                    paramName = resolveParamName(paramName, classLoader);
-                    dslType.setParamName(fieldName, paramName);
-                }
+            // get fields
+//                System.out.println(builderClass);
+            for (Field field : reflection.getDeclaredFields(builderClass)) {
+                if ((dslType.isNamedArray() || dslType.isNamedObject())
+                    && field.getName().equals("name")) continue;
+                dslType.addField(field);
+//                    System.out.println(field.getName());
+            }
+
+            applyMatches(dslType, BuilderSourceScanner.scan(input, start), m);
+            return dslType;
+
+        } catch (NoSuchFieldException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            m.error = e.toString();
+        } catch (Exception e) {
+            e.printStackTrace();
+            m.error = e.toString();
+        }
+        return null;
+    }
+
+    /**
+     * Reads a builder and its parser from their class files. The parser's NAME is read from its constant pool,
+     * and the builder's fields from their descriptors, so neither is loaded.
+     */
+    private QueryDSLType parseClass(String name, String typePrefix, QueryDSLType.TYPE _type, ExtractionMetrics.Builder m) {
+        try {
+            ClassFile.Field nameField = classes.getClassFile(name + typePrefix + "Parser").getField("NAME");
+            if (nameField == null || !(nameField.constantValue instanceof String)) {
+                m.error = "No NAME constant on " + name + typePrefix + "Parser";
+                System.out.println(m.error);
+                return null;
+            }
+            QueryDSLType dslType = new QueryDSLType((String) nameField.constantValue, _type);
+
+            ClassFile builder = classes.getClassFile(name + typePrefix + "Builder");
+            BuilderClassScanner.Result scan = classes.scan(builder);
+            if (scan.namedObject) dslType.setNamedObject(true);
+            if (scan.namedArray) dslType.setNamedArray(true);
+
+            for (ClassFile.Field field : builder.getFields()) {
+                if ((dslType.isNamedArray() || dslType.isNamedObject())
+                    && field.name.equals("name")) continue;
+                dslType.addField(field.name, field.getTypeName(), field.getTypeArgument());
+            }
 
-                //=========================================================
-                // PrefixFilterBuilder only has the shortcut version of namedObject,
-                // so we're forced to handle this here.
-                //      builder.field(name, value);
-                // This has to be run after all other patterns because it removes
-                // fields from dslType.fields.
-                //=========================================================
-                p = Pattern.compile("builder\\.field\\((name),\\s*(.*?)\\);");
-                m = p.matcher(input);
-                while (m.find()) {
+            applyMatches(dslType, scan.matches, m);
+            return dslType;
+        } catch (IOException e) {
+            e.printStackTrace();
+            m.error = e.toString();
+        }
+        return null;
+    }
+
+    /**
+     * Resolves the param names of the fields of a builder from the idioms found in it, and removes the fields
+     * that are set directly in the interface. The matches, and the fields they name that the builder doesn't have,
+     * are counted in m.
+     */
+    private void applyMatches(QueryDSLType dslType, List<BuilderSourceScanner.Match> matches, ExtractionMetrics.Builder m) {
+        //=========================================================
+        // Resolve param names. See BuilderSourceScanner.Idiom for the
+        // patterns, which are reported in the order they're applied.
+        //=========================================================
+        for (BuilderSourceScanner.Match match : matches) {
+            metrics.countMatch(m, match.idiom);
+            switch (match.idiom) {
+                case FIELD:
+                    String fieldName = toFieldName(match.field);
+                    // a negated field, e.g. builder.field("exclude", !include), is written as another param
+                    // than the field's own, which the rules name if needed
+                    if (fieldName.startsWith("!")) break;
+                    setParamName(dslType, fieldName, match.param, m);
+                    break;
+                case ARRAY_LOOP:
+                case FIELD_TO_XCONTENT:
+                case X_ARRAY_CONTENT:
+                    setParamName(dslType, toFieldName(match.field), match.param, m);
+                    break;
+                case NAMED_ARRAY_VALUES:
+                    dslType.setNamedArray(true);
+                    dslType.setNamedArrayValues(match.field);
+                    break;
+                case FIELD_CONSTANT:
+                case ARRAY_LOOP_CONSTANT:
+                    // builder.field(MoreLikeThisQueryParser.FIELDS.LIKE_THIS.getPreferredName()
+                    setParamName(dslType, toFieldName(match.field), resolveParamName(match.param, reflection), m);
+                    break;
+                case NAMED_SHORTCUT:
+                    //=========================================================
+                    // PrefixFilterBuilder only has the shortcut version of namedObject,
+                    // so we're forced to handle this here.
+                    //      builder.field(name, value);
+                    // This has to be run after all other patterns because it removes
+                    // fields from dslType.fields.
+                    //=========================================================
                     dslType.setNamedObject(true);
                     dslType.setNamedObjectValue(true);
-                    String fieldName = m.group(2);
-                    String paramName = m.group(1);
                     // remove these from fields. this will get set directly in the interface
-                    dslType.fields.remove(fieldName);
-                    dslType.fields.remove(paramName);
-                }
+                    dslType.fields.remove(match.field);
+                    dslType.fields.remove(match.param);
+                    break;
+            }
+        }
 
-                if(dslType.isNamedArray())
-                    dslType.fields.remove("values");
+        if(dslType.isNamedArray())
+            dslType.fields.remove("values");
 
-                if(dslType.isNamedObject())
-                    dslType.fields.remove("value");
+        if(dslType.isNamedObject())
+            dslType.fields.remove("value");
+    }
 
-                results.put(dslType.dslName, dslType);
+    private static void setParamName(QueryDSLType dslType, String fieldName, String param, ExtractionMetrics.Builder m) {
+        if (!dslType.setParamName(fieldName, param)) m.unknownFields.add(fieldName);
+    }
 
-            } catch (NoSuchFieldException e) {
-                System.out.println(e.getMessage());
-                e.printStackTrace();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+    /**
+     * Waits for a task submitted to the extraction pool, rethrowing its failure as the extractor would have
+     * thrown it when run sequentially.
+     */
+    static <T> T getResult(Future<T> future) throws ClassNotFoundException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ClassNotFoundException) throw (ClassNotFoundException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
         }
     }
 
 
     public static String toJSON(Map<String, QueryDSLType> queries, Map<String, QueryDSLType> filters, boolean outputJavaFields, boolean prettyprint) throws IOException {
-        XContentBuilder builder = XContentBuilder.builder(JsonXContent.jsonXContent);
-        if (prettyprint) builder.prettyPrint();
-        builder.startObject();
-        builder.startObject("query");
-        output(queries, outputJavaFields, builder);
-        builder.endObject();
-        builder.startObject("filter");
-        output(filters, outputJavaFields, builder);
-        builder.endObject();
-        builder.endObject();
-        return builder.string();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ModelWriter writer = new ModelWriter(out, outputJavaFields, prettyprint);
+        writer.write(QueryDSLType.TYPE.QUERY, queries);
+        writer.write(QueryDSLType.TYPE.FILTER, filters);
+        writer.close();
+        return out.toString("UTF-8");
     }
 
-    private static void output(Map<String, QueryDSLType> map, boolean outputJavaFields, XContentBuilder builder) throws IOException {
+    static void output(Map<String, QueryDSLType> map, boolean outputJavaFields, XContentBuilder builder) throws IOException {
         for (QueryDSLType type : map.values()) {
-            builder.startObject(type.dslName);
-            if (type.isNamedObject()) {
-                builder.field("namedObject", type.namedObject);
-                if (type.isNamedObjectValue()) {
-                    builder.field("namedObjectValue", type.namedObjectValue);
-                }
-            } else if (type.isNamedArray()) {
-                builder.field("namedArray", type.namedArray);
-                if (type.getNamedArrayValues() != null) {
-                    builder.field("namedArrayValues", type.namedArrayValues);
-                }
+            output(type, outputJavaFields, builder);
+        }
+    }
+
+    static void output(QueryDSLType type, boolean outputJavaFields, XContentBuilder builder) throws IOException {
+        builder.startObject(type.dslName);
+        if (type.isNamedObject()) {
+            builder.field("namedObject", type.namedObject);
+            if (type.isNamedObjectValue()) {
+                builder.field("namedObjectValue", type.namedObjectValue);
             }
+        } else if (type.isNamedArray()) {
+            builder.field("namedArray", type.namedArray);
+            if (type.getNamedArrayValues() != null) {
+                builder.field("namedArrayValues", type.namedArrayValues);
+            }
+        }
 
-            builder.startArray("fields");
-            for (String s : type.fields.keySet()) {
-                QueryDSLType.Param p = type.fields.get(s);
-                if (p.paramName == null || p.type == QueryDSLType.PARAM_TYPE.FILTER_BUILDER
-                    || p.type == QueryDSLType.PARAM_TYPE.QUERY_BUILDER || p.type == QueryDSLType.PARAM_TYPE.LIST_QUERY_BUILDER) continue;
-                builder.startObject();
-                builder.field("name", p.paramName);
-                builder.field("type", p.type);
-                if(p.label != null) builder.field("label", p.label);
-                if (outputJavaFields) builder.field("javaField", s);
-                builder.endObject();
-            }
-            for (String s : type.fields.keySet()) {
-                QueryDSLType.Param p = type.fields.get(s);
-                if (p.paramName == null || (p.type != QueryDSLType.PARAM_TYPE.FILTER_BUILDER
-                    && p.type != QueryDSLType.PARAM_TYPE.QUERY_BUILDER
-                    && p.type != QueryDSLType.PARAM_TYPE.LIST_QUERY_BUILDER))
-                    continue;
-                builder.startObject();
-                builder.field("name", p.paramName);
-                builder.field("type", p.type);
-                if (outputJavaFields) builder.field("javaField", s);
-                builder.endObject();
-            }
-            builder.endArray();
+        builder.startArray("fields");
+        for (String s : outputFields(type)) {
+            QueryDSLType.Param p = type.fields.get(s);
+            builder.startObject();
+            builder.field("name", p.paramName);
+            builder.field("type", p.type);
+            if(p.label != null && !isBuilderParam(p)) builder.field("label", p.label);
+            if (outputJavaFields) builder.field("javaField", s);
             builder.endObject();
         }
+        builder.endArray();
+        builder.endObject();
+    }
+
+    /**
+     * The java fields of type which are output to the model, in the order they're output:
+     * params which take a query or filter builder go last, so they're rendered below the other params.
+     * Fields without a param name aren't output.
+     */
+    static List<String> outputFields(QueryDSLType type) {
+        List<String> result = new ArrayList<String>(type.fields.size());
+        for (String s : type.fields.keySet()) {
+            QueryDSLType.Param p = type.fields.get(s);
+            if (p.paramName != null && !isBuilderParam(p)) result.add(s);
+        }
+        for (String s : type.fields.keySet()) {
+            QueryDSLType.Param p = type.fields.get(s);
+            if (p.paramName != null && isBuilderParam(p)) result.add(s);
+        }
+        return result;
+    }
+
+    static boolean isBuilderParam(QueryDSLType.Param p) {
+        return p.type == QueryDSLType.PARAM_TYPE.FILTER_BUILDER
+            || p.type == QueryDSLType.PARAM_TYPE.QUERY_BUILDER
+            || p.type == QueryDSLType.PARAM_TYPE.LIST_QUERY_BUILDER;
+    }
+
+    /**
+     * Turns a field expression such as this.boost or types.get(0) into the java field name.
+     */
+    private static String toFieldName(String expression) {
+        return FIELD_SUFFIX.matcher(expression.replace("this.", "")).replaceAll("");
     }
 
     /**
@@ -399,32 +918,11 @@ public class QueryDSLTypeExtractor {
      * are set by static constants, e.g. builder.field(FooQueryParser.Fields.BLAH.getPreferredName()
      * This method attempts to resolve those parameter names.
      */
-    private static String resolveParamName(String paramName, ClassLoader classLoader) {
-        Pattern p = Pattern.compile("^(.*?)\\.Fields\\.(.*?)\\.getPreferredName\\(\\)");
-        Matcher m = p.matcher(paramName);
+    static String resolveParamName(String paramName, ReflectionCache reflection) {
+        Matcher m = PREFERRED_NAME.matcher(paramName);
         if (m.find()) {
-            try {
-                Class clazz = Class.forName("org.elasticsearch.index.query." + m.group(1), true, classLoader);
-                for (Class c : clazz.getClasses()) {
-                    if (c.getSimpleName().endsWith("Fields")) {
-                        clazz = c;
-                        break;
-                    }
-                }
-                Field f = clazz.getField(m.group(2));
-                Object o = f.get(null);
-                return (String) o.getClass().getMethod("getPreferredName").invoke(o);
-            } catch (NoSuchFieldException e) {
-                e.printStackTrace();
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            } catch (NoSuchMethodException e) {
-                e.printStackTrace();
-            } catch (InvocationTargetException e) {
-                e.printStackTrace();
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
-            }
+            String preferredName = reflection.getPreferredName(m.group(1), m.group(2));
+            if (preferredName != null) return preferredName;
         }
         return paramName;
     }
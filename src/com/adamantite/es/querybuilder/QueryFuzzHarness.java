@@ -0,0 +1,290 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Usage: QueryFuzzHarness [-version [es version] -src [elasticsearch src dir]] [-filters] [-seed N] [-count N]
+ * [-depth N] [-width N] [-rounds N] [-target name] [-out file]
+ *
+ * Runs a corpus of queries generated by the {@link QueryFuzzer} through the code which reads and writes them, and
+ * reports the throughput and allocation of each:
+ * <pre>
+ * validator       QueryValidator.validate
+ * emitter         JsonByteBuffer.value, serializing the query maps; no generated builder is involved
+ * xcontent        XContentBuilder, writing the queries as the model is written
+ * canonicalizer   QueryCanonicalizer.canonicalize
+ * cost            QueryCostAnalyzer.analyze
+ * rewriter        QueryRewriter.rewrite, queries only
+ * </pre>
+ * The corpus is generated before the timing starts, the same for the same -seed, and written to the -out file a
+ * query per line, for web/bench/qb-corpus-bench.js to run the same queries through the JavaScript ports. Each
+ * target runs a round to warm up, then -rounds timed rounds over the whole corpus. Allocation is measured with
+ * the thread allocation counter of HotSpot, and reported as -1 on JVMs which don't have one.
+ */
+public class QueryFuzzHarness {
+
+    /**
+     * Something a corpus is run through.
+     */
+    abstract static class Target {
+        final String name;
+
+        Target(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return a number derived from the result, which is summed so the work isn't optimized away
+         */
+        abstract int run(byte[] json, Map<String, Object> query) throws IOException;
+    }
+
+    public static final class Result {
+        final String target;
+        final int queries;
+        final long nanos;
+        final long allocatedBytes;
+        final long check;
+
+        Result(String target, int queries, long nanos, long allocatedBytes, long check) {
+            this.target = target;
+            this.queries = queries;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+            this.check = check;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public int getQueries() {
+            return queries;
+        }
+
+        public double getQueriesPerSecond() {
+            return nanos == 0 ? 0 : queries * 1e9 / nanos;
+        }
+
+        /**
+         * @return the bytes allocated per query, or -1 if the JVM doesn't count them
+         */
+        public long getBytesPerQuery() {
+            return allocatedBytes < 0 || queries == 0 ? -1 : allocatedBytes / queries;
+        }
+
+        @Override public String toString() {
+            return String.format("%-14s %12.0f queries/s %10d bytes/query", target, getQueriesPerSecond(), getBytesPerQuery());
+        }
+    }
+
+    private final List<byte[]> corpus;
+
+    private final List<Map<String, Object>> queries;
+
+    public QueryFuzzHarness(QueryFuzzer fuzzer, int count, QueryDSLType.TYPE section) {
+        this.corpus = new ArrayList<byte[]>(count);
+        this.queries = new ArrayList<Map<String, Object>>(count);
+        JsonByteBuffer out = new JsonByteBuffer();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> query = fuzzer.next(section);
+            queries.add(query);
+            corpus.add(out.reset().value(query).toByteArray());
+        }
+    }
+
+    public List<byte[]> getCorpus() {
+        return corpus;
+    }
+
+    /**
+     * Writes the corpus a query per line.
+     */
+    public void writeCorpus(OutputStream out) throws IOException {
+        for (byte[] json : corpus) {
+            out.write(json);
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Runs the corpus through target rounds times, after a round to warm up.
+     */
+    public Result measure(Target target, int rounds) throws IOException {
+        long check = runCorpus(target);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocated = allocatedBytes(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            check += runCorpus(target);
+        }
+        long nanos = System.nanoTime() - start;
+        if (allocated >= 0) allocated = allocatedBytes(threads) - allocated;
+        return new Result(target.name, corpus.size() * rounds, nanos, allocated, check);
+    }
+
+    private long runCorpus(Target target) throws IOException {
+        long check = 0;
+        for (int i = 0, n = corpus.size(); i < n; i++) {
+            check += target.run(corpus.get(i), queries.get(i));
+        }
+        return check;
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, or -1 if the JVM doesn't count them
+     */
+    static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The targets of the model, by name. The rewriter only takes queries, so it's left out for filters.
+     */
+    static Map<String, Target> targets(CompiledModel model, final QueryDSLType.TYPE section) {
+        final QueryValidator validator = new QueryValidator(model);
+        final QueryCanonicalizer canonicalizer = new QueryCanonicalizer(model);
+        final QueryCostAnalyzer costAnalyzer = new QueryCostAnalyzer(model);
+        final QueryRewriter rewriter = new QueryRewriter(model);
+        final JsonByteBuffer buffer = new JsonByteBuffer();
+
+        Map<String, Target> targets = new LinkedHashMap<String, Target>();
+        add(targets, new Target("validator") {
+            @Override
+            int run(byte[] json, Map<String, Object> query) throws IOException {
+                return validator.validate(json, section).size();
+            }
+        });
+        // the map serialization of JsonByteBuffer, GeneratedApiBenchmark measures the generated builders
+        add(targets, new Target("emitter") {
+            @Override
+            int run(byte[] json, Map<String, Object> query) {
+                return buffer.reset().value(query).size();
+            }
+        });
+        add(targets, new Target("xcontent") {
+            @Override
+            int run(byte[] json, Map<String, Object> query) throws IOException {
+                return XContentBuilder.builder(JsonXContent.jsonXContent).map(query).string().length();
+            }
+        });
+        add(targets, new Target("canonicalizer") {
+            @Override
+            int run(byte[] json, Map<String, Object> query) throws IOException {
+                return canonicalizer.canonicalize(json, section).getTemplate().getParameterCount();
+            }
+        });
+        add(targets, new Target("cost") {
+            @Override
+            int run(byte[] json, Map<String, Object> query) throws IOException {
+                return (int) costAnalyzer.analyze(json, section).getCost();
+            }
+        });
+        if (section == QueryDSLType.TYPE.QUERY) {
+            add(targets, new Target("rewriter") {
+                @Override
+                int run(byte[] json, Map<String, Object> query) throws IOException {
+                    return rewriter.rewrite(json).getChanges().size();
+                }
+            });
+        }
+        return targets;
+    }
+
+    private static void add(Map<String, Target> targets, Target target) {
+        targets.put(target.name, target);
+    }
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        String version = QueryDSLTypeExtractor.DEFAULT_VERSION;
+        String srcHome = QueryDSLTypeExtractor.DEFAULT_SRC_HOME;
+        QueryDSLType.TYPE section = QueryDSLType.TYPE.QUERY;
+        long seed = 42;
+        int count = 10000;
+        int depth = QueryFuzzer.DEFAULT_MAX_DEPTH;
+        int width = QueryFuzzer.DEFAULT_MAX_WIDTH;
+        int rounds = 5;
+        String target = null;
+        String out = null;
+        for (int i = 0, n = args.length; i < n; i++) {
+            if(args[i].equals("-version")) {
+                version = args[++i];
+            }
+            if(args[i].equals("-src")) {
+                srcHome = args[++i];
+            }
+            if(args[i].equals("-filters")) {
+                section = QueryDSLType.TYPE.FILTER;
+            }
+            if(args[i].equals("-seed")) {
+                seed = Long.parseLong(args[++i]);
+            }
+            if(args[i].equals("-count")) {
+                count = Integer.parseInt(args[++i]);
+            }
+            if(args[i].equals("-depth")) {
+                depth = Integer.parseInt(args[++i]);
+            }
+            if(args[i].equals("-width")) {
+                width = Integer.parseInt(args[++i]);
+            }
+            if(args[i].equals("-rounds")) {
+                rounds = Integer.parseInt(args[++i]);
+            }
+            if(args[i].equals("-target")) {
+                target = args[++i];
+            }
+            if(args[i].equals("-out")) {
+                out = args[++i];
+            }
+        }
+
+        QueryDSLTypeExtractor extractor = QueryDSLTypeExtractor.forSourceHome(version, srcHome);
+        Map<String, QueryDSLType> queryTypes = extractor.parseQueries();
+        Map<String, QueryDSLType> filterTypes = extractor.parseFilters();
+        QueryFuzzer fuzzer = new QueryFuzzer(queryTypes, filterTypes, seed).setMaxDepth(depth).setMaxWidth(width);
+        QueryFuzzHarness harness = new QueryFuzzHarness(fuzzer, count, section);
+        if (out != null) {
+            OutputStream os = new FileOutputStream(new File(out));
+            try {
+                harness.writeCorpus(os);
+            } finally {
+                os.close();
+            }
+        }
+
+        Map<String, Target> targets = targets(CompiledModel.compile(queryTypes, filterTypes), section);
+        if (target != null && !targets.containsKey(target)) {
+            throw new IllegalArgumentException("Unknown target " + target + ", expected one of " + targets.keySet());
+        }
+        long bytes = 0;
+        for (byte[] json : harness.getCorpus()) {
+            bytes += json.length;
+        }
+        System.out.println(count + " " + (section == QueryDSLType.TYPE.QUERY ? "queries" : "filters") + " of " + version
+                + ", seed " + seed + ", depth " + depth + ", width " + width + ", " + (count == 0 ? 0 : bytes / count) + " bytes each");
+        for (Target t : targets.values()) {
+            if (target == null || target.equals(t.name)) {
+                System.out.println(harness.measure(t, rounds));
+            }
+        }
+    }
+}
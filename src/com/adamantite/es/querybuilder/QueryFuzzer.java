@@ -0,0 +1,340 @@
+package com.adamantite.es.querybuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates random queries and filters which are well typed against the model, as a corpus for load tests and
+ * benchmarks of the code which reads or writes queries, see {@link QueryFuzzHarness}. The same model, seed,
+ * depth and width always generate the same queries.
+ *
+ * Every param is set with a probability of one half, to a value from the domain of its {@link QueryDSLType.PARAM_TYPE},
+ * e.g. "and" or "or" for an OPERATOR. Params which take a query or filter get a generated one, and lists of them
+ * up to width, until the queries are depth deep; below that they're left out. The fields of dsl types are
+ * generated as the page renders them:
+ * <pre>
+ * namedObject                 {"match":{"message":{"query":"lorem","operator":"and"}}}, or {"term":{"user":"ipsum"}} without params
+ * namedObject, -Value         {"prefix":{"user":"dolor","_cache":true}}
+ * namedArray with values      {"geo_distance":{"location":[-12.5,40.25],"distance":"sit"}}, a number per value
+ * namedArray                  {"[dsl name]":{"tags":["amet","elit"]}}, up to width values
+ * </pre>
+ * Dotted params are set in their object, e.g. {"minimum_should_match":{"low_freq":"lorem"}}, and indexed params
+ * such as top_left[0] as an array of numbers.
+ *
+ * Not thread safe, use a fuzzer per thread.
+ */
+public class QueryFuzzer {
+
+    public static final int DEFAULT_MAX_DEPTH = 4;
+
+    public static final int DEFAULT_MAX_WIDTH = 3;
+
+    private static final String[] WORDS = {"lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit"};
+
+    private static final String[] FIELDS = {"user", "message", "title", "tags", "location", "date"};
+
+    private static final String[] FUZZINESS = {"AUTO", "0", "1", "2"};
+    private static final String[] OPERATORS = {"and", "or"};
+    private static final String[] GEO_DISTANCES = {"arc", "plane", "sloppy_arc"};
+    private static final String[] SPATIAL_STRATEGIES = {"term", "recursive"};
+    private static final String[] SHAPE_RELATIONS = {"intersects", "disjoint", "within"};
+    private static final String[] OPTIMIZE_BBOXES = {"memory", "indexed", "none"};
+
+    /**
+     * A param of a dsl type: its path, e.g. minimum_should_match, low_freq, and for an indexed param the number
+     * of its elements.
+     */
+    static final class Slot {
+        final String[] path;
+        final QueryDSLType.PARAM_TYPE type;
+        int elements;
+
+        Slot(String[] path, QueryDSLType.PARAM_TYPE type) {
+            this.path = path;
+            this.type = type;
+        }
+    }
+
+    /**
+     * A dsl type, with its params in the order they're output to the model.
+     */
+    static final class Shape {
+        final String dslName;
+        final boolean namedObject;
+        final boolean namedObjectValue;
+        final boolean namedArray;
+
+        /**
+         * The number of values of a namedArray, 0 if they aren't known.
+         */
+        final int namedArrayValues;
+
+        final List<Slot> params = new ArrayList<Slot>();
+
+        Shape(QueryDSLType type) {
+            this.dslName = type.dslName;
+            this.namedObject = type.namedObject;
+            this.namedObjectValue = type.namedObjectValue;
+            this.namedArray = type.namedArray;
+            this.namedArrayValues = type.namedArrayValues == null || type.namedArrayValues.length() == 0
+                    ? 0 : type.namedArrayValues.split(",").length;
+            Map<String, Slot> indexed = new LinkedHashMap<String, Slot>();
+            for (String field : QueryDSLTypeExtractor.outputFields(type)) {
+                QueryDSLType.Param p = type.fields.get(field);
+                String name = p.paramName;
+                int bracket = name.indexOf('[');
+                if (bracket > 0) {
+                    String base = name.substring(0, bracket);
+                    Slot slot = indexed.get(base);
+                    if (slot == null) {
+                        slot = new Slot(base.split("\\."), p.type);
+                        indexed.put(base, slot);
+                        params.add(slot);
+                    }
+                    slot.elements = Math.max(slot.elements, Integer.parseInt(name.substring(bracket + 1, name.indexOf(']', bracket))) + 1);
+                } else {
+                    params.add(new Slot(name.split("\\."), p.type));
+                }
+            }
+        }
+    }
+
+    private final List<Shape> queries;
+
+    private final List<Shape> filters;
+
+    private final Random random;
+
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+
+    private int maxWidth = DEFAULT_MAX_WIDTH;
+
+    /**
+     * @param queries the query types, as returned by {@link QueryDSLTypeExtractor#parseQueries()}
+     * @param filters the filter types, as returned by {@link QueryDSLTypeExtractor#parseFilters()}
+     */
+    public QueryFuzzer(Map<String, QueryDSLType> queries, Map<String, QueryDSLType> filters, long seed) {
+        this.queries = shapes(queries);
+        this.filters = shapes(filters);
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Sorted by dsl name, so the queries don't depend on the iteration order of the model.
+     */
+    private static List<Shape> shapes(Map<String, QueryDSLType> types) {
+        List<Shape> result = new ArrayList<Shape>(types.size());
+        for (QueryDSLType type : types.values()) {
+            result.add(new Shape(type));
+        }
+        Collections.sort(result, new Comparator<Shape>() {
+            @Override
+            public int compare(Shape a, Shape b) {
+                return a.dslName.compareTo(b.dslName);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @param maxDepth how deep queries may nest, 1 for queries without nested queries or filters
+     */
+    public QueryFuzzer setMaxDepth(int maxDepth) {
+        if (maxDepth < 1) throw new IllegalArgumentException("maxDepth must be at least 1, not " + maxDepth);
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param maxWidth the most queries or filters in a list of them, and values in a list
+     */
+    public QueryFuzzer setMaxWidth(int maxWidth) {
+        if (maxWidth < 1) throw new IllegalArgumentException("maxWidth must be at least 1, not " + maxWidth);
+        this.maxWidth = maxWidth;
+        return this;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    /**
+     * @return the next query or filter, {"[dsl name]":{...}}, in maps which keep their order
+     * @throws IllegalStateException if the model has no types of the section
+     */
+    public Map<String, Object> next(QueryDSLType.TYPE section) {
+        return dsl(section, 1);
+    }
+
+    /**
+     * Writes the next query or filter to out.
+     */
+    public void next(QueryDSLType.TYPE section, JsonByteBuffer out) {
+        out.value(next(section));
+    }
+
+    /**
+     * @return the next count queries or filters as json
+     */
+    public List<byte[]> corpus(int count, QueryDSLType.TYPE section) {
+        List<byte[]> result = new ArrayList<byte[]>(count);
+        JsonByteBuffer out = new JsonByteBuffer();
+        for (int i = 0; i < count; i++) {
+            next(section, out.reset());
+            result.add(out.toByteArray());
+        }
+        return result;
+    }
+
+    private Map<String, Object> dsl(QueryDSLType.TYPE section, int depth) {
+        List<Shape> shapes = section == QueryDSLType.TYPE.QUERY ? queries : filters;
+        if (shapes.isEmpty()) throw new IllegalStateException("The model has no " + section + " types");
+        Shape shape = shapes.get(random.nextInt(shapes.size()));
+
+        Map<String, Object> params = new LinkedHashMap<String, Object>();
+        for (Slot slot : shape.params) {
+            if (random.nextBoolean()) continue;
+            Object value = value(slot, depth);
+            if (value != null) put(params, slot.path, value);
+        }
+
+        Map<String, Object> body;
+        if (shape.namedObject && !shape.namedObjectValue) {
+            body = new LinkedHashMap<String, Object>();
+            body.put(pick(FIELDS), params.isEmpty() ? pick(WORDS) : params);
+        } else if (shape.namedObject || shape.namedArray) {
+            body = new LinkedHashMap<String, Object>();
+            body.put(pick(FIELDS), shape.namedObjectValue ? pick(WORDS) : namedArray(shape));
+            body.putAll(params);
+        } else {
+            body = params;
+        }
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put(shape.dslName, body);
+        return result;
+    }
+
+    private Object namedArray(Shape shape) {
+        if (shape.namedArrayValues > 0) return coordinates(shape.namedArrayValues);
+        List<Object> values = new ArrayList<Object>();
+        for (int i = 0, n = 1 + random.nextInt(maxWidth); i < n; i++) {
+            values.add(pick(WORDS));
+        }
+        return values;
+    }
+
+    /**
+     * Puts the value at the path, in the objects of its dotted prefix.
+     */
+    @SuppressWarnings("unchecked")
+    private static void put(Map<String, Object> params, String[] path, Object value) {
+        Map<String, Object> map = params;
+        for (int i = 0; i < path.length - 1; i++) {
+            Object child = map.get(path[i]);
+            if (!(child instanceof Map)) {
+                child = new LinkedHashMap<String, Object>();
+                map.put(path[i], child);
+            }
+            map = (Map<String, Object>) child;
+        }
+        map.put(path[path.length - 1], value);
+    }
+
+    /**
+     * @return the value of the param, or null if it takes queries or filters and depth is as deep as they go
+     */
+    private Object value(Slot slot, int depth) {
+        if (slot.elements > 0) return coordinates(slot.elements);
+        switch (slot.type) {
+            case QUERY_BUILDER:
+                return depth < maxDepth ? dsl(QueryDSLType.TYPE.QUERY, depth + 1) : null;
+            case FILTER_BUILDER:
+                return depth < maxDepth ? dsl(QueryDSLType.TYPE.FILTER, depth + 1) : null;
+            case LIST_QUERY_BUILDER:
+                return depth < maxDepth ? builders(QueryDSLType.TYPE.QUERY, depth + 1) : null;
+            case LIST_FILTER_BUILDER:
+                return depth < maxDepth ? builders(QueryDSLType.TYPE.FILTER, depth + 1) : null;
+            default:
+                return scalar(slot.type);
+        }
+    }
+
+    private List<Object> builders(QueryDSLType.TYPE section, int depth) {
+        List<Object> result = new ArrayList<Object>();
+        for (int i = 0, n = 1 + random.nextInt(maxWidth); i < n; i++) {
+            result.add(dsl(section, depth));
+        }
+        return result;
+    }
+
+    private Object scalar(QueryDSLType.PARAM_TYPE type) {
+        switch (type) {
+            case BOOLEAN:
+                return random.nextBoolean();
+            case INTEGER:
+                return random.nextInt(100);
+            case FLOAT:
+                return random.nextInt(100) / 10f;
+            case DOUBLE:
+                return random.nextInt(1000) / 10d;
+            case OBJECT:
+                return random.nextBoolean() ? pick(WORDS) : (Object) random.nextInt(100);
+            case LIST:
+                List<Object> list = new ArrayList<Object>();
+                for (int i = 0, n = 1 + random.nextInt(maxWidth); i < n; i++) {
+                    list.add(pick(WORDS));
+                }
+                return list;
+            case MAP:
+                Map<String, Object> map = new LinkedHashMap<String, Object>();
+                for (int i = 0, n = 1 + random.nextInt(maxWidth); i < n; i++) {
+                    map.put(pick(FIELDS), pick(WORDS));
+                }
+                return map;
+            case FUZZINESS:
+                return pick(FUZZINESS);
+            case OPERATOR:
+                return pick(OPERATORS);
+            case GEO_DISTANCE:
+                return pick(GEO_DISTANCES);
+            case SPATIAL_STRATEGY:
+                return pick(SPATIAL_STRATEGIES);
+            case SHAPE_RELATION:
+                return pick(SHAPE_RELATIONS);
+            case OPTIMIZE_BBOX:
+                return pick(OPTIMIZE_BBOXES);
+            case SHAPE_BUILDER:
+                Map<String, Object> shape = new LinkedHashMap<String, Object>();
+                shape.put("type", "point");
+                shape.put("coordinates", coordinates(2));
+                return shape;
+            default:
+                // STRING, OTHER
+                return pick(WORDS);
+        }
+    }
+
+    /**
+     * Numbers which are valid as longitudes and latitudes alike.
+     */
+    private List<Object> coordinates(int n) {
+        List<Object> result = new ArrayList<Object>(n);
+        for (int i = 0; i < n; i++) {
+            result.add((random.nextInt(7200) - 3600) / 40d);
+        }
+        return result;
+    }
+
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
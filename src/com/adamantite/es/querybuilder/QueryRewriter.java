@@ -0,0 +1,390 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Rewrites a query into one which matches the same documents, but which elasticsearch runs cheaper:
+ * <ul>
+ * <li>Term level clauses (term, terms, range, ids, prefix) in the must of a bool query, which don't set a boost, are
+ * moved into a cached filter: a filtered query, or the filter list of the bool query in versions which have one.
+ * Their scores are left out, which is what makes them cheap, so the scores of the other clauses decide the order.</li>
+ * <li>A bool query or filter whose only content is a single must or should clause is replaced by that clause.</li>
+ * <li>Clauses which are identical to an earlier one in the same bool list are dropped, except in the should of a
+ * bool query with minimum_should_match, where they count.</li>
+ * </ul>
+ * Every rewrite is checked against the {@link CompiledModel} of the target version: a clause is only moved if the
+ * version has a filter of the same name which takes all of its params, and a filtered query (or a bool filter list)
+ * to move it into, and "_cache" is only set on filters which have it. The rewritten query is validated with the
+ * {@link QueryValidator}, and if it has more violations than the original, the original is returned unchanged.
+ *
+ * The same rewrite runs in the web builder, see qb-rewrite.js. Thread safe.
+ */
+public class QueryRewriter {
+
+    /**
+     * Term level queries, which elasticsearch can run as filters of the same name.
+     */
+    static final Set<String> NON_SCORING = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("term", "terms", "range", "ids", "prefix")));
+
+    static final String[] BOOL_LISTS = {"must", "must_not", "should"};
+
+    public static final class Result {
+        final String json;
+        final List<String> changes;
+
+        Result(String json, List<String> changes) {
+            this.json = json;
+            this.changes = changes;
+        }
+
+        /**
+         * The rewritten query, or the original one if nothing was rewritten.
+         */
+        public String getJson() {
+            return json;
+        }
+
+        /**
+         * What was rewritten, one line per change, e.g. "bool: moved 2 clauses from must into a cached filter".
+         */
+        public List<String> getChanges() {
+            return Collections.unmodifiableList(changes);
+        }
+
+        public boolean isChanged() {
+            return !changes.isEmpty();
+        }
+
+        @Override public String toString() {
+            return json;
+        }
+    }
+
+    /**
+     * State of a single rewrite.
+     */
+    private static final class Context {
+        final List<String> path = new ArrayList<String>();
+        final List<String> changes = new ArrayList<String>();
+
+        void push(String segment) {
+            path.add(segment);
+        }
+
+        void pop() {
+            path.remove(path.size() - 1);
+        }
+
+        void change(String message) {
+            StringBuilder sb = new StringBuilder();
+            for (String segment : path) {
+                if (sb.length() > 0 && segment.charAt(0) != '[') sb.append('.');
+                sb.append(segment);
+            }
+            changes.add(sb.append(": ").append(message).toString());
+        }
+    }
+
+    private final CompiledModel model;
+    private final QueryValidator validator;
+
+    public QueryRewriter(CompiledModel model) {
+        this.model = model;
+        this.validator = new QueryValidator(model);
+    }
+
+    /**
+     * @throws IOException if it isn't json
+     */
+    public Result rewrite(String json) throws IOException {
+        XContentParser parser = JsonXContent.jsonXContent.createParser(json);
+        Map<String, Object> query;
+        try {
+            query = parser.mapOrdered();
+        } finally {
+            parser.close();
+        }
+        Context c = new Context();
+        Object rewritten = query(c, query);
+        if (c.changes.isEmpty()) return new Result(json, c.changes);
+
+        String result = XContentBuilder.builder(JsonXContent.jsonXContent).value(rewritten).string();
+        if (validator.validate(result, QueryDSLType.TYPE.QUERY).size() > validator.validate(json, QueryDSLType.TYPE.QUERY).size()) {
+            return new Result(json, new ArrayList<String>());
+        }
+        return new Result(result, c.changes);
+    }
+
+    public Result rewrite(byte[] json) throws IOException {
+        return rewrite(new String(json, "UTF-8"));
+    }
+
+    /**
+     * Rewrites a query object, {"[dsl name]":{...}}, in place where it can.
+     *
+     * @return the query, or what replaces it
+     */
+    @SuppressWarnings("unchecked")
+    private Object query(Context c, Object query) {
+        if (!(query instanceof Map) || ((Map<String, Object>) query).size() != 1) return query;
+        Map.Entry<String, Object> e = ((Map<String, Object>) query).entrySet().iterator().next();
+        CompiledModel.CompiledType type = model.get(QueryDSLType.TYPE.QUERY, e.getKey());
+        if (type == null || !(e.getValue() instanceof Map)) return query;
+
+        Map<String, Object> body = (Map<String, Object>) e.getValue();
+        c.push(e.getKey());
+        builders(c, type, body);
+        Object result = e.getKey().equals("bool") ? boolQuery(c, type, (Map<String, Object>) query, body) : query;
+        c.pop();
+        return result;
+    }
+
+    /**
+     * Rewrites a filter object in place where it can.
+     *
+     * @return the filter, or what replaces it
+     */
+    @SuppressWarnings("unchecked")
+    private Object filter(Context c, Object filter) {
+        if (!(filter instanceof Map) || ((Map<String, Object>) filter).size() != 1) return filter;
+        Map.Entry<String, Object> e = ((Map<String, Object>) filter).entrySet().iterator().next();
+        CompiledModel.CompiledType type = model.get(QueryDSLType.TYPE.FILTER, e.getKey());
+        if (type == null || !(e.getValue() instanceof Map)) return filter;
+
+        Map<String, Object> body = (Map<String, Object>) e.getValue();
+        c.push(e.getKey());
+        builders(c, type, body);
+        Object result = filter;
+        if (e.getKey().equals("bool")) {
+            dedupe(c, body, false);
+            result = flatten(c, filter, body);
+        }
+        c.pop();
+        return result;
+    }
+
+    /**
+     * Rewrites the queries and filters in the params of a type.
+     */
+    @SuppressWarnings("unchecked")
+    private void builders(Context c, CompiledModel.CompiledType type, Map<String, Object> body) {
+        for (Map.Entry<String, Object> e : body.entrySet()) {
+            QueryDSLType.PARAM_TYPE paramType = type.param(e.getKey());
+            if (paramType == null) continue;
+            c.push(e.getKey());
+            switch (paramType) {
+                case QUERY_BUILDER:
+                    e.setValue(query(c, e.getValue()));
+                    break;
+                case FILTER_BUILDER:
+                    e.setValue(filter(c, e.getValue()));
+                    break;
+                case LIST_QUERY_BUILDER:
+                case LIST_FILTER_BUILDER:
+                    // a single clause is taken as a list of one
+                    List<Object> list = e.getValue() instanceof List ? (List<Object>) e.getValue() : new ArrayList<Object>(Collections.singletonList(e.getValue()));
+                    for (int i = 0; i < list.size(); i++) {
+                        if (e.getValue() instanceof List) c.push("[" + i + "]");
+                        list.set(i, paramType == QueryDSLType.PARAM_TYPE.LIST_QUERY_BUILDER ? query(c, list.get(i)) : filter(c, list.get(i)));
+                        if (e.getValue() instanceof List) c.pop();
+                    }
+                    if (!(e.getValue() instanceof List)) e.setValue(list.get(0));
+                    break;
+                default:
+            }
+            c.pop();
+        }
+    }
+
+    private Object boolQuery(Context c, CompiledModel.CompiledType type, Map<String, Object> query, Map<String, Object> body) {
+        dedupe(c, body, body.containsKey("minimum_should_match"));
+        Object flattened = flatten(c, query, body);
+        if (flattened != query) return flattened;
+        if (body.containsKey("boost") || !body.containsKey("must")) return query;
+
+        List<Object> must = list(body.get("must"));
+        List<Object> remaining = new ArrayList<Object>();
+        List<Object> filters = new ArrayList<Object>();
+        List<Object> moved = new ArrayList<Object>();
+        for (Object clause : must) {
+            Map<String, Object> filter = toFilter(clause);
+            if (filter != null) {
+                filters.add(filter);
+                moved.add(clause);
+            } else {
+                remaining.add(clause);
+            }
+        }
+        if (filters.isEmpty()) return query;
+        // with nothing left in must, elasticsearch would require a should clause to match
+        if (remaining.isEmpty() && body.containsKey("should") && !list(body.get("should")).isEmpty()) return query;
+        // and with only must_not left, and adjust_pure_negative off, it would match nothing
+        if (remaining.isEmpty() && body.containsKey("must_not") && !list(body.get("must_not")).isEmpty()
+                && "false".equals(String.valueOf(body.get("adjust_pure_negative")))) return query;
+
+        if (type.param("filter") == QueryDSLType.PARAM_TYPE.LIST_QUERY_BUILDER) {
+            // the bool query has a filter context of its own, which elasticsearch caches
+            List<Object> filterList = body.containsKey("filter") ? new ArrayList<Object>(list(body.get("filter"))) : new ArrayList<Object>();
+            filterList.addAll(moved);
+            body.put("must", remaining);
+            if (remaining.isEmpty()) body.remove("must");
+            body.put("filter", filterList);
+            c.change("moved " + clauses(moved.size()) + " from must into filter");
+            return query;
+        }
+
+        CompiledModel.CompiledType filtered = model.get(QueryDSLType.TYPE.QUERY, "filtered");
+        if (filtered == null || filtered.param("filter") != QueryDSLType.PARAM_TYPE.FILTER_BUILDER || filtered.param("query") != QueryDSLType.PARAM_TYPE.QUERY_BUILDER) {
+            return query;
+        }
+        Object filter;
+        if (filters.size() == 1) {
+            filter = cache(filters.get(0));
+        } else {
+            CompiledModel.CompiledType boolFilter = model.get(QueryDSLType.TYPE.FILTER, "bool");
+            if (boolFilter == null || boolFilter.param("must") != QueryDSLType.PARAM_TYPE.LIST_FILTER_BUILDER) return query;
+            Map<String, Object> filterBody = new LinkedHashMap<String, Object>();
+            filterBody.put("must", filters);
+            filter = cache(single("bool", filterBody));
+        }
+
+        c.change("moved " + clauses(moved.size()) + " from must into a cached filter");
+        Map<String, Object> filteredBody = new LinkedHashMap<String, Object>();
+        if (remaining.isEmpty()) {
+            body.remove("must");
+        } else {
+            body.put("must", remaining);
+        }
+        // without a query, a filtered query matches every document the filter does
+        if (!body.isEmpty()) {
+            filteredBody.put("query", flatten(c, query, body));
+        }
+        filteredBody.put("filter", filter);
+        return single("filtered", filteredBody);
+    }
+
+    /**
+     * Drops clauses which are identical to an earlier one in the same list of a bool.
+     */
+    private static void dedupe(Context c, Map<String, Object> body, boolean keepShould) {
+        for (String name : BOOL_LISTS) {
+            if (!(body.get(name) instanceof List) || (keepShould && name.equals("should"))) continue;
+            List<?> list = (List<?>) body.get(name);
+            List<Object> unique = new ArrayList<Object>(list.size());
+            for (Object clause : list) {
+                if (unique.contains(clause)) {
+                    c.change("dropped a duplicate clause from " + name);
+                } else {
+                    unique.add(clause);
+                }
+            }
+            if (unique.size() < list.size()) body.put(name, unique);
+        }
+    }
+
+    /**
+     * @return the single must or should clause of a bool, if it has nothing else, else the bool itself
+     */
+    private static Object flatten(Context c, Object bool, Map<String, Object> body) {
+        if (body.size() != 1) return bool;
+        String name = body.keySet().iterator().next();
+        if (!name.equals("must") && !name.equals("should")) return bool;
+        List<Object> list = list(body.get(name));
+        if (list.size() != 1) return bool;
+        c.change("replaced a bool with its single " + name + " clause");
+        return list.get(0);
+    }
+
+    /**
+     * The filter form of a term level query, or null if it can't be moved into a filter: it sets a boost, the
+     * target version has no such filter, or the filter doesn't take one of the params the query was given.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> toFilter(Object clause) {
+        if (!(clause instanceof Map) || ((Map<String, Object>) clause).size() != 1) return null;
+        Map.Entry<String, Object> e = ((Map<String, Object>) clause).entrySet().iterator().next();
+        if (!NON_SCORING.contains(e.getKey()) || !(e.getValue() instanceof Map)) return null;
+        CompiledModel.CompiledType queryType = model.get(QueryDSLType.TYPE.QUERY, e.getKey());
+        CompiledModel.CompiledType filterType = model.get(QueryDSLType.TYPE.FILTER, e.getKey());
+        if (queryType == null || filterType == null) return null;
+
+        Map<String, Object> body = new LinkedHashMap<String, Object>();
+        boolean named = false;
+        for (Map.Entry<String, Object> p : ((Map<String, Object>) e.getValue()).entrySet()) {
+            String name = p.getKey();
+            Object value = p.getValue();
+            if (queryType.param(name) != null || queryType.isGroup(name)) {
+                if (!takes(queryType, filterType, name)) return null;
+            } else if (queryType.namedObject && !named) {
+                named = true;
+                if (value instanceof Map) {
+                    Map<String, Object> params = (Map<String, Object>) value;
+                    if (filterType.namedObjectValue) {
+                        // {"user":{"value":"kimchy"}} is {"user":"kimchy"} as a filter
+                        if (params.size() != 1) return null;
+                        String key = params.keySet().iterator().next();
+                        if (!key.equals("value") && !key.equals(e.getKey())) return null;
+                        value = params.get(key);
+                    } else {
+                        for (String key : params.keySet()) {
+                            if (!takes(queryType, filterType, key)) return null;
+                        }
+                    }
+                } else if (!filterType.namedObject && !filterType.namedObjectValue) {
+                    return null;
+                }
+            }
+            body.put(name, value);
+        }
+        return single(e.getKey(), body);
+    }
+
+    /**
+     * Can the filter take a param of the query? Params neither knows, e.g. the gte of a range, are taken as they are.
+     */
+    private static boolean takes(CompiledModel.CompiledType queryType, CompiledModel.CompiledType filterType, String name) {
+        if (name.equals("boost")) return false;
+        if (queryType.param(name) == null && !queryType.isGroup(name)) return true;
+        return filterType.param(name) != null || filterType.isGroup(name);
+    }
+
+    /**
+     * Sets "_cache":true on the filter, if its type takes it.
+     */
+    @SuppressWarnings("unchecked")
+    private Object cache(Object filter) {
+        Map.Entry<String, Object> e = ((Map<String, Object>) filter).entrySet().iterator().next();
+        CompiledModel.CompiledType type = model.get(QueryDSLType.TYPE.FILTER, e.getKey());
+        if (type != null && type.param("_cache") == QueryDSLType.PARAM_TYPE.BOOLEAN) {
+            ((Map<String, Object>) e.getValue()).put("_cache", true);
+        }
+        return filter;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list(Object value) {
+        return value instanceof List ? (List<Object>) value : Collections.singletonList(value);
+    }
+
+    private static Map<String, Object> single(String name, Object value) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put(name, value);
+        return map;
+    }
+
+    private static String clauses(int n) {
+        return n == 1 ? "1 clause" : n + " clauses";
+    }
+}
@@ -0,0 +1,101 @@
+package com.adamantite.es.querybuilder;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded, least recently used cache of the serialized {@link QueryCanonicalizer.Template}s of hot query
+ * structures, keyed by {@link QueryCanonicalizer.Fingerprint}. A service which sends many queries of the same
+ * structure canonicalizes the first one, and renders the rest from their values, without building or
+ * canonicalizing them:
+ * <pre>
+ * if (!cache.render(fingerprint, values, buffer)) {
+ *     QueryCanonicalizer.Canonical canonical = canonicalizer.canonicalize(query, QueryDSLType.TYPE.QUERY);
+ *     fingerprint = cache.put(canonical).getFingerprint();
+ *     canonical.getTemplate().writeTo(buffer, canonical.getValues());
+ * }
+ * </pre>
+ * Safe to share between threads.
+ */
+public class QueryTemplateCache {
+
+    private final int maxSize;
+
+    private final Map<QueryCanonicalizer.Fingerprint, QueryCanonicalizer.Template> templates;
+
+    private int hits;
+
+    private int misses;
+
+    public QueryTemplateCache(final int maxSize) {
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be at least 1, not " + maxSize);
+        this.maxSize = maxSize;
+        this.templates = new LinkedHashMap<QueryCanonicalizer.Fingerprint, QueryCanonicalizer.Template>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<QueryCanonicalizer.Fingerprint, QueryCanonicalizer.Template> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the template, or null if it isn't cached, or has been evicted
+     */
+    public synchronized QueryCanonicalizer.Template get(QueryCanonicalizer.Fingerprint fingerprint) {
+        QueryCanonicalizer.Template template = templates.get(fingerprint);
+        if (template != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return template;
+    }
+
+    /**
+     * Caches the template of the query, unless one of its structure is already cached.
+     *
+     * @return the cached template
+     */
+    public synchronized QueryCanonicalizer.Template put(QueryCanonicalizer.Canonical canonical) {
+        QueryCanonicalizer.Template template = templates.get(canonical.getFingerprint());
+        if (template == null) {
+            template = canonical.getTemplate();
+            templates.put(template.getFingerprint(), template);
+        }
+        return template;
+    }
+
+    /**
+     * Writes the query of the cached template with the values.
+     *
+     * @return false if there's no such template, in which case nothing is written
+     * @throws IllegalArgumentException if there aren't as many values as the template takes
+     */
+    public boolean render(QueryCanonicalizer.Fingerprint fingerprint, List<?> values, JsonByteBuffer out) {
+        QueryCanonicalizer.Template template = fingerprint != null ? get(fingerprint) : null;
+        if (template == null) return false;
+        template.writeTo(out, values);
+        return true;
+    }
+
+    public synchronized int size() {
+        return templates.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    @Override public synchronized String toString() {
+        return templates.size() + "/" + maxSize + " templates, " + hits + " hits, " + misses + " misses";
+    }
+}
@@ -0,0 +1,398 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * Validates query and filter json against a {@link CompiledModel}, in a single pass over the parser's tokens,
+ * without building a tree of the json. Reports:
+ * <ul>
+ * <li>unknown query and filter types, and unknown params</li>
+ * <li>values of the wrong type for their param, e.g. "boost":"high"</li>
+ * <li>queries where a filter is expected and vice versa, and queries or filters in params which don't take one</li>
+ * </ul>
+ * Elasticsearch is lenient about scalar types, and so is the validator: numbers and booleans may be given as
+ * strings, and any scalar is accepted for a STRING param. The field of a namedObject type may have a single
+ * value, a list or an object of params, and the field of a namedArray type any value.
+ *
+ * Thread safe, so a single validator can serve every request.
+ */
+public class QueryValidator {
+
+    public static enum Kind {
+        MALFORMED, UNKNOWN_TYPE, UNKNOWN_PARAM, TYPE_MISMATCH, MISPLACED_BUILDER
+    }
+
+    public static final class Violation {
+        final Kind kind;
+        final String path;
+        final String message;
+
+        Violation(Kind kind, String path, String message) {
+            this.kind = kind;
+            this.path = path;
+            this.message = message;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Where in the json, e.g. bool.must[1].term
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override public String toString() {
+            return kind + " at " + path + ": " + message;
+        }
+    }
+
+    /**
+     * State of a single validation.
+     */
+    private static final class Context {
+        final XContentParser parser;
+        final List<String> path = new ArrayList<String>();
+        List<Violation> violations;
+
+        Context(XContentParser parser) {
+            this.parser = parser;
+        }
+
+        void push(String segment) {
+            path.add(segment);
+        }
+
+        void pop() {
+            path.remove(path.size() - 1);
+        }
+
+        void violation(Kind kind, String message) {
+            if (violations == null) violations = new ArrayList<Violation>();
+            StringBuilder sb = new StringBuilder();
+            for (String segment : path) {
+                if (sb.length() > 0 && segment.charAt(0) != '[') sb.append('.');
+                sb.append(segment);
+            }
+            violations.add(new Violation(kind, sb.toString(), message));
+        }
+    }
+
+    private final CompiledModel model;
+
+    public QueryValidator(CompiledModel model) {
+        this.model = model;
+    }
+
+    public List<Violation> validate(String json, QueryDSLType.TYPE section) throws IOException {
+        XContentParser parser = JsonXContent.jsonXContent.createParser(json);
+        try {
+            return validate(parser, section);
+        } finally {
+            parser.close();
+        }
+    }
+
+    public List<Violation> validate(byte[] json, QueryDSLType.TYPE section) throws IOException {
+        XContentParser parser = JsonXContent.jsonXContent.createParser(json);
+        try {
+            return validate(parser, section);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Validates the query or filter object the parser is on, or the next token if the parser hasn't started yet,
+     * e.g. the value of "query" in a search request. The parser is left on the object's END_OBJECT.
+     *
+     * @return the violations found, empty if the json is valid
+     * @throws IOException if it isn't json
+     */
+    public List<Violation> validate(XContentParser parser, QueryDSLType.TYPE section) throws IOException {
+        Context c = new Context(parser);
+        XContentParser.Token t = parser.currentToken();
+        if (t == null) t = parser.nextToken();
+        if (t == XContentParser.Token.START_OBJECT) {
+            dsl(c, section);
+        } else {
+            c.violation(Kind.MALFORMED, "expected a " + name(section) + " object");
+            parser.skipChildren();
+        }
+        return c.violations == null ? Collections.<Violation>emptyList() : c.violations;
+    }
+
+    /**
+     * A query or filter object, {"[dsl name]":{...}}. The parser is on its START_OBJECT.
+     */
+    private void dsl(Context c, QueryDSLType.TYPE section) throws IOException {
+        XContentParser parser = c.parser;
+        int count = 0;
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            c.push(name);
+            if (count++ > 0) c.violation(Kind.MALFORMED, "more than one " + name(section) + " in the same object");
+            CompiledModel.CompiledType type = model.get(section, name);
+            if (type == null) {
+                QueryDSLType.TYPE other = section == QueryDSLType.TYPE.QUERY ? QueryDSLType.TYPE.FILTER : QueryDSLType.TYPE.QUERY;
+                if (model.get(other, name) != null) {
+                    c.violation(Kind.MISPLACED_BUILDER, name(other) + " " + name + " where a " + name(section) + " is expected");
+                } else {
+                    c.violation(Kind.UNKNOWN_TYPE, "unknown " + name(section) + " " + name);
+                }
+                parser.skipChildren();
+            } else if (parser.currentToken() != XContentParser.Token.START_OBJECT) {
+                c.violation(Kind.TYPE_MISMATCH, "expected an object of params, got " + parser.currentToken());
+                parser.skipChildren();
+            } else {
+                params(c, type);
+            }
+            c.pop();
+        }
+        if (count == 0) c.violation(Kind.MALFORMED, "expected a " + name(section));
+    }
+
+    /**
+     * The params of a dsl type. The parser is on their START_OBJECT.
+     */
+    private void params(Context c, CompiledModel.CompiledType type) throws IOException {
+        XContentParser parser = c.parser;
+        boolean named = false;
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            c.push(name);
+            if (!param(c, type, name)) {
+                if ((type.namedObject || type.namedArray) && !named) {
+                    named = true;
+                    namedField(c, type);
+                } else {
+                    c.violation(Kind.UNKNOWN_PARAM, "unknown param " + name + " of " + type.dslName);
+                    parser.skipChildren();
+                }
+            }
+            c.pop();
+        }
+    }
+
+    /**
+     * Validates the value of a param, if name is one.
+     *
+     * @param name the full dotted param name
+     * @return false if there's no such param, in which case the value hasn't been read
+     */
+    private boolean param(Context c, CompiledModel.CompiledType type, String name) throws IOException {
+        QueryDSLType.PARAM_TYPE paramType = type.param(name);
+        if (paramType != null) {
+            value(c, paramType);
+            return true;
+        }
+        if (!type.isGroup(name)) return false;
+
+        XContentParser parser = c.parser;
+        if (parser.currentToken() == XContentParser.Token.START_OBJECT) {
+            while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                String child = parser.currentName();
+                parser.nextToken();
+                c.push(child);
+                if (!param(c, type, name + "." + child)) {
+                    c.violation(Kind.UNKNOWN_PARAM, "unknown param " + name + "." + child + " of " + type.dslName);
+                    parser.skipChildren();
+                }
+                c.pop();
+            }
+        } else if (parser.currentToken() == XContentParser.Token.START_ARRAY) {
+            c.violation(Kind.TYPE_MISMATCH, "expected an object of params, got " + parser.currentToken());
+            parser.skipChildren();
+        }
+        return true;
+    }
+
+    /**
+     * The field of a namedObject or namedArray type, e.g. "user" in {"term":{"user":"kimchy"}}.
+     */
+    private void namedField(Context c, CompiledModel.CompiledType type) throws IOException {
+        XContentParser parser = c.parser;
+        if (type.namedObject && parser.currentToken() == XContentParser.Token.START_OBJECT) {
+            while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                c.push(name);
+                if (!param(c, type, name)) {
+                    c.violation(Kind.UNKNOWN_PARAM, "unknown param " + name + " of " + type.dslName);
+                    parser.skipChildren();
+                }
+                c.pop();
+            }
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    private void value(Context c, QueryDSLType.PARAM_TYPE type) throws IOException {
+        XContentParser parser = c.parser;
+        XContentParser.Token t = parser.currentToken();
+        switch (type) {
+            case QUERY_BUILDER:
+                builder(c, QueryDSLType.TYPE.QUERY);
+                return;
+            case FILTER_BUILDER:
+                builder(c, QueryDSLType.TYPE.FILTER);
+                return;
+            case LIST_QUERY_BUILDER:
+                builders(c, QueryDSLType.TYPE.QUERY);
+                return;
+            case LIST_FILTER_BUILDER:
+                builders(c, QueryDSLType.TYPE.FILTER);
+                return;
+        }
+
+        if (accepts(type, t, parser)) {
+            parser.skipChildren();
+        } else if (t == XContentParser.Token.START_OBJECT) {
+            mismatchedObject(c, type);
+        } else {
+            c.violation(Kind.TYPE_MISMATCH, "expected " + type + ", got " + describe(t, parser));
+            parser.skipChildren();
+        }
+    }
+
+    private void builder(Context c, QueryDSLType.TYPE section) throws IOException {
+        XContentParser parser = c.parser;
+        if (parser.currentToken() == XContentParser.Token.START_OBJECT) {
+            dsl(c, section);
+        } else {
+            c.violation(Kind.TYPE_MISMATCH, "expected a " + name(section) + " object, got " + describe(parser.currentToken(), parser));
+            parser.skipChildren();
+        }
+    }
+
+    /**
+     * A list of queries or filters, or a single one.
+     */
+    private void builders(Context c, QueryDSLType.TYPE section) throws IOException {
+        XContentParser parser = c.parser;
+        if (parser.currentToken() != XContentParser.Token.START_ARRAY) {
+            builder(c, section);
+            return;
+        }
+        int i = 0;
+        while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+            c.push("[" + i++ + "]");
+            builder(c, section);
+            c.pop();
+        }
+    }
+
+    /**
+     * An object where a param expects something else. Reported as a misplaced builder if it looks like a query
+     * or filter. The parser is on the object's START_OBJECT, and left on its END_OBJECT.
+     */
+    private void mismatchedObject(Context c, QueryDSLType.PARAM_TYPE type) throws IOException {
+        XContentParser parser = c.parser;
+        if (parser.nextToken() != XContentParser.Token.FIELD_NAME) {
+            c.violation(Kind.TYPE_MISMATCH, "expected " + type + ", got an object");
+            return;
+        }
+        String name = parser.currentName();
+        if (model.isDslName(name)) {
+            c.violation(Kind.MISPLACED_BUILDER, name + " where " + type + " is expected");
+        } else {
+            c.violation(Kind.TYPE_MISMATCH, "expected " + type + ", got an object");
+        }
+        do {
+            parser.nextToken();
+            parser.skipChildren();
+        } while (parser.nextToken() == XContentParser.Token.FIELD_NAME);
+    }
+
+    /**
+     * Can a value starting with token t be given for a param of the type?
+     */
+    static boolean accepts(QueryDSLType.PARAM_TYPE type, XContentParser.Token t, XContentParser parser) throws IOException {
+        if (t == XContentParser.Token.VALUE_NULL) return true;
+        switch (type) {
+            case BOOLEAN:
+                if (t == XContentParser.Token.VALUE_BOOLEAN) return true;
+                return t == XContentParser.Token.VALUE_STRING && (parser.text().equals("true") || parser.text().equals("false"));
+            case INTEGER:
+                if (t == XContentParser.Token.VALUE_NUMBER) {
+                    XContentParser.NumberType numberType = parser.numberType();
+                    return numberType == XContentParser.NumberType.INT || numberType == XContentParser.NumberType.LONG;
+                }
+                return t == XContentParser.Token.VALUE_STRING && isLong(parser.text());
+            case FLOAT:
+            case DOUBLE:
+                if (t == XContentParser.Token.VALUE_NUMBER) return true;
+                return t == XContentParser.Token.VALUE_STRING && isDouble(parser.text());
+            case STRING:
+                return t.isValue();
+            case FUZZINESS:
+                return t == XContentParser.Token.VALUE_STRING || t == XContentParser.Token.VALUE_NUMBER;
+            case OPERATOR:
+            case GEO_DISTANCE:
+            case SPATIAL_STRATEGY:
+            case SHAPE_RELATION:
+            case OPTIMIZE_BBOX:
+                return t == XContentParser.Token.VALUE_STRING;
+            case LIST:
+                return t == XContentParser.Token.START_ARRAY || t.isValue();
+            case MAP:
+            case SHAPE_BUILDER:
+                return t == XContentParser.Token.START_OBJECT;
+            default:
+                // OBJECT, OTHER
+                return true;
+        }
+    }
+
+    private static boolean isLong(String s) {
+        try {
+            Long.parseLong(s);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isDouble(String s) {
+        try {
+            Double.parseDouble(s);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static String describe(XContentParser.Token t, XContentParser parser) throws IOException {
+        switch (t) {
+            case START_OBJECT:
+                return "an object";
+            case START_ARRAY:
+                return "an array";
+            case VALUE_STRING:
+            case VALUE_NUMBER:
+            case VALUE_BOOLEAN:
+                return t + " " + parser.text();
+            default:
+                return t.toString();
+        }
+    }
+
+    private static String name(QueryDSLType.TYPE section) {
+        return section == QueryDSLType.TYPE.QUERY ? "query" : "filter";
+    }
+}
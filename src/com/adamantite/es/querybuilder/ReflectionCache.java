@@ -0,0 +1,172 @@
+package com.adamantite.es.querybuilder;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reflection metadata QueryDSLTypeExtractor looks up while parsing builders, cached for a single class loader:
+ * builder and parser classes, the declared fields of the builders, and the preferred names of
+ * xxxParser.Fields constants. Each is looked up once, however many builders refer to it.
+ *
+ * Safe to share between the threads of a parallel extraction.
+ */
+public class ReflectionCache {
+
+    private static final MethodType PREFERRED_NAME_TYPE = MethodType.methodType(String.class);
+
+    final ClassLoader classLoader;
+
+    private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+
+    private final ConcurrentMap<Class<?>, Field[]> declaredFields = new ConcurrentHashMap<Class<?>, Field[]>();
+
+    /**
+     * Resolved preferred names, keyed by e.g. MoreLikeThisQueryParser.LIKE_TEXT
+     */
+    private final ConcurrentMap<String, String> preferredNames = new ConcurrentHashMap<String, String>();
+
+    /**
+     * getPreferredName() accessors, keyed by the class of the constant, which is usually ParseField
+     */
+    private final ConcurrentMap<Class<?>, MethodHandle> preferredNameAccessors = new ConcurrentHashMap<Class<?>, MethodHandle>();
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Time spent on misses, i.e. actually loading classes, reading fields and resolving names
+     */
+    private final AtomicLong nanos = new AtomicLong();
+
+    public ReflectionCache(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Same as Class.forName(name, true, classLoader). Classes that aren't found aren't cached.
+     */
+    public Class<?> forName(String name) throws ClassNotFoundException {
+        Class<?> c = classes.get(name);
+        if (c != null) {
+            hits.incrementAndGet();
+            return c;
+        }
+        misses.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return load(name);
+        } finally {
+            nanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * forName without counting, for the lookups which count themselves.
+     */
+    private Class<?> cachedClass(String name) throws ClassNotFoundException {
+        Class<?> c = classes.get(name);
+        return c != null ? c : load(name);
+    }
+
+    private Class<?> load(String name) throws ClassNotFoundException {
+        Class<?> c = Class.forName(name, true, classLoader);
+        Class<?> previous = classes.putIfAbsent(name, c);
+        return previous != null ? previous : c;
+    }
+
+    /**
+     * The declared fields of c, already made accessible. The array is shared, so callers must not modify it.
+     */
+    public Field[] getDeclaredFields(Class<?> c) {
+        Field[] fields = declaredFields.get(c);
+        if (fields != null) {
+            hits.incrementAndGet();
+            return fields;
+        }
+        misses.incrementAndGet();
+        long start = System.nanoTime();
+        fields = c.getDeclaredFields();
+        for (Field field : fields) {
+            field.setAccessible(true);
+        }
+        nanos.addAndGet(System.nanoTime() - start);
+        Field[] previous = declaredFields.putIfAbsent(c, fields);
+        return previous != null ? previous : fields;
+    }
+
+    /**
+     * Resolves parserClass.Fields.constant.getPreferredName(), where parserClass is a simple class name in
+     * org.elasticsearch.index.query. If the parser has no nested xxxFields class, the constant is looked up on
+     * the parser itself. Counted as one lookup, the parser class it loads included.
+     *
+     * @return the preferred name, or null if it couldn't be resolved
+     */
+    public String getPreferredName(String parserClass, String constant) {
+        String key = parserClass + "." + constant;
+        String name = preferredNames.get(key);
+        if (name != null) {
+            hits.incrementAndGet();
+            return name;
+        }
+
+        misses.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            Class<?> clazz = cachedClass("org.elasticsearch.index.query." + parserClass);
+            for (Class<?> c : clazz.getClasses()) {
+                if (c.getSimpleName().endsWith("Fields")) {
+                    clazz = c;
+                    break;
+                }
+            }
+            Object o = clazz.getField(constant).get(null);
+            name = (String) preferredNameAccessor(o.getClass()).invokeExact(o);
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+            return null;
+        } catch (NoSuchFieldException e) {
+            e.printStackTrace();
+            return null;
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+            return null;
+        } catch (Throwable t) {
+            // NoSuchMethodException, or thrown by getPreferredName() itself
+            t.printStackTrace();
+            return null;
+        } finally {
+            nanos.addAndGet(System.nanoTime() - start);
+        }
+        if (name != null) preferredNames.putIfAbsent(key, name);
+        return name;
+    }
+
+    private MethodHandle preferredNameAccessor(Class<?> c) throws NoSuchMethodException, IllegalAccessException {
+        MethodHandle mh = preferredNameAccessors.get(c);
+        if (mh == null) {
+            mh = MethodHandles.publicLookup().findVirtual(c, "getPreferredName", PREFERRED_NAME_TYPE)
+                .asType(MethodType.methodType(String.class, Object.class));
+            preferredNameAccessors.putIfAbsent(c, mh);
+        }
+        return mh;
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    public long getNanos() {
+        return nanos.get();
+    }
+}
@@ -0,0 +1,58 @@
+package com.adamantite.es.querybuilder;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builders parsed by the extractors of a batch run, keyed by the {@link ExtractionCache#hashSources(java.io.File, java.io.File) hash}
+ * of their builder and parser sources. Most builders don't change between elasticsearch versions, so each
+ * distinct builder is only parsed by the first extractor that asks for it, and the others get a copy.
+ *
+ * An extractor asking for a builder that another one is still parsing waits for it. The parsing extractor
+ * runs the parse on its own thread, so the wait can't deadlock the pool.
+ */
+public class SharedBuilders {
+
+    private final ConcurrentMap<String, FutureTask<QueryDSLType>> builders = new ConcurrentHashMap<String, FutureTask<QueryDSLType>>();
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Returns a copy of the builder with the given source hash, calling parse if no extractor has parsed it yet.
+     * The copy can be modified, e.g. by the extraction rules, without affecting other versions.
+     *
+     * @return null if parse returned null
+     */
+    public QueryDSLType get(String sourceHash, Callable<QueryDSLType> parse) throws ClassNotFoundException {
+        FutureTask<QueryDSLType> task = new FutureTask<QueryDSLType>(parse);
+        FutureTask<QueryDSLType> existing = builders.putIfAbsent(sourceHash, task);
+        if (existing == null) {
+            misses.incrementAndGet();
+            task.run();
+            existing = task;
+        } else {
+            hits.incrementAndGet();
+        }
+        QueryDSLType type = QueryDSLTypeExtractor.getResult(existing);
+        return type == null ? null : type.copy();
+    }
+
+    /**
+     * @return the number of builders taken from another version
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of builders parsed
+     */
+    public int getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,152 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BuilderClassScannerTest {
+
+    private static final String FIELDS = BuilderClassScanner.QUERY_PACKAGE + "MoreLikeThisQueryParser$Fields";
+
+    private static File jar;
+    private static BuilderClassScanner scanner;
+
+    @BeforeClass
+    public static void buildFixtures() throws IOException {
+        jar = FixtureJar.build();
+        scanner = new BuilderClassScanner(jar);
+    }
+
+    @AfterClass
+    public static void close() throws IOException {
+        scanner.close();
+    }
+
+    private static BuilderSourceScanner.Match match(BuilderSourceScanner.Idiom idiom, String param, String field) {
+        return new BuilderSourceScanner.Match(idiom, param, field);
+    }
+
+    private static String sourceModel() throws IOException, ClassNotFoundException {
+        QueryDSLTypeExtractor extractor = new QueryDSLTypeExtractor("1.7.2", FixtureJar.esQuerybuilderDir(), FixtureJar.classLoader(jar));
+        return QueryDSLTypeExtractor.toJSON(extractor.parseQueries(), extractor.parseFilters(), true, true);
+    }
+
+    @Test
+    public void testSameModelAsSources() throws IOException, ClassNotFoundException {
+        QueryDSLTypeExtractor extractor = new QueryDSLTypeExtractor("1.7.2", scanner);
+        assertNull(extractor.getClassLoader());
+        assertEquals(sourceModel(), QueryDSLTypeExtractor.toJSON(extractor.parseQueries(), extractor.parseFilters(), true, true));
+    }
+
+    @Test
+    public void testParallelAndCached() throws IOException, ClassNotFoundException {
+        File dir = File.createTempFile("qb-cache", "");
+        dir.delete();
+        String expected = sourceModel();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int run = 0; run < 2; run++) {
+                QueryDSLTypeExtractor extractor = QueryDSLTypeExtractor.forJar("1.7.2", jar);
+                extractor.setPool(pool);
+                ExtractionCache cache = new ExtractionCache(dir, ExtractionCache.hashJars(jar));
+                extractor.setCache(cache);
+                assertEquals(expected, QueryDSLTypeExtractor.toJSON(extractor.parseQueries(), extractor.parseFilters(), true, true));
+                assertTrue(extractor.getBuilderFiles(QueryDSLType.TYPE.QUERY).isEmpty());
+                if (run == 1) assertEquals(0, cache.getMisses());
+                extractor.getClasses().close();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testClassFile() throws IOException {
+        assertEquals("term", scanner.getClassFile("TermQueryParser").getField("NAME").constantValue);
+
+        ClassFile bool = scanner.getClassFile("BoolQueryBuilder");
+        assertEquals(BuilderClassScanner.QUERY_PACKAGE + "BoolQueryBuilder", bool.getName());
+        ClassFile.Field must = bool.getField("mustClauses");
+        assertEquals("java.util.List", must.getTypeName());
+        assertEquals("org.elasticsearch.index.query.QueryBuilder", must.getTypeArgument());
+        assertEquals("float", bool.getField("boost").getTypeName());
+
+        ClassFile bbox = scanner.getClassFile("GeoBoundingBoxFilterBuilder");
+        assertEquals("[D", bbox.getField("box").getTypeName());
+        assertNull(bbox.getField("box").getTypeArgument());
+        assertEquals("top_left", bbox.getField("TOP_LEFT").constantValue);
+
+        assertEquals(Arrays.asList("Ljava/lang/String;", "[J", "D"), ClassFile.parameterTypes("(Ljava/lang/String;[JD)V"));
+    }
+
+    @Test
+    public void testList() {
+        assertTrue(scanner.list("FilterBuilder").contains("BoolFilterBuilder"));
+        assertFalse(scanner.list("QueryBuilder").contains("BoolFilterBuilder"));
+        assertTrue(scanner.contains("TermQueryParser"));
+        // nested classes aren't listed
+        assertFalse(scanner.contains("MoreLikeThisQueryParser$Fields"));
+    }
+
+    @Test
+    public void testPreferredNames() throws IOException {
+        assertEquals("like_text", scanner.getPreferredName(FIELDS, "LIKE_TEXT"));
+        assertEquals("fail_on_unsupported_field", scanner.getPreferredName(FIELDS, "FAIL_ON_UNSUPPORTED_FIELD"));
+        assertNull(scanner.getPreferredName(FIELDS, "NO_SUCH_FIELD"));
+        assertNull(scanner.getPreferredName(BuilderClassScanner.QUERY_PACKAGE + "NoSuchClass", "LIKE_TEXT"));
+        assertEquals("min_term_freq", BuilderClassScanner.toUnderscoreCase("minTermFreq"));
+        assertEquals("like_text", BuilderClassScanner.toUnderscoreCase("like_text"));
+    }
+
+    @Test
+    public void testMoreLikeThisIdioms() throws IOException {
+        BuilderClassScanner.Result mlt = scanner.scan(scanner.getClassFile("MoreLikeThisQueryBuilder"));
+        assertFalse(mlt.namedObject);
+        assertFalse(mlt.namedArray);
+        assertEquals(Arrays.asList(
+                match(BuilderSourceScanner.Idiom.FIELD, "boost", "boost"),
+                match(BuilderSourceScanner.Idiom.FIELD, "_name", "queryName"),
+                // builder.field("exclude", !include) isn't include
+                match(BuilderSourceScanner.Idiom.ARRAY_LOOP, "fields", "fields"),
+                match(BuilderSourceScanner.Idiom.FIELD_CONSTANT, "like_text", "likeText"),
+                match(BuilderSourceScanner.Idiom.FIELD_CONSTANT, "min_term_freq", "minTermFreq"),
+                match(BuilderSourceScanner.Idiom.FIELD_CONSTANT, "max_query_terms", "maxQueryTerms"),
+                match(BuilderSourceScanner.Idiom.FIELD_CONSTANT, "fail_on_unsupported_field", "failOnUnsupportedField"),
+                match(BuilderSourceScanner.Idiom.ARRAY_LOOP_CONSTANT, "stop_words", "stopWords")), mlt.matches);
+    }
+
+    @Test
+    public void testNamedIdioms() throws IOException {
+        // the shortcut builder.field(name, value) comes before builder.startObject(name), so it isn't reported
+        BuilderClassScanner.Result term = scanner.scan(scanner.getClassFile("TermQueryBuilder"));
+        assertTrue(term.namedObject);
+        assertEquals(Arrays.asList(
+                match(BuilderSourceScanner.Idiom.FIELD, "value", "value"),
+                match(BuilderSourceScanner.Idiom.FIELD, "boost", "boost"),
+                match(BuilderSourceScanner.Idiom.FIELD, "_name", "queryName")), term.matches);
+
+        BuilderClassScanner.Result geo = scanner.scan(scanner.getClassFile("GeoDistanceFilterBuilder"));
+        assertFalse(geo.namedObject);
+        assertFalse(geo.namedArray);
+        assertTrue(geo.matches.contains(match(BuilderSourceScanner.Idiom.NAMED_ARRAY_VALUES, null, "lon,lat")));
+        assertTrue(geo.matches.contains(match(BuilderSourceScanner.Idiom.NAMED_SHORTCUT, "name", "geohash")));
+        assertTrue(geo.matches.contains(match(BuilderSourceScanner.Idiom.FIELD, "distance_type", "geoDistance")));
+
+        BuilderClassScanner.Result boosting = scanner.scan(scanner.getClassFile("BoostingQueryBuilder"));
+        assertTrue(boosting.matches.contains(match(BuilderSourceScanner.Idiom.FIELD_TO_XCONTENT, "positive", "positiveQuery")));
+        assertTrue(boosting.matches.contains(match(BuilderSourceScanner.Idiom.FIELD_TO_XCONTENT, "negative", "negativeQuery")));
+
+        BuilderClassScanner.Result bool = scanner.scan(scanner.getClassFile("BoolQueryBuilder"));
+        assertTrue(bool.matches.contains(match(BuilderSourceScanner.Idiom.X_ARRAY_CONTENT, "must_not", "mustNotClauses")));
+    }
+}
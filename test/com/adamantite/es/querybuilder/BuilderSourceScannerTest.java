@@ -0,0 +1,130 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.adamantite.es.querybuilder.BuilderSourceScanner.Idiom;
+import com.adamantite.es.querybuilder.BuilderSourceScanner.Match;
+
+public class BuilderSourceScannerTest {
+
+    private static final String GEO_DISTANCE = ""
+        + "        builder.startObject(GeoDistanceFilterParser.NAME);\n"
+        + "        if (geohash != null) {\n"
+        + "            builder.field(name, geohash);\n"
+        + "        } else {\n"
+        + "            builder.startArray(name).value(lon).value(lat).endArray();\n"
+        + "        }\n"
+        + "        builder.field(\"distance\", distance);\n"
+        + "        if (optimizeBbox != null) {\n"
+        + "            builder.field(\"optimize_bbox\", optimizeBbox);\n"
+        + "        }\n";
+
+    private static final String MLT = ""
+        + "        if (likeText != null) {\n"
+        + "            builder.field(MoreLikeThisQueryParser.Fields.LIKE_TEXT.getPreferredName(), likeText);\n"
+        + "        }\n"
+        + "        if (stopWords != null && stopWords.length > 0) {\n"
+        + "            builder.startArray(MoreLikeThisQueryParser.Fields.STOP_WORDS.getPreferredName());\n"
+        + "            for (String stopWord : stopWords) {\n"
+        + "                builder.value(stopWord);\n"
+        + "            }\n"
+        + "            builder.endArray();\n"
+        + "        }\n"
+        + "        if (include != null) {\n"
+        + "            builder.field(\"exclude\", !include);\n"
+        + "        }\n";
+
+    private static final String BOOL = ""
+        + "        doXArrayContent(\"must\", mustClauses, builder, params);\n"
+        + "        if (boost != -1) {\n"
+        + "            builder.field(\"boost\", this.boost);\n"
+        + "        }\n"
+        + "        builder.field(\"negative\");\n"
+        + "        negativeQuery.toXContent(builder, params);\n"
+        + "        builder.startArray(\"values\");\n"
+        + "        for (Object value : values) {\n"
+        + "            builder.value(value);\n"
+        + "        }\n"
+        + "        builder.endArray();\n";
+
+    @Test
+    public void testIdioms() {
+        List<Match> matches = BuilderSourceScanner.scan(GEO_DISTANCE, 0);
+        assertTrue(matches.contains(new Match(Idiom.FIELD, "distance", "distance")));
+        assertTrue(matches.contains(new Match(Idiom.FIELD, "optimize_bbox", "optimizeBbox")));
+        assertTrue(matches.contains(new Match(Idiom.NAMED_ARRAY_VALUES, null, "lon,lat")));
+        assertTrue(matches.contains(new Match(Idiom.NAMED_SHORTCUT, "name", "geohash")));
+
+        matches = BuilderSourceScanner.scan(MLT, 0);
+        assertTrue(matches.contains(new Match(Idiom.FIELD_CONSTANT,
+            "MoreLikeThisQueryParser.Fields.LIKE_TEXT.getPreferredName()", "likeText")));
+        assertTrue(matches.contains(new Match(Idiom.ARRAY_LOOP_CONSTANT,
+            "MoreLikeThisQueryParser.Fields.STOP_WORDS.getPreferredName()", "stopWords")));
+        assertTrue(matches.contains(new Match(Idiom.FIELD, "exclude", "!include")));
+
+        matches = BuilderSourceScanner.scan(BOOL, 0);
+        assertTrue(matches.contains(new Match(Idiom.X_ARRAY_CONTENT, "must", "mustClauses")));
+        assertTrue(matches.contains(new Match(Idiom.FIELD, "boost", "this.boost")));
+        assertTrue(matches.contains(new Match(Idiom.FIELD_TO_XCONTENT, "negative", "negativeQuery")));
+        assertTrue(matches.contains(new Match(Idiom.ARRAY_LOOP, "values", "values")));
+    }
+
+    @Test
+    public void testMatchesRegexCascade() {
+        for (String input : new String[]{GEO_DISTANCE, MLT, BOOL, GEO_DISTANCE + MLT + BOOL}) {
+            assertEquals(LegacyRegexCascade.scan(input), BuilderSourceScanner.scan(input, 0));
+            int from = input.length() / 3;
+            assertEquals(LegacyRegexCascade.scan(input.substring(from)), BuilderSourceScanner.scan(input, from));
+        }
+    }
+
+    @Test
+    public void testMatchesRegexCascadeOnFixtureSources() throws IOException {
+        assertTrue(assertMatchesRegexCascade(new File(FixtureJar.esQuerybuilderDir()).listFiles()) > 0);
+    }
+
+    /**
+     * The whole elasticsearch tree, where there's a checkout.
+     */
+    @Test
+    public void testMatchesRegexCascadeOnBuilderSources() throws IOException {
+        File[] files = new File(QueryDSLTypeExtractor.querybuilderDir(QueryDSLTypeExtractor.DEFAULT_SRC_HOME)).listFiles();
+        assumeTrue(files != null);
+        assertMatchesRegexCascade(files);
+    }
+
+    /**
+     * @return the number of builders compared
+     */
+    private static int assertMatchesRegexCascade(File[] files) throws IOException {
+        int builders = 0;
+        for (File f : files) {
+            if (!f.getName().endsWith("Builder.java")) continue;
+            String input = read(f);
+            assertEquals(f.getName(), LegacyRegexCascade.scan(input), BuilderSourceScanner.scan(input, 0));
+            builders++;
+        }
+        return builders;
+    }
+
+    static String read(File f) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        BufferedReader br = new BufferedReader(new FileReader(f));
+        String s = null;
+        while ((s = br.readLine()) != null) {
+            sb.append(s).append("\n");
+        }
+        br.close();
+        return sb.toString();
+    }
+}
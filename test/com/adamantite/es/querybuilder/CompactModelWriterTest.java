@@ -0,0 +1,134 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CompactModelWriterTest {
+
+    private static Map<String, QueryDSLType> queries;
+    private static Map<String, QueryDSLType> filters;
+
+    @BeforeClass
+    public static void parseFixtures() throws IOException, ClassNotFoundException {
+        QueryDSLTypeExtractor extractor = FixtureJar.extractor();
+        queries = extractor.parseQueries();
+        filters = extractor.parseFilters();
+    }
+
+    @Test
+    public void testDecodedShardsMatchJSONModel() throws IOException {
+        File dir = File.createTempFile("qb-model", "");
+        dir.delete();
+        dir.mkdirs();
+        new CompactModelWriter().write(dir, "fixture", queries, filters);
+
+        Map<String, Object> index = parse(read(new File(dir, "qb-model-fixture.idx.json")));
+        assertEquals(CompactModelWriter.FORMAT, ((Number) index.get("format")).intValue());
+
+        Map<String, Object> decoded = new LinkedHashMap<String, Object>();
+        decoded.put("query", decode(index, new File(dir, "qb-model-fixture/query"), "query"));
+        decoded.put("filter", decode(index, new File(dir, "qb-model-fixture/filter"), "filter"));
+        assertEquals(parse(QueryDSLTypeExtractor.toJSON(queries, filters, false, false)), decoded);
+    }
+
+    @Test
+    public void testNamesAreShared() throws IOException {
+        File dir = File.createTempFile("qb-model", "");
+        dir.delete();
+        dir.mkdirs();
+        new CompactModelWriter().write(dir, "fixture", queries, filters);
+
+        List<?> names = (List<?>) parse(read(new File(dir, "qb-model-fixture.idx.json"))).get("names");
+        assertEquals(names.size(), new HashSet<Object>(names).size());
+        assertTrue(names.contains("boost"));
+    }
+
+    @Test
+    public void testGeneration() throws IOException {
+        String generation = generation(queries, filters);
+        assertEquals(16, generation.length());
+        assertEquals(generation, generation(queries, filters));
+
+        // a param less moves the names after it, the shards of the other generation don't decode with these tables
+        Map<String, QueryDSLType> changed = new LinkedHashMap<String, QueryDSLType>(queries);
+        QueryDSLType bool = new QueryDSLType("bool", QueryDSLType.TYPE.QUERY);
+        bool.fields.putAll(queries.get("bool").fields);
+        bool.fields.remove(bool.fields.keySet().iterator().next());
+        changed.put("bool", bool);
+        assertFalse(generation.equals(generation(changed, filters)));
+    }
+
+    private static String generation(Map<String, QueryDSLType> queries, Map<String, QueryDSLType> filters) throws IOException {
+        File dir = File.createTempFile("qb-model", "");
+        dir.delete();
+        dir.mkdirs();
+        new CompactModelWriter().write(dir, "fixture", queries, filters);
+        return (String) parse(read(new File(dir, "qb-model-fixture.idx.json"))).get("generation");
+    }
+
+    /**
+     * Turns the shards of a section back into the json model, the same way the web builder does.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> decode(Map<String, Object> index, File dir, String section) throws IOException {
+        List<Object> names = (List<Object>) index.get("names");
+        List<Object> types = (List<Object>) index.get("types");
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (Object dslName : (List<Object>) index.get(section)) {
+            Map<String, Object> shard = parse(read(new File(dir, dslName + ".json")));
+            assertEquals(index.get("generation"), shard.get("generation"));
+            Map<String, Object> dslType = new LinkedHashMap<String, Object>();
+            for (Map.Entry<String, Object> e : shard.entrySet()) {
+                if (!e.getKey().equals("fields") && !e.getKey().equals("generation")) dslType.put(e.getKey(), e.getValue());
+            }
+            List<Object> fields = new ArrayList<Object>();
+            for (Object o : (List<Object>) shard.get("fields")) {
+                List<Object> f = (List<Object>) o;
+                Map<String, Object> field = new LinkedHashMap<String, Object>();
+                field.put("name", names.get(((Number) f.get(0)).intValue()));
+                field.put("type", types.get(((Number) f.get(1)).intValue()));
+                if (f.size() > 2) field.put("label", names.get(((Number) f.get(2)).intValue()));
+                fields.add(field);
+            }
+            dslType.put("fields", fields);
+            result.put(dslName.toString(), dslType);
+        }
+        return result;
+    }
+
+    private static Map<String, Object> parse(String json) throws IOException {
+        XContentParser parser = JsonXContent.jsonXContent.createParser(json);
+        try {
+            return parser.mapOrdered();
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static String read(File f) throws IOException {
+        byte[] bytes = new byte[(int) f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return new String(bytes, "UTF-8");
+    }
+}
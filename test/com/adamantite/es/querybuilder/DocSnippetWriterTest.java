@@ -0,0 +1,126 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.junit.Test;
+
+public class DocSnippetWriterTest {
+
+    @Test
+    public void testExtractSection() throws IOException {
+        String pageUrl = DocSnippetWriter.REFERENCE_URL + "query-dsl-term-query.html";
+        String doc = DocSnippetWriter.extractSection(read(new File(FixtureJar.esDocsDir(), "query-dsl-term-query.html")), pageUrl);
+        assertTrue(doc, doc.startsWith("<div class=\"titlepage\">"));
+        assertTrue(doc, doc.contains("Matches documents that have fields that contain a term"));
+        assertFalse(doc, doc.contains("edit_me"));
+        assertFalse(doc, doc.contains("class=\"toc\""));
+        assertFalse(doc, doc.contains("Span Term Query"));
+        assertTrue(doc, doc.contains("<a target=\"_blank\" class=\"xref\" href=\"" + DocSnippetWriter.REFERENCE_URL + "mapping-core-types.html\""));
+        assertTrue(doc, doc.contains("href=\"" + pageUrl + "#_example\""));
+        assertTrue(doc, doc.contains("<img src=\"" + DocSnippetWriter.REFERENCE_URL + "images/term-query.png\""));
+        assertTrue(doc, doc.contains("<a href=\"http://lucene.apache.org/core/4_10_4/core/org/apache/lucene/search/TermQuery.html\" class=\"ulink\" target=\"_blank\">"));
+    }
+
+    @Test
+    public void testNestedSections() throws IOException {
+        String doc = DocSnippetWriter.extractSection(read(new File(FixtureJar.esDocsDir(), "query-dsl-common-terms-query.html")), "");
+        assertTrue(doc, doc.contains("<a target=\"_blank\" id=\"_examples\"></a>Examples</h3>"));
+        assertTrue(doc, doc.trim().endsWith("</pre></div>\n</div>"));
+        assertNull(DocSnippetWriter.extractSection("<div class=\"sections\">no section</div>", ""));
+    }
+
+    @Test
+    public void testRemoveElements() {
+        assertEquals("<p>a</p><p>d</p>", DocSnippetWriter.removeElements("<p>a</p><div class=\"x toc\"><div>b</div>c</div><p>d</p>", "toc"));
+        assertEquals("<p>ab</p>", DocSnippetWriter.removeElements("<p>a<br class=\"edit_me\"/>b</p>", "edit_me"));
+    }
+
+    @Test
+    public void testDocFileName() {
+        assertEquals("query-dsl-term-query.html", DocSnippetWriter.docFileName("term", QueryDSLType.TYPE.QUERY));
+        assertEquals("query-dsl-multi-match-query.html", DocSnippetWriter.docFileName("multi_match", QueryDSLType.TYPE.QUERY));
+        assertEquals("query-dsl-common-terms-query.html", DocSnippetWriter.docFileName("common", QueryDSLType.TYPE.QUERY));
+        assertEquals("query-dsl-geo-bounding-box-filter.html", DocSnippetWriter.docFileName("geo_bbox", QueryDSLType.TYPE.FILTER));
+    }
+
+    @Test
+    public void testExtractDoXContent() {
+        String source = "public class FooQueryBuilder {\n"
+                + "    @Override\n"
+                + "    protected void doXContent(XContentBuilder builder, Params params) throws IOException {\n"
+                + "        builder.startObject(\"foo\");\n"
+                + "        // a } in a comment\n"
+                + "        builder.field(\"brace\", \"}\" + '{');\n"
+                + "        builder.endObject();\n"
+                + "    }\n"
+                + "\n"
+                + "    public void other() {\n"
+                + "    }\n"
+                + "}\n";
+        assertEquals("protected void doXContent(XContentBuilder builder, Params params) throws IOException {\n"
+                + "    builder.startObject(\"foo\");\n"
+                + "    // a } in a comment\n"
+                + "    builder.field(\"brace\", \"}\" + '{');\n"
+                + "    builder.endObject();\n"
+                + "}", DocSnippetWriter.extractDoXContent(source));
+        assertNull(DocSnippetWriter.extractDoXContent("public class Foo {}"));
+    }
+
+    @Test
+    public void testWrite() throws IOException, ClassNotFoundException {
+        QueryDSLTypeExtractor extractor = FixtureJar.extractor();
+        Map<String, QueryDSLType> queries = extractor.parseQueries();
+        Map<String, QueryDSLType> filters = extractor.parseFilters();
+        File dir = File.createTempFile("qb-docs", "");
+        dir.delete();
+
+        DocSnippetWriter writer = new DocSnippetWriter(FixtureJar.esDocsDir());
+        writer.write(dir, "fixture", QueryDSLType.TYPE.QUERY, queries, extractor.getBuilderFiles(QueryDSLType.TYPE.QUERY));
+        writer.write(dir, "fixture", QueryDSLType.TYPE.FILTER, filters, extractor.getBuilderFiles(QueryDSLType.TYPE.FILTER));
+
+        assertEquals(queries.size(), new File(dir, "qb-model-fixture/docs/query").list().length);
+        Map<String, Object> term = parse(read(new File(dir, "qb-model-fixture/docs/query/term.json")));
+        assertTrue(term.get("doc").toString().contains("The term query maps to Lucene"));
+        assertTrue(term.get("src").toString().startsWith("public void doXContent("));
+        assertTrue(term.get("src").toString().contains("builder.field(\"boost\", boost);"));
+
+        // no reference page
+        Map<String, Object> bool = parse(read(new File(dir, "qb-model-fixture/docs/query/bool.json")));
+        assertFalse(bool.containsKey("doc"));
+        assertTrue(bool.containsKey("src"));
+
+        Map<String, Object> geoBbox = parse(read(new File(dir, "qb-model-fixture/docs/filter/geo_bbox.json")));
+        assertTrue(geoBbox.get("doc").toString().contains("Geo Bounding Box Filter"));
+    }
+
+    private static Map<String, Object> parse(String json) throws IOException {
+        XContentParser parser = JsonXContent.jsonXContent.createParser(json);
+        try {
+            return parser.mapOrdered();
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static String read(File f) throws IOException {
+        byte[] bytes = new byte[(int) f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return new String(bytes, "UTF-8");
+    }
+}
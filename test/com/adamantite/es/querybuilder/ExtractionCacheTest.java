@@ -0,0 +1,75 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExtractionCacheTest {
+
+    private File dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = File.createTempFile("qb-cache", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        QueryDSLType type = new QueryDSLType("geo_distance", QueryDSLType.TYPE.FILTER);
+        type.setNamedArray(true);
+        type.setNamedArrayValues("lon,lat");
+        type.fields.put("distance", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.STRING, "distance"));
+        type.fields.put("optimizeBbox", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.STRING));
+        type.fields.put("lat", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.DOUBLE, "lat", "latitude"));
+
+        ExtractionCache cache = new ExtractionCache(dir, "jars");
+        assertNull(cache.get("key"));
+        cache.put("key", type);
+
+        QueryDSLType cached = cache.get("key");
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(type, cached);
+        assertTrue(cached.isNamedArray());
+        assertFalse(cached.isNamedObject());
+        assertEquals("lon,lat", cached.getNamedArrayValues());
+        assertEquals(type.fields.keySet(), cached.fields.keySet());
+        assertEquals("distance", cached.fields.get("distance").paramName);
+        assertNull(cached.fields.get("optimizeBbox").paramName);
+        assertEquals("latitude", cached.fields.get("lat").label);
+        assertEquals(QueryDSLType.PARAM_TYPE.DOUBLE, cached.fields.get("lat").type);
+    }
+
+    @Test
+    public void testKeyChangesWithSourcesAndJars() throws IOException {
+        File builder = write("PrefixFilterBuilder.java", "class PrefixFilterBuilder {}");
+        File parser = write("PrefixFilterParser.java", "class PrefixFilterParser {}");
+        String hash = ExtractionCache.hashSources(builder, parser);
+        assertEquals(hash, ExtractionCache.hashSources(builder, parser));
+
+        ExtractionCache cache = new ExtractionCache(dir, "jars");
+        assertEquals(cache.key(hash), new ExtractionCache(dir, "jars").key(hash));
+        assertFalse(cache.key(hash).equals(new ExtractionCache(dir, "other jars").key(hash)));
+
+        write("PrefixFilterBuilder.java", "class PrefixFilterBuilder { String name; }");
+        assertFalse(hash.equals(ExtractionCache.hashSources(builder, parser)));
+    }
+
+    private File write(String name, String content) throws IOException {
+        File f = new File(dir, name);
+        FileWriter writer = new FileWriter(f);
+        writer.write(content);
+        writer.close();
+        return f;
+    }
+}
@@ -0,0 +1,142 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ExtractionMetricsTest {
+
+    private static File jar;
+
+    @BeforeClass
+    public static void buildFixtures() throws IOException {
+        jar = FixtureJar.build();
+    }
+
+    private static QueryDSLTypeExtractor extractor() throws IOException {
+        return new QueryDSLTypeExtractor("1.7.2", FixtureJar.esQuerybuilderDir(), FixtureJar.classLoader(jar));
+    }
+
+    private static ExtractionMetrics.Builder find(ExtractionMetrics metrics, QueryDSLType.TYPE section, String dslName) {
+        for (ExtractionMetrics.Builder b : metrics.getBuilders(section)) {
+            if (dslName.equals(b.getDslName())) return b;
+        }
+        return null;
+    }
+
+    private static int countOther(Map<String, QueryDSLType> types) {
+        int n = 0;
+        for (QueryDSLType type : types.values()) {
+            for (QueryDSLType.Param p : type.fields.values()) {
+                if (p.type == QueryDSLType.PARAM_TYPE.OTHER) n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void testParsed() throws IOException, ClassNotFoundException {
+        QueryDSLTypeExtractor extractor = extractor();
+        Map<String, QueryDSLType> queries = extractor.parseQueries();
+        Map<String, QueryDSLType> filters = extractor.parseFilters();
+        ExtractionMetrics metrics = extractor.getMetrics();
+
+        assertEquals(queries.size(), metrics.getBuilders(QueryDSLType.TYPE.QUERY).size());
+        assertEquals(filters.size(), metrics.getBuilders(QueryDSLType.TYPE.FILTER).size());
+
+        long matches = 0;
+        int unknownTypes = 0;
+        for (QueryDSLType.TYPE section : QueryDSLType.TYPE.values()) {
+            for (ExtractionMetrics.Builder b : metrics.getBuilders(section)) {
+                assertEquals(ExtractionMetrics.Source.PARSED, b.getSource());
+                assertTrue(b.getParseNanos() > 0);
+                assertTrue(b.getNanos() >= b.getParseNanos());
+                assertNull(b.getError());
+                matches += b.getMatches();
+                unknownTypes += b.getUnknownTypes().size();
+            }
+        }
+        long idioms = 0;
+        for (BuilderSourceScanner.Idiom idiom : BuilderSourceScanner.Idiom.values()) {
+            idioms += metrics.getMatches(idiom);
+        }
+        assertEquals(matches, idioms);
+        assertTrue(metrics.getMatches(BuilderSourceScanner.Idiom.FIELD) > 0);
+        assertEquals(countOther(queries) + countOther(filters), unknownTypes);
+
+        ExtractionMetrics.Builder bool = find(metrics, QueryDSLType.TYPE.QUERY, "bool");
+        assertEquals("BoolQueryBuilder.java", bool.file);
+        assertTrue(bool.getUnknownFields().contains("clauses"));
+        assertTrue(find(metrics, QueryDSLType.TYPE.FILTER, "geo_bbox").getUnknownTypes().contains("box"));
+
+        // extracting again replaces the metrics rather than adding to them
+        extractor.parseQueries();
+        assertEquals(bool.getMatches(), find(metrics, QueryDSLType.TYPE.QUERY, "bool").getMatches());
+    }
+
+    @Test
+    public void testCached() throws IOException, ClassNotFoundException {
+        File dir = File.createTempFile("qb-cache", "");
+        dir.delete();
+        for (int run = 0; run < 2; run++) {
+            QueryDSLTypeExtractor extractor = extractor();
+            extractor.setCache(new ExtractionCache(dir, "jars"));
+            extractor.parseFilters();
+            for (ExtractionMetrics.Builder b : extractor.getMetrics().getBuilders(QueryDSLType.TYPE.FILTER)) {
+                assertEquals(run == 0 ? ExtractionMetrics.Source.PARSED : ExtractionMetrics.Source.CACHED, b.getSource());
+                if (run == 1) {
+                    assertEquals(0, b.getParseNanos());
+                    assertEquals(0, b.getMatches());
+                }
+            }
+            assertTrue(extractor.getMetrics().getCacheNanos() > 0);
+        }
+    }
+
+    @Test
+    public void testShared() throws IOException, ClassNotFoundException {
+        SharedBuilders shared = new SharedBuilders();
+        QueryDSLTypeExtractor first = extractor();
+        first.setSharedBuilders(shared);
+        first.parseQueries();
+        QueryDSLTypeExtractor second = extractor();
+        second.setSharedBuilders(shared);
+        second.parseQueries();
+        ExtractionMetrics.Builder term = find(second.getMetrics(), QueryDSLType.TYPE.QUERY, "term");
+        assertEquals(ExtractionMetrics.Source.SHARED, term.getSource());
+        assertEquals(ExtractionMetrics.Source.PARSED, find(first.getMetrics(), QueryDSLType.TYPE.QUERY, "term").getSource());
+    }
+
+    @Test
+    public void testReport() throws IOException, ClassNotFoundException {
+        QueryDSLTypeExtractor extractor = extractor();
+        extractor.parseQueries();
+        extractor.parseFilters();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out);
+        extractor.getMetrics().write(builder, "1.7.2", 5, extractor.getReflectionCache(), null);
+        builder.close();
+        String report = out.toString("UTF-8");
+        assertTrue(report, report.startsWith("{\"format\":1,\"version\":\"1.7.2\",\"millis\":5,\"builders\":{\"query\":[{\"builder\":\"BoolQueryBuilder.java\",\"dslName\":\"bool\",\"source\":\"PARSED\""));
+        assertTrue(report, report.contains("\"reflectionCache\":{\"hits\":"));
+        assertTrue(report, !report.contains("extractionCache"));
+
+        File dir = File.createTempFile("qb-out", "");
+        dir.delete();
+        dir.mkdirs();
+        extractor().extract(dir.getPath());
+        assertTrue(new File(dir, "qb-model-1.7.2.json").isFile());
+        assertTrue(new File(dir, "qb-metrics-1.7.2.json").isFile());
+    }
+}
@@ -0,0 +1,163 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ExtractionRulesTest {
+
+    private static final String RANGED = "{\"format\":1,\"sets\":["
+            + "{\"query\":{\"term\":[{\"field\":\"boost\",\"label\":\"all\"}]}},"
+            + "{\"versions\":{\"from\":\"1.5.0\"},\"query\":{\"term\":[{\"field\":\"boost\",\"label\":\"new\"}]}},"
+            + "{\"versions\":{\"to\":\"1.4.9\"},\"query\":{\"term\":[{\"field\":\"boost\",\"label\":\"old\"}]}}]}";
+
+    private static File jar;
+
+    @BeforeClass
+    public static void buildFixtures() throws IOException {
+        jar = FixtureJar.build();
+    }
+
+    private static ExtractionRules load(String json, String version) throws IOException {
+        return ExtractionRules.load(new ByteArrayInputStream(json.getBytes("UTF-8")), version);
+    }
+
+    private static String rules(String section, String dslName, String rules) {
+        return "{\"format\":1,\"sets\":[{\"" + section + "\":{\"" + dslName + "\":[" + rules + "]}}]}";
+    }
+
+    private static QueryDSLType term() {
+        return term(QueryDSLType.TYPE.QUERY);
+    }
+
+    private static QueryDSLType term(QueryDSLType.TYPE section) {
+        QueryDSLType term = new QueryDSLType("term", section);
+        term.fields.put("value", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.STRING, "value"));
+        term.fields.put("boost", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.FLOAT, "boost"));
+        return term;
+    }
+
+    private static String labels(ExtractionRules rules) {
+        StringBuilder sb = new StringBuilder();
+        for (ExtractionRules.Rule rule : rules.getRules()) {
+            sb.append(rule.label).append(' ');
+        }
+        return sb.toString().trim();
+    }
+
+    @Test
+    public void testVersionRanges() throws IOException {
+        assertEquals("all new", labels(load(RANGED, "1.7.2")));
+        assertEquals("all new", labels(load(RANGED, "1.5")));
+        assertEquals("all old", labels(load(RANGED, "1.4.3")));
+        assertEquals("all new", labels(load(RANGED, "2.0.0-SNAPSHOT")));
+        assertEquals("all", labels(load(RANGED, "fixture")));
+    }
+
+    @Test
+    public void testParseVersion() {
+        assertEquals(0, ExtractionRules.compare(ExtractionRules.parseVersion("1.7"), ExtractionRules.parseVersion("1.7.0")));
+        assertEquals(-1, ExtractionRules.compare(ExtractionRules.parseVersion("1.7.2"), ExtractionRules.parseVersion("1.10.0")));
+        assertEquals(1, ExtractionRules.compare(ExtractionRules.parseVersion("1.7.2-SNAPSHOT"), ExtractionRules.parseVersion("1.7.1")));
+        assertNull(ExtractionRules.parseVersion("fixture"));
+    }
+
+    @Test
+    public void testActions() throws IOException {
+        ExtractionRules rules = load(rules("query", "term",
+                "{\"field\":\"value\",\"paramNamePrefix\":\"term.\",\"type\":\"DOUBLE\",\"label\":\"v\"},"
+                + "{\"addField\":\"boost\",\"type\":\"INTEGER\",\"paramName\":\"b\"},"
+                + "{\"namedObject\":true,\"namedObjectValue\":false}"), "1.7.2");
+        QueryDSLType term = term();
+        assertEquals(3, rules.apply(term));
+
+        QueryDSLType.Param value = term.fields.get("value");
+        assertEquals("term.value", value.paramName);
+        assertEquals(QueryDSLType.PARAM_TYPE.DOUBLE, value.type);
+        assertEquals("v", value.label);
+        assertEquals(QueryDSLType.PARAM_TYPE.INTEGER, term.fields.get("boost").type);
+        assertEquals("b", term.fields.get("boost").paramName);
+
+        QueryDSLType cleared = term();
+        assertEquals(1, load(rules("query", "term", "{\"clearFields\":true}"), "1.7.2").apply(cleared));
+        assertTrue(cleared.fields.isEmpty());
+
+        // the sections are separate
+        QueryDSLType filter = term(QueryDSLType.TYPE.FILTER);
+        assertEquals(0, rules.apply(filter));
+        assertEquals("value", filter.fields.get("value").paramName);
+    }
+
+    @Test
+    public void testUnmatched() throws IOException {
+        ExtractionRules rules = load(rules("query", "term",
+                "{\"field\":\"missing\",\"label\":\"x\"},{\"field\":\"boost\",\"label\":\"y\"}]},\"filter\":{\"term\":["
+                + "{\"clearFields\":true}"), "1.7.2");
+        assertEquals(3, rules.getUnmatched().size());
+        QueryDSLType term = term();
+        assertEquals(1, rules.apply(term));
+        assertEquals(1, rules.apply(term()));
+
+        List<ExtractionRules.Rule> unmatched = rules.getUnmatched();
+        assertEquals(2, unmatched.size());
+        assertEquals("missing", unmatched.get(0).field);
+        assertEquals(QueryDSLType.TYPE.FILTER, unmatched.get(1).section);
+        assertEquals(2, rules.getRules().get(1).getMatches());
+        assertEquals(2, term.fields.size());
+    }
+
+    @Test
+    public void testInvalidRules() throws IOException {
+        String[] invalid = {
+                "{\"field\":\"value\",\"addField\":\"boost\",\"type\":\"STRING\"}",
+                "{\"addField\":\"boost\"}",
+                "{\"field\":\"value\",\"type\":\"NOT_A_TYPE\"}",
+                "{\"paramName\":\"value\"}",
+                "{\"field\":\"value\",\"lable\":\"typo\"}",
+                "{}"
+        };
+        for (String rule : invalid) {
+            try {
+                load(rules("query", "term", rule), "1.7.2");
+                fail(rule);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            load("{\"format\":99,\"sets\":[]}", "1.7.2");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testDefaultRulesOnFixture() throws IOException, ClassNotFoundException {
+        QueryDSLTypeExtractor extractor = new QueryDSLTypeExtractor("1.7.2", FixtureJar.esQuerybuilderDir(), FixtureJar.classLoader(jar));
+        Map<String, QueryDSLType> queries = extractor.parseQueries();
+        Map<String, QueryDSLType> filters = extractor.parseFilters();
+
+        assertEquals("minimum_should_match.low_freq", queries.get("common").fields.get("lowFreqMinimumShouldMatch").paramName);
+        assertEquals("include", queries.get("mlt").fields.get("include").paramName);
+        assertEquals("zero_terms_query", queries.get("match").fields.get("zeroTermsQuery").paramName);
+        assertEquals(QueryDSLType.PARAM_TYPE.OPTIMIZE_BBOX, filters.get("geo_distance").fields.get("optimizeBbox").type);
+        assertFalse(filters.get("geo_distance_range").namedObject);
+        assertEquals("left", filters.get("geo_bbox").fields.get("top_left[0]").label);
+
+        // the fixture has no template query
+        for (ExtractionRules.Rule rule : extractor.getRules().getUnmatched()) {
+            assertEquals(rule.toString(), "template", rule.dslName);
+        }
+        assertEquals(5, extractor.getRules().getUnmatched().size());
+    }
+}
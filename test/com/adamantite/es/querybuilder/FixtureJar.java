@@ -0,0 +1,232 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Builds a small stand-in for the elasticsearch jar out of the builder and parser sources in
+ * test/fixtures/es-src, so that the extractor can be tested and benchmarked without an
+ * elasticsearch checkout.
+ *
+ * The fixture classes live in org.elasticsearch.index.query, same as the real ones, so the
+ * class loader returned by {@link #classLoader(File)} loads that package from the fixture jar
+ * before asking its parent. A loader which asks its parent first, such as an {@link IndexedJarClassLoader}, gets
+ * {@link #withoutFixtureClasses()} as its parent instead.
+ */
+public class FixtureJar {
+
+    public static final String QUERY_PACKAGE = "org.elasticsearch.index.query.";
+
+    /**
+     * The root of the fixture source tree, laid out like an elasticsearch source checkout.
+     * Found relative to the project root or the benchmarks module, and can be overridden with -Dqb.fixtures=...
+     */
+    public static String esSrcHome() {
+        String dir = System.getProperty("qb.fixtures");
+        if (dir != null) return dir;
+        return new File("test/fixtures/es-src").isDirectory() ? "test/fixtures/es-src" : "../test/fixtures/es-src";
+    }
+
+    public static String esQuerybuilderDir() {
+        return esSrcHome() + "/src/main/java/org/elasticsearch/index/query";
+    }
+
+    /**
+     * The saved reference pages of some of the fixture types, next to the fixture source tree.
+     */
+    public static File esDocsDir() {
+        return new File(new File(esSrcHome()).getAbsoluteFile().getParentFile(), "es-docs");
+    }
+
+    private static File jar;
+
+    private static CompiledModel model;
+
+    /**
+     * Compiles the fixture sources against the current classpath and packages them into a jar in a temp dir,
+     * once per JVM. The temp dir is deleted when the JVM exits.
+     */
+    public static synchronized File build() throws IOException {
+        if (jar == null) jar = compile();
+        return jar;
+    }
+
+    /**
+     * An extractor of the fixture types, with a class loader of its own.
+     */
+    public static QueryDSLTypeExtractor extractor() throws IOException {
+        return new QueryDSLTypeExtractor("fixture", esQuerybuilderDir(), classLoader(build()));
+    }
+
+    /**
+     * The fixture types compiled, shared between tests since a CompiledModel is immutable.
+     */
+    public static synchronized CompiledModel model() throws IOException, ClassNotFoundException {
+        if (model == null) {
+            QueryDSLTypeExtractor extractor = extractor();
+            model = CompiledModel.compile(extractor.parseQueries(), extractor.parseFilters());
+        }
+        return model;
+    }
+
+    private static File compile() throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) throw new IllegalStateException("A JDK is required to build the fixture jar");
+
+        File tmp = File.createTempFile("qb-fixture", "");
+        tmp.delete();
+        tmp.mkdirs();
+        tmp.deleteOnExit();
+        File classes = new File(tmp, "classes");
+        classes.mkdirs();
+
+        List<String> args = new ArrayList<String>();
+        args.add("-nowarn");
+        args.add("-classpath");
+        args.add(System.getProperty("java.class.path"));
+        args.add("-d");
+        args.add(classes.getPath());
+        for (File f : new File(esQuerybuilderDir()).listFiles()) {
+            if (f.getName().endsWith(".java")) args.add(f.getPath());
+        }
+        if (compiler.run(null, null, null, args.toArray(new String[args.size()])) != 0) {
+            throw new IllegalStateException("Couldn't compile fixtures in " + esQuerybuilderDir());
+        }
+
+        deleteOnExit(classes);
+
+        File jar = new File(tmp, "elasticsearch-fixture.jar");
+        jar.deleteOnExit();
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            addEntries(out, classes, "");
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+
+    /**
+     * Registers a directory before its content, as files registered later are deleted first.
+     */
+    private static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        File[] children = f.listFiles();
+        if (children == null) return;
+        for (File child : children) {
+            deleteOnExit(child);
+        }
+    }
+
+    private static void addEntries(JarOutputStream out, File dir, String prefix) throws IOException {
+        for (File f : dir.listFiles()) {
+            if (f.isDirectory()) {
+                out.putNextEntry(new JarEntry(prefix + f.getName() + "/"));
+                out.closeEntry();
+                addEntries(out, f, prefix + f.getName() + "/");
+            } else {
+                out.putNextEntry(new JarEntry(prefix + f.getName()));
+                InputStream in = new FileInputStream(f);
+                try {
+                    byte[] buf = new byte[8192];
+                    int n;
+                    while ((n = in.read(buf)) > 0) {
+                        out.write(buf, 0, n);
+                    }
+                } finally {
+                    in.close();
+                }
+                out.closeEntry();
+            }
+        }
+    }
+
+    public static ClassLoader classLoader(File jar) throws IOException {
+        return new FixtureClassLoader(new URL[]{jar.toURI().toURL()}, FixtureJar.class.getClassLoader());
+    }
+
+    /**
+     * The class loader of this class without the fixture's classes, their inner classes and their class files,
+     * for a loader of the fixture jar which asks its parent first. The elasticsearch jar on the class path has
+     * classes of the same names, so such a loader would never read the fixture jar otherwise. What the fixture
+     * classes extend still comes from the class path.
+     */
+    public static ClassLoader withoutFixtureClasses() {
+        Set<String> classNames = new HashSet<String>();
+        for (File f : new File(esQuerybuilderDir()).listFiles()) {
+            if (f.getName().endsWith(".java")) classNames.add(QUERY_PACKAGE + f.getName().replace(".java", ""));
+        }
+        return new WithoutFixtureClasses(classNames, FixtureJar.class.getClassLoader());
+    }
+
+    private static class FixtureClassLoader extends URLClassLoader {
+        FixtureClassLoader(URL[] urls, ClassLoader parent) {
+            super(urls, parent);
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(QUERY_PACKAGE)) return super.loadClass(name, resolve);
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                try {
+                    c = findClass(name);
+                } catch (ClassNotFoundException e) {
+                    return super.loadClass(name, resolve);
+                }
+            }
+            if (resolve) resolveClass(c);
+            return c;
+        }
+    }
+
+    private static final class WithoutFixtureClasses extends ClassLoader {
+        private final Set<String> hidden;
+
+        WithoutFixtureClasses(Set<String> classNames, ClassLoader parent) {
+            super(parent);
+            this.hidden = classNames;
+        }
+
+        private boolean isHidden(String className) {
+            int inner = className.indexOf('$');
+            return hidden.contains(inner < 0 ? className : className.substring(0, inner));
+        }
+
+        private boolean isHiddenResource(String name) {
+            return name.endsWith(".class") && isHidden(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (isHidden(name)) throw new ClassNotFoundException(name);
+            return super.loadClass(name, resolve);
+        }
+
+        @Override
+        public URL getResource(String name) {
+            return isHiddenResource(name) ? null : super.getResource(name);
+        }
+
+        @Override
+        public Enumeration<URL> getResources(String name) throws IOException {
+            return isHiddenResource(name) ? Collections.<URL>emptyEnumeration() : super.getResources(name);
+        }
+    }
+}
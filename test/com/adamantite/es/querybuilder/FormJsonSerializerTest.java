@@ -0,0 +1,167 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The expected json is what serializeFormToJson in query-dsl-builder.html returns for the same form inputs,
+ * compacted with JSON.stringify.
+ */
+public class FormJsonSerializerTest {
+
+    private static FormJsonSerializer serializer;
+
+    @BeforeClass
+    public static void compileFixtures() throws IOException, ClassNotFoundException {
+        serializer = new FormJsonSerializer(FixtureJar.model());
+    }
+
+    @Test
+    public void testParams() throws IOException {
+        assertQuery("{\"bool\":{\"boost\":1.5,\"disable_coord\":\"true\",\"minimum_should_match\":\"2\",\"_name\":\"q\"}}",
+                "bool-boost", "1.5",
+                "bool-disable_coord", "true",
+                "bool-minimum_should_match", "2",
+                "bool-_name", "q",
+                "bool-adjust_pure_negative", "");
+        assertQuery("{\"mlt\":{\"fields\":[\"a\",\"b\"],\"boost\":null,\"min_term_freq\":1,\"stop_words\":[\"the\"]}}",
+                "mlt-fields[]", "a",
+                "mlt-fields[]", "b",
+                "mlt-boost", "Infinity",
+                "mlt-min_term_freq", "1e3",
+                "mlt-stop_words[]", "the");
+        assertQuery("{}");
+    }
+
+    @Test
+    public void testNamedObjects() throws IOException {
+        assertQuery("{\"match\":{\"message\":{\"analyzer\":\"standard\",\"boost\":2,\"cutoff_frequency\":null,\"max_expansions\":10,"
+                + "\"operator\":\"AND\",\"prefix_length\":-3,\"query\":\"quick fox\"}}}",
+                "match-_namedObject", "message",
+                "match-@match@-analyzer", "standard",
+                "match-@match@-boost", "2",
+                "match-@match@-cutoff_frequency", "x",
+                "match-@match@-max_expansions", "10abc",
+                "match-@match@-slop", "",
+                "match-@match@-operator", "AND",
+                "match-@match@-prefix_length", " -3.9e2",
+                "match-@match@-query", "quick fox");
+        assertQuery("{\"common\":{\"body\":{\"minimum_should_match.low_freq\":\"2\",\"cutoff_frequency\":0.001,\"high_freq_operator\":\"AND\"}}}",
+                "common-_namedObject", "body",
+                "common-@common@-minimum_should_match.low_freq", "2",
+                "common-@common@-cutoff_frequency", "0.001",
+                "common-@common@-high_freq_operator", "AND");
+        // the named object input alone creates the query
+        assertQuery("{\"term\":{}}", "term-_namedObject", "user");
+    }
+
+    @Test
+    public void testNestedBuilders() throws IOException {
+        assertQuery("{\"bool\":{\"boost\":1,\"must\":[{\"ids\":{\"boost\":5,\"values\":[\"1\",\"2\"]}},{\"query_string\":{\"phrase_slop\":31,\"query\":\"a AND b\"}},"
+                + "{\"mlt\":{\"like_text\":\"text\"}}],\"must_not\":[{\"mlt\":{\"max_query_terms\":12}}],\"minimum_should_match\":\"1\"}}",
+                "bool-boost", "1",
+                "bool-must[0]-ids-boost", ".5e1x",
+                "bool-must[0]-ids-values[]", "1",
+                "bool-must[0]-ids-values[]", "2",
+                "bool-must[2]-query_string-phrase_slop", "0x1f",
+                "bool-must[2]-query_string-query", "a AND b",
+                "bool-must[3]-mlt-like_text", "text",
+                "bool-must_not[0]-mlt-max_query_terms", "+12",
+                "bool-minimum_should_match", "1");
+        assertQuery("{\"boosting\":{\"boost\":2.5,\"negative\":{\"prefix\":{\"_placeholder\":{\"prefix\":\"ki\"}}},\"negative_boost\":0.2,"
+                + "\"positive\":{\"term\":{\"user\":{\"boost\":0,\"_name\":\"t\"}}}}}",
+                "boosting-boost", "2.50",
+                "boosting-negative-prefix-_namedObject", "",
+                "boosting-negative-prefix-@boosting-negative-prefix@-prefix", "ki",
+                "boosting-negative_boost", "0.2",
+                "boosting-positive-term-_namedObject", "user",
+                "boosting-positive-term-@boosting-positive-term@-boost", "-0",
+                "boosting-positive-term-@boosting-positive-term@-_name", "t");
+    }
+
+    @Test
+    public void testFilters() throws IOException {
+        assertFilter("{\"bool\":{\"must\":[{\"terms\":{}},{\"geo_distance\":{\"pin.location\":[\"-70\",\"40\"],\"distance\":\"12km\",\"distance_type\":\"arc\"}}],"
+                + "\"should\":[{\"ids\":{\"values\":[\"1\"]}}],\"_name\":\"f\"}}",
+                "bool-_cache", "true",
+                "bool-must[0]-terms-_namedObject", "tags",
+                "bool-must[1]-geo_distance-_namedArray", "pin.location",
+                "bool-must[1]-geo_distance-_namedArrayValues", "-70,40",
+                "bool-must[1]-geo_distance-pin.location[]", "-70",
+                "bool-must[1]-geo_distance-pin.location[]", "40",
+                "bool-must[1]-geo_distance-distance", "12km",
+                "bool-must[1]-geo_distance-distance_type", "arc",
+                "bool-should[0]-ids-values[]", "1",
+                "bool-_name", "f");
+        assertFilter("{\"terms\":{\"tags\":{\"value\":\"blue\",\"execution\":\"plain\"}}}",
+                "terms-_namedObject", "tags",
+                "terms-@terms@-value", "blue",
+                "terms-@terms@-_cache", "true",
+                "terms-@terms@-execution", "plain");
+    }
+
+    @Test
+    public void testNamedObjectInList() throws IOException {
+        assertQuery("{\"bool\":{\"must\":[{\"term\":{\"user\":{\"boost\":2}}},{\"term\":{\"group\":{\"boost\":3}}}]}}",
+                "bool-must[0]-term-_namedObject", "user",
+                "bool-must[0]-term-@bool-must[0]-term@-boost", "2",
+                "bool-must[1]-term-_namedObject", "group",
+                "bool-must[1]-term-@bool-must[1]-term@-boost", "3");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUngroupedInputs() throws IOException {
+        serializer.toJSON(new String[]{"bool-must[0]-ids-boost", "bool-boost", "bool-must[0]-ids-_name"}, new String[]{"1", "2", "x"}, QueryDSLType.TYPE.QUERY);
+    }
+
+    @Test
+    public void testParseFloat() {
+        assertEquals(1.5, FormJsonSerializer.parseFloat("1.5"), 0);
+        assertEquals(2, FormJsonSerializer.parseFloat(" 2"), 0);
+        assertEquals(-0.5, FormJsonSerializer.parseFloat("-.5"), 0);
+        assertEquals(1000, FormJsonSerializer.parseFloat("1e3"), 0);
+        assertEquals(1, FormJsonSerializer.parseFloat("1e"), 0);
+        assertEquals(100, FormJsonSerializer.parseFloat("1.e2"), 0);
+        assertEquals(3.25, FormJsonSerializer.parseFloat("+3.25x"), 0);
+        assertEquals(Double.NEGATIVE_INFINITY, FormJsonSerializer.parseFloat("-Infinity"), 0);
+        assertEquals(0, FormJsonSerializer.parseFloat("0x10"), 0);
+        assertEquals(1, FormJsonSerializer.parseFloat("1_000"), 0);
+        assertTrue(Double.isNaN(FormJsonSerializer.parseFloat(".")));
+        assertTrue(Double.isNaN(FormJsonSerializer.parseFloat("abc")));
+    }
+
+    @Test
+    public void testParseInt() {
+        assertEquals(10, FormJsonSerializer.parseInt("10abc"), 0);
+        assertEquals(31, FormJsonSerializer.parseInt("0x1f"), 0);
+        assertEquals(-16, FormJsonSerializer.parseInt("-0X10"), 0);
+        assertEquals(-12, FormJsonSerializer.parseInt("  -12.9"), 0);
+        assertEquals(1, FormJsonSerializer.parseInt("1e3"), 0);
+        assertEquals(7, FormJsonSerializer.parseInt("007"), 0);
+        assertTrue(Double.isNaN(FormJsonSerializer.parseInt("+")));
+        assertTrue(Double.isNaN(FormJsonSerializer.parseInt("abc")));
+    }
+
+    private static void assertQuery(String expected, String... pairs) throws IOException {
+        assertJSON(expected, QueryDSLType.TYPE.QUERY, pairs);
+    }
+
+    private static void assertFilter(String expected, String... pairs) throws IOException {
+        assertJSON(expected, QueryDSLType.TYPE.FILTER, pairs);
+    }
+
+    private static void assertJSON(String expected, QueryDSLType.TYPE section, String... pairs) throws IOException {
+        String[] names = new String[pairs.length / 2];
+        String[] values = new String[pairs.length / 2];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = pairs[2 * i];
+            values[i] = pairs[2 * i + 1];
+        }
+        assertEquals(expected, serializer.toJSON(names, values, section));
+    }
+}
@@ -0,0 +1,83 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class FrozenQueryDSLTypeTest {
+
+    private static File jar;
+    private static Map<String, QueryDSLType> queries;
+    private static Map<String, QueryDSLType> filters;
+
+    @BeforeClass
+    public static void parseFixtures() throws IOException, ClassNotFoundException {
+        jar = FixtureJar.build();
+        QueryDSLTypeExtractor extractor = newExtractor("1.7.2");
+        queries = extractor.parseQueries();
+        filters = extractor.parseFilters();
+    }
+
+    private static QueryDSLTypeExtractor newExtractor(String version) throws IOException {
+        return new QueryDSLTypeExtractor(version, FixtureJar.esQuerybuilderDir(), FixtureJar.classLoader(jar));
+    }
+
+    @Test
+    public void testThawedModelIsUnchanged() throws IOException {
+        ModelInterner interner = new ModelInterner();
+        Map<String, QueryDSLType> thawedQueries = thaw(interner.freeze(queries));
+        Map<String, QueryDSLType> thawedFilters = thaw(interner.freeze(filters));
+        assertEquals(QueryDSLTypeExtractor.toJSON(queries, filters, true, true), QueryDSLTypeExtractor.toJSON(thawedQueries, thawedFilters, true, true));
+    }
+
+    @Test
+    public void testFieldLookup() {
+        FrozenQueryDSLType frozen = new ModelInterner().freeze(queries.get("bool"));
+        QueryDSLType bool = queries.get("bool");
+        assertEquals(bool.fields.size(), frozen.size());
+        int i = 0;
+        for (Map.Entry<String, QueryDSLType.Param> e : bool.fields.entrySet()) {
+            assertEquals(e.getKey(), frozen.getFieldName(i));
+            assertSame(frozen.getParam(i), frozen.getParam(e.getKey()));
+            assertEquals(e.getValue().type, frozen.getParam(i).getType());
+            assertEquals(e.getValue().paramName, frozen.getParam(i).getParamName());
+            i++;
+        }
+        assertNull(frozen.getParam("noSuchField"));
+    }
+
+    @Test
+    public void testParamsAreShared() throws IOException, ClassNotFoundException {
+        ModelInterner interner = new ModelInterner();
+        Map<String, FrozenQueryDSLType> frozenQueries = interner.freeze(queries);
+        interner.freeze(filters);
+        assertSame(frozenQueries.get("bool").getParam("boost"), frozenQueries.get("term").getParam("boost"));
+
+        // another version of the same builders adds nothing
+        int params = interner.getParamCount();
+        int names = interner.getNameCount();
+        QueryDSLTypeExtractor other = newExtractor("1.7.1");
+        Map<String, FrozenQueryDSLType> otherQueries = interner.freeze(other.parseQueries());
+        interner.freeze(other.parseFilters());
+        assertEquals(params, interner.getParamCount());
+        assertEquals(names, interner.getNameCount());
+        assertEquals(frozenQueries, otherQueries);
+        assertSame(frozenQueries.get("bool").getParam(0), otherQueries.get("bool").getParam(0));
+    }
+
+    private static Map<String, QueryDSLType> thaw(Map<String, FrozenQueryDSLType> frozen) {
+        Map<String, QueryDSLType> result = new LinkedHashMap<String, QueryDSLType>();
+        for (Map.Entry<String, FrozenQueryDSLType> e : frozen.entrySet()) {
+            result.put(e.getKey(), e.getValue().thaw());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,79 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates the java api of the fixture model with {@link JavaBuilderGenerator} and compiles it, together with
+ * extra classes using it, into a class loader. For the tests and benchmarks of the generated code.
+ */
+public class GeneratedSources {
+
+    public static final String PACKAGE = JavaBuilderGenerator.packageFor("fixture");
+
+    public final File sourceDir;
+    public final File classDir;
+
+    private final List<File> files = new ArrayList<File>();
+
+    public GeneratedSources(Map<String, QueryDSLType> queries, Map<String, QueryDSLType> filters) throws IOException {
+        sourceDir = tempDir("qb-java");
+        classDir = tempDir("qb-classes");
+        files.addAll(new JavaBuilderGenerator(PACKAGE).write(sourceDir, "fixture", queries, filters));
+    }
+
+    public static GeneratedSources forFixtures() throws IOException, ClassNotFoundException {
+        QueryDSLTypeExtractor extractor = FixtureJar.extractor();
+        return new GeneratedSources(extractor.parseQueries(), extractor.parseFilters());
+    }
+
+    /**
+     * Adds a class to the generated package, e.g. one that builds a query with the generated api.
+     */
+    public void add(String className, String source) throws IOException {
+        File file = new File(sourceDir, PACKAGE.replace('.', File.separatorChar) + File.separator + className + ".java");
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(source);
+        } finally {
+            out.close();
+        }
+        files.add(file);
+    }
+
+    /**
+     * Compiles the sources against the class path of this class, and loads them.
+     */
+    public ClassLoader compile() throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) throw new IllegalStateException("No java compiler, run on a JDK");
+        List<String> args = new ArrayList<String>(Arrays.asList("-nowarn", "-encoding", "UTF-8",
+                "-cp", System.getProperty("java.class.path"), "-d", classDir.getPath()));
+        for (File f : files) {
+            args.add(f.getPath());
+        }
+        if (compiler.run(null, null, null, args.toArray(new String[args.size()])) != 0) {
+            throw new IllegalStateException("The generated sources in " + sourceDir + " don't compile");
+        }
+        return new URLClassLoader(new URL[]{classDir.toURI().toURL()}, GeneratedSources.class.getClassLoader());
+    }
+
+    private static File tempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+}
@@ -0,0 +1,99 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JavaBuilderGeneratorTest {
+
+    private static QueryDSLTypeExtractor extractor;
+
+    @BeforeClass
+    public static void parseFixtures() throws IOException, ClassNotFoundException {
+        extractor = FixtureJar.extractor();
+    }
+
+    private static GeneratedSources generate() throws IOException, ClassNotFoundException {
+        return new GeneratedSources(extractor.parseQueries(), extractor.parseFilters());
+    }
+
+    @Test
+    public void testNames() {
+        assertEquals("minimumShouldMatchLowFreq", JavaBuilderGenerator.camelCase("minimum_should_match.low_freq"));
+        assertEquals("name", JavaBuilderGenerator.camelCase("_name"));
+        assertEquals("bottomRight0", JavaBuilderGenerator.camelCase("bottom_right[0]"));
+        assertEquals("MINIMUM_SHOULD_MATCH", JavaBuilderGenerator.constantName("minimumShouldMatch"));
+        assertEquals("QueryStringQuery", JavaBuilderGenerator.className(new QueryDSLType("query_string", QueryDSLType.TYPE.QUERY)));
+        assertEquals("com.adamantite.es.querybuilder.dsl.v1_7_2", JavaBuilderGenerator.packageFor("1.7.2"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGeneratedApi() throws Exception {
+        GeneratedSources sources = generate();
+        assertEquals(extractor.parseQueries().size() + extractor.parseFilters().size(),
+                new File(sources.sourceDir, GeneratedSources.PACKAGE.replace('.', '/')).list().length);
+        sources.add("Examples", "package " + GeneratedSources.PACKAGE + ";\n"
+                + "import com.adamantite.es.querybuilder.GeneratedDSLType;\n"
+                + "public class Examples implements java.util.concurrent.Callable<GeneratedDSLType[]> {\n"
+                + "    public GeneratedDSLType[] call() {\n"
+                + "        return new GeneratedDSLType[]{\n"
+                + "            new BoolQuery().must(new TermQuery(\"user\").boost(2f))\n"
+                + "                .must(new MatchQuery(\"message\").query(\"this is a test\").operator(GeneratedDSLType.Operator.AND))\n"
+                + "                .should(new PrefixQuery(\"user\").prefix(\"ki\")).boost(1.5f).minimumShouldMatch(\"1\").name(\"q\"),\n"
+                + "            new IdsQuery().values(\"1\", \"2\").types(\"doc\"),\n"
+                + "            new GeoDistanceFilter(\"pin\", 1.5, 2).distance(\"12km\"),\n"
+                + "            new TermsFilter(\"user\", new String[]{\"a\", \"b\"}).execution(\"bool\").cache(true),\n"
+                + "            new BoostingQuery().positive(new TermQuery(\"a\")).negative(new TermQuery(\"b\")).negativeBoost(0.2f),\n"
+                + "            new QueryStringQuery().query(\"say \\\"hi\\\"\\n\\u00e9\").phraseSlop(-3),\n"
+                + "            new CommonQuery(\"body\").query(\"nelly the elephant\").minimumShouldMatchLowFreq(\"2\").minimumShouldMatchHighFreq(\"3\"),\n"
+                + "            new GeoBboxFilter(\"pin\").topLeft(-74.1, 40.73).bottomRight(-71.12, 40.01).cache(true),\n"
+                + "        };\n"
+                + "    }\n"
+                + "}\n");
+        ClassLoader classLoader = sources.compile();
+        GeneratedDSLType[] examples = ((Callable<GeneratedDSLType[]>) classLoader.loadClass(GeneratedSources.PACKAGE + ".Examples").getDeclaredConstructor().newInstance()).call();
+
+        assertEquals("{\"bool\":{\"boost\":1.5,\"minimum_should_match\":\"1\",\"_name\":\"q\","
+                + "\"must\":[{\"term\":{\"user\":{\"boost\":2.0}}},{\"match\":{\"message\":{\"operator\":\"AND\",\"query\":\"this is a test\"}}}],"
+                + "\"should\":[{\"prefix\":{\"user\":{\"prefix\":\"ki\"}}}]}}", examples[0].toString());
+        assertEquals("{\"ids\":{\"types\":[\"doc\"],\"values\":[\"1\",\"2\"]}}", examples[1].toString());
+        assertEquals("{\"geo_distance\":{\"pin\":[1.5,2.0],\"distance\":\"12km\"}}", examples[2].toString());
+        assertEquals("{\"terms\":{\"user\":[\"a\",\"b\"],\"_cache\":true,\"execution\":\"bool\"}}", examples[3].toString());
+        assertEquals("{\"boosting\":{\"negative_boost\":0.2,\"negative\":{\"term\":{\"b\":{}}},\"positive\":{\"term\":{\"a\":{}}}}}", examples[4].toString());
+        assertEquals("{\"query_string\":{\"phrase_slop\":-3,\"query\":\"say \\\"hi\\\"\\n\u00e9\"}}", examples[5].toString());
+        // dotted params in the object of their prefix, indexed ones as an array
+        assertEquals("{\"common\":{\"body\":{\"minimum_should_match\":{\"high_freq\":\"3\",\"low_freq\":\"2\"},"
+                + "\"query\":\"nelly the elephant\"}}}", examples[6].toString());
+        assertEquals("{\"geo_bbox\":{\"pin\":{\"bottom_right\":[-71.12,40.01],\"_cache\":true,\"top_left\":[-74.1,40.73]}}}",
+                examples[7].toString());
+
+        // written to a reused buffer, one after the other
+        JsonByteBuffer buffer = new JsonByteBuffer(16);
+        examples[1].writeTo(buffer);
+        examples[1].writeTo(buffer.reset());
+        assertEquals(examples[1].toString(), buffer.toString());
+    }
+
+    @Test
+    public void testFilterIsNotAQuery() throws IOException, ClassNotFoundException {
+        GeneratedSources sources = generate();
+        sources.add("Wrong", "package " + GeneratedSources.PACKAGE + ";\n"
+                + "public class Wrong {\n"
+                + "    Object wrong = new BoolQuery().must(new IdsFilter());\n"
+                + "}\n");
+        try {
+            sources.compile();
+            fail("A filter was accepted as a query");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("don't compile"));
+        }
+    }
+}
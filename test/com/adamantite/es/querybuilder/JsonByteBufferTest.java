@@ -0,0 +1,78 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class JsonByteBufferTest {
+
+    @Test
+    public void testSeparators() {
+        JsonByteBuffer out = new JsonByteBuffer();
+        out.startObject().name("a").value(1).name(JsonByteBuffer.encodeName("b")).startArray().value(true).value(false).nullValue()
+                .startObject().endObject().startArray().endArray().endArray().name("c").startObject().name("d").value("e").endObject().endObject();
+        assertEquals("{\"a\":1,\"b\":[true,false,null,{},[]],\"c\":{\"d\":\"e\"}}", out.toString());
+
+        out.reset().startArray().value(2).endArray();
+        assertEquals("[2]", out.toString());
+    }
+
+    @Test
+    public void testNumbers() {
+        JsonByteBuffer out = new JsonByteBuffer();
+        out.startArray().value(0).value(-7).value(1234567890123L).value(Long.MIN_VALUE).value(Long.MAX_VALUE)
+                .value(1.5f).value(2f).value(0.1).value(1e20).endArray();
+        assertEquals("[0,-7,1234567890123," + Long.MIN_VALUE + "," + Long.MAX_VALUE + ",1.5,2.0,0.1,1.0E20]", out.toString());
+        try {
+            out.value(Float.NaN);
+            fail("NaN isn't json");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            out.value(Double.POSITIVE_INFINITY);
+            fail("Infinity isn't json");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStrings() throws Exception {
+        JsonByteBuffer out = new JsonByteBuffer(16);
+        out.value("q\"b\\s/\n\r\t\b\f\u0001\u001f \u00e9\u20ac\ud83d\ude00");
+        assertEquals("\"q\\\"b\\\\s/\\n\\r\\t\\b\\f\\u0001\\u001f \u00e9\u20ac\ud83d\ude00\"", out.toString());
+
+        // any other string is encoded as String.getBytes does
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            char[] chars = new char[random.nextInt(300)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) (random.nextBoolean() ? ' ' + random.nextInt(90) : random.nextInt(0xd7ff - 0xa0) + 0xa0);
+                if (chars[j] == '"' || chars[j] == '\\') chars[j] = 'x';
+            }
+            String s = new String(chars);
+            out.reset().value(s);
+            assertArrayEquals(s, ("\"" + s + "\"").getBytes("UTF-8"), out.toByteArray());
+        }
+    }
+
+    @Test
+    public void testObjects() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("list", Arrays.asList("a", 1, 2.5f));
+        map.put("array", new int[]{1, 2});
+        map.put("op", GeneratedDSLType.Operator.OR);
+        map.put("none", null);
+        JsonByteBuffer out = new JsonByteBuffer();
+        out.value((Object) map);
+        assertEquals("{\"list\":[\"a\",1,2.5],\"array\":[1,2],\"op\":\"OR\",\"none\":null}", out.toString());
+    }
+}
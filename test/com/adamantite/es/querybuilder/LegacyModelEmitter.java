@@ -0,0 +1,72 @@
+package com.adamantite.es.querybuilder;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * QueryDSLTypeExtractor.toJSON as it was before ModelWriter: the whole model built in one XContentBuilder
+ * and returned as a String. Kept as the reference for ModelWriterTest, the model has to stay byte for byte the same.
+ */
+public class LegacyModelEmitter {
+
+    public static String toJSON(Map<String, QueryDSLType> queries, Map<String, QueryDSLType> filters, boolean outputJavaFields, boolean prettyprint) throws IOException {
+        XContentBuilder builder = XContentBuilder.builder(JsonXContent.jsonXContent);
+        if (prettyprint) builder.prettyPrint();
+        builder.startObject();
+        builder.startObject("query");
+        output(queries, outputJavaFields, builder);
+        builder.endObject();
+        builder.startObject("filter");
+        output(filters, outputJavaFields, builder);
+        builder.endObject();
+        builder.endObject();
+        return builder.string();
+    }
+
+    private static void output(Map<String, QueryDSLType> map, boolean outputJavaFields, XContentBuilder builder) throws IOException {
+        for (QueryDSLType type : map.values()) {
+            builder.startObject(type.dslName);
+            if (type.isNamedObject()) {
+                builder.field("namedObject", type.namedObject);
+                if (type.isNamedObjectValue()) {
+                    builder.field("namedObjectValue", type.namedObjectValue);
+                }
+            } else if (type.isNamedArray()) {
+                builder.field("namedArray", type.namedArray);
+                if (type.getNamedArrayValues() != null) {
+                    builder.field("namedArrayValues", type.namedArrayValues);
+                }
+            }
+
+            builder.startArray("fields");
+            for (String s : type.fields.keySet()) {
+                QueryDSLType.Param p = type.fields.get(s);
+                if (p.paramName == null || p.type == QueryDSLType.PARAM_TYPE.FILTER_BUILDER
+                    || p.type == QueryDSLType.PARAM_TYPE.QUERY_BUILDER || p.type == QueryDSLType.PARAM_TYPE.LIST_QUERY_BUILDER) continue;
+                builder.startObject();
+                builder.field("name", p.paramName);
+                builder.field("type", p.type);
+                if(p.label != null) builder.field("label", p.label);
+                if (outputJavaFields) builder.field("javaField", s);
+                builder.endObject();
+            }
+            for (String s : type.fields.keySet()) {
+                QueryDSLType.Param p = type.fields.get(s);
+                if (p.paramName == null || (p.type != QueryDSLType.PARAM_TYPE.FILTER_BUILDER
+                    && p.type != QueryDSLType.PARAM_TYPE.QUERY_BUILDER
+                    && p.type != QueryDSLType.PARAM_TYPE.LIST_QUERY_BUILDER))
+                    continue;
+                builder.startObject();
+                builder.field("name", p.paramName);
+                builder.field("type", p.type);
+                if (outputJavaFields) builder.field("javaField", s);
+                builder.endObject();
+            }
+            builder.endArray();
+            builder.endObject();
+        }
+    }
+}
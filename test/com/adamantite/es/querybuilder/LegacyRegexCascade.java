@@ -0,0 +1,79 @@
+package com.adamantite.es.querybuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.elasticsearch.common.lang3.StringUtils;
+
+import com.adamantite.es.querybuilder.BuilderSourceScanner.Idiom;
+import com.adamantite.es.querybuilder.BuilderSourceScanner.Match;
+
+/**
+ * The regex cascade QueryDSLTypeExtractor used before BuilderSourceScanner: every pattern is compiled
+ * per builder and run over the whole source. Kept as the reference implementation for
+ * BuilderSourceScannerTest and ExtractorBenchmark.
+ */
+public class LegacyRegexCascade {
+
+    public static List<Match> scan(String input) {
+        List<Match> result = new ArrayList<Match>();
+
+        Pattern p = Pattern.compile("\\.(?:field|array)\\(\"(.*?)\",\\s*(.*?)\\)");
+        Matcher m = p.matcher(input);
+        while (m.find()) {
+            result.add(new Match(Idiom.FIELD, m.group(1), m.group(2)));
+        }
+
+        p = Pattern.compile("builder\\.startArray\\(\"(.*?)\"\\);\\s*?for \\(.*?: (.*?)\\)", Pattern.DOTALL);
+        m = p.matcher(input);
+        while (m.find()) {
+            result.add(new Match(Idiom.ARRAY_LOOP, m.group(1), m.group(2)));
+        }
+
+        p = Pattern.compile("builder\\.field\\(\"([^\"]*?)\"\\);\\s*?([a-zA-Z]+?)\\.toXContent\\(builder, params\\)", Pattern.DOTALL);
+        m = p.matcher(input);
+        while (m.find()) {
+            result.add(new Match(Idiom.FIELD_TO_XCONTENT, m.group(1), m.group(2)));
+        }
+
+        p = Pattern.compile("doXArrayContent\\(\"(.*?)\", (.*?),");
+        m = p.matcher(input);
+        while (m.find()) {
+            result.add(new Match(Idiom.X_ARRAY_CONTENT, m.group(1), m.group(2)));
+        }
+
+        p = Pattern.compile("builder\\.startArray\\(name\\)((?:\\.value\\(([^)]+)\\))+)\\.endArray\\(\\);");
+        m = p.matcher(input);
+        while (m.find()) {
+            String tmp = m.group(1);
+            List<String> list = new ArrayList<String>();
+            Pattern p2 = Pattern.compile("value\\((.*?)\\)");
+            Matcher m2 = p2.matcher(tmp);
+            while (m2.find()) {
+                list.add(m2.group(1));
+            }
+            result.add(new Match(Idiom.NAMED_ARRAY_VALUES, null, StringUtils.join(list, ",")));
+        }
+
+        p = Pattern.compile("\\.(?:field|array)\\(([^\"]*?),\\s+(.*?)\\)", Pattern.DOTALL);
+        m = p.matcher(input);
+        while (m.find()) {
+            result.add(new Match(Idiom.FIELD_CONSTANT, m.group(1), m.group(2)));
+        }
+
+        p = Pattern.compile("\\.startArray\\(([^\"]*?)\\);.*?for \\(.*?: (.*?)\\)", Pattern.DOTALL);
+        m = p.matcher(input);
+        while (m.find()) {
+            result.add(new Match(Idiom.ARRAY_LOOP_CONSTANT, m.group(1), m.group(2)));
+        }
+
+        p = Pattern.compile("builder\\.field\\((name),\\s*(.*?)\\);");
+        m = p.matcher(input);
+        while (m.find()) {
+            result.add(new Match(Idiom.NAMED_SHORTCUT, m.group(1), m.group(2)));
+        }
+        return result;
+    }
+}
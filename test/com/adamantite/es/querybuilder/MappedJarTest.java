@@ -0,0 +1,146 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MappedJarTest {
+
+    private static File jar;
+
+    @BeforeClass
+    public static void buildFixtures() throws IOException {
+        jar = FixtureJar.build();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static File storedJar(String name, byte[] data) throws IOException {
+        File f = File.createTempFile("qb-stored", ".jar");
+        f.deleteOnExit();
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(f));
+        try {
+            out.setComment("a comment before which the end record has to be found");
+            ZipEntry entry = new ZipEntry(name);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setCrc(crc.getValue());
+            out.putNextEntry(entry);
+            out.write(data);
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
+    @Test
+    public void testSameEntriesAsZipFile() throws IOException {
+        MappedJar mapped = new MappedJar(jar);
+        ZipFile zip = new ZipFile(jar);
+        try {
+            List<String> names = new ArrayList<String>();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                names.add(entry.getName());
+                if (entry.isDirectory()) continue;
+                assertArrayEquals(entry.getName(), readAll(zip.getInputStream(entry)), mapped.readBytes(entry.getName()));
+            }
+            Collections.sort(names);
+            assertEquals(names, mapped.names());
+        } finally {
+            zip.close();
+        }
+        assertNull(mapped.read("no/such/Entry.class"));
+        assertFalse(mapped.contains("no/such/Entry.class"));
+    }
+
+    @Test
+    public void testStoredEntryIsAView() throws IOException {
+        byte[] data = "stored, not deflated".getBytes("UTF-8");
+        MappedJar mapped = new MappedJar(storedJar("a/B.txt", data));
+        ByteBuffer b = mapped.read("a/B.txt");
+        assertTrue(b.isDirect());
+        assertEquals(0, b.position());
+        assertEquals(data.length, b.remaining());
+        assertArrayEquals(data, mapped.readBytes("a/B.txt"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAJar() throws IOException {
+        File f = File.createTempFile("qb-notajar", ".jar");
+        f.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(new byte[100]);
+        out.close();
+        new MappedJar(f);
+    }
+
+    @Test
+    public void testClassLoader() throws Exception {
+        IndexedJarClassLoader loader = new IndexedJarClassLoader(new File[]{jar}, FixtureJar.withoutFixtureClasses());
+        Class<?> c = Class.forName(FixtureJar.QUERY_PACKAGE + "TermQueryParser", false, loader);
+        assertSame(loader, c.getClassLoader());
+        assertEquals("term", loader.loadClass(FixtureJar.QUERY_PACKAGE + "TermQueryParser").getField("NAME").get(null).toString());
+        assertNotNull(c.getPackage());
+
+        URL url = loader.getResource("org/elasticsearch/index/query/TermQueryParser.class");
+        assertEquals("jar", url.getProtocol());
+        assertArrayEquals(new MappedJar(jar).readBytes("org/elasticsearch/index/query/TermQueryParser.class"), readAll(url.openStream()));
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void testClassNotFound() throws IOException, ClassNotFoundException {
+        new IndexedJarClassLoader(new File[]{jar}, null).loadClass(FixtureJar.QUERY_PACKAGE + "NoSuchQueryBuilder");
+    }
+
+    @Test
+    public void testSameModelAsUrlClassLoader() throws IOException, ClassNotFoundException {
+        String dir = FixtureJar.esQuerybuilderDir();
+        QueryDSLTypeExtractor expected = new QueryDSLTypeExtractor("1.7.2", dir, FixtureJar.classLoader(jar));
+        expected.setMappedSources(false);
+        QueryDSLTypeExtractor extractor = new QueryDSLTypeExtractor("1.7.2", dir,
+                new IndexedJarClassLoader(new File[]{jar}, FixtureJar.withoutFixtureClasses()));
+        assertTrue(extractor.isMappedSources());
+        assertEquals(QueryDSLTypeExtractor.toJSON(expected.parseQueries(), expected.parseFilters(), true, true),
+                QueryDSLTypeExtractor.toJSON(extractor.parseQueries(), extractor.parseFilters(), true, true));
+    }
+}
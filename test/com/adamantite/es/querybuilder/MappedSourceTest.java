@@ -0,0 +1,64 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class MappedSourceTest {
+
+    private static File write(String content) throws IOException {
+        File f = File.createTempFile("qb-source", ".java");
+        f.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
+    @Test
+    public void testAscii() throws IOException {
+        CharSequence s = MappedSource.read(write("builder.field(\"boost\", boost);\n"));
+        assertTrue(s instanceof MappedSource.AsciiSequence);
+        assertEquals("builder.field(\"boost\", boost);\n", s.toString());
+        assertEquals("boost", s.subSequence(15, 20).toString());
+        assertEquals("os", s.subSequence(15, 20).subSequence(2, 4).toString());
+        assertEquals(8, MappedSource.indexOf(s, "field("));
+        assertEquals(-1, MappedSource.indexOf(s, "startObject"));
+    }
+
+    @Test
+    public void testNotAscii() throws IOException {
+        CharSequence s = MappedSource.read(write("// caf\u00e9\nbuilder.field(\"boost\", boost);\n"));
+        assertEquals("// caf\u00e9\nbuilder.field(\"boost\", boost);\n", s.toString());
+        assertEquals(16, MappedSource.indexOf(s, "field("));
+    }
+
+    @Test
+    public void testMapped() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < MappedSource.MAP_THRESHOLD) {
+            sb.append("        builder.field(\"boost\", boost);\n");
+        }
+        sb.append("        builder.startObject(name);\n");
+        CharSequence s = MappedSource.read(write(sb.toString()));
+        assertEquals(sb.toString(), s.toString());
+        assertEquals(sb.indexOf("builder.startObject(name);"), MappedSource.indexOf(s, "builder.startObject(name);"));
+    }
+
+    @Test
+    public void testSameMatchesAsReadLines() throws IOException {
+        File[] files = new File(FixtureJar.esQuerybuilderDir()).listFiles();
+        for (File f : files) {
+            if (!f.getName().endsWith("Builder.java")) continue;
+            assertEquals(f.getName(), BuilderSourceScanner.scan(MappedSource.readLines(f), 0), BuilderSourceScanner.scan(MappedSource.read(f), 0));
+        }
+    }
+}
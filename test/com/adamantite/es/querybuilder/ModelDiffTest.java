@@ -0,0 +1,153 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ModelDiffTest {
+
+    private static Map<String, QueryDSLType> baseQueries;
+    private static Map<String, QueryDSLType> baseFilters;
+
+    private Map<String, QueryDSLType> queries;
+    private Map<String, QueryDSLType> filters;
+
+    @BeforeClass
+    public static void parseFixtures() throws IOException, ClassNotFoundException {
+        QueryDSLTypeExtractor extractor = FixtureJar.extractor();
+        baseQueries = extractor.parseQueries();
+        baseFilters = extractor.parseFilters();
+    }
+
+    /**
+     * The "next version": the same types, except for bool and term, without geo_bbox and with a new query.
+     */
+    @Before
+    public void nextVersion() {
+        queries = new TreeMap<String, QueryDSLType>(baseQueries);
+        filters = new TreeMap<String, QueryDSLType>(baseFilters);
+
+        QueryDSLType bool = baseQueries.get("bool").copy();
+        bool.fields.remove("boost");
+        bool.fields.put("filter", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.LIST_FILTER_BUILDER, "filter"));
+        queries.put("bool", bool);
+
+        QueryDSLType term = baseQueries.get("term").copy();
+        term.fields.get("boost").type = QueryDSLType.PARAM_TYPE.DOUBLE;
+        queries.put("term", term);
+
+        QueryDSLType added = new QueryDSLType("zz_added", QueryDSLType.TYPE.QUERY);
+        added.fields.put("query", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.STRING, "query"));
+        queries.put("zz_added", added);
+
+        filters.remove("geo_bbox");
+    }
+
+    private ModelDiff diff() {
+        return ModelDiff.compute("base", baseQueries, baseFilters, "next", queries, filters);
+    }
+
+    private static ModelDiff.TypeDiff find(List<ModelDiff.TypeDiff> diffs, String dslName) {
+        for (ModelDiff.TypeDiff diff : diffs) {
+            if (diff.getDslName().equals(dslName)) return diff;
+        }
+        return null;
+    }
+
+    @Test
+    public void testSameModel() {
+        assertTrue(ModelDiff.compute("base", baseQueries, baseFilters, "next", baseQueries, baseFilters).isEmpty());
+    }
+
+    @Test
+    public void testCompute() {
+        ModelDiff diff = diff();
+        List<ModelDiff.TypeDiff> queryDiffs = diff.getTypeDiffs(QueryDSLType.TYPE.QUERY);
+        assertEquals(3, queryDiffs.size());
+
+        ModelDiff.TypeDiff bool = find(queryDiffs, "bool");
+        assertEquals(ModelDiff.Change.CHANGED, bool.getChange());
+        assertEquals(Arrays.asList("filter"), bool.getAddedFields());
+        assertEquals(Arrays.asList("boost"), bool.getRemovedFields());
+        assertEquals(Collections.<String>emptyList(), bool.getChangedFields());
+        assertFalse(bool.isNamedChanged());
+
+        ModelDiff.TypeDiff term = find(queryDiffs, "term");
+        assertEquals(Arrays.asList("boost"), term.getChangedFields());
+        assertTrue(term.getAddedFields().isEmpty() && term.getRemovedFields().isEmpty());
+
+        assertEquals(ModelDiff.Change.ADDED, find(queryDiffs, "zz_added").getChange());
+
+        List<ModelDiff.TypeDiff> filterDiffs = diff.getTypeDiffs(QueryDSLType.TYPE.FILTER);
+        assertEquals(1, filterDiffs.size());
+        assertEquals(ModelDiff.Change.REMOVED, filterDiffs.get(0).getChange());
+        assertEquals("geo_bbox", filterDiffs.get(0).getDslName());
+    }
+
+    @Test
+    public void testApplySharesUnchangedTypes() throws IOException {
+        ModelDiff diff = diff();
+        Map<String, QueryDSLType> patchedQueries = diff.apply(QueryDSLType.TYPE.QUERY, baseQueries);
+        Map<String, QueryDSLType> patchedFilters = diff.apply(QueryDSLType.TYPE.FILTER, baseFilters);
+        assertEquals(QueryDSLTypeExtractor.toJSON(queries, filters, true, false),
+                QueryDSLTypeExtractor.toJSON(patchedQueries, patchedFilters, true, false));
+
+        assertSame(baseQueries.get("range"), patchedQueries.get("range"));
+        assertSame(queries.get("bool"), patchedQueries.get("bool"));
+        assertFalse(patchedFilters.containsKey("geo_bbox"));
+    }
+
+    /**
+     * Applies the patch to the base json model the way the web builder does, and compares it with the json model
+     * of the next version.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPatch() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out);
+        diff().writePatch(builder);
+        builder.close();
+        Map<String, Object> patch = parse(out.toString("UTF-8"));
+        assertEquals("base", patch.get("base"));
+        assertEquals("next", patch.get("version"));
+
+        Map<String, Object> model = parse(QueryDSLTypeExtractor.toJSON(baseQueries, baseFilters, false, false));
+        for (String section : new String[]{"query", "filter"}) {
+            Map<String, Object> patchSection = (Map<String, Object>) patch.get(section);
+            Map<String, Object> types = new TreeMap<String, Object>((Map<String, Object>) model.get(section));
+            for (Object removed : (List<Object>) patchSection.get("removed")) {
+                types.remove(removed);
+            }
+            types.putAll((Map<String, Object>) patchSection.get("types"));
+            model.put(section, types);
+        }
+        assertEquals(3, ((Map<String, Object>) ((Map<String, Object>) patch.get("query")).get("types")).size());
+        assertEquals(parse(QueryDSLTypeExtractor.toJSON(queries, filters, false, false)), model);
+    }
+
+    private static Map<String, Object> parse(String json) throws IOException {
+        XContentParser parser = JsonXContent.jsonXContent.createParser(json);
+        try {
+            return parser.mapOrdered();
+        } finally {
+            parser.close();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ModelServerTest {
+
+    private static Map<String, QueryDSLType> queries;
+    private static Map<String, QueryDSLType> filters;
+    private static ModelServer server;
+
+    @BeforeClass
+    public static void startServer() throws IOException, ClassNotFoundException {
+        QueryDSLTypeExtractor extractor = FixtureJar.extractor();
+        queries = extractor.parseQueries();
+        filters = extractor.parseFilters();
+        server = new ModelServer();
+        server.addModel("fixture", queries, filters);
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void testModel() throws IOException {
+        HttpURLConnection c = open("/model/fixture");
+        assertEquals(200, c.getResponseCode());
+        assertEquals(ModelServer.CONTENT_TYPE, c.getHeaderField("Content-Type"));
+        assertNull(c.getHeaderField("Content-Encoding"));
+        assertEquals(QueryDSLTypeExtractor.toJSON(queries, filters, false, false), new String(read(c.getInputStream()), "UTF-8"));
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        HttpURLConnection plain = open("/model/fixture");
+        HttpURLConnection c = open("/model/fixture");
+        c.setRequestProperty("Accept-Encoding", "deflate, gzip");
+        assertEquals(200, c.getResponseCode());
+        assertEquals("gzip", c.getHeaderField("Content-Encoding"));
+        assertFalse(plain.getHeaderField("ETag").equals(c.getHeaderField("ETag")));
+        assertEquals(QueryDSLTypeExtractor.toJSON(queries, filters, false, false), new String(read(new GZIPInputStream(c.getInputStream())), "UTF-8"));
+    }
+
+    @Test
+    public void testConditionalGet() throws IOException {
+        HttpURLConnection c = open("/model/fixture/query/bool");
+        String etag = c.getHeaderField("ETag");
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("\""));
+        read(c.getInputStream());
+
+        c = open("/model/fixture/query/bool");
+        c.setRequestProperty("If-None-Match", "\"other\", " + etag);
+        assertEquals(304, c.getResponseCode());
+        assertEquals(etag, c.getHeaderField("ETag"));
+
+        c = open("/model/fixture/query/bool");
+        c.setRequestProperty("If-None-Match", "\"other\"");
+        assertEquals(200, c.getResponseCode());
+        read(c.getInputStream());
+    }
+
+    @Test
+    public void testDslType() throws IOException {
+        HttpURLConnection c = open("/model/fixture/filter/bool");
+        assertEquals(200, c.getResponseCode());
+        String json = new String(read(c.getInputStream()), "UTF-8");
+        assertTrue(json, json.startsWith("{\"bool\":{"));
+        assertEquals(404, open("/model/fixture/filter/nosuchtype").getResponseCode());
+        assertEquals(404, open("/model/1.0.0").getResponseCode());
+    }
+
+    @Test
+    public void testMethods() throws IOException {
+        HttpURLConnection c = open("/model/fixture");
+        c.setRequestMethod("HEAD");
+        assertEquals(200, c.getResponseCode());
+        assertEquals(QueryDSLTypeExtractor.toJSON(queries, filters, false, false).getBytes("UTF-8").length, c.getContentLength());
+
+        c = open("/model/fixture");
+        c.setRequestMethod("POST");
+        assertEquals(405, c.getResponseCode());
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        final String expected = QueryDSLTypeExtractor.toJSON(queries, filters, false, false);
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            Callable<String> get = new Callable<String>() {
+                @Override public String call() throws IOException {
+                    return new String(read(open("/model/fixture").getInputStream()), "UTF-8");
+                }
+            };
+            for (Future<String> result : clients.invokeAll(Collections.nCopies(32, get))) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    public void testReplaceVersion() throws IOException {
+        server.addModel("replaced", queries, filters);
+        assertEquals(200, open("/model/replaced/query/term").getResponseCode());
+        assertEquals(200, open("/model/replaced/filter/geo_bbox").getResponseCode());
+
+        Map<String, QueryDSLType> fewerQueries = new TreeMap<String, QueryDSLType>(queries);
+        fewerQueries.remove("term");
+        Map<String, QueryDSLType> fewerFilters = new TreeMap<String, QueryDSLType>(filters);
+        fewerFilters.remove("geo_bbox");
+        server.addModel("replaced", fewerQueries, fewerFilters);
+        assertEquals(404, open("/model/replaced/query/term").getResponseCode());
+        assertEquals(404, open("/model/replaced/filter/geo_bbox").getResponseCode());
+        assertEquals(200, open("/model/replaced/query/bool").getResponseCode());
+        HttpURLConnection c = open("/model/replaced");
+        assertEquals(QueryDSLTypeExtractor.toJSON(fewerQueries, fewerFilters, false, false), new String(read(c.getInputStream()), "UTF-8"));
+        assertFalse(server.getQueries("replaced").containsKey("term"));
+        // other versions are left alone
+        assertEquals(200, open("/model/fixture/query/term").getResponseCode());
+    }
+
+    @Test
+    public void testFrozenTypes() throws IOException {
+        ModelServer other = new ModelServer();
+        other.addModel("a", queries, filters);
+        other.addModel("b", queries, filters);
+        assertNull(other.getQueries("c"));
+        assertEquals(queries.keySet(), other.getQueries("a").keySet());
+        assertEquals(filters.keySet(), other.getFilters("a").keySet());
+        FrozenQueryDSLType bool = other.getQueries("a").get("bool");
+        assertEquals(queries.get("bool"), bool.thaw());
+        // the params of both versions are shared
+        assertSame(bool.getParam("boost"), other.getQueries("b").get("bool").getParam("boost"));
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(ModelServer.acceptsGzip(Arrays.asList("gzip")));
+        assertTrue(ModelServer.acceptsGzip(Arrays.asList("br;q=1.0, GZIP;q=0.5")));
+        assertFalse(ModelServer.acceptsGzip(Arrays.asList("gzip;q=0")));
+        assertFalse(ModelServer.acceptsGzip(Arrays.asList("identity")));
+        assertFalse(ModelServer.acceptsGzip(null));
+    }
+
+    private static HttpURLConnection open(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ModelWriterTest {
+
+    private static QueryDSLTypeExtractor extractor;
+    private static Map<String, QueryDSLType> queries;
+    private static Map<String, QueryDSLType> filters;
+
+    @BeforeClass
+    public static void parseFixtures() throws IOException, ClassNotFoundException {
+        extractor = FixtureJar.extractor();
+        queries = extractor.parseQueries();
+        filters = extractor.parseFilters();
+    }
+
+    @Test
+    public void testStreamedTypesMatchLegacyModel() throws IOException {
+        for (boolean pretty : new boolean[]{true, false}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ModelWriter writer = new ModelWriter(out, true, pretty);
+            writer.startSection(QueryDSLType.TYPE.QUERY);
+            for (QueryDSLType type : queries.values()) {
+                writer.write(type);
+            }
+            writer.endSection();
+            writer.write(QueryDSLType.TYPE.FILTER, filters);
+            writer.close();
+            assertEquals(LegacyModelEmitter.toJSON(queries, filters, true, pretty), out.toString("UTF-8"));
+            assertEquals(LegacyModelEmitter.toJSON(queries, filters, false, pretty), QueryDSLTypeExtractor.toJSON(queries, filters, false, pretty));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTypeOutsideSection() throws IOException {
+        new ModelWriter(new ByteArrayOutputStream(), false, false).write(queries.get("bool"));
+    }
+
+    @Test
+    public void testExtract() throws IOException, ClassNotFoundException {
+        File dir = File.createTempFile("qb-model", "");
+        dir.delete();
+        dir.mkdirs();
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            QueryDSLTypeExtractor parallel = new QueryDSLTypeExtractor("fixture", extractor.getEsQuerybuilderDir(), extractor.getClassLoader());
+            parallel.setPool(pool);
+            parallel.extract(dir.getPath());
+        } finally {
+            pool.shutdown();
+        }
+        File model = new File(dir, "qb-model-fixture.json");
+        assertEquals(LegacyModelEmitter.toJSON(queries, filters, false, true), read(model));
+        assertFalse(new File(dir, "qb-model-fixture.json.tmp").exists());
+    }
+
+    private static String read(File f) throws IOException {
+        byte[] bytes = new byte[(int) f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return new String(bytes, "UTF-8");
+    }
+}
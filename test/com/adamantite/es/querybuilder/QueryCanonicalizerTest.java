@@ -0,0 +1,101 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryCanonicalizerTest {
+
+    private static QueryCanonicalizer canonicalizer;
+
+    @BeforeClass
+    public static void compileFixtures() throws IOException, ClassNotFoundException {
+        canonicalizer = new QueryCanonicalizer(FixtureJar.model());
+    }
+
+    @Test
+    public void testSameShape() throws IOException {
+        QueryCanonicalizer.Canonical a = query("{\"match\":{\"message\":{\"query\":\"this is a test\",\"operator\":\"AND\",\"_name\":\"m\"}}}");
+        QueryCanonicalizer.Canonical b = query("{\"match\":{\"message\":{\"operator\":\"or\",\"query\":\"something else\"}}}");
+        assertEquals("{\"match\":{\"message\":{\"operator\":\"and\",\"query\":\"this is a test\"}}}", a.getJson());
+        assertEquals("{\"match\":{\"message\":{\"operator\":?,\"query\":?}}}", a.getTemplate().toString());
+        assertEquals(a.getFingerprint(), b.getFingerprint());
+        assertEquals(a.getFingerprint().asLong(), b.getFingerprint().asLong());
+        assertEquals(32, a.getFingerprint().toString().length());
+        assertEquals(Arrays.<Object>asList("or", "something else"), b.getValues());
+
+        // the field is part of the shape
+        assertFalse(a.getFingerprint().equals(query("{\"match\":{\"title\":{\"query\":\"this is a test\",\"operator\":\"and\"}}}").getFingerprint()));
+        assertFalse(a.getFingerprint().equals(query("{\"match\":{\"message\":{\"query\":\"this is a test\"}}}").getFingerprint()));
+    }
+
+    @Test
+    public void testNormalize() throws IOException {
+        QueryCanonicalizer.Canonical bool = query("{\"bool\":{\"should\":{\"term\":{\"user\":\"a\"}},\"boost\":\"1.0\","
+                + "\"must\":[{\"term\":{\"user\":\"b\",\"boost\":2}}],\"_name\":\"q\",\"disable_coord\":\"true\"}}");
+        assertEquals("{\"bool\":{\"disable_coord\":true,\"must\":[{\"term\":{\"user\":\"b\",\"boost\":2.0}}],\"should\":[{\"term\":{\"user\":\"a\"}}]}}",
+                bool.getJson());
+        assertEquals("{\"bool\":{\"disable_coord\":?,\"must\":[{\"term\":{\"user\":?,\"boost\":?}}],\"should\":[{\"term\":{\"user\":?}}]}}",
+                bool.getTemplate().toString());
+        assertEquals(bool.getFingerprint(), query("{\"bool\":{\"must\":{\"term\":{\"boost\":3,\"user\":\"c\"}},"
+                + "\"should\":[{\"term\":{\"user\":\"d\"}}],\"disable_coord\":false}}").getFingerprint());
+
+        // groups in model order, unknown params sorted after the known ones
+        assertEquals("{\"common\":{\"body\":{\"minimum_should_match\":{\"high_freq\":3,\"low_freq\":2},\"query\":\"x\",\"a\":1,\"b\":2}}}",
+                query("{\"common\":{\"body\":{\"b\":2,\"query\":\"x\",\"minimum_should_match\":{\"low_freq\":2,\"high_freq\":3},\"a\":1}}}").getJson());
+        // types the model doesn't know are sorted
+        assertEquals("{\"no_such_query\":{\"a\":{\"c\":3,\"d\":2},\"b\":[1]}}", query("{\"no_such_query\":{\"b\":[1],\"a\":{\"d\":2,\"c\":3}}}").getJson());
+    }
+
+    @Test
+    public void testTemplate() throws IOException {
+        QueryCanonicalizer.Template template = query("{\"ids\":{\"values\":[\"1\"],\"types\":\"doc\"}}").getTemplate();
+        assertEquals(2, template.getParameterCount());
+        assertEquals("{\"ids\":{\"types\":\"tweet\",\"values\":[\"4\",\"100\"]}}", template.render(Arrays.asList("tweet", Arrays.asList("4", "100"))));
+
+        // as a value among others
+        JsonByteBuffer out = new JsonByteBuffer();
+        out.startArray();
+        template.writeTo(out, Arrays.asList("a", "1"));
+        template.writeTo(out, Arrays.asList("b", "2"));
+        query("{\"bool\":{}}").getTemplate().writeTo(out, Arrays.asList());
+        out.endArray();
+        assertEquals("[{\"ids\":{\"types\":\"a\",\"values\":\"1\"}},{\"ids\":{\"types\":\"b\",\"values\":\"2\"}},{\"bool\":{}}]", out.toString());
+
+        try {
+            template.render(Arrays.asList("a"));
+            fail("A value is missing");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The verification test of SMHasher: the hashes of keys 0, 0 1, 0 1 2, ... with seeds 256, 255, ... hashed
+     * again, must start with 0x6384BA69.
+     */
+    @Test
+    public void testMurmur3() {
+        byte[] key = new byte[256];
+        byte[] hashes = new byte[256 * 16];
+        for (int i = 0; i < 256; i++) {
+            key[i] = (byte) i;
+            long[] hash = QueryCanonicalizer.murmur3(key, i, 256 - i);
+            for (int j = 0; j < 16; j++) {
+                hashes[i * 16 + j] = (byte) (hash[j / 8] >>> 8 * (j % 8));
+            }
+        }
+        long[] hash = QueryCanonicalizer.murmur3(hashes, hashes.length, 0);
+        assertEquals(0x6384BA69, (int) hash[0]);
+    }
+
+    private static QueryCanonicalizer.Canonical query(String json) throws IOException {
+        return canonicalizer.canonicalize(json, QueryDSLType.TYPE.QUERY);
+    }
+}
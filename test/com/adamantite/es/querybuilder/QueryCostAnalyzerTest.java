@@ -0,0 +1,154 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryCostAnalyzerTest {
+
+    /**
+     * The fixtures have no script filter, so ids stands in for one.
+     */
+    static final String RULES = "{\"format\":1,\"defaultCost\":1,\"maxListDepth\":2,\"maxFuzziness\":1,"
+            + "\"patterns\":{\"DEEP_NESTING\":20,\"LEADING_WILDCARD\":100,\"HIGH_FUZZINESS\":30,\"UNCACHED_SCRIPT\":50},"
+            + "\"query\":{\"match\":{\"cost\":2},\"prefix\":{\"cost\":5,\"leadingWildcard\":true},"
+            + "\"query_string\":{\"cost\":5,\"leadingWildcardParam\":\"allow_leading_wildcard\",\"params\":{\"analyze_wildcard\":5}}},"
+            + "\"filter\":{\"ids\":{\"cost\":20,\"script\":true},\"prefix\":{\"cost\":3,\"leadingWildcard\":true}}}";
+
+    private static CompiledModel model;
+
+    private static QueryCostAnalyzer analyzer;
+
+    @BeforeClass
+    public static void compileFixtures() throws IOException, ClassNotFoundException {
+        model = FixtureJar.model();
+        analyzer = new QueryCostAnalyzer(model, QueryCostAnalyzer.Rules.load(new ByteArrayInputStream(RULES.getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void testCost() throws IOException {
+        QueryCostAnalyzer.Report report = analyzer.analyze("{\"bool\":{\"must\":[{\"term\":{\"user\":\"kimchy\"}},"
+                + "{\"match\":{\"message\":\"test\"}}],\"should\":{\"query_string\":{\"query\":\"a b\",\"analyze_wildcard\":true}}}}",
+                QueryDSLType.TYPE.QUERY);
+        assertEquals(0, report.getFindings().size());
+        assertEquals("[bool 1, bool.must[0].term 1, bool.must[1].match 2, bool.should.query_string 10]", report.getNodes().toString());
+        assertEquals(14, report.getCost());
+
+        // false params are free, unknown types cost the default
+        assertEquals(5, analyzer.analyze("{\"query_string\":{\"analyze_wildcard\":false}}", QueryDSLType.TYPE.QUERY).getCost());
+        assertEquals(1, analyzer.analyze("{\"no_such_query\":{\"must\":[{\"match\":{}}]}}", QueryDSLType.TYPE.QUERY).getCost());
+    }
+
+    @Test
+    public void testDeepNesting() throws IOException {
+        String leaf = "{\"term\":{\"user\":\"kimchy\"}}";
+        assertFindings(analyzer.analyze(bool(bool(leaf)), QueryDSLType.TYPE.QUERY));
+        QueryCostAnalyzer.Report report = analyzer.analyze(bool(bool(bool(leaf))), QueryDSLType.TYPE.QUERY);
+        assertFindings(report, "DEEP_NESTING at bool.must[0].bool.must[0].bool.must[0].term");
+        assertEquals(4 + 20, report.getCost());
+        // reported once, where it goes over
+        assertFindings(analyzer.analyze(bool(bool(bool(bool(leaf)))), QueryDSLType.TYPE.QUERY),
+                "DEEP_NESTING at bool.must[0].bool.must[0].bool.must[0].bool");
+    }
+
+    @Test
+    public void testLeadingWildcard() throws IOException {
+        assertFindings(analyzer.analyze("{\"prefix\":{\"user\":{\"prefix\":\"ki*\"}}}", QueryDSLType.TYPE.QUERY));
+        QueryCostAnalyzer.Report report = analyzer.analyze("{\"prefix\":{\"user\":{\"prefix\":\"*ki\"}}}", QueryDSLType.TYPE.QUERY);
+        assertFindings(report, "LEADING_WILDCARD at prefix.user.prefix");
+        assertEquals(105, report.getCost());
+        assertFindings(analyzer.analyze("{\"prefix\":{\"user\":\"?i\"}}", QueryDSLType.TYPE.FILTER), "LEADING_WILDCARD at prefix.user");
+        assertFindings(analyzer.analyze("{\"query_string\":{\"query\":\"*ki\",\"allow_leading_wildcard\":\"true\"}}", QueryDSLType.TYPE.QUERY),
+                "LEADING_WILDCARD at query_string.allow_leading_wildcard");
+        assertFindings(analyzer.analyze("{\"query_string\":{\"allow_leading_wildcard\":false}}", QueryDSLType.TYPE.QUERY));
+    }
+
+    @Test
+    public void testHighFuzziness() throws IOException {
+        assertFindings(analyzer.analyze("{\"match\":{\"message\":{\"query\":\"tset\",\"fuzziness\":1}}}", QueryDSLType.TYPE.QUERY));
+        assertFindings(analyzer.analyze("{\"match\":{\"message\":{\"query\":\"tset\",\"fuzziness\":\"AUTO\"}}}", QueryDSLType.TYPE.QUERY));
+        QueryCostAnalyzer.Report report = analyzer.analyze("{\"match\":{\"message\":{\"query\":\"tset\",\"fuzziness\":\"2\"}}}", QueryDSLType.TYPE.QUERY);
+        assertFindings(report, "HIGH_FUZZINESS at match.message.fuzziness");
+        assertEquals("fuzziness 2 is above 1", report.getFindings().get(0).getMessage());
+        assertEquals(32, report.getCost());
+    }
+
+    @Test
+    public void testUncachedScript() throws IOException {
+        String script = "{\"ids\":{\"values\":[\"1\"]}}";
+        assertFindings(analyzer.analyze(script, QueryDSLType.TYPE.FILTER));
+        QueryCostAnalyzer.Report report = analyzer.analyze("{\"bool\":{\"must\":" + script + "}}", QueryDSLType.TYPE.FILTER);
+        assertFindings(report, "UNCACHED_SCRIPT at bool.must.ids");
+        assertEquals(1 + 20 + 50, report.getCost());
+        assertFindings(analyzer.analyze("{\"bool\":{\"must\":" + script + ",\"_cache\":true}}", QueryDSLType.TYPE.FILTER));
+
+        // any enclosing bool being cached is enough
+        assertFindings(analyzer.analyze("{\"bool\":{\"_cache\":true,\"should\":[{\"bool\":{\"must\":[" + script + "]}}]}}", QueryDSLType.TYPE.FILTER));
+        assertFindings(analyzer.analyze("{\"bool\":{\"should\":[{\"bool\":{\"must\":[" + script + "]}}]}}", QueryDSLType.TYPE.FILTER),
+                "UNCACHED_SCRIPT at bool.should[0].bool.must[0].ids");
+    }
+
+    @Test
+    public void testRules() throws IOException {
+        try {
+            QueryCostAnalyzer.Rules.load(rules(RULES.replace("\"script\":true", "\"scirpt\":true")));
+            fail("A misspelled rule was accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("scirpt"));
+        }
+        try {
+            QueryCostAnalyzer.Rules.load(rules(RULES.replace("\"format\":1", "\"format\":2")));
+            fail("An unknown format was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // the default rules, which the web builder loads too
+        QueryCostAnalyzer defaults = new QueryCostAnalyzer(model);
+        assertFindings(defaults.analyze("{\"prefix\":{\"user\":{\"prefix\":\"*ki\"}}}", QueryDSLType.TYPE.QUERY), "LEADING_WILDCARD at prefix.user.prefix");
+        assertArrayEquals("web/qb-cost-rules.json is out of date",
+                readAll(QueryCostAnalyzer.class.getResourceAsStream(QueryCostAnalyzer.Rules.DEFAULT_RULES)),
+                readAll(new FileInputStream("web/qb-cost-rules.json")));
+    }
+
+    private static String bool(String must) {
+        return "{\"bool\":{\"must\":[" + must + "]}}";
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static InputStream rules(String rules) throws IOException {
+        return new ByteArrayInputStream(rules.getBytes("UTF-8"));
+    }
+
+    private static void assertFindings(QueryCostAnalyzer.Report report, String... expected) {
+        List<QueryCostAnalyzer.Finding> findings = report.getFindings();
+        assertEquals(findings.toString(), expected.length, findings.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], findings.get(i).getPattern() + " at " + findings.get(i).getPath());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The checks of {@link QueryDSLTypeExtractorTest} which don't need an elasticsearch checkout, on the fixture corpus.
+ */
+public class QueryDSLTypeExtractorFixtureTest {
+
+    private static String sequential;
+
+    @BeforeClass
+    public static void parseFixtures() throws IOException, ClassNotFoundException {
+        QueryDSLTypeExtractor extractor = FixtureJar.extractor();
+        sequential = QueryDSLTypeExtractor.toJSON(extractor.parseQueries(), extractor.parseFilters(), true, true);
+    }
+
+    @Test
+    public void testParallelParseIsIdentical() throws IOException, ClassNotFoundException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            QueryDSLTypeExtractor parallelExtractor = FixtureJar.extractor();
+            parallelExtractor.setPool(pool);
+            String parallel = QueryDSLTypeExtractor.toJSON(
+                parallelExtractor.parseQueries(), parallelExtractor.parseFilters(), true, true);
+            assertEquals(sequential, parallel);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCachedParseIsIdentical() throws IOException, ClassNotFoundException {
+        File dir = File.createTempFile("qb-cache", "");
+        dir.delete();
+        ExtractionCache cold = new ExtractionCache(dir, "jars");
+        QueryDSLTypeExtractor coldExtractor = FixtureJar.extractor();
+        coldExtractor.setCache(cold);
+        String coldJson = QueryDSLTypeExtractor.toJSON(coldExtractor.parseQueries(), coldExtractor.parseFilters(), true, true);
+        assertEquals(sequential, coldJson);
+        assertEquals(0, cold.getHits());
+        assertTrue(cold.getMisses() > 0);
+
+        ExtractionCache warm = new ExtractionCache(dir, "jars");
+        QueryDSLTypeExtractor warmExtractor = FixtureJar.extractor();
+        warmExtractor.setCache(warm);
+        String warmJson = QueryDSLTypeExtractor.toJSON(warmExtractor.parseQueries(), warmExtractor.parseFilters(), true, true);
+        assertEquals(sequential, warmJson);
+        assertEquals(0, warm.getMisses());
+        assertEquals(cold.getMisses(), warm.getHits());
+    }
+}
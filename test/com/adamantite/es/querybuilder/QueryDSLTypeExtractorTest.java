@@ -1,15 +1,11 @@
 package com.adamantite.es.querybuilder;
 
-import static com.adamantite.es.querybuilder.QueryDSLTypeExtractor.esQuerybuilderDir;
-import static com.adamantite.es.querybuilder.QueryDSLTypeExtractor.esVersion;
-import static com.adamantite.es.querybuilder.QueryDSLTypeExtractor.classLoader;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.util.Map;
 
 import org.junit.BeforeClass;
@@ -17,15 +13,17 @@ import org.junit.Test;
 
 public class QueryDSLTypeExtractorTest {
 
+    private static QueryDSLTypeExtractor extractor;
+
     @BeforeClass
-    public void init() throws MalformedURLException {
-        QueryDSLTypeExtractor.init();
+    public static void init() throws IOException {
+        extractor = QueryDSLTypeExtractor.forSourceHome(QueryDSLTypeExtractor.DEFAULT_VERSION, QueryDSLTypeExtractor.DEFAULT_SRC_HOME);
     }
 
 
     @Test
     public void testParseFilters() throws ClassNotFoundException {
-        Map<String, QueryDSLType> parsed = QueryDSLTypeExtractor.parseFilters(esQuerybuilderDir, classLoader);
+        Map<String, QueryDSLType> parsed = extractor.parseFilters();
 
         QueryDSLType ids = parsed.get("ids");
         checkFields(new String[]{"types", "values", "_name"},
@@ -63,7 +61,7 @@ public class QueryDSLTypeExtractorTest {
 
     @Test
     public void testParseQueries() throws ClassNotFoundException {
-        Map<String, QueryDSLType> parsed = QueryDSLTypeExtractor.parseQueries(esQuerybuilderDir, classLoader);
+        Map<String, QueryDSLType> parsed = extractor.parseQueries();
 
         QueryDSLType ids = parsed.get("ids");
         checkFields(new String[]{"types", "values", "boost", "_name"},
@@ -118,7 +116,7 @@ public class QueryDSLTypeExtractorTest {
 
     @Test
     public void testNamedObjectFields() throws ClassNotFoundException {
-        Map<String, QueryDSLType> parsed = QueryDSLTypeExtractor.parseQueries(esQuerybuilderDir, classLoader);
+        Map<String, QueryDSLType> parsed = extractor.parseQueries();
 
         QueryDSLType prefix = parsed.get("prefix");
         assertEquals("prefix", prefix.fields.get("prefix").paramName);
@@ -161,12 +159,11 @@ public class QueryDSLTypeExtractorTest {
 
     @Test
     public void testToJSON() throws IOException, ClassNotFoundException {
-        Map<String, QueryDSLType> queries = QueryDSLTypeExtractor.parseQueries(esQuerybuilderDir, classLoader);
-        Map<String, QueryDSLType> filters = QueryDSLTypeExtractor.parseFilters(esQuerybuilderDir, classLoader);
+        Map<String, QueryDSLType> queries = extractor.parseQueries();
+        Map<String, QueryDSLType> filters = extractor.parseFilters();
         String json = QueryDSLTypeExtractor.toJSON(queries, filters, false, true);
-        BufferedWriter writer = new BufferedWriter(new FileWriter("/tmp/qb-model-"+ esVersion +".json"));
+        BufferedWriter writer = new BufferedWriter(new FileWriter("/tmp/qb-model-"+ extractor.getEsVersion() +".json"));
         writer.write(json);
         writer.close();
     }
-
 }
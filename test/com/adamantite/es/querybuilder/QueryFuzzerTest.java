@@ -0,0 +1,152 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryFuzzerTest {
+
+    private static Map<String, QueryDSLType> queries;
+
+    private static Map<String, QueryDSLType> filters;
+
+    private static CompiledModel model;
+
+    @BeforeClass
+    public static void extractFixtures() throws IOException, ClassNotFoundException {
+        QueryDSLTypeExtractor extractor = FixtureJar.extractor();
+        queries = extractor.parseQueries();
+        filters = extractor.parseFilters();
+        model = CompiledModel.compile(queries, filters);
+    }
+
+    @Test
+    public void testSameSeed() {
+        List<byte[]> a = new QueryFuzzer(queries, filters, 7).corpus(50, QueryDSLType.TYPE.QUERY);
+        List<byte[]> b = new QueryFuzzer(queries, filters, 7).corpus(50, QueryDSLType.TYPE.QUERY);
+        for (int i = 0; i < a.size(); i++) {
+            assertArrayEquals(a.get(i), b.get(i));
+        }
+        List<byte[]> c = new QueryFuzzer(queries, filters, 8).corpus(50, QueryDSLType.TYPE.QUERY);
+        boolean differs = false;
+        for (int i = 0; i < a.size(); i++) {
+            differs |= !Arrays.equals(a.get(i), c.get(i));
+        }
+        assertTrue(differs);
+    }
+
+    @Test
+    public void testValid() throws IOException {
+        QueryValidator validator = new QueryValidator(model);
+        QueryFuzzer fuzzer = new QueryFuzzer(queries, filters, 42).setMaxDepth(5).setMaxWidth(4);
+        for (QueryDSLType.TYPE section : QueryDSLType.TYPE.values()) {
+            for (byte[] json : fuzzer.corpus(500, section)) {
+                assertEquals(new String(json, "UTF-8"), 0, validator.validate(json, section).size());
+            }
+        }
+        // every type is generated, with every shape of field
+        for (QueryDSLType.TYPE section : QueryDSLType.TYPE.values()) {
+            Set<String> types = new HashSet<String>();
+            for (int i = 0; i < 200; i++) {
+                types.addAll(fuzzer.next(section).keySet());
+            }
+            assertEquals((section == QueryDSLType.TYPE.QUERY ? queries : filters).keySet(), types);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDepthAndWidth() {
+        QueryFuzzer fuzzer = new QueryFuzzer(queries, filters, 1).setMaxDepth(2).setMaxWidth(2);
+        int nested = 0;
+        for (int i = 0; i < 500; i++) {
+            Map<String, Object> query = fuzzer.next(QueryDSLType.TYPE.QUERY);
+            if (!query.containsKey("bool")) continue;
+            Map<String, Object> bool = (Map<String, Object>) query.get("bool");
+            for (String list : new String[] {"must", "must_not", "should"}) {
+                if (!bool.containsKey(list)) continue;
+                List<Map<String, Object>> clauses = (List<Map<String, Object>>) bool.get(list);
+                assertTrue(clauses.size() >= 1 && clauses.size() <= 2);
+                for (Map<String, Object> clause : clauses) {
+                    nested++;
+                    // nothing nests below depth 2
+                    if (clause.containsKey("bool")) {
+                        Map<String, Object> inner = (Map<String, Object>) clause.get("bool");
+                        assertFalse(inner.containsKey("must") || inner.containsKey("must_not") || inner.containsKey("should"));
+                    }
+                }
+            }
+        }
+        assertTrue(nested > 0);
+
+        fuzzer.setMaxDepth(1);
+        JsonByteBuffer out = new JsonByteBuffer();
+        for (int i = 0; i < 100; i++) {
+            fuzzer.next(QueryDSLType.TYPE.QUERY, out.reset());
+            assertFalse(out.toString(), out.toString().contains("\"must\""));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testNamedFields() {
+        QueryFuzzer fuzzer = new QueryFuzzer(queries, filters, 3);
+        List<Map<String, Object>> geo = new ArrayList<Map<String, Object>>();
+        List<Map<String, Object>> prefix = new ArrayList<Map<String, Object>>();
+        List<Map<String, Object>> bbox = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 500; i++) {
+            Map<String, Object> filter = fuzzer.next(QueryDSLType.TYPE.FILTER);
+            if (filter.containsKey("geo_distance")) geo.add((Map<String, Object>) filter.get("geo_distance"));
+            if (filter.containsKey("prefix")) prefix.add((Map<String, Object>) filter.get("prefix"));
+            if (filter.containsKey("geo_bbox")) bbox.add((Map<String, Object>) filter.get("geo_bbox"));
+        }
+        assertFalse(geo.isEmpty() || prefix.isEmpty() || bbox.isEmpty());
+        for (Map<String, Object> body : geo) {
+            // the field first, with a number for each of lon,lat
+            Map.Entry<String, Object> field = body.entrySet().iterator().next();
+            assertFalse(filters.get("geo_distance").fields.containsKey(field.getKey()));
+            assertEquals(2, ((List<Object>) field.getValue()).size());
+        }
+        for (Map<String, Object> body : prefix) {
+            assertTrue(body.values().iterator().next() instanceof String);
+        }
+        for (Map<String, Object> body : bbox) {
+            // the params in the field's object, the indexed ones as arrays
+            assertEquals(1, body.size());
+            Object params = body.values().iterator().next();
+            if (params instanceof Map && ((Map<String, Object>) params).containsKey("top_left")) {
+                assertEquals(2, ((List<Object>) ((Map<String, Object>) params).get("top_left")).size());
+            }
+        }
+    }
+
+    @Test
+    public void testHarness() throws IOException {
+        QueryFuzzHarness harness = new QueryFuzzHarness(new QueryFuzzer(queries, filters, 42), 20, QueryDSLType.TYPE.QUERY);
+        Map<String, QueryFuzzHarness.Target> targets = QueryFuzzHarness.targets(model, QueryDSLType.TYPE.QUERY);
+        assertEquals("[validator, emitter, xcontent, canonicalizer, cost, rewriter]", targets.keySet().toString());
+        QueryFuzzHarness.Result validator = harness.measure(targets.get("validator"), 2);
+        assertEquals(40, validator.getQueries());
+        assertEquals(0, validator.check);
+        assertTrue(validator.getQueriesPerSecond() > 0);
+        assertTrue(harness.measure(targets.get("emitter"), 1).check > 0);
+        assertFalse(QueryFuzzHarness.targets(model, QueryDSLType.TYPE.FILTER).containsKey("rewriter"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxDepth() {
+        new QueryFuzzer(queries, filters, 1).setMaxDepth(0);
+    }
+}
@@ -0,0 +1,140 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryRewriterTest {
+
+    private static Map<String, QueryDSLType> queries;
+
+    private static Map<String, QueryDSLType> filters;
+
+    private static QueryRewriter rewriter;
+
+    /**
+     * The fixtures have no filtered query, nor term or range filters, so they're added as they are in 1.7.2.
+     */
+    @BeforeClass
+    public static void compileFixtures() throws IOException, ClassNotFoundException {
+        QueryDSLTypeExtractor extractor = FixtureJar.extractor();
+        queries = new TreeMap<String, QueryDSLType>(extractor.parseQueries());
+        filters = new TreeMap<String, QueryDSLType>(extractor.parseFilters());
+
+        QueryDSLType filtered = new QueryDSLType("filtered", QueryDSLType.TYPE.QUERY);
+        filtered.fields.put("boost", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.FLOAT, "boost"));
+        filtered.fields.put("filterBuilder", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.FILTER_BUILDER, "filter"));
+        filtered.fields.put("queryBuilder", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.QUERY_BUILDER, "query"));
+        queries.put("filtered", filtered);
+
+        QueryDSLType range = new QueryDSLType("range", QueryDSLType.TYPE.QUERY);
+        range.namedObject = true;
+        range.fields.put("boost", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.FLOAT, "boost"));
+        range.fields.put("from", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.OBJECT, "from"));
+        range.fields.put("to", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.OBJECT, "to"));
+        range.fields.put("timeZone", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.STRING, "time_zone"));
+        queries.put("range", range);
+
+        QueryDSLType rangeFilter = new QueryDSLType("range", QueryDSLType.TYPE.FILTER);
+        rangeFilter.namedObject = true;
+        rangeFilter.fields.put("cache", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.BOOLEAN, "_cache"));
+        rangeFilter.fields.put("from", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.OBJECT, "from"));
+        rangeFilter.fields.put("to", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.OBJECT, "to"));
+        filters.put("range", rangeFilter);
+
+        QueryDSLType termFilter = new QueryDSLType("term", QueryDSLType.TYPE.FILTER);
+        termFilter.namedObject = true;
+        termFilter.namedObjectValue = true;
+        termFilter.fields.put("cache", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.BOOLEAN, "_cache"));
+        termFilter.fields.put("filterName", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.STRING, "_name"));
+        filters.put("term", termFilter);
+
+        rewriter = new QueryRewriter(CompiledModel.compile(queries, filters));
+    }
+
+    @Test
+    public void testMoveToFilter() throws IOException {
+        QueryRewriter.Result result = rewriter.rewrite("{\"bool\":{\"must\":[{\"term\":{\"user\":\"kimchy\"}},{\"match\":{\"message\":\"test\"}}]}}");
+        assertEquals("{\"filtered\":{\"query\":{\"match\":{\"message\":\"test\"}},\"filter\":{\"term\":{\"user\":\"kimchy\",\"_cache\":true}}}}", result.getJson());
+        assertEquals("[bool: moved 1 clause from must into a cached filter, bool: replaced a bool with its single must clause]",
+                result.getChanges().toString());
+
+        assertRewrite("{\"bool\":{\"must\":[{\"term\":{\"user\":{\"value\":\"kimchy\"}}},{\"range\":{\"age\":{\"from\":10,\"to\":20}}},"
+                + "{\"match\":{\"message\":\"test\"}},{\"prefix\":{\"user\":\"ki\"}}],\"must_not\":[{\"match\":{\"message\":\"spam\"}}],\"_name\":\"b\"}}",
+                "{\"filtered\":{\"query\":{\"bool\":{\"must\":[{\"match\":{\"message\":\"test\"}}],"
+                + "\"must_not\":[{\"match\":{\"message\":\"spam\"}}],\"_name\":\"b\"}},"
+                + "\"filter\":{\"bool\":{\"must\":[{\"term\":{\"user\":\"kimchy\"}},{\"range\":{\"age\":{\"from\":10,\"to\":20}}},"
+                + "{\"prefix\":{\"user\":\"ki\"}}],\"_cache\":true}}}}");
+
+        // everything moved, a filtered query without a query matches what its filter does
+        assertRewrite("{\"bool\":{\"must\":[{\"term\":{\"user\":\"a\"}},{\"term\":{\"tag\":\"b\"}}]}}",
+                "{\"filtered\":{\"filter\":{\"bool\":{\"must\":[{\"term\":{\"user\":\"a\"}},{\"term\":{\"tag\":\"b\"}}],\"_cache\":true}}}}");
+    }
+
+    @Test
+    public void testScoringClausesStay() throws IOException {
+        assertUnchanged("{\"bool\":{\"must\":[{\"term\":{\"user\":{\"value\":\"kimchy\",\"boost\":2.0}}},{\"match\":{\"message\":\"test\"}}]}}");
+        assertUnchanged("{\"bool\":{\"must\":[{\"term\":{\"user\":\"kimchy\"}},{\"match\":{\"message\":\"test\"}}],\"boost\":2.0}}");
+        // the range filter doesn't take a time_zone
+        assertUnchanged("{\"bool\":{\"must\":[{\"range\":{\"age\":{\"from\":10,\"time_zone\":\"+1:00\"}}},{\"match\":{\"message\":\"test\"}}]}}");
+        // the should would have to match once the must is gone
+        assertUnchanged("{\"bool\":{\"must\":[{\"term\":{\"user\":\"kimchy\"}}],\"should\":[{\"match\":{\"message\":\"test\"}}]}}");
+    }
+
+    @Test
+    public void testPureNegativeStays() throws IOException {
+        // only the must_not would be left, which matches nothing without adjust_pure_negative
+        assertUnchanged("{\"bool\":{\"must\":[{\"term\":{\"user\":\"a\"}}],\"must_not\":[{\"term\":{\"x\":\"b\"}}],\"adjust_pure_negative\":false}}");
+        assertRewrite("{\"bool\":{\"must\":[{\"term\":{\"user\":\"a\"}}],\"must_not\":[{\"term\":{\"x\":\"b\"}}]}}",
+                "{\"filtered\":{\"query\":{\"bool\":{\"must_not\":[{\"term\":{\"x\":\"b\"}}]}},\"filter\":{\"term\":{\"user\":\"a\",\"_cache\":true}}}}");
+    }
+
+    @Test
+    public void testFlattenAndDedupe() throws IOException {
+        assertRewrite("{\"bool\":{\"should\":[{\"bool\":{\"must\":{\"match\":{\"message\":\"a\"}}}}]}}", "{\"match\":{\"message\":\"a\"}}");
+        assertRewrite("{\"bool\":{\"should\":[{\"match\":{\"message\":\"a\"}},{\"match\":{\"message\":\"b\"}},{\"match\":{\"message\":\"a\"}}]}}",
+                "{\"bool\":{\"should\":[{\"match\":{\"message\":\"a\"}},{\"match\":{\"message\":\"b\"}}]}}");
+        assertUnchanged("{\"bool\":{\"should\":[{\"match\":{\"message\":\"a\"}},{\"match\":{\"message\":\"a\"}}],\"minimum_should_match\":2}}");
+        assertUnchanged("{\"bool\":{\"must_not\":[{\"match\":{\"message\":\"a\"}}]}}");
+
+        assertRewrite("{\"filtered\":{\"query\":{\"match\":{\"message\":\"a\"}},\"filter\":{\"bool\":{\"must\":[{\"terms\":{\"tags\":[\"x\"]}},"
+                + "{\"terms\":{\"tags\":[\"x\"]}}]}}}}", "{\"filtered\":{\"query\":{\"match\":{\"message\":\"a\"}},\"filter\":{\"terms\":{\"tags\":[\"x\"]}}}}");
+        // a cached bool isn't dropped
+        assertUnchanged("{\"filtered\":{\"filter\":{\"bool\":{\"must\":[{\"terms\":{\"tags\":[\"x\"]}}],\"_cache\":true}}}}");
+    }
+
+    @Test
+    public void testTargetVersion() throws IOException {
+        String query = "{\"bool\":{\"must\":[{\"term\":{\"user\":\"kimchy\"}},{\"match\":{\"message\":\"test\"}}]}}";
+
+        // no filtered query to move it into
+        Map<String, QueryDSLType> withoutFiltered = new TreeMap<String, QueryDSLType>(queries);
+        withoutFiltered.remove("filtered");
+        QueryRewriter.Result result = new QueryRewriter(CompiledModel.compile(withoutFiltered, filters)).rewrite(query);
+        assertFalse(result.isChanged());
+
+        // a bool query with a filter list of its own
+        Map<String, QueryDSLType> withBoolFilter = new TreeMap<String, QueryDSLType>(queries);
+        QueryDSLType bool = queries.get("bool").copy();
+        bool.fields.put("filterClauses", new QueryDSLType.Param(QueryDSLType.PARAM_TYPE.LIST_QUERY_BUILDER, "filter"));
+        withBoolFilter.put("bool", bool);
+        result = new QueryRewriter(CompiledModel.compile(withBoolFilter, filters)).rewrite(query);
+        assertEquals("{\"bool\":{\"must\":[{\"match\":{\"message\":\"test\"}}],\"filter\":[{\"term\":{\"user\":\"kimchy\"}}]}}", result.getJson());
+    }
+
+    private static void assertRewrite(String query, String expected) throws IOException {
+        assertEquals(expected, rewriter.rewrite(query).getJson());
+    }
+
+    private static void assertUnchanged(String query) throws IOException {
+        QueryRewriter.Result result = rewriter.rewrite(query);
+        assertFalse(result.getChanges().toString(), result.isChanged());
+        assertEquals(query, result.getJson());
+    }
+}
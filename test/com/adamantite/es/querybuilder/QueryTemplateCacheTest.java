@@ -0,0 +1,65 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryTemplateCacheTest {
+
+    private static QueryCanonicalizer canonicalizer;
+
+    @BeforeClass
+    public static void compileFixtures() throws IOException, ClassNotFoundException {
+        canonicalizer = new QueryCanonicalizer(FixtureJar.model());
+    }
+
+    @Test
+    public void testRender() throws IOException {
+        QueryTemplateCache cache = new QueryTemplateCache(10);
+        QueryCanonicalizer.Canonical term = query("{\"term\":{\"user\":\"kimchy\"}}");
+        JsonByteBuffer out = new JsonByteBuffer();
+        assertFalse(cache.render(term.getFingerprint(), Arrays.asList("bob"), out));
+        assertEquals(0, out.size());
+
+        QueryCanonicalizer.Template template = cache.put(term);
+        assertSame(template, cache.put(query("{\"term\":{\"user\":\"other\"}}")));
+        assertTrue(cache.render(term.getFingerprint(), Arrays.asList("bob"), out));
+        assertEquals("{\"term\":{\"user\":\"bob\"}}", out.toString());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        QueryTemplateCache cache = new QueryTemplateCache(2);
+        QueryCanonicalizer.Canonical term = query("{\"term\":{\"user\":\"a\"}}");
+        QueryCanonicalizer.Canonical prefix = query("{\"prefix\":{\"user\":{\"prefix\":\"a\"}}}");
+        QueryCanonicalizer.Canonical ids = query("{\"ids\":{\"values\":[\"1\"]}}");
+        cache.put(term);
+        cache.put(prefix);
+        // term is used more recently than prefix, which is evicted
+        cache.get(term.getFingerprint());
+        cache.put(ids);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(prefix.getFingerprint()));
+        assertSame(term.getTemplate(), cache.get(term.getFingerprint()));
+        assertSame(ids.getTemplate(), cache.get(ids.getFingerprint()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxSize() {
+        new QueryTemplateCache(0);
+    }
+
+    private static QueryCanonicalizer.Canonical query(String json) throws IOException {
+        return canonicalizer.canonicalize(json, QueryDSLType.TYPE.QUERY);
+    }
+}
@@ -0,0 +1,118 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryValidatorTest {
+
+    private static QueryValidator validator;
+
+    @BeforeClass
+    public static void compileFixtures() throws IOException, ClassNotFoundException {
+        validator = new QueryValidator(FixtureJar.model());
+    }
+
+    @Test
+    public void testValidQueries() throws IOException {
+        assertValid("{\"term\":{\"user\":\"kimchy\"}}");
+        assertValid("{\"term\":{\"user\":\"kimchy\",\"boost\":2.0,\"_name\":\"t\"}}");
+        assertValid("{\"match\":{\"message\":{\"query\":\"this is a test\",\"operator\":\"and\",\"max_expansions\":\"10\"}}}");
+        assertValid("{\"bool\":{\"must\":[{\"term\":{\"user\":\"kimchy\"}},{\"match\":{\"message\":\"test\"}}],"
+                + "\"must_not\":{\"prefix\":{\"user\":{\"prefix\":\"ki\"}}},\"boost\":\"1.5\",\"disable_coord\":true,\"minimum_should_match\":2}}");
+        assertValid("{\"boosting\":{\"positive\":{\"term\":{\"field1\":\"value1\"}},\"negative\":{\"term\":{\"field2\":\"value2\"}},\"negative_boost\":0.2}}");
+        assertValid("{\"common\":{\"body\":{\"query\":\"nelly the elephant\",\"minimum_should_match\":{\"low_freq\":2,\"high_freq\":3}}}}");
+        assertValid("{\"ids\":{\"types\":\"my_type\",\"values\":[\"1\",\"4\",\"100\"]}}");
+    }
+
+    @Test
+    public void testValidFilters() throws IOException {
+        assertEquals(0, validator.validate("{\"bool\":{\"must\":{\"terms\":{\"tags\":[\"a\",\"b\"],\"_cache\":false}},"
+                + "\"should\":[{\"geo_distance\":{\"pin.location\":[-70,40],\"distance\":\"12km\",\"distance_type\":\"arc\"}}]}}",
+                QueryDSLType.TYPE.FILTER).size());
+        assertEquals(0, validator.validate("{\"geo_bbox\":{\"pin.location\":{\"top_left\":[-74.1,40.73],\"bottom_right\":{\"lat\":40.01,\"lon\":-71.12}}}}",
+                QueryDSLType.TYPE.FILTER).size());
+    }
+
+    @Test
+    public void testUnknown() throws IOException {
+        assertViolation("{\"no_such_query\":{}}", QueryValidator.Kind.UNKNOWN_TYPE, "no_such_query");
+        assertViolation("{\"bool\":{\"must\":[],\"mus\":[]}}", QueryValidator.Kind.UNKNOWN_PARAM, "bool.mus");
+        assertViolation("{\"match\":{\"message\":{\"query\":\"test\",\"opertor\":\"and\"}}}", QueryValidator.Kind.UNKNOWN_PARAM, "match.message.opertor");
+        assertViolation("{\"term\":{\"user\":\"kimchy\",\"group\":\"admin\"}}", QueryValidator.Kind.UNKNOWN_PARAM, "term.group");
+        assertViolation("{\"common\":{\"body\":{\"minimum_should_match\":{\"medium_freq\":2}}}}", QueryValidator.Kind.UNKNOWN_PARAM,
+                "common.body.minimum_should_match.medium_freq");
+    }
+
+    @Test
+    public void testTypeMismatch() throws IOException {
+        assertViolation("{\"bool\":{\"boost\":\"high\"}}", QueryValidator.Kind.TYPE_MISMATCH, "bool.boost");
+        assertViolation("{\"bool\":{\"disable_coord\":1}}", QueryValidator.Kind.TYPE_MISMATCH, "bool.disable_coord");
+        assertViolation("{\"match\":{\"message\":{\"slop\":1.5}}}", QueryValidator.Kind.TYPE_MISMATCH, "match.message.slop");
+        assertViolation("{\"match\":{\"message\":{\"operator\":[\"and\"]}}}", QueryValidator.Kind.TYPE_MISMATCH, "match.message.operator");
+        assertViolation("{\"bool\":{\"must\":[\"term\"]}}", QueryValidator.Kind.TYPE_MISMATCH, "bool.must[0]");
+        assertViolation("{\"bool\":{\"boost\":{\"value\":1}}}", QueryValidator.Kind.TYPE_MISMATCH, "bool.boost");
+        assertViolation("{\"bool\":[]}", QueryValidator.Kind.TYPE_MISMATCH, "bool");
+    }
+
+    @Test
+    public void testMisplacedBuilders() throws IOException {
+        assertViolation("{\"bool\":{\"must\":[{\"term\":{\"user\":\"kimchy\"}},{\"geo_distance\":{\"pin\":[1,2]}}]}}",
+                QueryValidator.Kind.MISPLACED_BUILDER, "bool.must[1].geo_distance");
+        assertViolation("{\"bool\":{\"boost\":{\"term\":{\"user\":\"kimchy\"}}}}", QueryValidator.Kind.MISPLACED_BUILDER, "bool.boost");
+        assertEquals(QueryValidator.Kind.MISPLACED_BUILDER,
+                validator.validate("{\"bool\":{\"must\":{\"match\":{\"message\":\"test\"}}}}", QueryDSLType.TYPE.FILTER).get(0).getKind());
+    }
+
+    @Test
+    public void testMalformed() throws IOException {
+        assertViolation("[]", QueryValidator.Kind.MALFORMED, "");
+        assertViolation("{}", QueryValidator.Kind.MALFORMED, "");
+        assertViolation("{\"term\":{\"a\":\"b\"},\"match\":{\"c\":\"d\"}}", QueryValidator.Kind.MALFORMED, "match");
+    }
+
+    @Test
+    public void testEveryViolationIsReported() throws IOException {
+        List<QueryValidator.Violation> violations = validator.validate("{\"bool\":{\"boost\":\"high\",\"must\":[{\"nope\":{}},{\"term\":{\"a\":\"b\",\"c\":\"d\"}}]}}",
+                QueryDSLType.TYPE.QUERY);
+        assertEquals(violations.toString(), 3, violations.size());
+        assertEquals("bool.boost", violations.get(0).getPath());
+        assertEquals("bool.must[0].nope", violations.get(1).getPath());
+        assertEquals("bool.must[1].term.c", violations.get(2).getPath());
+    }
+
+    @Test
+    public void testSearchRequest() throws IOException {
+        XContentParser parser = JsonXContent.jsonXContent.createParser("{\"query\":{\"bool\":{\"boost\":\"high\"}},\"size\":10}");
+        try {
+            parser.nextToken();
+            assertEquals(XContentParser.Token.FIELD_NAME, parser.nextToken());
+            parser.nextToken();
+            assertEquals(1, validator.validate(parser, QueryDSLType.TYPE.QUERY).size());
+            assertEquals(XContentParser.Token.END_OBJECT, parser.currentToken());
+            assertEquals(XContentParser.Token.FIELD_NAME, parser.nextToken());
+            assertEquals("size", parser.currentName());
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static void assertValid(String json) throws IOException {
+        List<QueryValidator.Violation> violations = validator.validate(json, QueryDSLType.TYPE.QUERY);
+        assertTrue(json + " " + violations, violations.isEmpty());
+    }
+
+    private static void assertViolation(String json, QueryValidator.Kind kind, String path) throws IOException {
+        List<QueryValidator.Violation> violations = validator.validate(json, QueryDSLType.TYPE.QUERY);
+        assertEquals(json + " " + violations, 1, violations.size());
+        assertEquals(json + " " + violations, kind, violations.get(0).getKind());
+        assertEquals(json + " " + violations, path, violations.get(0).getPath());
+    }
+}
@@ -0,0 +1,70 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ReflectionCacheTest {
+
+    private static ClassLoader classLoader;
+
+    @BeforeClass
+    public static void buildFixtures() throws IOException {
+        classLoader = FixtureJar.classLoader(FixtureJar.build());
+    }
+
+    @Test
+    public void testClassesAndFields() throws Exception {
+        ReflectionCache cache = new ReflectionCache(classLoader);
+        Class<?> c = cache.forName(FixtureJar.QUERY_PACKAGE + "PrefixQueryBuilder");
+        assertSame(c, cache.forName(FixtureJar.QUERY_PACKAGE + "PrefixQueryBuilder"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        Field[] fields = cache.getDeclaredFields(c);
+        assertSame(fields, cache.getDeclaredFields(c));
+        assertEquals(c.getDeclaredFields().length, fields.length);
+        // the fields are private, get throws IllegalAccessException unless they were made accessible
+        Object builder = c.getConstructor(String.class, String.class).newInstance("user", "ki");
+        for (Field field : fields) {
+            field.get(builder);
+        }
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testPreferredName() throws ClassNotFoundException {
+        ReflectionCache cache = new ReflectionCache(classLoader);
+        // misses the name, loading the parser class isn't counted apart
+        assertEquals("like_text", cache.getPreferredName("MoreLikeThisQueryParser", "LIKE_TEXT"));
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        // hits the name
+        assertEquals("like_text", cache.getPreferredName("MoreLikeThisQueryParser", "LIKE_TEXT"));
+        // misses the name, the parser class is cached
+        assertEquals("stop_words", cache.getPreferredName("MoreLikeThisQueryParser", "STOP_WORDS"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        // and the cached parser class is still counted when it's looked up itself
+        cache.forName(FixtureJar.QUERY_PACKAGE + "MoreLikeThisQueryParser");
+        assertEquals(2, cache.getHits());
+
+        assertNull(cache.getPreferredName("MoreLikeThisQueryParser", "NO_SUCH_FIELD"));
+    }
+
+    @Test
+    public void testResolveParamName() {
+        ReflectionCache cache = new ReflectionCache(classLoader);
+        assertEquals("max_query_terms", QueryDSLTypeExtractor.resolveParamName(
+            "MoreLikeThisQueryParser.Fields.MAX_QUERY_TERMS.getPreferredName()", cache));
+        assertEquals("name", QueryDSLTypeExtractor.resolveParamName("name", cache));
+    }
+}
@@ -0,0 +1,93 @@
+package com.adamantite.es.querybuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SharedBuildersTest {
+
+    private static File jar;
+
+    @BeforeClass
+    public static void buildFixtures() throws IOException {
+        jar = FixtureJar.build();
+    }
+
+    private static QueryDSLTypeExtractor newExtractor(String version) throws IOException {
+        return new QueryDSLTypeExtractor(version, FixtureJar.esQuerybuilderDir(), FixtureJar.classLoader(jar));
+    }
+
+    @Test
+    public void testBuildersAreParsedOnce() throws IOException, ClassNotFoundException {
+        QueryDSLTypeExtractor unshared = newExtractor("1.7.2");
+        String expected = QueryDSLTypeExtractor.toJSON(unshared.parseQueries(), unshared.parseFilters(), true, true);
+
+        SharedBuilders shared = new SharedBuilders();
+        QueryDSLTypeExtractor first = newExtractor("1.7.1");
+        QueryDSLTypeExtractor second = newExtractor("1.7.2");
+        first.setSharedBuilders(shared);
+        second.setSharedBuilders(shared);
+
+        Map<String, QueryDSLType> firstQueries = first.parseQueries();
+        Map<String, QueryDSLType> secondQueries = second.parseQueries();
+        assertEquals(expected, QueryDSLTypeExtractor.toJSON(firstQueries, first.parseFilters(), true, true));
+        assertEquals(expected, QueryDSLTypeExtractor.toJSON(secondQueries, second.parseFilters(), true, true));
+        assertEquals(shared.getMisses(), shared.getHits());
+
+        // the extraction rules modify their own copy
+        assertNotSame(firstQueries.get("common"), secondQueries.get("common"));
+        firstQueries.get("common").fields.clear();
+        assertEquals(expected, QueryDSLTypeExtractor.toJSON(secondQueries, second.parseFilters(), true, true));
+    }
+
+    @Test
+    public void testConcurrentVersions() throws Exception {
+        QueryDSLTypeExtractor unshared = newExtractor("1.7.2");
+        String expected = QueryDSLTypeExtractor.toJSON(unshared.parseQueries(), unshared.parseFilters(), true, true);
+
+        SharedBuilders shared = new SharedBuilders();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Future<String>[] results = new Future[4];
+            for (int i = 0; i < results.length; i++) {
+                final QueryDSLTypeExtractor extractor = newExtractor("1.7." + i);
+                extractor.setPool(pool);
+                extractor.setSharedBuilders(shared);
+                results[i] = pool.submit(new Callable<String>() {
+                    @Override public String call() throws Exception {
+                        return QueryDSLTypeExtractor.toJSON(extractor.parseQueries(), extractor.parseFilters(), true, true);
+                    }
+                });
+            }
+            for (Future<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(3 * shared.getMisses(), shared.getHits());
+    }
+
+    @Test
+    public void testNullResult() throws ClassNotFoundException {
+        SharedBuilders shared = new SharedBuilders();
+        Callable<QueryDSLType> unparseable = new Callable<QueryDSLType>() {
+            @Override public QueryDSLType call() {
+                return null;
+            }
+        };
+        assertNull(shared.get("hash", unparseable));
+        assertNull(shared.get("hash", unparseable));
+        assertEquals(1, shared.getHits());
+    }
+}
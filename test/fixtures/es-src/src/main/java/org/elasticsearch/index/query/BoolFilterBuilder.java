@@ -0,0 +1,74 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * A filter that matches documents matching boolean combinations of other filters.
+ */
+public class BoolFilterBuilder {
+
+    private final List<FilterBuilder> mustClauses = new ArrayList<FilterBuilder>();
+
+    private final List<FilterBuilder> mustNotClauses = new ArrayList<FilterBuilder>();
+
+    private final List<FilterBuilder> shouldClauses = new ArrayList<FilterBuilder>();
+
+    private Boolean cache;
+
+    private String cacheKey;
+
+    private String filterName;
+
+    public BoolFilterBuilder must(FilterBuilder filterBuilder) {
+        mustClauses.add(filterBuilder);
+        return this;
+    }
+
+    public BoolFilterBuilder mustNot(FilterBuilder filterBuilder) {
+        mustNotClauses.add(filterBuilder);
+        return this;
+    }
+
+    public BoolFilterBuilder should(FilterBuilder filterBuilder) {
+        shouldClauses.add(filterBuilder);
+        return this;
+    }
+
+    protected void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject("bool");
+        doXArrayContent("must", mustClauses, builder, params);
+        doXArrayContent("must_not", mustNotClauses, builder, params);
+        doXArrayContent("should", shouldClauses, builder, params);
+        if (filterName != null) {
+            builder.field("_name", filterName);
+        }
+        if (cache != null) {
+            builder.field("_cache", cache);
+        }
+        if (cacheKey != null) {
+            builder.field("_cache_key", cacheKey);
+        }
+        builder.endObject();
+    }
+
+    private void doXArrayContent(String field, List<FilterBuilder> clauses, XContentBuilder builder, ToXContent.Params params) throws IOException {
+        if (clauses.isEmpty()) {
+            return;
+        }
+        if (clauses.size() == 1) {
+            builder.field(field);
+            clauses.get(0).toXContent(builder, params);
+        } else {
+            builder.startArray(field);
+            for (FilterBuilder clause : clauses) {
+                clause.toXContent(builder, params);
+            }
+            builder.endArray();
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package org.elasticsearch.index.query;
+
+public class BoolFilterParser {
+
+    public static final String NAME = "bool";
+
+}
@@ -0,0 +1,84 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * A Query that matches documents matching boolean combinations of other queries.
+ */
+public class BoolQueryBuilder {
+
+    private final List<QueryBuilder> mustClauses = new ArrayList<QueryBuilder>();
+
+    private final List<QueryBuilder> mustNotClauses = new ArrayList<QueryBuilder>();
+
+    private final List<QueryBuilder> shouldClauses = new ArrayList<QueryBuilder>();
+
+    private float boost = -1;
+
+    private Boolean disableCoord;
+
+    private String minimumShouldMatch;
+
+    private Boolean adjustPureNegative;
+
+    private String queryName;
+
+    public BoolQueryBuilder must(QueryBuilder queryBuilder) {
+        mustClauses.add(queryBuilder);
+        return this;
+    }
+
+    public BoolQueryBuilder mustNot(QueryBuilder queryBuilder) {
+        mustNotClauses.add(queryBuilder);
+        return this;
+    }
+
+    public BoolQueryBuilder should(QueryBuilder queryBuilder) {
+        shouldClauses.add(queryBuilder);
+        return this;
+    }
+
+    protected void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject("bool");
+        doXArrayContent("must", mustClauses, builder, params);
+        doXArrayContent("must_not", mustNotClauses, builder, params);
+        doXArrayContent("should", shouldClauses, builder, params);
+        if (boost != -1) {
+            builder.field("boost", boost);
+        }
+        if (disableCoord != null) {
+            builder.field("disable_coord", disableCoord);
+        }
+        if (minimumShouldMatch != null) {
+            builder.field("minimum_should_match", minimumShouldMatch);
+        }
+        if (adjustPureNegative != null) {
+            builder.field("adjust_pure_negative", adjustPureNegative);
+        }
+        if (queryName != null) {
+            builder.field("_name", queryName);
+        }
+        builder.endObject();
+    }
+
+    private void doXArrayContent(String field, List<QueryBuilder> clauses, XContentBuilder builder, ToXContent.Params params) throws IOException {
+        if (clauses.isEmpty()) {
+            return;
+        }
+        if (clauses.size() == 1) {
+            builder.field(field);
+            clauses.get(0).toXContent(builder, params);
+        } else {
+            builder.startArray(field);
+            for (QueryBuilder clause : clauses) {
+                clause.toXContent(builder, params);
+            }
+            builder.endArray();
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package org.elasticsearch.index.query;
+
+public class BoolQueryParser {
+
+    public static final String NAME = "bool";
+
+}
@@ -0,0 +1,48 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * The BoostingQuery class can be used to effectively demote results that match a given query.
+ */
+public class BoostingQueryBuilder {
+
+    private QueryBuilder positiveQuery;
+
+    private QueryBuilder negativeQuery;
+
+    private float negativeBoost = -1;
+
+    private float boost = -1;
+
+    public BoostingQueryBuilder positive(QueryBuilder positiveQuery) {
+        this.positiveQuery = positiveQuery;
+        return this;
+    }
+
+    public BoostingQueryBuilder negative(QueryBuilder negativeQuery) {
+        this.negativeQuery = negativeQuery;
+        return this;
+    }
+
+    protected void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        if (positiveQuery == null) {
+            throw new IllegalArgumentException("boosting query requires positive query to be set");
+        }
+        builder.startObject(BoostingQueryParser.NAME);
+        builder.field("positive");
+        positiveQuery.toXContent(builder, params);
+        builder.field("negative");
+        negativeQuery.toXContent(builder, params);
+
+        builder.field("negative_boost", negativeBoost);
+
+        if (boost != -1) {
+            builder.field("boost", boost);
+        }
+        builder.endObject();
+    }
+}
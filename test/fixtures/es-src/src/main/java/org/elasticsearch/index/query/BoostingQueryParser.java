@@ -0,0 +1,7 @@
+package org.elasticsearch.index.query;
+
+public class BoostingQueryParser {
+
+    public static final String NAME = "boosting";
+
+}
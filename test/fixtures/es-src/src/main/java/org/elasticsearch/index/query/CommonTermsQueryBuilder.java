@@ -0,0 +1,85 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * CommonTermsQuery query is a query that executes high-frequency terms in a
+ * optional sub-query to prevent slow queries due to "common" terms.
+ */
+public class CommonTermsQueryBuilder {
+
+    public static enum Operator {
+        OR, AND
+    }
+
+    private final String name;
+
+    private final Object text;
+
+    private Operator highFreqOperator = null;
+
+    private Operator lowFreqOperator = null;
+
+    private String analyzer = null;
+
+    private Float boost = null;
+
+    private String lowFreqMinimumShouldMatch = null;
+
+    private String highFreqMinimumShouldMatch = null;
+
+    private Boolean disableCoord = null;
+
+    private Float cutoffFrequency = null;
+
+    private String queryName;
+
+    public CommonTermsQueryBuilder(String name, Object text) {
+        this.name = name;
+        this.text = text;
+    }
+
+    public void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject(CommonTermsQueryParser.NAME);
+        builder.startObject(name);
+
+        builder.field("query", text);
+        if (disableCoord != null) {
+            builder.field("disable_coord", disableCoord);
+        }
+        if (highFreqOperator != null) {
+            builder.field("high_freq_operator", highFreqOperator.toString());
+        }
+        if (lowFreqOperator != null) {
+            builder.field("low_freq_operator", lowFreqOperator.toString());
+        }
+        if (analyzer != null) {
+            builder.field("analyzer", analyzer);
+        }
+        if (boost != null) {
+            builder.field("boost", boost);
+        }
+        if (cutoffFrequency != null) {
+            builder.field("cutoff_frequency", cutoffFrequency);
+        }
+        if (lowFreqMinimumShouldMatch != null || highFreqMinimumShouldMatch != null) {
+            builder.startObject("minimum_should_match");
+            if (lowFreqMinimumShouldMatch != null) {
+                builder.field("low_freq", lowFreqMinimumShouldMatch);
+            }
+            if (highFreqMinimumShouldMatch != null) {
+                builder.field("high_freq", highFreqMinimumShouldMatch);
+            }
+            builder.endObject();
+        }
+        if (queryName != null) {
+            builder.field("_name", queryName);
+        }
+
+        builder.endObject();
+        builder.endObject();
+    }
+}
@@ -0,0 +1,7 @@
+package org.elasticsearch.index.query;
+
+public class CommonTermsQueryParser {
+
+    public static final String NAME = "common";
+
+}
@@ -0,0 +1,60 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Filters documents to include only those with a geo point inside a bounding box.
+ */
+public class GeoBoundingBoxFilterBuilder {
+
+    public static final String TOP_LEFT = "top_left";
+    public static final String BOTTOM_RIGHT = "bottom_right";
+
+    private static final int TOP = 0;
+    private static final int LEFT = 1;
+    private static final int BOTTOM = 2;
+    private static final int RIGHT = 3;
+
+    private final String name;
+
+    private double[] box = {Double.NaN, Double.NaN, Double.NaN, Double.NaN};
+
+    private Boolean cache;
+
+    private String cacheKey;
+
+    private String filterName;
+
+    private String type;
+
+    public GeoBoundingBoxFilterBuilder(String name) {
+        this.name = name;
+    }
+
+    protected void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject(GeoBoundingBoxFilterParser.NAME);
+
+        builder.startObject(name);
+        builder.array(TOP_LEFT, box[LEFT], box[TOP]);
+        builder.array(BOTTOM_RIGHT, box[RIGHT], box[BOTTOM]);
+        builder.endObject();
+
+        if (filterName != null) {
+            builder.field("_name", filterName);
+        }
+        if (cache != null) {
+            builder.field("_cache", cache);
+        }
+        if (cacheKey != null) {
+            builder.field("_cache_key", cacheKey);
+        }
+        if (type != null) {
+            builder.field("type", type);
+        }
+
+        builder.endObject();
+    }
+}
@@ -0,0 +1,7 @@
+package org.elasticsearch.index.query;
+
+public class GeoBoundingBoxFilterParser {
+
+    public static final String NAME = "geo_bbox";
+
+}
@@ -0,0 +1,67 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Filters documents to include only hits that exists within a specific distance from a geo point.
+ */
+public class GeoDistanceFilterBuilder {
+
+    public static enum GeoDistance {
+        PLANE, FACTOR, ARC, SLOPPY_ARC
+    }
+
+    private final String name;
+
+    private String distance;
+
+    private double lat;
+
+    private double lon;
+
+    private String geohash;
+
+    private GeoDistance geoDistance;
+
+    private String optimizeBbox;
+
+    private Boolean cache;
+
+    private String cacheKey;
+
+    private String filterName;
+
+    public GeoDistanceFilterBuilder(String name) {
+        this.name = name;
+    }
+
+    protected void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject(GeoDistanceFilterParser.NAME);
+        if (geohash != null) {
+            builder.field(name, geohash);
+        } else {
+            builder.startArray(name).value(lon).value(lat).endArray();
+        }
+        builder.field("distance", distance);
+        if (geoDistance != null) {
+            builder.field("distance_type", geoDistance.name().toLowerCase(Locale.ROOT));
+        }
+        if (optimizeBbox != null) {
+            builder.field("optimize_bbox", optimizeBbox);
+        }
+        if (filterName != null) {
+            builder.field("_name", filterName);
+        }
+        if (cache != null) {
+            builder.field("_cache", cache);
+        }
+        if (cacheKey != null) {
+            builder.field("_cache_key", cacheKey);
+        }
+        builder.endObject();
+    }
+}
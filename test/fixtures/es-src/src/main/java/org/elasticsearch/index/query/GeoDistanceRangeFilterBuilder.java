@@ -0,0 +1,76 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Filters documents to include only hits that exists within a specific distance range from a geo point.
+ */
+public class GeoDistanceRangeFilterBuilder {
+
+    public static enum GeoDistance {
+        PLANE, FACTOR, ARC, SLOPPY_ARC
+    }
+
+    private final String name;
+
+    private Object from;
+
+    private Object to;
+
+    private boolean includeLower = true;
+
+    private boolean includeUpper = true;
+
+    private double lat;
+
+    private double lon;
+
+    private String geohash;
+
+    private GeoDistance geoDistance;
+
+    private String optimizeBbox;
+
+    private Boolean cache;
+
+    private String cacheKey;
+
+    private String filterName;
+
+    public GeoDistanceRangeFilterBuilder(String name) {
+        this.name = name;
+    }
+
+    protected void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject(GeoDistanceRangeFilterParser.NAME);
+        if (geohash != null) {
+            builder.field(name, geohash);
+        } else {
+            builder.startArray(name).value(lon).value(lat).endArray();
+        }
+        builder.field("from", from);
+        builder.field("to", to);
+        builder.field("include_lower", includeLower);
+        builder.field("include_upper", includeUpper);
+        if (geoDistance != null) {
+            builder.field("distance_type", geoDistance.name().toLowerCase(Locale.ROOT));
+        }
+        if (optimizeBbox != null) {
+            builder.field("optimize_bbox", optimizeBbox);
+        }
+        if (filterName != null) {
+            builder.field("_name", filterName);
+        }
+        if (cache != null) {
+            builder.field("_cache", cache);
+        }
+        if (cacheKey != null) {
+            builder.field("_cache_key", cacheKey);
+        }
+        builder.endObject();
+    }
+}
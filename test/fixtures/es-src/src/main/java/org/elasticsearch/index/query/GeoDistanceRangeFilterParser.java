@@ -0,0 +1,7 @@
+package org.elasticsearch.index.query;
+
+public class GeoDistanceRangeFilterParser {
+
+    public static final String NAME = "geo_distance_range";
+
+}
@@ -0,0 +1,49 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * A filter that will return only documents matching specific ids (and a type).
+ */
+public class IdsFilterBuilder {
+
+    private final List<String> types;
+
+    private List<String> values = new ArrayList<String>();
+
+    private String filterName;
+
+    public IdsFilterBuilder(List<String> types) {
+        this.types = types;
+    }
+
+    public IdsFilterBuilder addIds(String id) {
+        values.add(id);
+        return this;
+    }
+
+    protected void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject(IdsFilterParser.NAME);
+        if (types != null) {
+            if (types.size() == 1) {
+                builder.field("type", types.get(0));
+            } else {
+                builder.array("types", types);
+            }
+        }
+        builder.startArray("values");
+        for (Object value : values) {
+            builder.value(value);
+        }
+        builder.endArray();
+        if (filterName != null) {
+            builder.field("_name", filterName);
+        }
+        builder.endObject();
+    }
+}
@@ -0,0 +1,7 @@
+package org.elasticsearch.index.query;
+
+public class IdsFilterParser {
+
+    public static final String NAME = "ids";
+
+}
@@ -0,0 +1,54 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * A query that will return only documents matching specific ids (and a type).
+ */
+public class IdsQueryBuilder {
+
+    private final List<String> types;
+
+    private List<String> values = new ArrayList<String>();
+
+    private float boost = -1;
+
+    private String queryName;
+
+    public IdsQueryBuilder(List<String> types) {
+        this.types = types;
+    }
+
+    public IdsQueryBuilder addIds(String id) {
+        values.add(id);
+        return this;
+    }
+
+    protected void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject(IdsQueryParser.NAME);
+        if (types != null) {
+            if (types.size() == 1) {
+                builder.field("type", types.get(0));
+            } else {
+                builder.array("types", types);
+            }
+        }
+        builder.startArray("values");
+        for (Object value : values) {
+            builder.value(value);
+        }
+        builder.endArray();
+        if (boost != -1) {
+            builder.field("boost", boost);
+        }
+        if (queryName != null) {
+            builder.field("_name", queryName);
+        }
+        builder.endObject();
+    }
+}
@@ -0,0 +1,7 @@
+package org.elasticsearch.index.query;
+
+public class IdsQueryParser {
+
+    public static final String NAME = "ids";
+
+}
@@ -0,0 +1,96 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.unit.Fuzziness;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Match query is a query that analyzes the text and constructs a query as the result of the analysis.
+ */
+public class MatchQueryBuilder {
+
+    public static enum Operator {
+        OR, AND
+    }
+
+    private final String name;
+
+    private final Object text;
+
+    private String type;
+
+    private Operator operator;
+
+    private String analyzer;
+
+    private Float boost;
+
+    private Integer slop;
+
+    private Fuzziness fuzziness;
+
+    private Integer prefixLength;
+
+    private Integer maxExpansions;
+
+    private String minimumShouldMatch;
+
+    private Boolean lenient;
+
+    private Float cutoffFrequency;
+
+    private String queryName;
+
+    public MatchQueryBuilder(String name, Object text) {
+        this.name = name;
+        this.text = text;
+    }
+
+    public void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject(MatchQueryParser.NAME);
+        builder.startObject(name);
+
+        builder.field("query", text);
+        if (type != null) {
+            builder.field("type", type.toString().toLowerCase());
+        }
+        if (operator != null) {
+            builder.field("operator", operator.toString());
+        }
+        if (analyzer != null) {
+            builder.field("analyzer", analyzer);
+        }
+        if (boost != null) {
+            builder.field("boost", boost);
+        }
+        if (slop != null) {
+            builder.field("slop", slop);
+        }
+        if (fuzziness != null) {
+            fuzziness.toXContent(builder, params);
+        }
+        if (prefixLength != null) {
+            builder.field("prefix_length", prefixLength);
+        }
+        if (maxExpansions != null) {
+            builder.field("max_expansions", maxExpansions);
+        }
+        if (minimumShouldMatch != null) {
+            builder.field("minimum_should_match", minimumShouldMatch);
+        }
+        if (lenient != null) {
+            builder.field("lenient", lenient);
+        }
+        if (cutoffFrequency != null) {
+            builder.field("cutoff_frequency", cutoffFrequency);
+        }
+        if (queryName != null) {
+            builder.field("_name", queryName);
+        }
+
+        builder.endObject();
+        builder.endObject();
+    }
+}
@@ -0,0 +1,7 @@
+package org.elasticsearch.index.query;
+
+public class MatchQueryParser {
+
+    public static final String NAME = "match";
+
+}
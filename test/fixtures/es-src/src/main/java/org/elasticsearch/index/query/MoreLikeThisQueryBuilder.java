@@ -0,0 +1,80 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * A more like this query that finds documents that are "like" the provided {@link #likeText(String)}
+ * which is checked against the fields the query is constructed with.
+ */
+public class MoreLikeThisQueryBuilder {
+
+    private final String[] fields;
+
+    private String likeText;
+
+    private int minTermFreq = -1;
+
+    private int maxQueryTerms = -1;
+
+    private String[] stopWords = null;
+
+    private Boolean include = null;
+
+    private float boost = -1;
+
+    private Boolean failOnUnsupportedField;
+
+    private String queryName;
+
+    public MoreLikeThisQueryBuilder(String... fields) {
+        this.fields = fields;
+    }
+
+    public MoreLikeThisQueryBuilder likeText(String likeText) {
+        this.likeText = likeText;
+        return this;
+    }
+
+    protected void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject(MoreLikeThisQueryParser.NAME);
+        if (fields != null) {
+            builder.startArray("fields");
+            for (String field : fields) {
+                builder.value(field);
+            }
+            builder.endArray();
+        }
+        if (likeText != null) {
+            builder.field(MoreLikeThisQueryParser.Fields.LIKE_TEXT.getPreferredName(), likeText);
+        }
+        if (minTermFreq != -1) {
+            builder.field(MoreLikeThisQueryParser.Fields.MIN_TERM_FREQ.getPreferredName(), minTermFreq);
+        }
+        if (maxQueryTerms != -1) {
+            builder.field(MoreLikeThisQueryParser.Fields.MAX_QUERY_TERMS.getPreferredName(), maxQueryTerms);
+        }
+        if (stopWords != null && stopWords.length > 0) {
+            builder.startArray(MoreLikeThisQueryParser.Fields.STOP_WORDS.getPreferredName());
+            for (String stopWord : stopWords) {
+                builder.value(stopWord);
+            }
+            builder.endArray();
+        }
+        if (boost != -1) {
+            builder.field("boost", boost);
+        }
+        if (failOnUnsupportedField != null) {
+            builder.field(MoreLikeThisQueryParser.Fields.FAIL_ON_UNSUPPORTED_FIELD.getPreferredName(), failOnUnsupportedField);
+        }
+        if (queryName != null) {
+            builder.field("_name", queryName);
+        }
+        if (include != null) {
+            builder.field("exclude", !include);
+        }
+        builder.endObject();
+    }
+}
@@ -0,0 +1,16 @@
+package org.elasticsearch.index.query;
+
+import org.elasticsearch.common.ParseField;
+
+public class MoreLikeThisQueryParser {
+
+    public static final String NAME = "mlt";
+
+    public static class Fields {
+        public static final ParseField LIKE_TEXT = new ParseField("like_text");
+        public static final ParseField MIN_TERM_FREQ = new ParseField("min_term_freq");
+        public static final ParseField MAX_QUERY_TERMS = new ParseField("max_query_terms");
+        public static final ParseField STOP_WORDS = new ParseField("stop_words");
+        public static final ParseField FAIL_ON_UNSUPPORTED_FIELD = new ParseField("fail_on_unsupported_field");
+    }
+}
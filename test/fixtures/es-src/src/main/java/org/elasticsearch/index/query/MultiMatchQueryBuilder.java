@@ -0,0 +1,115 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.hppc.ObjectFloatOpenHashMap;
+import org.elasticsearch.common.unit.Fuzziness;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Same as {@link MatchQueryBuilder} but supports multiple fields.
+ */
+public class MultiMatchQueryBuilder {
+
+    private final Object text;
+
+    private final List<String> fields;
+
+    private ObjectFloatOpenHashMap<String> fieldsBoosts;
+
+    private MatchQueryBuilder.Operator operator;
+
+    private String analyzer;
+
+    private Float boost;
+
+    private Integer slop;
+
+    private Fuzziness fuzziness;
+
+    private Integer prefixLength;
+
+    private Integer maxExpansions;
+
+    private String minimumShouldMatch;
+
+    private String rewrite = null;
+
+    private String fuzzyRewrite = null;
+
+    private Boolean useDisMax;
+
+    private Float tieBreaker;
+
+    private Boolean lenient;
+
+    private Float cutoffFrequency = null;
+
+    private String queryName;
+
+    public MultiMatchQueryBuilder(Object text, String... fields) {
+        this.fields = new ArrayList<String>();
+        this.text = text;
+    }
+
+    public void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject(MultiMatchQueryParser.NAME);
+
+        builder.field("query", text);
+        builder.startArray("fields");
+        for (String field : fields) {
+            builder.value(field);
+        }
+        builder.endArray();
+
+        if (operator != null) {
+            builder.field("operator", operator.toString());
+        }
+        if (analyzer != null) {
+            builder.field("analyzer", analyzer);
+        }
+        if (boost != null) {
+            builder.field("boost", boost);
+        }
+        if (slop != null) {
+            builder.field("slop", slop);
+        }
+        if (fuzziness != null) {
+            fuzziness.toXContent(builder, params);
+        }
+        if (prefixLength != null) {
+            builder.field("prefix_length", prefixLength);
+        }
+        if (maxExpansions != null) {
+            builder.field("max_expansions", maxExpansions);
+        }
+        if (minimumShouldMatch != null) {
+            builder.field("minimum_should_match", minimumShouldMatch);
+        }
+        if (rewrite != null) {
+            builder.field("rewrite", rewrite);
+        }
+        if (fuzzyRewrite != null) {
+            builder.field("fuzzy_rewrite", fuzzyRewrite);
+        }
+        if (useDisMax != null) {
+            builder.field("use_dis_max", useDisMax);
+        }
+        if (tieBreaker != null) {
+            builder.field("tie_breaker", tieBreaker);
+        }
+        if (lenient != null) {
+            builder.field("lenient", lenient);
+        }
+        if (cutoffFrequency != null) {
+            builder.field("cutoff_frequency", cutoffFrequency);
+        }
+        if (queryName != null) {
+            builder.field("_name", queryName);
+        }
+        builder.endObject();
+    }
+}
@@ -0,0 +1,7 @@
+package org.elasticsearch.index.query;
+
+public class MultiMatchQueryParser {
+
+    public static final String NAME = "multi_match";
+
+}
@@ -0,0 +1,43 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * A filter that restricts search results to values that have a matching prefix in a given
+ * field.
+ */
+public class PrefixFilterBuilder {
+
+    private final String name;
+
+    private final String prefix;
+
+    private Boolean cache;
+
+    private String cacheKey;
+
+    private String filterName;
+
+    public PrefixFilterBuilder(String name, String prefix) {
+        this.name = name;
+        this.prefix = prefix;
+    }
+
+    protected void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject(PrefixFilterParser.NAME);
+        builder.field(name, prefix);
+        if (filterName != null) {
+            builder.field("_name", filterName);
+        }
+        if (cache != null) {
+            builder.field("_cache", cache);
+        }
+        if (cacheKey != null) {
+            builder.field("_cache_key", cacheKey);
+        }
+        builder.endObject();
+    }
+}
@@ -0,0 +1,7 @@
+package org.elasticsearch.index.query;
+
+public class PrefixQueryParser {
+
+    public static final String NAME = "prefix";
+
+}
@@ -0,0 +1,83 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * A query that parses a query string and runs it.
+ */
+public class QueryStringQueryBuilder {
+
+    public static enum Operator {
+        OR, AND
+    }
+
+    private final String queryString;
+
+    private String defaultField;
+
+    private Operator defaultOperator;
+
+    private String analyzer;
+
+    private Boolean allowLeadingWildcard;
+
+    private Boolean lowercaseExpandedTerms;
+
+    private Boolean analyzeWildcard;
+
+    private float boost = -1;
+
+    private Integer phraseSlop;
+
+    private List<String> fields;
+
+    private String queryName;
+
+    public QueryStringQueryBuilder(String queryString) {
+        this.queryString = queryString;
+    }
+
+    protected void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject(QueryStringQueryParser.NAME);
+        builder.field("query", queryString);
+        if (defaultField != null) {
+            builder.field("default_field", defaultField);
+        }
+        if (fields != null) {
+            builder.startArray("fields");
+            for (String field : fields) {
+                builder.value(field);
+            }
+            builder.endArray();
+        }
+        if (defaultOperator != null) {
+            builder.field("default_operator", defaultOperator.name().toLowerCase());
+        }
+        if (analyzer != null) {
+            builder.field("analyzer", analyzer);
+        }
+        if (allowLeadingWildcard != null) {
+            builder.field("allow_leading_wildcard", allowLeadingWildcard);
+        }
+        if (lowercaseExpandedTerms != null) {
+            builder.field("lowercase_expanded_terms", lowercaseExpandedTerms);
+        }
+        if (analyzeWildcard != null) {
+            builder.field("analyze_wildcard", analyzeWildcard);
+        }
+        if (boost != -1) {
+            builder.field("boost", boost);
+        }
+        if (phraseSlop != null) {
+            builder.field("phrase_slop", phraseSlop);
+        }
+        if (queryName != null) {
+            builder.field("_name", queryName);
+        }
+        builder.endObject();
+    }
+}
@@ -0,0 +1,7 @@
+package org.elasticsearch.index.query;
+
+public class QueryStringQueryParser {
+
+    public static final String NAME = "query_string";
+
+}
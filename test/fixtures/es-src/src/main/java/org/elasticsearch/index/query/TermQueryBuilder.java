@@ -0,0 +1,53 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * A Query that matches documents containing a term.
+ */
+public class TermQueryBuilder {
+
+    private final String name;
+
+    private final Object value;
+
+    private float boost = -1;
+
+    private String queryName;
+
+    public TermQueryBuilder(String name, Object value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    public TermQueryBuilder boost(float boost) {
+        this.boost = boost;
+        return this;
+    }
+
+    public TermQueryBuilder queryName(String queryName) {
+        this.queryName = queryName;
+        return this;
+    }
+
+    public void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject(TermQueryParser.NAME);
+        if (boost == -1 && queryName == null) {
+            builder.field(name, value);
+        } else {
+            builder.startObject(name);
+            builder.field("value", value);
+            if (boost != -1) {
+                builder.field("boost", boost);
+            }
+            if (queryName != null) {
+                builder.field("_name", queryName);
+            }
+            builder.endObject();
+        }
+        builder.endObject();
+    }
+}
@@ -0,0 +1,7 @@
+package org.elasticsearch.index.query;
+
+public class TermQueryParser {
+
+    public static final String NAME = "term";
+
+}
@@ -0,0 +1,47 @@
+package org.elasticsearch.index.query;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * A filter for a field based on several terms matching on any of them.
+ */
+public class TermsFilterBuilder {
+
+    private final String name;
+
+    private final Object values;
+
+    private String execution;
+
+    private Boolean cache;
+
+    private String cacheKey;
+
+    private String filterName;
+
+    public TermsFilterBuilder(String name, Object values) {
+        this.name = name;
+        this.values = values;
+    }
+
+    protected void doXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject(TermsFilterParser.NAME);
+        builder.field(name, values);
+        if (execution != null) {
+            builder.field("execution", execution);
+        }
+        if (filterName != null) {
+            builder.field("_name", filterName);
+        }
+        if (cache != null) {
+            builder.field("_cache", cache);
+        }
+        if (cacheKey != null) {
+            builder.field("_cache_key", cacheKey);
+        }
+        builder.endObject();
+    }
+}
@@ -0,0 +1,7 @@
+package org.elasticsearch.index.query;
+
+public class TermsFilterParser {
+
+    public static final String NAME = "terms";
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Runs a corpus of generated queries through the JavaScript ports of the builder, QBCostAnalyzer and QBQueryRewriter,
+ * with the model of 1.7.2, without a browser:
+ *
+ *   java com.adamantite.es.querybuilder.QueryFuzzHarness -seed 42 -count 10000 -out corpus.ndjson
+ *   node web/bench/qb-corpus-bench.js corpus.ndjson [rounds]
+ *
+ * The corpus is a query per line, as QueryFuzzHarness writes it, so both sides time the same queries, and the
+ * throughput can be compared with that of the java cost and rewriter targets. Node has no allocation counter,
+ * so only the java harness reports allocation per query.
+ */
+var fs = require('fs');
+var path = require('path');
+
+var web = path.join(__dirname, '..');
+var model = JSON.parse(fs.readFileSync(path.join(web, 'qb-model-1.7.2.json'), 'utf8'));
+var rules = JSON.parse(fs.readFileSync(path.join(web, 'qb-cost-rules.json'), 'utf8'));
+
+if (!process.argv[2]) {
+    console.error('usage: node qb-corpus-bench.js corpus.ndjson [rounds]');
+    process.exit(1);
+}
+var corpus = fs.readFileSync(process.argv[2], 'utf8').split('\n').filter(function (line) { return line.length > 0; });
+var rounds = parseInt(process.argv[3] || '5');
+
+// the ports export to window, and use these of jQuery
+global.window = global;
+global.$ = {
+    isArray: Array.isArray,
+    inArray: function (value, array) { return array.indexOf(value); },
+    isEmptyObject: function (o) { return Object.keys(o).length == 0; },
+    extend: function (deep, target, source) { return JSON.parse(JSON.stringify(source)); }
+};
+require('../js/qb-cost.js');
+require('../js/qb-rewrite.js');
+
+function getType(filterOrQuery, dslType) {
+    return model[filterOrQuery][dslType] || null;
+}
+var analyzer = new QBCostAnalyzer(rules, getType);
+var rewriter = new QBQueryRewriter(getType);
+var queries = corpus.map(function (line) { return JSON.parse(line); });
+
+function time(name, f) {
+    var check = 0;
+    queries.forEach(function (q) { check += f(q); });
+    var start = process.hrtime();
+    for (var r = 0; r < rounds; ++r) {
+        queries.forEach(function (q) { check += f(q); });
+    }
+    var t = process.hrtime(start);
+    var s = t[0] + t[1] / 1e9;
+    console.log(name + ': ' + Math.round(queries.length * rounds / s) + ' queries/s (' + check + ')');
+}
+
+console.log(queries.length + ' queries, ' + rounds + ' rounds');
+time('json round trip', function (q) { return JSON.stringify(JSON.parse(JSON.stringify(q))).length; });
+time('cost', function (q) { return analyzer.analyze(q, 'query').cost; });
+time('rewriter', function (q) { return rewriter.rewrite(q).changes.length; });
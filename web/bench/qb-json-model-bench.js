@@ -0,0 +1,151 @@
+/**
+ * Compares re-serializing the whole form on every keystroke, as serializeFormToJson in query-dsl-builder.html does,
+ * with updating a QBJsonModel, on a form with a 500 clause bool query, without a browser:
+ *
+ *   node web/bench/qb-json-model-bench.js [clauses] [keystrokes]
+ *
+ * serializeFormToJson is taken from the page and runs against a minimal jQuery stand-in over an array of inputs,
+ * so the full rebuild is timed without the DOM traversal it needs in the browser. Every keystroke of the check
+ * pass asserts that both produce the same text.
+ */
+var fs = require('fs');
+var path = require('path');
+var assert = require('assert');
+var QBJsonModel = require('../js/qb-json-model.js');
+
+var web = path.join(__dirname, '..');
+var page = fs.readFileSync(path.join(web, 'query-dsl-builder.html'), 'utf8');
+var model = JSON.parse(fs.readFileSync(path.join(web, 'qb-model-1.7.2.json'), 'utf8'));
+
+var clauses = parseInt(process.argv[2] || '500');
+var keystrokes = parseInt(process.argv[3] || '2000');
+
+// the page's serialization functions, with $ over the inputs of the current form
+function pageFunction(name) {
+    return page.match(new RegExp('function ' + name + '\\([\\s\\S]*?\\n}\\n'))[0];
+}
+var form;
+var byId;
+var $ = function (sel) {
+    if (sel === 'form') return {find: function () { return {each: function (f) { form.forEach(function (el) { f.call(el); }); }}; }};
+    var el = typeof sel === 'string' ? byId[sel.substring(1)] : sel;
+    return {attr: function (n) { return el ? el[n] : undefined; }, val: function () { return el ? el.value : undefined; }};
+};
+eval(['coerceType', 'replaceNamedObjectDelimiters', 'removeEmptyObjectsAndCompactArrays', 'serializeFormToJson'].map(pageFunction).join('\n'));
+
+/**
+ * The inputs the page renders for a dsl type, in form order, as qb-param-render-1.2.1.js renders them.
+ * children(listName) returns the dsl types to add to a list of queries.
+ */
+function render(inputs, prefix, dslType, children) {
+    var type = model.query[dslType];
+    if (type.namedObject) inputs.push({name: prefix + '-_namedObject', id: prefix + '_namedObject', value: ''});
+    type.fields.forEach(function (field) {
+        var fullname = type.namedObject ? prefix + '-@' + prefix + '@-' + field.name : prefix + '-' + field.name;
+        if (field.type == 'LIST_QUERY_BUILDER') {
+            (children(field.name) || []).forEach(function (child, i) {
+                render(inputs, fullname + '[' + i + ']-' + child, child, function () { return null; });
+            });
+        } else if (field.type == 'LIST') {
+            ['a', 'b'].forEach(function (v) {
+                inputs.push({name: fullname + '[]', value: v});
+            });
+        } else if (field.type == 'MAP' || /BUILDER$/.test(field.type)) {
+            // no named inputs until a key or a query type is picked
+        } else if (field.type == 'BOOLEAN' || field.type == 'OPERATOR' || field.type == 'FUZZINESS') {
+            inputs.push({name: fullname, value: ''});
+        } else {
+            inputs.push({name: fullname, id: fullname, ttype: field.type, value: ''});
+        }
+    });
+    return inputs;
+}
+
+var rotation = ['query_string', 'mlt', 'ids', 'multi_match', 'match_all', 'prefix'];
+form = render([], 'bool', 'bool', function (list) {
+    if (list != 'must' && list != 'should') return null;
+    var types = [];
+    for (var i = 0; i < (list == 'must' ? clauses : 3); ++i) types.push(rotation[i % rotation.length]);
+    return types;
+});
+byId = {};
+form.forEach(function (el) {
+    if (el.id) byId[el.id] = el;
+});
+
+// fill in every third text input, and name the named objects
+var random = (function (seed) {
+    return function (n) {
+        seed = (seed * 1103515245 + 12345) & 0x7fffffff;
+        return seed % n;
+    };
+})(42);
+var editable = [];
+form.forEach(function (el, i) {
+    if (/_namedObject$/.test(el.name)) {
+        el.value = 'field' + i;
+    } else if (el.ttype) {
+        editable.push(i);
+        if (i % 3 == 0) el.value = el.ttype == 'FLOAT' ? '1.5' : el.ttype == 'INTEGER' ? '3' : 'text' + i;
+    }
+});
+
+function keystroke(el) {
+    var v = el.value;
+    if (v && random(4) == 0) return v.substring(0, v.length - 1);
+    return v + (el.ttype == 'FLOAT' || el.ttype == 'INTEGER' ? random(10) : 'abcdefghij'.charAt(random(10)));
+}
+
+var strokes = [];
+for (var k = 0; k < keystrokes; ++k) strokes.push(editable[random(editable.length)]);
+
+function time(name, f) {
+    var start = process.hrtime();
+    var n = f();
+    var t = process.hrtime(start);
+    var ms = t[0] * 1e3 + t[1] / 1e6;
+    console.log(name + ': ' + (ms / n).toFixed(3) + ' ms/op (' + n + ' ops)');
+}
+
+var build = new QBJsonModel(form);
+var json = serializeFormToJson();
+assert.strictEqual(build.toJSON(), json);
+console.log(form.length + ' inputs, ' + clauses + ' clauses, ' + json.length + ' chars of json');
+
+// check pass: both agree after every keystroke
+var values = form.map(function (el) { return el.value; });
+var incremental = new QBJsonModel(form);
+strokes.forEach(function (i) {
+    form[i].value = keystroke(form[i]);
+    incremental.set(i, form[i].value);
+    assert.strictEqual(incremental.toJSON(), serializeFormToJson());
+});
+console.log('check: ' + strokes.length + ' keystrokes, same json');
+
+function reset() {
+    form.forEach(function (el, i) { el.value = values[i]; });
+}
+
+reset();
+time('full rebuild per keystroke', function () {
+    strokes.forEach(function (i) {
+        form[i].value = keystroke(form[i]);
+        serializeFormToJson();
+    });
+    return strokes.length;
+});
+reset();
+var timed = new QBJsonModel(form);
+timed.toJSON();
+time('incremental per keystroke', function () {
+    strokes.forEach(function (i) {
+        form[i].value = keystroke(form[i]);
+        timed.set(i, form[i].value);
+        timed.toJSON();
+    });
+    return strokes.length;
+});
+time('model build (form structure change)', function () {
+    for (var i = 0; i < 20; ++i) new QBJsonModel(form).toJSON();
+    return 20;
+});
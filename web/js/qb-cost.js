@@ -0,0 +1,221 @@
+/**
+ * Port of QueryCostAnalyzer.java, which estimates the cost of a query and flags the patterns known to be slow,
+ * with the same rules (qb-cost-rules.json), so the builder shows the cost the java api would report.
+ *
+ * Every query and filter is a node, whose cost is that of its dsl type, plus that of the params it sets,
+ * plus that of the patterns found on it: DEEP_NESTING, LEADING_WILDCARD, HIGH_FUZZINESS and UNCACHED_SCRIPT.
+ * The dsl types are looked up with getType(filterOrQuery, dslType), which returns the data model of the type,
+ * or null if it isn't known (or not loaded yet), in which case it costs the default and its content is skipped.
+ *
+ *   var analyzer = new QBCostAnalyzer(rules, function (filterOrQuery, dslType) { ... });
+ *   var report = analyzer.analyze(JSON.parse(json), 'query');
+ *   report.cost; report.nodes; report.findings;  // findings are {pattern, path, message}
+ */
+(function (global) {
+
+    function QBCostAnalyzer(rules, getType) {
+        this.rules = rules;
+        this.getType = getType;
+        this.compiled = {};
+    }
+
+    /**
+     * Params by name and the names of the objects holding params, as CompiledModel.CompiledType has them.
+     */
+    QBCostAnalyzer.prototype.compile = function (filterOrQuery, dslType) {
+        var key = filterOrQuery + ':' + dslType;
+        if (this.compiled.hasOwnProperty(key)) return this.compiled[key];
+        var data = this.getType(filterOrQuery, dslType);
+        if (!data) return null;
+        var type = {dslName: dslType, namedObject: !!data['namedObject'], namedArray: !!data['namedArray'], params: {}, groups: {}, compound: false};
+        var fields = data['fields'] || [];
+        for (var i = 0; i < fields.length; ++i) {
+            var name = fields[i]['name'];
+            var paramType = fields[i]['type'];
+            var bracket = name.indexOf('[');
+            if (bracket > 0) {
+                name = name.substring(0, bracket);
+                paramType = 'OTHER';
+            }
+            type.params[name] = paramType;
+            if (paramType == 'LIST_FILTER_BUILDER') type.compound = true;
+            for (var dot = name.indexOf('.'); dot > 0; dot = name.indexOf('.', dot + 1)) {
+                type.groups[name.substring(0, dot)] = true;
+            }
+        }
+        return this.compiled[key] = type;
+    };
+
+    QBCostAnalyzer.prototype.analyze = function (json, filterOrQuery) {
+        var c = {path: [], listDepth: 0, compounds: [], report: {cost: 0, nodes: [], findings: []}};
+        if (isObject(json)) this.dsl(c, json, filterOrQuery);
+        for (var i = 0; i < c.report.nodes.length; ++i) {
+            c.report.cost += c.report.nodes[i].cost;
+        }
+        return c.report;
+    };
+
+    QBCostAnalyzer.prototype.dsl = function (c, json, filterOrQuery) {
+        var rules = this.rules;
+        for (var name in json) {
+            if (!json.hasOwnProperty(name)) continue;
+            c.path.push(name);
+            var rule = rules[filterOrQuery] && rules[filterOrQuery].hasOwnProperty(name) ? rules[filterOrQuery][name] : null;
+            var node = {filterOrQuery: filterOrQuery, dslName: name, path: path(c), cost: rule ? rule['cost'] : rules['defaultCost']};
+            c.report.nodes.push(node);
+            if (c.listDepth == rules['maxListDepth'] + 1) {
+                this.finding(c, node, 'DEEP_NESTING', 'nested in ' + c.listDepth + ' lists of queries or filters, more than ' + rules['maxListDepth']);
+            }
+            var type = this.compile(filterOrQuery, name);
+            if (type && isObject(json[name])) this.params(c, json[name], filterOrQuery, type, rule, node);
+            c.path.pop();
+        }
+    };
+
+    QBCostAnalyzer.prototype.params = function (c, json, filterOrQuery, type, rule, node) {
+        if (rule && rule['script'] && c.compounds.length) {
+            c.compounds[c.compounds.length - 1].scripts.push(node);
+        }
+        var compound = filterOrQuery == 'filter' && type.compound ? {dslName: type.dslName, cached: false, scripts: []} : null;
+        if (compound) c.compounds.push(compound);
+
+        var named = false;
+        for (var name in json) {
+            if (!json.hasOwnProperty(name)) continue;
+            c.path.push(name);
+            if (!this.param(c, json[name], type, rule, node, compound, name) && (type.namedObject || type.namedArray) && !named) {
+                named = true;
+                this.namedField(c, json[name], type, rule, node, compound);
+            }
+            c.path.pop();
+        }
+
+        if (compound) {
+            c.compounds.pop();
+            if (!compound.cached) {
+                if (c.compounds.length) {
+                    var parent = c.compounds[c.compounds.length - 1];
+                    parent.scripts = parent.scripts.concat(compound.scripts);
+                } else {
+                    for (var i = 0; i < compound.scripts.length; ++i) {
+                        var script = compound.scripts[i];
+                        this.finding(c, script, 'UNCACHED_SCRIPT', 'script filter in a ' + compound.dslName + ' filter without "_cache":true', script.path);
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * Costs the value of a param, if name is one. Returns false if there's no such param.
+     */
+    QBCostAnalyzer.prototype.param = function (c, value, type, rule, node, compound, name) {
+        if (type.params.hasOwnProperty(name)) {
+            var paramType = type.params[name];
+            var set = value !== null && value !== false && value !== 'false';
+            if (rule && set) {
+                if (rule['params'] && rule['params'].hasOwnProperty(name)) node.cost += rule['params'][name];
+                if (name == rule['leadingWildcardParam'] && isTrue(value)) {
+                    this.finding(c, node, 'LEADING_WILDCARD', name + ' allows leading wildcards');
+                }
+            }
+            if (compound && name == '_cache') compound.cached = isTrue(value);
+            if (paramType == 'FUZZINESS') this.fuzziness(c, value, node);
+            if (paramType == 'QUERY_BUILDER') this.builder(c, value, 'query');
+            else if (paramType == 'FILTER_BUILDER') this.builder(c, value, 'filter');
+            else if (paramType == 'LIST_QUERY_BUILDER') this.builders(c, value, 'query');
+            else if (paramType == 'LIST_FILTER_BUILDER') this.builders(c, value, 'filter');
+            return true;
+        }
+        if (!type.groups.hasOwnProperty(name)) return false;
+
+        if (isObject(value)) {
+            for (var child in value) {
+                if (!value.hasOwnProperty(child)) continue;
+                c.path.push(child);
+                this.param(c, value[child], type, rule, node, compound, name + '.' + child);
+                c.path.pop();
+            }
+        }
+        return true;
+    };
+
+    /**
+     * The field of a namedObject or namedArray type, e.g. "user" in {"wildcard":{"user":"ki*"}}.
+     */
+    QBCostAnalyzer.prototype.namedField = function (c, value, type, rule, node, compound) {
+        var wildcards = rule && rule['leadingWildcard'];
+        if (type.namedObject && isObject(value)) {
+            for (var name in value) {
+                if (!value.hasOwnProperty(name)) continue;
+                c.path.push(name);
+                if (wildcards && (name == 'value' || name == type.dslName)) this.leadingWildcard(c, value[name], node);
+                this.param(c, value[name], type, rule, node, compound, name);
+                c.path.pop();
+            }
+        } else if (wildcards) {
+            this.leadingWildcard(c, value, node);
+        }
+    };
+
+    QBCostAnalyzer.prototype.builder = function (c, value, filterOrQuery) {
+        if (isObject(value)) this.dsl(c, value, filterOrQuery);
+    };
+
+    /**
+     * A list of queries or filters, or a single one.
+     */
+    QBCostAnalyzer.prototype.builders = function (c, value, filterOrQuery) {
+        c.listDepth++;
+        if (!$.isArray(value)) {
+            this.builder(c, value, filterOrQuery);
+        } else {
+            for (var i = 0; i < value.length; ++i) {
+                c.path.push('[' + i + ']');
+                this.builder(c, value[i], filterOrQuery);
+                c.path.pop();
+            }
+        }
+        c.listDepth--;
+    };
+
+    QBCostAnalyzer.prototype.leadingWildcard = function (c, value, node) {
+        if (typeof value == 'string' && (value.charAt(0) == '*' || value.charAt(0) == '?')) {
+            this.finding(c, node, 'LEADING_WILDCARD', '"' + value + '" starts with a wildcard');
+        }
+    };
+
+    QBCostAnalyzer.prototype.fuzziness = function (c, value, node) {
+        if (typeof value != 'number' && typeof value != 'string') return;
+        // AUTO, or a time or distance
+        if (typeof value == 'string' && !/^\s*[-+]?([0-9]+\.?[0-9]*|\.[0-9]+)([eE][-+]?[0-9]+)?\s*$/.test(value)) return;
+        if (parseFloat(value) > this.rules['maxFuzziness']) {
+            this.finding(c, node, 'HIGH_FUZZINESS', 'fuzziness ' + value + ' is above ' + this.rules['maxFuzziness']);
+        }
+    };
+
+    QBCostAnalyzer.prototype.finding = function (c, node, pattern, message, at) {
+        node.cost += this.rules['patterns'][pattern] || 0;
+        c.report.findings.push({pattern: pattern, path: at || path(c), message: message});
+    };
+
+    function path(c) {
+        var result = '';
+        for (var i = 0; i < c.path.length; ++i) {
+            if (result.length && c.path[i].charAt(0) != '[') result += '.';
+            result += c.path[i];
+        }
+        return result;
+    }
+
+    function isObject(value) {
+        return value !== null && typeof value == 'object' && !$.isArray(value);
+    }
+
+    function isTrue(value) {
+        return value === true || value === 'true';
+    }
+
+    global.QBCostAnalyzer = QBCostAnalyzer;
+
+})(window);
@@ -0,0 +1,293 @@
+/**
+ * Incremental version of serializeFormToJson in query-dsl-builder.html.
+ *
+ * The form inputs are parsed into a tree once, when the form changes shape, following their '-' separated
+ * names the same way serializeFormToJson does. After that, set() updates a single input, and toJSON() only
+ * re-renders the nodes on the path from that input to the root; the json text of every other subtree is cached.
+ * The result is the same text as serializeFormToJson: JSON.stringify(obj, null, '  ') + "\n".
+ *
+ * Keys are ordered by the first non-empty input below them, as they would be when the object is built from
+ * scratch, and the fields of named objects are resolved when rendered, so renaming one only re-renders its parent.
+ *
+ *   var model = new QBJsonModel([{name: 'bool-boost', value: '2', ttype: 'FLOAT', id: 'bool-boost'}, ...]);
+ *   model.set(0, '3');
+ *   model.toJSON();
+ */
+(function (global) {
+
+    var LIST_ITEM = /([a-zA-Z_]+)\[([0-9]+)\]/;
+    var NAMED_OBJECT = /@[^@]+@/g;
+    var ARRAY_INDEX = /^(0|[1-9][0-9]{0,8})$/;
+    var INDENTS = [''];
+
+    function indent(depth) {
+        while (INDENTS.length <= depth) INDENTS.push(INDENTS[INDENTS.length - 1] + '  ');
+        return INDENTS[depth];
+    }
+
+    function coerceType(type, val) {
+        if (type == 'FLOAT') return parseFloat(val);
+        if (type == 'INTEGER') return parseInt(val);
+        if (type == 'BOOLEAN') return (val === 'false');
+        return val;
+    }
+
+    /**
+     * kind is 'object', 'list' (of objects, e.g. bool-must[0]), 'leaf' or 'values' (e.g. ids-values[]).
+     * first is the form index of the first non-empty input below the node, Infinity if there's none,
+     * in which case the node isn't output.
+     */
+    function Node(kind, key, parent, depth) {
+        this.kind = kind;
+        this.key = key;
+        this.parent = parent;
+        this.depth = depth;
+        this.dirty = true;
+        this.first = Infinity;
+        this.cache = '';
+        // object: children in form order, keyed by childKey, and the inputs whose param isn't output (_cache etc)
+        this.children = [];
+        this.childIndex = {};
+        this.hidden = [];
+        // list: element objects by list index
+        this.elements = {};
+        this.order = [];
+        // leaf, values: the inputs
+        this.inputs = [];
+        // object: the id of the _namedObject input holding its key
+        this.ref = null;
+        // removeEmptyObjectsAndCompactArrays doesn't look inside lists, so arrays there keep their holes
+        this.compact = parent ? parent.compact && parent.kind != 'list' : true;
+    }
+
+    function QBJsonModel(inputs) {
+        this.inputs = [];
+        this.ids = {};
+        this.refs = {};
+        this.root = new Node('object', null, null, 0);
+        for (var i = 0; i < inputs.length; ++i) {
+            var input = {name: inputs[i].name, value: inputs[i].value, ttype: inputs[i].ttype, id: inputs[i].id, node: null};
+            this.inputs.push(input);
+            if (input.id && !this.ids.hasOwnProperty(input.id)) this.ids[input.id] = i;
+            if (input.name) this.add(i, input);
+        }
+        sortLists(this.root);
+    }
+
+    function numeric(a, b) {
+        return a - b;
+    }
+
+    function sortLists(node) {
+        if (node.kind == 'list') {
+            node.order.sort(numeric);
+            for (var i = 0; i < node.order.length; ++i) sortLists(node.elements[node.order[i]]);
+        } else if (node.kind == 'object') {
+            for (var j = 0; j < node.children.length; ++j) sortLists(node.children[j]);
+        }
+    }
+
+    /**
+     * Adds the path of input i to the tree.
+     */
+    QBJsonModel.prototype.add = function (i, input) {
+        var name = input.name.replace(NAMED_OBJECT, function (match) {
+            return match.replace(/-/g, '~');
+        });
+        var arr = name.split('-');
+        var current = this.root;
+        for (var j = 0; j < arr.length - 1; ++j) {
+            var prop = arr[j];
+            var match = prop.match(LIST_ITEM);
+            if (match) {
+                var list = child(current, 'l:' + match[1], 'list', match[1]);
+                var idx = parseInt(match[2]);
+                if (!list.elements.hasOwnProperty(idx)) {
+                    list.elements[idx] = new Node('object', null, list, list.depth + 1);
+                    list.order.push(idx);
+                }
+                current = list.elements[idx];
+            } else if (prop.charAt(0) == '@') {
+                var ref = prop.replace(/@/g, '').replace(/~/g, '-') + '_namedObject';
+                current = child(current, 'r:' + ref, 'object', null);
+                current.ref = ref;
+                if (!this.refs[ref]) this.refs[ref] = [];
+                if (this.refs[ref].indexOf(current) < 0) this.refs[ref].push(current);
+            } else {
+                current = child(current, 'o:' + prop, 'object', prop);
+            }
+        }
+        var finalprop = arr[arr.length - 1];
+        if (finalprop.charAt(0) == '_' && finalprop !== '_name') {
+            current.hidden.push(i);
+            input.node = current;
+        } else if (finalprop.indexOf('[]') > -1) {
+            finalprop = finalprop.replace(/\[\]/g, '');
+            input.node = child(current, 'v:' + finalprop, 'values', finalprop);
+            input.node.inputs.push(i);
+        } else {
+            input.node = child(current, 'k:' + finalprop, 'leaf', finalprop);
+            input.node.inputs.push(i);
+        }
+    };
+
+    function child(parent, childKey, kind, key) {
+        var node = parent.childIndex[childKey];
+        if (!node) {
+            node = new Node(kind, key, parent, parent.depth + 1);
+            parent.childIndex[childKey] = node;
+            parent.children.push(node);
+        }
+        return node;
+    }
+
+    /**
+     * Updates the value of input i.
+     */
+    QBJsonModel.prototype.set = function (i, value) {
+        var input = this.inputs[i];
+        if (input.value === value) return;
+        input.value = value;
+        if (input.node) markDirty(input.node);
+        // the key of the named objects this input names
+        var refs = input.id ? this.refs[input.id + ''] : null;
+        if (refs) {
+            for (var j = 0; j < refs.length; ++j) markDirty(refs[j].parent);
+        }
+    };
+
+    function markDirty(node) {
+        while (node && !node.dirty) {
+            node.dirty = true;
+            node = node.parent;
+        }
+    }
+
+    /**
+     * @return the same text as serializeFormToJson
+     */
+    QBJsonModel.prototype.toJSON = function () {
+        this.render(this.root);
+        return this.root.cache + '\n';
+    };
+
+    QBJsonModel.prototype.render = function (node) {
+        if (!node.dirty) return;
+        node.dirty = false;
+        if (node.kind == 'leaf') {
+            this.renderLeaf(node);
+        } else if (node.kind == 'values') {
+            this.renderValues(node);
+        } else if (node.kind == 'list') {
+            this.renderList(node);
+        } else {
+            this.renderObject(node);
+        }
+    };
+
+    QBJsonModel.prototype.renderLeaf = function (node) {
+        node.first = Infinity;
+        var last = -1;
+        for (var i = 0; i < node.inputs.length; ++i) {
+            var input = this.inputs[node.inputs[i]];
+            if (!input.value) continue;
+            if (node.first == Infinity) node.first = node.inputs[i];
+            last = node.inputs[i];
+        }
+        if (last >= 0) node.cache = JSON.stringify(coerceType(this.inputs[last].ttype, this.inputs[last].value));
+    };
+
+    QBJsonModel.prototype.renderValues = function (node) {
+        node.first = Infinity;
+        var items = [];
+        for (var i = 0; i < node.inputs.length; ++i) {
+            var input = this.inputs[node.inputs[i]];
+            if (!input.value) continue;
+            if (node.first == Infinity) node.first = node.inputs[i];
+            var val = coerceType(input.ttype, input.value);
+            if (val || !node.compact) items.push(JSON.stringify(val));
+        }
+        node.cache = renderArray(items, node.depth);
+    };
+
+    QBJsonModel.prototype.renderList = function (node) {
+        node.first = Infinity;
+        var items = [];
+        for (var i = 0; i < node.order.length; ++i) {
+            var idx = node.order[i];
+            var element = node.elements[idx];
+            this.render(element);
+            if (element.first == Infinity) continue;
+            if (element.first < node.first) node.first = element.first;
+            while (!node.compact && items.length < idx) items.push('null');
+            items.push(element.cache);
+        }
+        node.cache = renderArray(items, node.depth);
+    };
+
+    function renderArray(items, depth) {
+        if (!items.length) return '[]';
+        var ind = indent(depth + 1);
+        return '[\n' + ind + items.join(',\n' + ind) + '\n' + indent(depth) + ']';
+    }
+
+    QBJsonModel.prototype.renderObject = function (node) {
+        node.first = Infinity;
+        for (var h = 0; h < node.hidden.length; ++h) {
+            if (this.inputs[node.hidden[h]].value && node.hidden[h] < node.first) node.first = node.hidden[h];
+        }
+        var present = [];
+        var sorted = true;
+        for (var i = 0; i < node.children.length; ++i) {
+            var c = node.children[i];
+            this.render(c);
+            if (c.first == Infinity) continue;
+            if (present.length && c.first < present[present.length - 1].first) sorted = false;
+            present.push(c);
+            if (c.first < node.first) node.first = c.first;
+        }
+        if (!sorted) present.sort(function (a, b) {
+            return a.first - b.first;
+        });
+        if (!present.length) {
+            node.cache = '{}';
+            return;
+        }
+        var keys = [];
+        var indexKeys = false;
+        for (var j = 0; j < present.length; ++j) {
+            keys.push(this.keyOf(present[j]));
+            if (ARRAY_INDEX.test(keys[j])) indexKeys = true;
+        }
+        var order = present.map(function (c, k) {
+            return k;
+        });
+        // objects list integer keys first, in ascending order
+        if (indexKeys) order.sort(function (a, b) {
+            var ia = ARRAY_INDEX.test(keys[a]), ib = ARRAY_INDEX.test(keys[b]);
+            if (ia && ib) return keys[a] - keys[b];
+            if (ia != ib) return ia ? -1 : 1;
+            return a - b;
+        });
+        var s = '{\n';
+        var ind = indent(node.depth + 1);
+        for (var o = 0; o < order.length; ++o) {
+            if (o) s += ',\n';
+            s += ind + JSON.stringify(keys[order[o]]) + ': ' + present[order[o]].cache;
+        }
+        node.cache = s + '\n' + indent(node.depth) + '}';
+    };
+
+    /**
+     * The key of a child, resolving named objects to the value of their _namedObject input.
+     */
+    QBJsonModel.prototype.keyOf = function (node) {
+        if (!node.ref) return node.key;
+        var i = this.ids[node.ref];
+        var key = i === undefined ? undefined : this.inputs[i].value;
+        return key ? key : '_placeholder';
+    };
+
+    global.QBJsonModel = QBJsonModel;
+    if (typeof module !== 'undefined' && module.exports) module.exports = QBJsonModel;
+})(this);
@@ -0,0 +1,300 @@
+/**
+ * Port of QueryRewriter.java, which rewrites a query into one which matches the same documents but runs cheaper:
+ * term level clauses without a boost are moved from the must of a bool query into a cached filter, bools holding
+ * a single clause are replaced by it, and identical clauses in a bool list are dropped. Every rewrite is checked
+ * against the data model of the version, as the java one is, but the result isn't validated again.
+ *
+ * The dsl types are looked up with getType(filterOrQuery, dslType), which returns the data model of the type,
+ * or null if it isn't known. QBQueryRewriter.TYPES are the types it may look up besides those in the query.
+ *
+ *   var rewriter = new QBQueryRewriter(function (filterOrQuery, dslType) { ... });
+ *   var result = rewriter.rewrite(JSON.parse(json));
+ *   result.query; result.changes;  // changes are strings, e.g. "bool: moved 1 clause from must into a cached filter"
+ */
+(function (global) {
+
+    var NON_SCORING = ['term', 'terms', 'range', 'ids', 'prefix'];
+    var BOOL_LISTS = ['must', 'must_not', 'should'];
+
+    function QBQueryRewriter(getType) {
+        this.getType = getType;
+    }
+
+    QBQueryRewriter.TYPES = {query: ['bool', 'filtered'].concat(NON_SCORING), filter: ['bool'].concat(NON_SCORING)};
+
+    /**
+     * Params by name and the names of the objects holding params, as CompiledModel.CompiledType has them.
+     */
+    QBQueryRewriter.prototype.compile = function (filterOrQuery, dslType) {
+        var data = this.getType(filterOrQuery, dslType);
+        if (!data) return null;
+        var type = {namedObject: !!data['namedObject'], namedObjectValue: !!data['namedObjectValue'], params: {}, groups: {}};
+        var fields = data['fields'] || [];
+        for (var i = 0; i < fields.length; ++i) {
+            var name = fields[i]['name'];
+            var paramType = fields[i]['type'];
+            var bracket = name.indexOf('[');
+            if (bracket > 0) {
+                name = name.substring(0, bracket);
+                paramType = 'OTHER';
+            }
+            type.params[name] = paramType;
+            for (var dot = name.indexOf('.'); dot > 0; dot = name.indexOf('.', dot + 1)) {
+                type.groups[name.substring(0, dot)] = true;
+            }
+        }
+        return type;
+    };
+
+    QBQueryRewriter.prototype.rewrite = function (query) {
+        var c = {path: [], changes: []};
+        query = this.query(c, $.extend(true, {}, query));
+        return {query: query, changes: c.changes};
+    };
+
+    QBQueryRewriter.prototype.query = function (c, query) {
+        var name = single(query);
+        if (name === null) return query;
+        var type = this.compile('query', name);
+        if (!type || !isObject(query[name])) return query;
+        c.path.push(name);
+        this.builders(c, type, query[name]);
+        var result = name == 'bool' ? this.boolQuery(c, type, query, query[name]) : query;
+        c.path.pop();
+        return result;
+    };
+
+    QBQueryRewriter.prototype.filter = function (c, filter) {
+        var name = single(filter);
+        if (name === null) return filter;
+        var type = this.compile('filter', name);
+        if (!type || !isObject(filter[name])) return filter;
+        c.path.push(name);
+        this.builders(c, type, filter[name]);
+        var result = filter;
+        if (name == 'bool') {
+            dedupe(c, filter[name], false);
+            result = flatten(c, filter, filter[name]);
+        }
+        c.path.pop();
+        return result;
+    };
+
+    QBQueryRewriter.prototype.builders = function (c, type, body) {
+        for (var name in body) {
+            if (!body.hasOwnProperty(name) || !type.params.hasOwnProperty(name)) continue;
+            var paramType = type.params[name];
+            c.path.push(name);
+            if (paramType == 'QUERY_BUILDER') {
+                body[name] = this.query(c, body[name]);
+            } else if (paramType == 'FILTER_BUILDER') {
+                body[name] = this.filter(c, body[name]);
+            } else if (paramType == 'LIST_QUERY_BUILDER' || paramType == 'LIST_FILTER_BUILDER') {
+                var method = paramType == 'LIST_QUERY_BUILDER' ? this.query : this.filter;
+                if ($.isArray(body[name])) {
+                    for (var i = 0; i < body[name].length; ++i) {
+                        c.path.push('[' + i + ']');
+                        body[name][i] = method.call(this, c, body[name][i]);
+                        c.path.pop();
+                    }
+                } else {
+                    body[name] = method.call(this, c, body[name]);
+                }
+            }
+            c.path.pop();
+        }
+    };
+
+    QBQueryRewriter.prototype.boolQuery = function (c, type, query, body) {
+        dedupe(c, body, body.hasOwnProperty('minimum_should_match'));
+        var flattened = flatten(c, query, body);
+        if (flattened !== query) return flattened;
+        if (body.hasOwnProperty('boost') || !body.hasOwnProperty('must')) return query;
+
+        var must = list(body['must']);
+        var remaining = [], filters = [], moved = [];
+        for (var i = 0; i < must.length; ++i) {
+            var filter = this.toFilter(must[i]);
+            if (filter) {
+                filters.push(filter);
+                moved.push(must[i]);
+            } else {
+                remaining.push(must[i]);
+            }
+        }
+        if (!filters.length) return query;
+        // with nothing left in must, elasticsearch would require a should clause to match
+        if (!remaining.length && body.hasOwnProperty('should') && list(body['should']).length) return query;
+        // and with only must_not left, and adjust_pure_negative off, it would match nothing
+        if (!remaining.length && body.hasOwnProperty('must_not') && list(body['must_not']).length
+                && String(body['adjust_pure_negative']) == 'false') return query;
+
+        if (type.params['filter'] == 'LIST_QUERY_BUILDER') {
+            // the bool query has a filter context of its own, which elasticsearch caches
+            var filterList = body.hasOwnProperty('filter') ? list(body['filter']).concat(moved) : moved;
+            if (remaining.length) body['must'] = remaining; else delete body['must'];
+            body['filter'] = filterList;
+            c.changes.push(change(c, 'moved ' + clauses(moved.length) + ' from must into filter'));
+            return query;
+        }
+
+        var filtered = this.compile('query', 'filtered');
+        if (!filtered || filtered.params['filter'] != 'FILTER_BUILDER' || filtered.params['query'] != 'QUERY_BUILDER') return query;
+        var cached;
+        if (filters.length == 1) {
+            cached = this.cache(filters[0]);
+        } else {
+            var boolFilter = this.compile('filter', 'bool');
+            if (!boolFilter || boolFilter.params['must'] != 'LIST_FILTER_BUILDER') return query;
+            cached = this.cache({bool: {must: filters}});
+        }
+
+        c.changes.push(change(c, 'moved ' + clauses(moved.length) + ' from must into a cached filter'));
+        var filteredBody = {};
+        if (remaining.length) body['must'] = remaining; else delete body['must'];
+        // without a query, a filtered query matches every document the filter does
+        if (!$.isEmptyObject(body)) filteredBody['query'] = flatten(c, query, body);
+        filteredBody['filter'] = cached;
+        return {filtered: filteredBody};
+    };
+
+    /**
+     * The filter form of a term level query, or null if it can't be moved into a filter.
+     */
+    QBQueryRewriter.prototype.toFilter = function (clause) {
+        var dslType = single(clause);
+        if (dslType === null || $.inArray(dslType, NON_SCORING) < 0 || !isObject(clause[dslType])) return null;
+        var queryType = this.compile('query', dslType);
+        var filterType = this.compile('filter', dslType);
+        if (!queryType || !filterType) return null;
+
+        var body = {}, named = false, query = clause[dslType];
+        for (var name in query) {
+            if (!query.hasOwnProperty(name)) continue;
+            var value = query[name];
+            if (queryType.params.hasOwnProperty(name) || queryType.groups.hasOwnProperty(name)) {
+                if (!takes(queryType, filterType, name)) return null;
+            } else if (queryType.namedObject && !named) {
+                named = true;
+                if (isObject(value)) {
+                    var keys = Object.keys(value);
+                    if (filterType.namedObjectValue) {
+                        // {"user":{"value":"kimchy"}} is {"user":"kimchy"} as a filter
+                        if (keys.length != 1 || (keys[0] != 'value' && keys[0] != dslType)) return null;
+                        value = value[keys[0]];
+                    } else {
+                        for (var i = 0; i < keys.length; ++i) {
+                            if (!takes(queryType, filterType, keys[i])) return null;
+                        }
+                    }
+                } else if (!filterType.namedObject && !filterType.namedObjectValue) {
+                    return null;
+                }
+            }
+            body[name] = value;
+        }
+        var filter = {};
+        filter[dslType] = body;
+        return filter;
+    };
+
+    /**
+     * Sets "_cache":true on the filter, if its type takes it.
+     */
+    QBQueryRewriter.prototype.cache = function (filter) {
+        var dslType = single(filter);
+        var type = this.compile('filter', dslType);
+        if (type && type.params['_cache'] == 'BOOLEAN') filter[dslType]['_cache'] = true;
+        return filter;
+    };
+
+    /**
+     * Can the filter take a param of the query? Params neither knows, e.g. the gte of a range, are taken as they are.
+     */
+    function takes(queryType, filterType, name) {
+        if (name == 'boost') return false;
+        if (!queryType.params.hasOwnProperty(name) && !queryType.groups.hasOwnProperty(name)) return true;
+        return filterType.params.hasOwnProperty(name) || filterType.groups.hasOwnProperty(name);
+    }
+
+    /**
+     * Drops clauses which are identical to an earlier one in the same list of a bool.
+     */
+    function dedupe(c, body, keepShould) {
+        for (var i = 0; i < BOOL_LISTS.length; ++i) {
+            var name = BOOL_LISTS[i];
+            if (!$.isArray(body[name]) || (keepShould && name == 'should')) continue;
+            var unique = [], seen = {};
+            for (var j = 0; j < body[name].length; ++j) {
+                var key = canonical(body[name][j]);
+                if (seen.hasOwnProperty(key)) {
+                    c.changes.push(change(c, 'dropped a duplicate clause from ' + name));
+                } else {
+                    seen[key] = true;
+                    unique.push(body[name][j]);
+                }
+            }
+            body[name] = unique;
+        }
+    }
+
+    /**
+     * The single must or should clause of a bool, if it has nothing else, else the bool itself.
+     */
+    function flatten(c, bool, body) {
+        var keys = Object.keys(body);
+        if (keys.length != 1 || (keys[0] != 'must' && keys[0] != 'should')) return bool;
+        var clauses = list(body[keys[0]]);
+        if (clauses.length != 1) return bool;
+        c.changes.push(change(c, 'replaced a bool with its single ' + keys[0] + ' clause'));
+        return clauses[0];
+    }
+
+    /**
+     * Json with the keys of objects sorted, so equal clauses give the same string whatever the order of their keys.
+     */
+    function canonical(value) {
+        if ($.isArray(value)) {
+            var items = [];
+            for (var i = 0; i < value.length; ++i) items.push(canonical(value[i]));
+            return '[' + items.join(',') + ']';
+        }
+        if (isObject(value)) {
+            var keys = Object.keys(value).sort();
+            var fields = [];
+            for (var i = 0; i < keys.length; ++i) fields.push(JSON.stringify(keys[i]) + ':' + canonical(value[keys[i]]));
+            return '{' + fields.join(',') + '}';
+        }
+        return JSON.stringify(value);
+    }
+
+    function change(c, message) {
+        var path = '';
+        for (var i = 0; i < c.path.length; ++i) {
+            if (path.length && c.path[i].charAt(0) != '[') path += '.';
+            path += c.path[i];
+        }
+        return path + ': ' + message;
+    }
+
+    function single(value) {
+        if (!isObject(value)) return null;
+        var keys = Object.keys(value);
+        return keys.length == 1 ? keys[0] : null;
+    }
+
+    function list(value) {
+        return $.isArray(value) ? value : [value];
+    }
+
+    function clauses(n) {
+        return n == 1 ? '1 clause' : n + ' clauses';
+    }
+
+    function isObject(value) {
+        return value !== null && typeof value == 'object' && !$.isArray(value);
+    }
+
+    global.QBQueryRewriter = QBQueryRewriter;
+
+})(window);
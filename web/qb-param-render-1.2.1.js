@@ -54,11 +54,11 @@ Handlebars.registerHelper('render_param', function (prefix, name, type, id, name
   } else if (type == 'LIST_QUERY_BUILDER') {
     s = '<input type="button" class="form-control btn btn-info queryadd" counter="0" target="'+fullname+'" targettype="query" tgid="'+id+'" value="Add query to '+ name+ '" id="'+fullname+'_addquery"><ol></ol>';
   } else if (type == 'QUERY_BUILDER') {
-    var tgid = rand_id();
+    var tgid = id + '_' + name;
     s = "<select _name='" + fullname + "' class='qb form-control' tgid=" + tgid + " type='query' id='"+fullname+"_query'>" + $('.qb').html() + "</select>";
     s += '<div class="qbfields" id="qbfields_' + tgid + '"></div><br/>';
   } else if (type == 'FILTER_BUILDER') {
-    var tgid = rand_id();
+    var tgid = id + '_' + name;
     s = "<select _name='" + fullname + "' class='qb form-control' tgid=" + tgid + " type='filter' id='"+fullname+"_filter'>" + $('.fb').html() + "</select>";
     s += '<div class="qbfields" id="qbfields_' + tgid + '"></div><br/>';
   } else {
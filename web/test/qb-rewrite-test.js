@@ -0,0 +1,47 @@
+/**
+ * Checks the JavaScript port of the rewriter against the model of 1.7.2, without a browser:
+ *
+ *   node web/test/qb-rewrite-test.js
+ *
+ * The cases are those of QueryRewriterTest which the port has to agree on. Exits with 1 on the first failure.
+ */
+var assert = require('assert');
+var fs = require('fs');
+var path = require('path');
+
+var web = path.join(__dirname, '..');
+var model = JSON.parse(fs.readFileSync(path.join(web, 'qb-model-1.7.2.json'), 'utf8'));
+
+// the port exports to window, and uses these of jQuery
+global.window = global;
+global.$ = {
+    isArray: Array.isArray,
+    inArray: function (value, array) { return array.indexOf(value); },
+    isEmptyObject: function (o) { return Object.keys(o).length == 0; },
+    extend: function (deep, target, source) { return JSON.parse(JSON.stringify(source)); }
+};
+require('../js/qb-rewrite.js');
+
+var rewriter = new QBQueryRewriter(function (filterOrQuery, dslType) {
+    return model[filterOrQuery][dslType] || null;
+});
+
+function assertRewrite(query, expected) {
+    assert.strictEqual(JSON.stringify(rewriter.rewrite(JSON.parse(query)).query), expected);
+}
+
+function assertUnchanged(query) {
+    var result = rewriter.rewrite(JSON.parse(query));
+    assert.deepStrictEqual(result.changes, []);
+    assert.strictEqual(JSON.stringify(result.query), query);
+}
+
+// only the must_not would be left, which matches nothing without adjust_pure_negative
+assertUnchanged('{"bool":{"must":[{"term":{"user":"a"}}],"must_not":[{"term":{"x":"b"}}],"adjust_pure_negative":false}}');
+assertRewrite('{"bool":{"must":[{"term":{"user":"a"}}],"must_not":[{"term":{"x":"b"}}]}}',
+    '{"filtered":{"query":{"bool":{"must_not":[{"term":{"x":"b"}}]}},"filter":{"term":{"user":"a","_cache":true}}}}');
+
+// nothing left in must, with a should
+assertUnchanged('{"bool":{"must":[{"term":{"user":"a"}}],"should":[{"match":{"message":"b"}}]}}');
+
+console.log('qb-rewrite-test: ok');